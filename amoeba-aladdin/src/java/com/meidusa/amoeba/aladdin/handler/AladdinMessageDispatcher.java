@@ -109,8 +109,6 @@ public class AladdinMessageDispatcher implements MessageHandler {
 	                    } catch (Exception e) {
 	                        logger.error("start Session error:", e);
 	                        throw e;
-	                    } finally {
-	                        session.endSession(false);
 	                    }
 	                }
 	            } else if (MysqlPacketBuffer.isPacketType(message, QueryCommandPacket.COM_STMT_PREPARE)) {
@@ -180,8 +178,6 @@ public class AladdinMessageDispatcher implements MessageHandler {
 	                        } catch (Exception e) {
 	                            logger.error("start Session error:", e);
 	                            throw e;
-	                        } finally {
-	                            session.endSession(false);
 	                        }
 	                    }
 	                }
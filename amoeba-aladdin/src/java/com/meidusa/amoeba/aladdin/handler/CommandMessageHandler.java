@@ -2,15 +2,24 @@ package com.meidusa.amoeba.aladdin.handler;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
 import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.metrics.ActiveSessions;
+import com.meidusa.amoeba.mysql.context.MysqlRuntimeContext;
 import com.meidusa.amoeba.mysql.net.MysqlClientConnection;
+import com.meidusa.amoeba.mysql.net.packet.ErrorPacket;
+import com.meidusa.amoeba.mysql.net.packet.result.MysqlResultSetPacket;
 import com.meidusa.amoeba.mysql.net.packet.result.ResultPacket;
 import com.meidusa.amoeba.net.Connection;
 import com.meidusa.amoeba.net.MessageHandler;
@@ -19,6 +28,9 @@ import com.meidusa.amoeba.net.poolable.ObjectPool;
 import com.meidusa.amoeba.net.poolable.PoolableObject;
 
 /**
+ * ÿpoolĲѯjdbcִ̳߳, һɵĲѯỰϲĽдͻ,
+ *  startSession ̲߳ȴѯ
+ * 
  * @author struct
  * @author hexianmao
  */
@@ -26,6 +38,18 @@ public abstract class CommandMessageHandler implements MessageHandler, Sessionab
 
     private static Logger           logger      = Logger.getLogger(CommandMessageHandler.class);
 
+    private static class TimeoutSchedulerHolder {
+
+        static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "AladdinQueryTimeout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     protected MysqlClientConnection source;
     protected String                query;
     protected ResultPacket          packet      = null;
@@ -43,6 +67,10 @@ public abstract class CommandMessageHandler implements MessageHandler, Sessionab
 
 	private boolean started;
 
+    private final AtomicInteger     pending     = new AtomicInteger();
+    private final AtomicBoolean     responded   = new AtomicBoolean(false);
+    private ScheduledFuture<?>      timeoutFuture;
+
     public CommandMessageHandler(MysqlClientConnection source, String query, Object parameter, ObjectPool[] pools,
                                  long timeout){
         this.source = source;
@@ -79,45 +107,96 @@ public abstract class CommandMessageHandler implements MessageHandler, Sessionab
 	}
 	
     public void startSession() throws Exception {
-        if (pools.length == 1) {
-            final PoolableObject conn = (PoolableObject) pools[0].borrowObject();
-            connPoolMap.put(conn, pools[0]);
-            MessageHandlerRunner runnable = null;
-            if (conn instanceof MessageHandlerRunnerProvider) {
-                MessageHandlerRunnerProvider provider = (MessageHandlerRunnerProvider) conn;
-                runnable = provider.getRunner();
-            } else {
-                runnable = newQueryRunnable(null, conn, query, parameter, packet);
+        ActiveSessions.add(this, source.getSocketId(), query);
+        MessageHandlerRunner[] runners = new MessageHandlerRunner[pools.length];
+        try {
+            for (int i = 0; i < pools.length; i++) {
+                PoolableObject conn = (PoolableObject) pools[i].borrowObject();
+                connPoolMap.put(conn, pools[i]);
+                if (pools.length == 1 && conn instanceof MessageHandlerRunnerProvider) {
+                    runners[i] = ((MessageHandlerRunnerProvider) conn).getRunner();
+                } else {
+                    runners[i] = newQueryRunnable(conn, query, parameter, packet);
+                }
             }
-            started = true;
+        } catch (Exception e) {
+            endSession(false);
+            throw e;
+        }
+
+        pending.set(runners.length);
+        started = true;
+        if (runners.length == 1) {
+            MessageHandlerRunner runnable = runners[0];
             runnable.init(this);
-            runnable.run();
-        } else {
-            final CountDownLatch latch = new CountDownLatch(pools.length);
-
-            for (ObjectPool pool : pools) {
-                final PoolableObject conn = (PoolableObject) pool.borrowObject();
-                connPoolMap.put(conn, pool);
-                QueryRunnable runnable = newQueryRunnable(latch, conn, query, parameter, packet);
-                runnable.init(this);
-                ProxyRuntimeContext.getInstance().getRuntimeContext().getClientSideExecutor().execute(runnable);
+            if (!(runnable instanceof QueryRunnable)) {
+
+                // jdbcĲѯֱڵǰ߳
+                try {
+                    runnable.run();
+                } finally {
+                    queryCompleted();
+                }
+                return;
             }
-            started = true;
-            if (timeout > 0) {
-                latch.await(timeout, TimeUnit.MILLISECONDS);
-            } else {
-                latch.await();
+
+            // poolĲѯҪϲ, ߶ȡдͻ
+            if (packet instanceof MysqlResultSetPacket) {
+                MysqlRuntimeContext context = (MysqlRuntimeContext) ProxyRuntimeContext.getInstance().getRuntimeContext();
+                if (context.getStreamingPendingSize() > 0) {
+                    ((MysqlResultSetPacket) packet).startStreaming(source, context.getStreamingBufferSize(), context.getStreamingPendingSize());
+                }
             }
+        } else if (timeout > 0) {
+            timeoutFuture = TimeoutSchedulerHolder.scheduler.schedule(new Runnable() {
+
+                public void run() {
+                    queryTimeout();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
         }
 
+        for (MessageHandlerRunner runnable : runners) {
+            runnable.init(this);
+            ProxyRuntimeContext.getInstance().getRuntimeContext().getJdbcExecutor().execute(runnable);
+        }
+    }
+
+    /**
+     * ÿѯڽʱ, һĲѯ黹ӲӦͻ
+     */
+    protected void queryCompleted() {
+        if (pending.decrementAndGet() > 0) {
+            return;
+        }
+        if (timeoutFuture != null) {
+            timeoutFuture.cancel(false);
+        }
         endSession(false);
-        packet.wirteToConnection(source);
+        if (responded.compareAndSet(false, true)) {
+            packet.wirteToConnection(source);
+        }
+    }
+
+    /**
+     * ʱӦͻ, ȻвѯŹ黹pool
+     */
+    protected void queryTimeout() {
+        if (responded.compareAndSet(false, true)) {
+            logger.warn("query timeout after " + timeout + "ms:" + query);
+            ErrorPacket error = new ErrorPacket();
+            error.errno = 1317;
+            error.packetId = 1;
+            error.sqlstate = "70100";
+            error.serverErrorMessage = "Query execution was interrupted, timeout=" + timeout + "ms";
+            source.postMessage(error.toByteBuffer(source).array());
+        }
     }
 
     protected abstract ResultPacket newResultPacket(String query);
 
-    protected abstract QueryRunnable newQueryRunnable(CountDownLatch latch, PoolableObject conn, String query2,
-                                                      Object parameter, ResultPacket packet);
+    protected abstract QueryRunnable newQueryRunnable(PoolableObject conn, String query2, Object parameter,
+                                                      ResultPacket packet);
 
     public void endSession(boolean force) {
         if (isEnded()) {
@@ -128,6 +207,7 @@ public abstract class CommandMessageHandler implements MessageHandler, Sessionab
             if (!ended) {
                 endTime = System.currentTimeMillis();
                 ended = true;
+                ActiveSessions.remove(this);
                 for (Map.Entry<Object, ObjectPool> entry : connPoolMap.entrySet()) {
                     try {
                         entry.getValue().returnObject(entry.getKey());
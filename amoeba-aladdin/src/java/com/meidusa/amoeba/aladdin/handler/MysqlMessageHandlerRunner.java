@@ -5,6 +5,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
 
+import org.apache.commons.collections.map.LRUMap;
+
 import com.meidusa.amoeba.mysql.jdbc.MysqlDefs;
 import com.meidusa.amoeba.mysql.net.packet.EOFPacket;
 import com.meidusa.amoeba.mysql.net.packet.FieldPacket;
@@ -34,7 +36,11 @@ public class MysqlMessageHandlerRunner implements MessageHandlerRunner, Initiali
     private String                       query;
     private String                       xmlTable;
     private static Map<String, XmlTable> xmlTableMap;
-    private static Map<String, byte[]>   resultContent = new HashMap<String, byte[]>();
+
+    /**
+     * òѯĽݰ
+     */
+    private static LRUMap                resultContent = new LRUMap(1000);
 
     public String getXmlTable() {
         return xmlTable;
@@ -61,12 +67,6 @@ public class MysqlMessageHandlerRunner implements MessageHandlerRunner, Initiali
 
     public void run() {
         query = query.toLowerCase();
-        byte[] content = resultContent.get(query);
-        if (content != null) {
-            MysqlResultSetPacket resultPacket = (MysqlResultSetPacket) packet;
-            resultPacket.setContent(content);
-            return;
-        }
         StringTokenizer tokenizer = new StringTokenizer(query, " 	%'");
         String[] tokens = new String[tokenizer.countTokens()];
         int index = 0;
@@ -89,6 +89,9 @@ public class MysqlMessageHandlerRunner implements MessageHandlerRunner, Initiali
                             condition.type = Condition.TYPE.match;
                         }
                         condition.value = tokens[i + 3];
+                        if (tokens[i + 2].equals("like") && isPrefixPattern(condition.value)) {
+                            condition.type = Condition.TYPE.nameMatch;
+                        }
                         break;
                     } else if (tokens[i].equals("like")) {
                         condition = new Condition();
@@ -104,15 +107,22 @@ public class MysqlMessageHandlerRunner implements MessageHandlerRunner, Initiali
                     if (tableName.equals("variables") && condition != null) {
                         if (condition.value == null) {
                             condition.value = condition.name;
-                            condition.type = Condition.TYPE.match;
+                            condition.type = isPrefixPattern(condition.value) ? Condition.TYPE.nameMatch : Condition.TYPE.match;
                             condition.name = "variable_name";
                         }
                     }
+                    String key = tableName;
+                    if (condition != null) {
+                        key = tableName + "\n" + condition.type + "\n" + condition.name + "\n" + condition.value;
+                    }
+                    byte[] content = null;
                     synchronized (resultContent) {
-                        content = resultContent.get(query);
-                        if (content == null) {
-                            content = xmlTableToBytes(xmlTable.query(condition));
-                            resultContent.put(query, content);
+                        content = (byte[]) resultContent.get(key);
+                    }
+                    if (content == null) {
+                        content = xmlTableToBytes(xmlTable.query(condition));
+                        synchronized (resultContent) {
+                            resultContent.put(key, content);
                         }
                     }
                     MysqlResultSetPacket resultPacket = (MysqlResultSetPacket) packet;
@@ -135,6 +145,13 @@ public class MysqlMessageHandlerRunner implements MessageHandlerRunner, Initiali
         }
     }
 
+    /**
+     * like 'value%'
+     */
+    private boolean isPrefixPattern(String value) {
+        return query.indexOf(value + "%") >= 0 && query.indexOf("%" + value) < 0;
+    }
+
     private byte[] xmlTableToBytes(XmlTable table) {
 
         PacketBuffer buffer = new AbstractPacketBuffer(4086);
@@ -6,7 +6,6 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Time;
-import java.util.concurrent.CountDownLatch;
 
 import org.apache.log4j.Logger;
 
@@ -39,9 +38,9 @@ public class PreparedStatmentExecuteMessageHandler extends CommandMessageHandler
 
         private ExecutePacket executePacket;
 
-        PreparedExecuteQueryRunnable(CountDownLatch latch, PoolableObject conn, String query, Object parameter,
+        PreparedExecuteQueryRunnable(PoolableObject conn, String query, Object parameter,
                                      ResultPacket packet){
-            super(latch, conn, query, parameter, packet);
+            super(conn, query, parameter, packet);
         }
 
         @Override
@@ -52,10 +51,12 @@ public class PreparedStatmentExecuteMessageHandler extends CommandMessageHandler
 
         @Override
         protected void doRun(PoolableObject conn) {
+            PoolableJdbcConnection poolableJdbcConnection = (PoolableJdbcConnection) conn;
             PreparedStatement pst = null;
             ResultSet rs = null;
+            boolean broken = true;
             try {
-                pst = ((java.sql.Connection) conn).prepareStatement(query);
+                pst = poolableJdbcConnection.prepareCachedStatement(query);
                 int i = 1;
                 for (BindValue bindValue : executePacket.values) {
                     if (!bindValue.isNull) {
@@ -105,14 +106,15 @@ public class PreparedStatmentExecuteMessageHandler extends CommandMessageHandler
                     }
                 }
                 if (isSelect(query)) {
+                    setFetchSize(pst, conn);
                     rs = pst.executeQuery();
                     MysqlResultSetPacket resultPacket = (MysqlResultSetPacket) packet;
-                    PoolableJdbcConnection poolableJdbcConnection = (PoolableJdbcConnection) conn;
                     ResultSetUtil.resultSetToPacket(source, resultPacket, rs, poolableJdbcConnection.getResultSetHandler());
                 } else {
                     MysqlSimpleResultPacket simplePacket = (MysqlSimpleResultPacket) packet;
                     simplePacket.addResultCount(pst.executeUpdate());
                 }
+                broken = false;
             } catch (SQLException e) {
                 logger.error("execute error", e);
                 packet.setError(e.getErrorCode(), e.getMessage());
@@ -125,10 +127,7 @@ public class PreparedStatmentExecuteMessageHandler extends CommandMessageHandler
                 }
 
                 if (pst != null) {
-                    try {
-                        pst.close();
-                    } catch (SQLException e) {
-                    }
+                    poolableJdbcConnection.releaseStatement(query, pst, broken);
                 }
             }
         }
@@ -141,9 +140,9 @@ public class PreparedStatmentExecuteMessageHandler extends CommandMessageHandler
     }
 
     @Override
-    protected QueryRunnable newQueryRunnable(CountDownLatch latch, PoolableObject conn, String query, Object parameter,
+    protected QueryRunnable newQueryRunnable(PoolableObject conn, String query, Object parameter,
                                              ResultPacket packet) {
-        return new PreparedExecuteQueryRunnable(latch, conn, query, parameter, packet);
+        return new PreparedExecuteQueryRunnable(conn, query, parameter, packet);
     }
 
     @Override
@@ -1,6 +1,5 @@
 package com.meidusa.amoeba.aladdin.handler;
 
-import java.util.concurrent.CountDownLatch;
 
 import com.meidusa.amoeba.context.ProxyRuntimeContext;
 import com.meidusa.amoeba.mysql.handler.PreparedStatmentInfo;
@@ -21,9 +20,9 @@ public class PreparedStatmentMessageHandler extends CommandMessageHandler {
 
     protected static class PreparedQueryRunnable extends QueryRunnable {
 
-        protected PreparedQueryRunnable(CountDownLatch latch, PoolableObject conn, String query, Object parameter,
+        protected PreparedQueryRunnable(PoolableObject conn, String query, Object parameter,
                                         ResultPacket packet){
-            super(latch, conn, query, parameter, packet);
+            super(conn, query, parameter, packet);
         }
 
         @Override
@@ -43,9 +42,9 @@ public class PreparedStatmentMessageHandler extends CommandMessageHandler {
     }
 
     @Override
-    protected QueryRunnable newQueryRunnable(CountDownLatch latch, PoolableObject conn, String query, Object parameter,
+    protected QueryRunnable newQueryRunnable(PoolableObject conn, String query, Object parameter,
                                              ResultPacket packet) {
-        return new PreparedQueryRunnable(latch, conn, query, parameter, packet);
+        return new PreparedQueryRunnable(conn, query, parameter, packet);
     }
 
     @Override
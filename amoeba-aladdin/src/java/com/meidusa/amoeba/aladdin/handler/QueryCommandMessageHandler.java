@@ -3,7 +3,6 @@ package com.meidusa.amoeba.aladdin.handler;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.concurrent.CountDownLatch;
 
 import org.apache.log4j.Logger;
 
@@ -26,24 +25,27 @@ public class QueryCommandMessageHandler extends CommandMessageHandler {
 
         private static Logger logger = Logger.getLogger(QueryCommandRunnable.class);
 
-        public QueryCommandRunnable(CountDownLatch latch, PoolableObject conn, String query, Object parameter,
+        public QueryCommandRunnable(PoolableObject conn, String query, Object parameter,
                                     ResultPacket packet){
-            super(latch, conn, query, parameter, packet);
+            super(conn, query, parameter, packet);
         }
 
         @Override
         protected void doRun(PoolableObject conn) {
+            PoolableJdbcConnection poolableJdbcConnection = (PoolableJdbcConnection) conn;
             if (isSelect(query)) {
                 Statement statement = null;
                 ResultSet rs = null;
+                boolean broken = true;
                 try {
-                    statement = ((java.sql.Connection) conn).createStatement();
+                    statement = poolableJdbcConnection.createCachedStatement();
+                    setFetchSize(statement, conn);
                     rs = statement.executeQuery(query);
                     if (logger.isDebugEnabled()) {
                         logger.debug("starting query:" + query);
                     }
-                    PoolableJdbcConnection poolableJdbcConnection = (PoolableJdbcConnection) conn;
                     ResultSetUtil.resultSetToPacket(source, (MysqlResultSetPacket) packet, rs, poolableJdbcConnection.getResultSetHandler());
+                    broken = false;
                 } catch (SQLException e) {
                     packet.setError(e.getErrorCode(), e.getMessage());
                 } finally {
@@ -55,18 +57,17 @@ public class QueryCommandMessageHandler extends CommandMessageHandler {
                     }
 
                     if (statement != null) {
-                        try {
-                            statement.close();
-                        } catch (SQLException e) {
-                        }
+                        poolableJdbcConnection.releaseStatement(null, statement, broken);
                     }
                 }
             } else {
                 Statement statement = null;
                 ResultSet rs = null;
+                boolean broken = true;
                 try {
-                    statement = ((java.sql.Connection) conn).createStatement();
+                    statement = poolableJdbcConnection.createCachedStatement();
                     ((MysqlSimpleResultPacket) packet).addResultCount(statement.executeUpdate(query));
+                    broken = false;
                 } catch (SQLException e) {
                     packet.setError(e.getErrorCode(), e.getMessage());
                 } finally {
@@ -78,10 +79,7 @@ public class QueryCommandMessageHandler extends CommandMessageHandler {
                     }
 
                     if (statement != null) {
-                        try {
-                            statement.close();
-                        } catch (SQLException e) {
-                        }
+                        poolableJdbcConnection.releaseStatement(null, statement, broken);
                     }
                 }
             }
@@ -94,9 +92,9 @@ public class QueryCommandMessageHandler extends CommandMessageHandler {
     }
 
     @Override
-    public QueryRunnable newQueryRunnable(CountDownLatch latch, PoolableObject conn, String query, Object parameter,
+    public QueryRunnable newQueryRunnable(PoolableObject conn, String query, Object parameter,
                                           ResultPacket packet) {
-        return new QueryCommandRunnable(latch, conn, query, parameter, packet);
+        return new QueryCommandRunnable(conn, query, parameter, packet);
     }
 
     @Override
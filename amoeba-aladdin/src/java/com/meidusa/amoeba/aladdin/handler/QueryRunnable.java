@@ -1,9 +1,11 @@
 package com.meidusa.amoeba.aladdin.handler;
 
-import java.util.concurrent.CountDownLatch;
+import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.apache.log4j.Logger;
 
+import com.meidusa.amoeba.jdbc.PoolableJdbcConnection;
 import com.meidusa.amoeba.mysql.net.MysqlClientConnection;
 import com.meidusa.amoeba.mysql.net.packet.result.ResultPacket;
 import com.meidusa.amoeba.net.MessageHandler;
@@ -23,11 +25,10 @@ public abstract class QueryRunnable implements MessageHandlerRunner {
     protected String                query;
     protected MysqlClientConnection source;
 
-    private CountDownLatch          latch;
+    private CommandMessageHandler   handler;
     private PoolableObject          conn;
 
-    public QueryRunnable(CountDownLatch latch, PoolableObject conn, String query, Object parameter, ResultPacket packet){
-        this.latch = latch;
+    public QueryRunnable(PoolableObject conn, String query, Object parameter, ResultPacket packet){
         this.conn = conn;
         this.query = query;
         this.parameter = parameter;
@@ -35,7 +36,8 @@ public abstract class QueryRunnable implements MessageHandlerRunner {
     }
 
     public void init(MessageHandler handler) {
-        this.source = ((CommandMessageHandler) handler).source;
+        this.handler = (CommandMessageHandler) handler;
+        this.source = this.handler.source;
     }
 
     protected static boolean isSelect(String query) {
@@ -47,6 +49,18 @@ public abstract class QueryRunnable implements MessageHandlerRunner {
         }
     }
 
+    /**
+     * ʹõfetch size, Աȡ
+     */
+    protected static void setFetchSize(Statement statement, PoolableObject conn) throws SQLException {
+        if (conn instanceof PoolableJdbcConnection) {
+            int fetchSize = ((PoolableJdbcConnection) conn).getFetchSize();
+            if (fetchSize != 0) {
+                statement.setFetchSize(fetchSize);
+            }
+        }
+    }
+
     /**
      * PoolableObject end session зصpool
      */
@@ -60,10 +74,11 @@ public abstract class QueryRunnable implements MessageHandlerRunner {
                 logger.error("run query error:", e);
             }
         } finally {
-            if (latch != null) {
-                latch.countDown();
-            }
+            CommandMessageHandler handler = this.handler;
             reset();
+            if (handler != null) {
+                handler.queryCompleted();
+            }
         }
     }
 
@@ -71,7 +86,7 @@ public abstract class QueryRunnable implements MessageHandlerRunner {
         source = null;
         query = null;
         packet = null;
-        latch = null;
+        handler = null;
         parameter = null;
         conn = null;
     }
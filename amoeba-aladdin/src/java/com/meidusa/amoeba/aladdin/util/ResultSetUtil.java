@@ -89,9 +89,19 @@ public class ResultSetUtil {
 			}
 		}
 		
+		//a streaming packet encodes the row at once, the row packet can be reused
+		boolean streaming = packet.isStreaming();
+		RowDataPacket row = null;
 		while(rs.next()){
-			RowDataPacket row = new RowDataPacket(packet.isPrepared());
-			row.columns = new ArrayList<Object>(colunmCount);
+			if(streaming && source.isClosed()){
+				break;
+			}
+			if(row == null || !streaming){
+				row = new RowDataPacket(packet.isPrepared());
+				row.columns = new ArrayList<Object>(colunmCount);
+			}else{
+				row.columns.clear();
+			}
 			if(packet.isPrepared()){
 				for(int i=0;i<colunmCount;i++){
 					int j=i+1;
@@ -11,9 +11,11 @@ import com.meidusa.amoeba.gateway.net.GatewayConnectionFactory;
 import com.meidusa.amoeba.net.Connection;
 import com.meidusa.amoeba.net.ConnectionFactory;
 import com.meidusa.amoeba.util.CmdLineParser;
+import com.meidusa.amoeba.util.CmdLineParser.IntegerOption;
 
 public class GatewayBenchmark extends AbstractBenchmark{
 	private static Logger logger = Logger.getLogger(GatewayBenchmark.class);
+	protected static CmdLineParser.Option<?> pipelineOption = parser.addOption(new IntegerOption('p', "pipeline",true,false,1,"in-flight requests per connection, more than 1 sends the requests with request id (VERSION_3)"));
 	public static void main(String[] args) throws Exception {
         try {
             parser.parse(args);
@@ -34,6 +36,12 @@ public class GatewayBenchmark extends AbstractBenchmark{
 	}
 
 	private ConnectionFactory factory = new GatewayConnectionFactory();
+	
+	/**
+	 * read once, {@link CmdLineParser#getOptionValue(CmdLineParser.Option, Object)} removes the value it returns
+	 */
+	private int pipeline = (Integer)parser.getOptionValue(pipelineOption,1);
+	
 	@Override
 	
 	public ConnectionFactory getConnectionFactory() {
@@ -44,7 +52,9 @@ public class GatewayBenchmark extends AbstractBenchmark{
 	public AbstractBenchmarkClient<?> newBenchmarkClient(Connection conn,
 			CountDownLatch requestLatcher, CountDownLatch responseLatcher,
 			TaskRunnable task) {
-		return new GatewayBenchmarkClient(conn,requestLatcher,responseLatcher,task);
+		GatewayBenchmarkClient client = new GatewayBenchmarkClient(conn,requestLatcher,responseLatcher,task);
+		client.setPipeline(pipeline);
+		return client;
 	}
 	
 }
@@ -11,6 +11,8 @@ import com.meidusa.amoeba.benchmark.AbstractBenchmarkClient;
 import com.meidusa.amoeba.benchmark.AbstractBenchmark.TaskRunnable;
 import com.meidusa.amoeba.config.ConfigUtil;
 import com.meidusa.amoeba.config.ParameterMapping;
+import com.meidusa.amoeba.gateway.net.GatewayClientConnection;
+import com.meidusa.amoeba.gateway.net.GatewayResponseHandler;
 import com.meidusa.amoeba.gateway.packet.AbstractGatewayPacket;
 import com.meidusa.amoeba.gateway.packet.GatewayPacketConstant;
 import com.meidusa.amoeba.gateway.packet.GatewayPingPacket;
@@ -28,10 +30,46 @@ import com.meidusa.amoeba.util.StringUtil;
  */
 public class GatewayBenchmarkClient extends AbstractBenchmarkClient<AbstractGatewayPacket> {
 	private static Logger	logger        = Logger.getLogger(GatewayBenchmarkClient.class);
+	
+	/**
+	 * in-flight requests of the connection
+	 */
+	private int pipeline = 1;
+	
+	/**
+	 * pipelined responses may arrive out of order, so each request has its own handler knowing its start time
+	 */
+	private class RequestResponseHandler implements GatewayResponseHandler{
+		private final Long start;
+		RequestResponseHandler(Long start){
+			this.start = start;
+		}
+		
+		public void handleResponse(GatewayClientConnection conn, byte[] message) {
+			doReceiveMessage(message, start);
+		}
+
+		public void handleFailure(GatewayClientConnection conn, Exception exception) {
+			logger.error("request failed, conn="+conn.getSocketId(), exception);
+		}
+	}
+	
 	public GatewayBenchmarkClient(Connection connection,CountDownLatch requestLatcher,CountDownLatch responseLatcher,TaskRunnable task) {
 		super(connection,requestLatcher,responseLatcher,task);
 	}
 
+	public int getPipeline() {
+		return pipeline;
+	}
+
+	public void setPipeline(int pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	protected int getMaxInflight(){
+		return pipeline;
+	}
+
 	public boolean needPing(long now) {
 		return false;
 	}
@@ -82,7 +120,7 @@ public class GatewayBenchmarkClient extends AbstractBenchmarkClient<AbstractGate
 				_parameterMap_.put(entry.getKey(), value);
 			}
 			GatewayRequestPacket request = (GatewayRequestPacket)packet;
-			request.parameterMap = _parameterMap_;
+			request.setParameterMap(_parameterMap_);
 		}
 		
 		return packet;
@@ -102,8 +140,35 @@ public class GatewayBenchmarkClient extends AbstractBenchmarkClient<AbstractGate
 	
 	@Override
 	public void startBenchmark() {
-		AbstractGatewayPacket packet = this.createRequestPacket();
-		getConnection().postMessage(packet.toByteBuffer(this.getConnection()));
+		super.startBenchmark();
+		for(int i=1;i<pipeline && task.running;i++){
+			if(requestLatcher.getCount()>0){
+				requestLatcher.countDown();
+				sendRequest(System.nanoTime());
+			}
+		}
+	}
+	
+	/**
+	 * pipelined requests are sent with a request id and matched to their responses by {@link GatewayClientConnection}
+	 */
+	protected void postPacketToServer(){
+		AbstractGatewayPacket packet = createRequestPacket();
+		if (isDebug()) {
+			System.out.println("--->>" + packet);
+		}
+		if(pipeline > 1 && packet instanceof GatewayRequestPacket){
+			((GatewayClientConnection)getConnection()).sendRequest((GatewayRequestPacket)packet, new RequestResponseHandler(getSendingRequestStart()));
+		}else{
+			getConnection().postMessage(packet.toByteBuffer(getConnection()));
+		}
+	}
+	
+	public void handleMessage(Connection conn){
+		byte[] message = null;
+		while((message = conn.getInQueue().getNonBlocking()) != null){
+			doReceiveMessage(message);
+		}
 	}
 	
 }
@@ -0,0 +1,97 @@
+package com.meidusa.amoeba.gateway.test.packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.meidusa.amoeba.gateway.packet.GatewayPacketConstant;
+import com.meidusa.amoeba.gateway.packet.GatewayRequestPacket;
+
+/**
+ * write and read back a {@link GatewayRequestPacket} with the VERSION_2 url encoded and the VERSION_4 binary parameters.
+ *
+ * @author struct
+ *
+ */
+public class GatewayRequestPacketTest {
+
+	private static Map<String,String> parameters(){
+		Map<String,String> parameters = new HashMap<String,String>();
+		parameters.put("appid", "1234");
+		parameters.put("query", "a=1&b=2 c");
+		parameters.put("appName", "\u5929\u54ea");
+		parameters.put("empty", "");
+		return parameters;
+	}
+
+	private static GatewayRequestPacket roundTrip(short version,Map<String,String> parameters){
+		GatewayRequestPacket packet = new GatewayRequestPacket();
+		packet.version = version;
+		packet.clientId = 7;
+		packet.requestId = 42;
+		packet.apiName = "user.find";
+		packet.setParameterMap(parameters);
+		packet.authorizationString = "token";
+
+		ByteBuffer buffer = packet.toByteBuffer(null);
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		assertEquals(version, GatewayRequestPacket.getVersion(bytes));
+
+		GatewayRequestPacket read = new GatewayRequestPacket();
+		read.init(bytes, null);
+		assertEquals(7, read.clientId);
+		assertEquals("user.find", read.apiName);
+		assertEquals("token", read.authorizationString);
+		return read;
+	}
+
+	@Test
+	public void testVersion2(){
+		GatewayRequestPacket read = roundTrip(GatewayPacketConstant.VERSION_2, parameters());
+		assertEquals(0, read.requestId);
+		assertEquals(parameters(), read.getParameterMap());
+		assertEquals("a=1&b=2 c", read.getParameter("query"));
+		assertNull(read.getParameter("missing"));
+	}
+
+	@Test
+	public void testVersion4(){
+		Map<String,String> parameters = parameters();
+		parameters.put("null", null);
+		GatewayRequestPacket read = roundTrip(GatewayPacketConstant.VERSION_4, parameters);
+		assertEquals(42, read.requestId);
+
+		//a parameter is found before the map is decoded
+		assertEquals("\u5929\u54ea", read.getParameter("appName"));
+		assertNull(read.getParameter("null"));
+		assertNull(read.getParameter("missing"));
+		assertEquals(parameters, read.getParameterMap());
+		assertEquals("1234", read.getParameter("appid"));
+	}
+
+	@Test
+	public void testVersion4NullMap(){
+		GatewayRequestPacket read = roundTrip(GatewayPacketConstant.VERSION_4, null);
+		assertNull(read.getParameterMap());
+		assertNull(read.getParameter("appid"));
+	}
+
+	@Test
+	public void testVersion4Rewrite(){
+		GatewayRequestPacket read = roundTrip(GatewayPacketConstant.VERSION_4, parameters());
+
+		//a packet forwarded without decoding writes the same parameters
+		ByteBuffer buffer = read.toByteBuffer(null);
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		GatewayRequestPacket forwarded = new GatewayRequestPacket();
+		forwarded.init(bytes, null);
+		assertEquals(parameters(), forwarded.getParameterMap());
+	}
+}
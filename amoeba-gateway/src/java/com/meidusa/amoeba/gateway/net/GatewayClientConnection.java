@@ -1,7 +1,11 @@
 package com.meidusa.amoeba.gateway.net;
 
+import java.io.IOException;
 import java.nio.channels.SocketChannel;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -10,6 +14,7 @@ import com.meidusa.amoeba.gateway.io.GatewayOutputStream;
 import com.meidusa.amoeba.gateway.packet.AbstractGatewayPacket;
 import com.meidusa.amoeba.gateway.packet.GatewayPacketConstant;
 import com.meidusa.amoeba.gateway.packet.GatewayPingPacket;
+import com.meidusa.amoeba.gateway.packet.GatewayRequestPacket;
 import com.meidusa.amoeba.net.Connection;
 import com.meidusa.amoeba.net.io.PacketInputStream;
 import com.meidusa.amoeba.net.io.PacketOutputStream;
@@ -25,6 +30,14 @@ public class GatewayClientConnection extends Connection {
 	private long lastPingTime = System.currentTimeMillis();
 	private long lastPongTime = System.currentTimeMillis();
 	private long pingInterval = 10 * 1000;
+	
+	private final AtomicInteger requestIdGenerator = new AtomicInteger(0);
+	
+	/**
+	 * requests sent by {@link #sendRequest(GatewayRequestPacket, GatewayResponseHandler)} waiting for the response, key is the request id
+	 */
+	private final Map<Integer,GatewayResponseHandler> pendingRequests = new ConcurrentHashMap<Integer,GatewayResponseHandler>();
+	
 	public GatewayClientConnection(SocketChannel channel, long createStamp) {
 		super(channel, createStamp);
 	}
@@ -48,6 +61,14 @@ public class GatewayClientConnection extends Connection {
     protected void doReceiveMessage(byte[] msg) {
     	
 		int type = AbstractGatewayPacket.getType(msg);
+		if(type == GatewayPacketConstant.PACKET_TYPE_SERVICE_RESPONSE 
+				&& AbstractGatewayPacket.getVersion(msg) >= GatewayPacketConstant.VERSION_3){
+			GatewayResponseHandler handler = pendingRequests.remove(AbstractGatewayPacket.getRequestId(msg));
+			if(handler != null){
+				handler.handleResponse(this, msg);
+				return;
+			}
+		}
 		if (type == GatewayPacketConstant.PACKET_TYPE_PONG) {
 			lastPongTime = System.currentTimeMillis();
 			if(logger.isDebugEnabled()){
@@ -57,6 +78,59 @@ public class GatewayClientConnection extends Connection {
 		super.doReceiveMessage(msg);
     }
 
+    /**
+     * a connection used only by {@link #sendRequest(GatewayRequestPacket, GatewayResponseHandler)} needs no message handler
+     */
+    protected void messageProcess() {
+    	if(_handler != null){
+    		super.messageProcess();
+    	}
+    }
+    
+    /**
+     * send the request with a new request id without waiting for the responses of the previous requests,
+     * the request is upgraded to VERSION_3 if needed.
+     * 
+     * @param handler invoked with the response carrying the same request id
+     * @return request id
+     */
+    public int sendRequest(GatewayRequestPacket request,GatewayResponseHandler handler){
+    	if(request.version < GatewayPacketConstant.VERSION_3){
+    		request.version = GatewayPacketConstant.VERSION_3;
+    	}
+    	int requestId = requestIdGenerator.incrementAndGet();
+    	request.requestId = requestId;
+    	pendingRequests.put(requestId, handler);
+    	if(isClosed()){
+    		if(pendingRequests.remove(requestId) != null){
+    			handler.handleFailure(this, new IOException("connection closed"));
+    		}
+    		return requestId;
+    	}
+    	postMessage(request.toByteBuffer(this));
+    	return requestId;
+    }
+    
+    public GatewayResponseFuture sendRequest(GatewayRequestPacket request){
+    	GatewayResponseFuture future = new GatewayResponseFuture();
+    	sendRequest(request,future);
+    	return future;
+    }
+    
+    public int getPendingRequestCount(){
+    	return pendingRequests.size();
+    }
+    
+    protected void close(Exception exception) {
+    	super.close(exception);
+    	for(Integer requestId : pendingRequests.keySet()){
+    		GatewayResponseHandler handler = pendingRequests.remove(requestId);
+    		if(handler != null){
+    			handler.handleFailure(this, exception);
+    		}
+    	}
+    }
+    
     public void ping(long now) {
 		postMessage(new GatewayPingPacket().toByteBuffer(null));
 		lastPingTime = System.currentTimeMillis();
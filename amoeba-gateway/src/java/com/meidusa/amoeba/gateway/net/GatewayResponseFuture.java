@@ -0,0 +1,52 @@
+package com.meidusa.amoeba.gateway.net;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.meidusa.amoeba.gateway.packet.GatewayResponsePacket;
+
+/**
+ * 
+ * @author Struct
+ *
+ */
+public class GatewayResponseFuture implements GatewayResponseHandler {
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private volatile byte[] message;
+	private volatile Exception exception;
+	
+	public void handleResponse(GatewayClientConnection conn, byte[] message) {
+		this.message = message;
+		latch.countDown();
+	}
+
+	public void handleFailure(GatewayClientConnection conn, Exception exception) {
+		this.exception = exception;
+		latch.countDown();
+	}
+	
+	public boolean isDone(){
+		return latch.getCount() == 0;
+	}
+	
+	/**
+	 * wait for the response
+	 * @throws TimeoutException no response in the time
+	 * @throws IOException the connection was closed
+	 */
+	public GatewayResponsePacket get(long timeout,TimeUnit unit) throws InterruptedException, TimeoutException, IOException{
+		if(!latch.await(timeout, unit)){
+			throw new TimeoutException("gateway response timeout");
+		}
+		if(message == null){
+			IOException ioe = new IOException("connection closed before response");
+			ioe.initCause(exception);
+			throw ioe;
+		}
+		GatewayResponsePacket packet = new GatewayResponsePacket();
+		packet.init(message, null);
+		return packet;
+	}
+}
@@ -0,0 +1,21 @@
+package com.meidusa.amoeba.gateway.net;
+
+/**
+ * callback of a request sent by {@link GatewayClientConnection#sendRequest(com.meidusa.amoeba.gateway.packet.GatewayRequestPacket, GatewayResponseHandler)},
+ * invoked by the thread reading the connection
+ * 
+ * @author Struct
+ *
+ */
+public interface GatewayResponseHandler {
+	
+	/**
+	 * @param message response packet of the request, including the header
+	 */
+	public void handleResponse(GatewayClientConnection conn,byte[] message);
+	
+	/**
+	 * the connection was closed before the response arrived
+	 */
+	public void handleFailure(GatewayClientConnection conn,Exception exception);
+}
@@ -24,6 +24,7 @@ public abstract class AbstractGatewayPacket extends AbstractPacket<GatewayPacket
 	public int clientId;//4
 	public int clientTransId;//4
 	public long clientUserID;//8
+	public int requestId;//4, since VERSION_3
 	
 	
 	@Override
@@ -58,6 +59,9 @@ public abstract class AbstractGatewayPacket extends AbstractPacket<GatewayPacket
         buffer.writeLong(clientUserID);
        
         buffer.setPosition(HEADER_SIZE);
+        if(version >= VERSION_3){
+        	buffer.writeInt(requestId);
+        }
 	}
 	
 	protected void readHead(GatewayPacketBuffer buffer) {
@@ -68,6 +72,9 @@ public abstract class AbstractGatewayPacket extends AbstractPacket<GatewayPacket
 		clientId = buffer.readInt();
 		clientTransId = buffer.readInt();
 		clientUserID = buffer.readLong();
+		if(version >= VERSION_3){
+			requestId = buffer.readInt();
+		}
 	}
 	
 	protected void readBody(GatewayPacketBuffer buffer) {
@@ -155,6 +162,18 @@ public abstract class AbstractGatewayPacket extends AbstractPacket<GatewayPacket
 		return ByteBuffer.wrap(typeBytes).getInt();
 	}
 	
+	public static short getVersion(byte[] buf){
+		return (short)(((buf[VERSION_POSITION] & 0xff) << 8) | (buf[VERSION_POSITION+1] & 0xff));
+	}
+	
+	/**
+	 * @return request id of a packet with version VERSION_3 or later
+	 */
+	public static int getRequestId(byte[] buf){
+		return ((buf[REQUEST_ID_POSITION] & 0xff) << 24) | ((buf[REQUEST_ID_POSITION+1] & 0xff) << 16)
+				| ((buf[REQUEST_ID_POSITION+2] & 0xff) << 8) | (buf[REQUEST_ID_POSITION+3] & 0xff);
+	}
+	
 	public static void main(String [] args){
 		System.out.println(getType(new byte[]{(byte)0,(byte)0,(byte)0,(byte)0,(byte)0,(byte)10,(byte)1,(byte)1,}));
 	}
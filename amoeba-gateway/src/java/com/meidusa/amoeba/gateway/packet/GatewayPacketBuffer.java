@@ -1,5 +1,6 @@
 package com.meidusa.amoeba.gateway.packet;
 
+import java.io.UnsupportedEncodingException;
 import java.nio.ByteOrder;
 
 /**
@@ -48,6 +49,124 @@ public class GatewayPacketBuffer extends GenericIOPacketBuffer implements Gatewa
 		contentBuffer.append(name).append("=").append(value);
 	}
 	
+	/**
+	 * write 4 bytes length and the UTF-8 bytes of the string, length is -1 for null.
+	 * the chars are encoded straight into the buffer
+	 */
+	public void writeUTF8String(String s){
+		if(s == null){
+			writeInt(-1);
+			return;
+		}
+		int length = s.length();
+		int byteLength = 0;
+		for(int i=0;i<length;i++){
+			char c = s.charAt(i);
+			if(c < 0x80){
+				byteLength ++;
+			}else if(c < 0x800){
+				byteLength += 2;
+			}else if(Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(s.charAt(i+1))){
+				byteLength += 4;
+				i++;
+			}else if(Character.isHighSurrogate(c) || Character.isLowSurrogate(c)){
+				byteLength ++;
+			}else{
+				byteLength += 3;
+			}
+		}
+		
+		ensureCapacity(byteLength + 4);
+		buffer.putInt(byteLength);
+		for(int i=0;i<length;i++){
+			char c = s.charAt(i);
+			if(c < 0x80){
+				buffer.put((byte)c);
+			}else if(c < 0x800){
+				buffer.put((byte)(0xc0 | (c >> 6)));
+				buffer.put((byte)(0x80 | (c & 0x3f)));
+			}else if(Character.isHighSurrogate(c) && i+1 < length && Character.isLowSurrogate(s.charAt(i+1))){
+				int codePoint = Character.toCodePoint(c, s.charAt(++i));
+				buffer.put((byte)(0xf0 | (codePoint >> 18)));
+				buffer.put((byte)(0x80 | ((codePoint >> 12) & 0x3f)));
+				buffer.put((byte)(0x80 | ((codePoint >> 6) & 0x3f)));
+				buffer.put((byte)(0x80 | (codePoint & 0x3f)));
+			}else if(Character.isHighSurrogate(c) || Character.isLowSurrogate(c)){
+				//malformed surrogate, same as String.getBytes
+				buffer.put((byte)'?');
+			}else{
+				buffer.put((byte)(0xe0 | (c >> 12)));
+				buffer.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+				buffer.put((byte)(0x80 | (c & 0x3f)));
+			}
+		}
+	}
+	
+	/**
+	 * read a string written by {@link #writeUTF8String(String)}
+	 */
+	public String readUTF8String(){
+		int length = readInt();
+		if(length < 0){
+			return null;
+		}
+		if(length > buffer.remaining()){
+			throw new RuntimeException("fieldLength error Buffer.Remaining="+buffer.remaining()+" ,but need size="+ length);
+		}
+		byte[] array = buffer.array();
+		int offset = buffer.arrayOffset() + buffer.position();
+		buffer.position(buffer.position() + length);
+		
+		//ascii only string is copied without decoder
+		char[] chars = new char[length];
+		for(int i=0;i<length;i++){
+			byte b = array[offset+i];
+			if(b < 0){
+				try {
+					return new String(array, offset, length, PACKET_CHARSET);
+				} catch (UnsupportedEncodingException e) {
+					return new String(array, offset, length);
+				}
+			}
+			chars[i] = (char)b;
+		}
+		return new String(chars);
+	}
+	
+	/**
+	 * skip a string written by {@link #writeUTF8String(String)}
+	 */
+	public void skipUTF8String(){
+		int length = readInt();
+		if(length > 0){
+			skip(length);
+		}
+	}
+	
+	/**
+	 * compare the next string written by {@link #writeUTF8String(String)} with the bytes without decoding it,
+	 * the position is moved to the end of the string
+	 */
+	public boolean matchUTF8String(byte[] bytes){
+		int length = readInt();
+		if(length < 0){
+			return bytes == null;
+		}
+		int position = buffer.position();
+		buffer.position(position + length);
+		if(bytes == null || bytes.length != length){
+			return false;
+		}
+		byte[] array = buffer.array();
+		int offset = buffer.arrayOffset() + position;
+		for(int i=0;i<length;i++){
+			if(array[offset+i] != bytes[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	public String getPacketContent(){
 		if(contentBuffer == null){
 			return null;
@@ -25,6 +25,20 @@ public interface GatewayPacketConstant {
 	public static final int PACKET_TYPE_SERVICE_RESPONSE = 0x02000002;
 	public static final short VERSION_1 = 0x0001;
 	public static final short VERSION_2 = 0x0002;
+	
+	/**
+	 * the header is followed by a 4 bytes request id, the response carries the id of its request.
+	 * requests can be pipelined on one connection and answered out of order
+	 */
+	public static final short VERSION_3 = 0x0003;
+	
+	/**
+	 * same as VERSION_3, the request parameters are encoded as length prefixed UTF-8 key/value pairs
+	 * instead of an url encoded string
+	 */
+	public static final short VERSION_4 = 0x0004;
+	public static final int VERSION_POSITION = 4;
+	public static final int REQUEST_ID_POSITION = HEADER_SIZE;
 	public static final String PACKET_CHARSET = "UTF8";
 	public static final boolean PACKET_CONTENT_ALL_IN_ONE = false;
 	public static final String PACKET_CONTENT_SPLITER = "&";
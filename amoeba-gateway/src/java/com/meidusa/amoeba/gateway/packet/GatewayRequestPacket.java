@@ -15,15 +15,27 @@ import java.util.Map;
 public class GatewayRequestPacket extends AbstractGatewayPacket {
 	private static final long serialVersionUID = 1L;
 	public String apiName;
-	public Map<String,String> parameterMap;
+	
+	/**
+	 * a VERSION_4 packet decodes it on demand, use {@link #getParameterMap()} or {@link #getParameter(String)}
+	 */
+	private Map<String,String> parameterMap;
 	public String authorizationString;
 	
+	/**
+	 * buffer and position of the VERSION_4 parameters not decoded yet
+	 */
+	private transient GatewayPacketBuffer parameterBuffer;
+	private transient int parameterPosition;
+	
 	public GatewayRequestPacket(){
 		type =  PACKET_TYPE_SERVICE_REQUEST;
 	}
 	protected void writeBody(GatewayPacketBuffer buffer) throws UnsupportedEncodingException {
 		buffer.writeLengthCodedString(apiName, GatewayPacketConstant.PACKET_CHARSET);
-		if(parameterMap != null){
+		if(this.version >= VERSION_4){
+			writeParameters(buffer, getParameterMap());
+		}else if(getParameterMap() != null){
 			StringBuffer sb = new StringBuffer();
 			for(Map.Entry<String, String> entry : parameterMap.entrySet()){
 				sb.append(entry.getKey()).append("=");
@@ -38,16 +50,55 @@ public class GatewayRequestPacket extends AbstractGatewayPacket {
 		}
 		
 		// write authorization charset
-		if(this.version == VERSION_2){
+		if(this.version >= VERSION_2){
 			if(authorizationString != null){
 				buffer.writeLengthCodedString(authorizationString, PACKET_CHARSET);
 			}
 		}
 	}
 	
+	/**
+	 * <pre>
+	 * VERSION_4 parameters:
+	 * 4 bytes length of the parameters (-1 for null map), 4 bytes count,
+	 * then the key and value of each parameter written by {@link GatewayPacketBuffer#writeUTF8String(String)}
+	 * </pre>
+	 */
+	private static void writeParameters(GatewayPacketBuffer buffer,Map<String,String> parameterMap){
+		if(parameterMap == null){
+			buffer.writeInt(-1);
+			return;
+		}
+		int start = buffer.getPosition();
+		buffer.writeInt(0);
+		buffer.writeInt(parameterMap.size());
+		for(Map.Entry<String, String> entry : parameterMap.entrySet()){
+			buffer.writeUTF8String(entry.getKey());
+			buffer.writeUTF8String(entry.getValue());
+		}
+		int end = buffer.getPosition();
+		buffer.setPosition(start);
+		buffer.writeInt(end - start - 4);
+		buffer.setPosition(end);
+	}
+	
 	@Override
 	protected void readBody(GatewayPacketBuffer buffer) {
 		apiName = buffer.readLengthCodedString(GatewayPacketConstant.PACKET_CHARSET);
+		if(this.version >= VERSION_4){
+			parameterMap = null;
+			int length = buffer.readInt();
+			if(length >= 0){
+				//keep the position, the parameters are decoded by the first call of getParameter or getParameterMap
+				parameterBuffer = buffer;
+				parameterPosition = buffer.getPosition();
+				buffer.skip(length);
+			}
+			if(buffer.hasRemaining()){
+				authorizationString = buffer.readLengthCodedString(PACKET_CHARSET);
+			}
+			return;
+		}
 		String parameters = buffer.readLengthCodedString(GatewayPacketConstant.PACKET_CHARSET);
 		parameterMap = new HashMap<String,String>();
 		if(parameters != null){
@@ -65,12 +116,61 @@ public class GatewayRequestPacket extends AbstractGatewayPacket {
 			}
 		}
 		// add by Sun Ning/2010-04-20
-		if(this.version == VERSION_2 && buffer.hasRemaining()){
+		if(this.version >= VERSION_2 && buffer.hasRemaining()){
 			
 			authorizationString = buffer.readLengthCodedString(PACKET_CHARSET);
 		}
 	}
 	
+	/**
+	 * @return parameters of the request, decoded from the packet buffer by the first call
+	 */
+	public synchronized Map<String,String> getParameterMap(){
+		if(parameterBuffer != null){
+			GatewayPacketBuffer buffer = parameterBuffer;
+			buffer.setPosition(parameterPosition);
+			int count = buffer.readInt();
+			Map<String,String> map = new HashMap<String,String>(Math.max(16, (int)(count / 0.75f) + 1));
+			for(int i=0;i<count;i++){
+				String key = buffer.readUTF8String();
+				map.put(key, buffer.readUTF8String());
+			}
+			parameterMap = map;
+			parameterBuffer = null;
+		}
+		return parameterMap;
+	}
+	
+	/**
+	 * a VERSION_4 packet not decoded yet is scanned for the parameter, only its value is decoded
+	 */
+	public synchronized String getParameter(String name){
+		if(parameterBuffer == null){
+			return parameterMap == null ? null : parameterMap.get(name);
+		}
+		byte[] nameBytes = null;
+		try {
+			nameBytes = name == null ? null : name.getBytes(PACKET_CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			return getParameterMap().get(name);
+		}
+		GatewayPacketBuffer buffer = parameterBuffer;
+		buffer.setPosition(parameterPosition);
+		int count = buffer.readInt();
+		for(int i=0;i<count;i++){
+			if(buffer.matchUTF8String(nameBytes)){
+				return buffer.readUTF8String();
+			}
+			buffer.skipUTF8String();
+		}
+		return null;
+	}
+	
+	public synchronized void setParameterMap(Map<String,String> parameterMap){
+		this.parameterMap = parameterMap;
+		this.parameterBuffer = null;
+	}
+	
 //	public static void main(String[] args){
 //		try {
 //			
@@ -3,6 +3,20 @@ package com.meidusa.amoeba.memcached;
 public interface MemcachedConstant {
 	static final int HEAD_SIZE = 0;
 
+	/**
+	 * size of the request and response header of the binary protocol
+	 */
+	static final int HEADER_SIZE = 24;
+
+	byte MAGIC_REQUEST = (byte)0x80;
+	byte MAGIC_RESPONSE = (byte)0x81;
+
+	short STATUS_NO_ERROR = 0x0000;
+	short STATUS_KEY_NOT_FOUND = 0x0001;
+	short STATUS_UNKNOWN_COMMAND = 0x0081;
+	short STATUS_INTERNAL_ERROR = 0x0084;
+	short STATUS_BUSY = 0x0085;
+
 	byte COMMAND_GET = 0x00;
 	byte COMMAND_SET = 0x01;
 	byte COMMAND_Add = 0x02;// Add
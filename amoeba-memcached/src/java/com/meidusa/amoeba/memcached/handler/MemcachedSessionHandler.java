@@ -0,0 +1,281 @@
+package com.meidusa.amoeba.memcached.handler;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.memcached.MemcachedConstant;
+import com.meidusa.amoeba.memcached.net.MemcachedClientConnection;
+import com.meidusa.amoeba.memcached.net.MemcachedServerConnection;
+import com.meidusa.amoeba.memcached.packet.AbstractMemcachedPacketBuffer;
+import com.meidusa.amoeba.memcached.packet.ResponseMemcachedPacket;
+import com.meidusa.amoeba.memcached.route.MemcachedQueryRouter;
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.net.SessionMessageHandler;
+import com.meidusa.amoeba.net.poolable.ObjectPool;
+
+/**
+ * <pre>
+ * the requests of a session are grouped by server, each server receives its requests as one batch on one connection.
+ * the opaque of a request is replaced by its index in the session, so the responses can be merged in request order.
+ * a batch with quiet commands (GetQ,GetKQ,SetQ...) is followed by a noop, the batch is completed by the noop response,
+ * otherwise it is completed when every request is answered.
+ *
+ * noop and quit are answered by the proxy, flush is sent to every server, stat is not supported.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class MemcachedSessionHandler implements SessionMessageHandler, MemcachedConstant {
+	private static Logger logger = Logger.getLogger(MemcachedSessionHandler.class);
+
+	/**
+	 * opaque of the noop closing a batch, requests use their index
+	 */
+	private static final int BATCH_END_OPAQUE = -1;
+
+	private static final byte[] BATCH_END;
+	static{
+		BATCH_END = new byte[HEADER_SIZE];
+		BATCH_END[0] = MAGIC_REQUEST;
+		BATCH_END[1] = COMMAND_Noop;
+		AbstractMemcachedPacketBuffer.setOpaque(BATCH_END, BATCH_END_OPAQUE);
+	}
+
+	private static class Batch{
+		ObjectPool pool;
+		List<Integer> indexes = new ArrayList<Integer>();
+		int bytes;
+		boolean quiet;
+		int received;
+		MemcachedServerConnection conn;
+	}
+
+	private final MemcachedClientConnection clientConn;
+	private final byte[][] requests;
+	private final int[] opaques;
+	private final byte[][] responses;
+	private final Map<ObjectPool,Batch> batchMap = new LinkedHashMap<ObjectPool,Batch>();
+	private final Map<Connection,Batch> connMap = new HashMap<Connection,Batch>();
+	private final long startTime = System.currentTimeMillis();
+	private int pendingBatches;
+	private boolean quit;
+	private boolean isEnd = false;
+
+	public MemcachedSessionHandler(MemcachedClientConnection clientConn,List<byte[]> requests){
+		this.clientConn = clientConn;
+		this.requests = requests.toArray(new byte[requests.size()][]);
+		this.opaques = new int[this.requests.length];
+		this.responses = new byte[this.requests.length][];
+	}
+
+	public boolean isQuit() {
+		return quit;
+	}
+
+	/**
+	 * route the requests, send each batch to its server
+	 */
+	public synchronized void startSession(){
+		MemcachedQueryRouter router = (MemcachedQueryRouter)ProxyRuntimeContext.getInstance().getQueryRouter();
+		for(int i=0;i<requests.length;i++){
+			byte[] request = requests[i];
+			opaques[i] = AbstractMemcachedPacketBuffer.getOpaque(request);
+			byte opCode = AbstractMemcachedPacketBuffer.getOpCode(request);
+
+			if(opCode == COMMAND_Quit || opCode == COMMAND_QuitQ){
+				if(opCode == COMMAND_Quit){
+					responses[i] = ResponseMemcachedPacket.newResponse(request, STATUS_NO_ERROR, null).toByteArray();
+				}
+				quit = true;
+				break;
+			}
+
+			if(opCode == COMMAND_Noop){
+				responses[i] = ResponseMemcachedPacket.newResponse(request, STATUS_NO_ERROR, null).toByteArray();
+			}else if(opCode == COMMAND_Flush || opCode == COMMAND_FlushQ || opCode == COMMAND_Version){
+				ObjectPool[] pools = router.getDefaultObjectPool();
+				if(opCode == COMMAND_Version){
+					addToBatch(pools[0], i);
+				}else{
+					for(ObjectPool pool : pools){
+						addToBatch(pool, i);
+					}
+				}
+			}else if(opCode == COMMAND_Stat || AbstractMemcachedPacketBuffer.getKeyLength(request) == 0){
+				responses[i] = ResponseMemcachedPacket.newResponse(request, STATUS_UNKNOWN_COMMAND, "Not supported by proxy").toByteArray();
+			}else{
+				addToBatch(router.getPool(request), i);
+			}
+		}
+
+		pendingBatches = batchMap.size();
+		for(Batch batch : batchMap.values()){
+			try {
+				batch.conn = (MemcachedServerConnection)batch.pool.borrowObject();
+			} catch (Exception e) {
+				logger.error("borrow connection from pool="+batch.pool.getName()+" error",e);
+				failBatch(batch, "Server unavailable");
+				continue;
+			}
+			connMap.put(batch.conn, batch);
+			batch.conn.setSessionMessageHandler(this);
+
+			ByteBuffer buffer = ByteBuffer.allocate(batch.bytes + (batch.quiet ? HEADER_SIZE : 0));
+			for(Integer index : batch.indexes){
+				byte[] request = requests[index];
+				AbstractMemcachedPacketBuffer.setOpaque(request, index);
+				buffer.put(request);
+			}
+			if(batch.quiet){
+				buffer.put(BATCH_END);
+			}
+			buffer.flip();
+			batch.conn.postMessage(buffer);
+		}
+
+		if(pendingBatches == 0){
+			endSession();
+		}
+	}
+
+	private void addToBatch(ObjectPool pool,int index){
+		Batch batch = batchMap.get(pool);
+		if(batch == null){
+			batch = new Batch();
+			batch.pool = pool;
+			batchMap.put(pool, batch);
+		}
+		byte[] request = requests[index];
+		batch.indexes.add(index);
+		batch.bytes += request.length;
+		batch.quiet = batch.quiet || AbstractMemcachedPacketBuffer.isQuiet(AbstractMemcachedPacketBuffer.getOpCode(request));
+	}
+
+	public synchronized void handleMessage(Connection conn, byte[] message) {
+		Batch batch = connMap.get(conn);
+		if(isEnd || batch == null){
+			return;
+		}
+
+		int opaque = AbstractMemcachedPacketBuffer.getOpaque(message);
+		if(opaque == BATCH_END_OPAQUE && AbstractMemcachedPacketBuffer.getOpCode(message) == COMMAND_Noop){
+			endBatch(batch);
+			return;
+		}
+
+		if(opaque < 0 || opaque >= responses.length){
+			logger.warn("unexpected response opaque="+opaque+" from "+conn.getSocketId());
+			return;
+		}
+
+		//flush is sent to every server, keep the first error
+		byte[] old = responses[opaque];
+		if(old == null || (AbstractMemcachedPacketBuffer.getStatus(old) == STATUS_NO_ERROR && AbstractMemcachedPacketBuffer.getStatus(message) != STATUS_NO_ERROR)){
+			responses[opaque] = message;
+		}
+		batch.received ++;
+		if(!batch.quiet && batch.received == batch.indexes.size()){
+			endBatch(batch);
+		}
+	}
+
+	private void endBatch(Batch batch){
+		MemcachedServerConnection conn = batch.conn;
+		connMap.remove(conn);
+		conn.setSessionMessageHandler(null);
+		try {
+			conn.getObjectPool().returnObject(conn);
+		} catch (Exception e) {
+			logger.error("return connection to pool="+batch.pool.getName()+" error",e);
+		}
+		batchEnded();
+	}
+
+	/**
+	 * the requests of the batch without response are answered by an error
+	 */
+	private void failBatch(Batch batch,String cause){
+		for(Integer index : batch.indexes){
+			if(responses[index] == null){
+				responses[index] = ResponseMemcachedPacket.newResponse(requests[index], STATUS_INTERNAL_ERROR, cause).toByteArray();
+			}
+		}
+		batchEnded();
+	}
+
+	private void batchEnded(){
+		if(--pendingBatches == 0){
+			endSession();
+		}
+	}
+
+	private void endSession(){
+		if(isEnd){
+			return;
+		}
+		isEnd = true;
+		clientConn.sessionCompleted(this);
+	}
+
+	/**
+	 * @return responses in request order, the opaque of each response restored
+	 */
+	public synchronized ByteBuffer getResponse(){
+		int size = 0;
+		for(byte[] response : responses){
+			if(response != null){
+				size += response.length;
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		for(int i=0;i<responses.length;i++){
+			byte[] response = responses[i];
+			if(response != null){
+				AbstractMemcachedPacketBuffer.setOpaque(response, opaques[i]);
+				buffer.put(response);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public boolean checkIdle(long now) {
+		if(isEnd){
+			return true;
+		}
+
+		if(ProxyRuntimeContext.getInstance().getRuntimeContext().getQueryTimeout() >0){
+			return (now - startTime) > ProxyRuntimeContext.getInstance().getRuntimeContext().getQueryTimeout() * 1000;
+		}else{
+			return false;
+		}
+	}
+
+	/**
+	 * a server connection closed or timed out, the connections still in use are closed
+	 * and the requests not answered yet are answered by an error
+	 */
+	public synchronized void forceEndSession(String cause) {
+		if(isEnd){
+			return;
+		}
+		List<Batch> batches = new ArrayList<Batch>(connMap.values());
+		connMap.clear();
+		for(Batch batch : batches){
+			batch.conn.setSessionMessageHandler(null);
+			batch.conn.close(new Exception(cause));
+		}
+		for(Batch batch : batches){
+			failBatch(batch, cause);
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.meidusa.amoeba.memcached.io;
+
+import com.meidusa.amoeba.memcached.MemcachedConstant;
+import com.meidusa.amoeba.net.io.PacketInputStream;
+
+/**
+ * binary protocol packets: 24 bytes header followed by the body,
+ * the body length is the big endian int at offset 8 of the header.
+ * packets are always returned with the header
+ * 
+ * @author struct
+ *
+ */
+public class MemcachedFramedInputStream extends PacketInputStream implements MemcachedConstant{
+
+	protected int decodeLength() {
+		if (_have < getHeaderSize()) {
+			return -1;
+		}
+		
+		int bodyLength = ((_buffer.get(8) & 0xff) << 24)
+					| ((_buffer.get(9) & 0xff) << 16)
+					| ((_buffer.get(10) & 0xff) << 8)
+					| (_buffer.get(11) & 0xff);
+		
+		return HEADER_SIZE + bodyLength;
+	}
+
+	public int getHeaderSize() {
+		return HEADER_SIZE;
+	}
+	
+	protected byte[] readPacket(){
+		byte[] msg = new byte[_length];
+		int position = _buffer.position();
+		_buffer.position(0);
+		_buffer.get(msg, 0, _length);
+		_buffer.limit(_have);
+		_buffer.compact();
+		_buffer.position(position - _length);
+		_have -= _length;
+		_length = this.decodeLength();
+		return msg;
+	}
+}
@@ -0,0 +1,22 @@
+package com.meidusa.amoeba.memcached.io;
+
+import java.nio.ByteBuffer;
+
+import com.meidusa.amoeba.net.io.PacketOutputStream;
+
+/**
+ * the packets written are complete binary protocol packets including the header
+ * 
+ * @author struct
+ *
+ */
+public class MemcachedFramingOutputStream extends PacketOutputStream{
+
+	public ByteBuffer returnPacketBuffer() {
+		_buffer.flip();
+		return _buffer;
+	}
+
+	protected void initHeader() {
+	}
+}
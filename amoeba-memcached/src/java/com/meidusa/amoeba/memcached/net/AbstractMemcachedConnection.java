@@ -0,0 +1,63 @@
+package com.meidusa.amoeba.memcached.net;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import com.meidusa.amoeba.memcached.io.MemcachedFramedInputStream;
+import com.meidusa.amoeba.memcached.io.MemcachedFramingOutputStream;
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.net.SessionMessageHandler;
+import com.meidusa.amoeba.net.io.PacketInputStream;
+import com.meidusa.amoeba.net.io.PacketOutputStream;
+
+/**
+ * 
+ * @author struct
+ *
+ */
+public abstract class AbstractMemcachedConnection extends Connection {
+	protected SessionMessageHandler sessionMessageHandler = null;
+	
+	public AbstractMemcachedConnection(SocketChannel channel, long createStamp) {
+		super(channel, createStamp);
+	}
+
+	public SessionMessageHandler getSessionMessageHandler() {
+		return sessionMessageHandler;
+	}
+
+	public void setSessionMessageHandler(SessionMessageHandler sessionMessageHandler) {
+		this.sessionMessageHandler = sessionMessageHandler;
+	}
+	
+	protected abstract void doReceiveMessage(byte[] message);
+	
+	protected void messageProcess() {
+	}
+	
+	public void postMessage(byte[] msg) {
+		postMessage(ByteBuffer.wrap(msg));
+	}
+	
+	@Override
+	protected PacketInputStream createPacketInputStream() {
+		return new MemcachedFramedInputStream();
+	}
+
+	@Override
+	protected PacketOutputStream createPacketOutputStream() {
+		return new MemcachedFramingOutputStream();
+	}
+	
+	public boolean checkIdle(long now){
+		if (isClosed()) {
+			return true;
+		}else{
+			SessionMessageHandler sessionMessageHandler = this.sessionMessageHandler;
+			if(sessionMessageHandler != null){
+				return sessionMessageHandler.checkIdle(now);
+			}
+		}
+		return false;
+	}
+}
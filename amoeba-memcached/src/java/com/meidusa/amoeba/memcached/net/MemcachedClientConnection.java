@@ -0,0 +1,102 @@
+package com.meidusa.amoeba.memcached.net;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.memcached.handler.MemcachedSessionHandler;
+
+/**
+ * <pre>
+ * the requests read from the client are collected and sent as one session: one batch per memcached server.
+ * only one session of a client is in flight, the requests arriving meanwhile wait for the next session,
+ * so the commands of a client reach every server in the order they were sent and the responses are written in that order too.
+ * </pre>
+ * 
+ * @author struct
+ *
+ */
+public class MemcachedClientConnection extends AbstractMemcachedConnection {
+	private static Logger logger = Logger.getLogger(MemcachedClientConnection.class);
+	
+	private final Object pendingLock = new Object();
+	
+	/**
+	 * requests waiting for the next session, guarded by pendingLock
+	 */
+	private List<byte[]> pending = new ArrayList<byte[]>();
+	
+	/**
+	 * session in flight, guarded by pendingLock
+	 */
+	private MemcachedSessionHandler current;
+	
+	public MemcachedClientConnection(SocketChannel channel, long createStamp) {
+		super(channel, createStamp);
+	}
+
+	protected void doReceiveMessage(byte[] message) {
+		synchronized (pendingLock) {
+			pending.add(message);
+		}
+	}
+	
+	/**
+	 * all the packets of a read have been received
+	 */
+	protected void messageProcess() {
+		startNextSession();
+	}
+	
+	private void startNextSession(){
+		final MemcachedSessionHandler session;
+		synchronized (pendingLock) {
+			if(current != null || pending.size() == 0 || isClosed()){
+				return;
+			}
+			session = new MemcachedSessionHandler(this,pending);
+			pending = new ArrayList<byte[]>();
+			current = session;
+		}
+		
+		if(ProxyRuntimeContext.getInstance().getRuntimeContext().isUseMultipleThread()){
+			ProxyRuntimeContext.getInstance().getRuntimeContext().getClientSideExecutor().execute(new Runnable(){
+				public void run(){
+					session.startSession();
+				}
+			});
+		}else{
+			session.startSession();
+		}
+	}
+	
+	/**
+	 * write the responses of the session and start the requests received meanwhile
+	 */
+	public void sessionCompleted(MemcachedSessionHandler session){
+		ByteBuffer response = session.getResponse();
+		synchronized (pendingLock) {
+			if(current == session){
+				current = null;
+			}
+		}
+		
+		if(response.remaining() > 0){
+			postMessage(response);
+		}
+		
+		if(session.isQuit()){
+			if(logger.isDebugEnabled()){
+				logger.debug("client quit, socketId="+this.getSocketId());
+			}
+			postClose(null);
+			return;
+		}
+		startNextSession();
+	}
+
+}
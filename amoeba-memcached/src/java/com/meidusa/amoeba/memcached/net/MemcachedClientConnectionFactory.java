@@ -0,0 +1,16 @@
+package com.meidusa.amoeba.memcached.net;
+
+import java.nio.channels.SocketChannel;
+
+import com.meidusa.amoeba.net.AbstractConnectionFactory;
+import com.meidusa.amoeba.net.Connection;
+
+public class MemcachedClientConnectionFactory extends AbstractConnectionFactory{
+
+	@Override
+	protected Connection newConnectionInstance(SocketChannel channel,
+			long createStamp) {
+		return new MemcachedClientConnection(channel,createStamp);
+	}
+
+}
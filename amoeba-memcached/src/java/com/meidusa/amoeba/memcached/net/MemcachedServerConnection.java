@@ -0,0 +1,84 @@
+package com.meidusa.amoeba.memcached.net;
+
+import java.nio.channels.SocketChannel;
+
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.net.MessageHandler;
+import com.meidusa.amoeba.net.SessionMessageHandler;
+import com.meidusa.amoeba.net.poolable.ObjectPool;
+import com.meidusa.amoeba.net.poolable.PoolableObject;
+
+/**
+ * connection to a memcached server, the responses are passed to the session handler that borrowed it
+ * 
+ * @author struct
+ *
+ */
+public class MemcachedServerConnection extends AbstractMemcachedConnection implements PoolableObject,MessageHandler {
+	private static Logger logger = Logger.getLogger(MemcachedServerConnection.class);
+	
+	private ObjectPool objectPool;
+	
+	private boolean active;
+	
+	public MemcachedServerConnection(SocketChannel channel, long createStamp) {
+		super(channel, createStamp);
+		this.setMessageHandler(this);
+	}
+
+	protected void doReceiveMessage(byte[] message){
+		SessionMessageHandler handler = sessionMessageHandler;
+		if(handler != null){
+			handler.handleMessage(this,message);
+		}else{
+			logger.warn("unexpected response from "+this.getSocketId());
+		}
+	}
+	
+	public ObjectPool getObjectPool() {
+		return objectPool;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public boolean isRemovedFromPool() {
+		return objectPool == null;
+	}
+
+	public void setActive(boolean isactive) {
+		this.active = isactive;
+	}
+
+	public void setObjectPool(ObjectPool pool) {
+		this.objectPool = pool;
+	}
+
+	public void handleMessage(Connection conn) {
+		logger.error("raw message handler");
+	}
+	
+	public void close(Exception exception){
+		if (isClosed()) {
+			return;
+		}
+		super.close(exception);
+		final ObjectPool tmpPool = objectPool;
+		objectPool = null;
+		try {
+			if(tmpPool != null){
+				if(isActive()){
+					tmpPool.invalidateObject(this);
+				}
+			}
+			SessionMessageHandler handler = this.getSessionMessageHandler();
+			if(handler != null){
+				handler.forceEndSession("server connection closed");
+			}
+		} catch (Exception e) {
+		}
+	}
+}
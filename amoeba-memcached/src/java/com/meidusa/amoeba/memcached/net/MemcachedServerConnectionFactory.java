@@ -0,0 +1,16 @@
+package com.meidusa.amoeba.memcached.net;
+
+import java.nio.channels.SocketChannel;
+
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.net.PoolableConnectionFactory;
+
+public class MemcachedServerConnectionFactory extends PoolableConnectionFactory{
+
+	@Override
+	protected Connection newConnectionInstance(SocketChannel channel,
+			long createStamp) {
+		return new MemcachedServerConnection(channel,createStamp);
+	}
+
+}
@@ -50,7 +50,7 @@ public class AbstractMemcachedPacket extends com.meidusa.amoeba.net.packet.Abstr
 	/**
 	 * Data version check. 
 	 */
-	public int cas;
+	public long cas;
 	
 	@Override
 	protected void afterPacketWritten(AbstractPacketBuffer buffer) {
@@ -79,7 +79,7 @@ public class AbstractMemcachedPacket extends com.meidusa.amoeba.net.packet.Abstr
 		status = bufferTemp.readShort();
 		totalBodyLength = bufferTemp.readInt();
 		opaque = bufferTemp.readInt();
-		cas = bufferTemp.readInt();
+		cas = bufferTemp.readLong();
 	}
 	
 	
@@ -95,6 +95,6 @@ public class AbstractMemcachedPacket extends com.meidusa.amoeba.net.packet.Abstr
 		bufferTemp.writeShort(status);
 		bufferTemp.writeInt(totalBodyLength);
 		bufferTemp.writeInt(opaque);
-		bufferTemp.writeInt(cas);
+		bufferTemp.writeLong(cas);
 	}
 }
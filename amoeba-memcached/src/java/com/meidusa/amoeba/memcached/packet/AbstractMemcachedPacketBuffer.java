@@ -1,5 +1,6 @@
 package com.meidusa.amoeba.memcached.packet;
 
+import com.meidusa.amoeba.memcached.MemcachedConstant;
 import com.meidusa.amoeba.net.packet.AbstractPacketBuffer;
 
 public class AbstractMemcachedPacketBuffer extends AbstractPacketBuffer {
@@ -38,6 +39,69 @@ public class AbstractMemcachedPacketBuffer extends AbstractPacketBuffer {
 		buffer[position++] = (byte) (value & 0xff);
 	}
 
+	public long readLong() {
+		return ((long)readInt() << 32) | (readInt() & 0xffffffffL);
+	}
+
+	public void writeLong(long value) {
+		writeInt((int)(value >>> 32));
+		writeInt((int)value);
+	}
+
+	public static byte getOpCode(byte[] message){
+		return message[1];
+	}
+
+	public static int getKeyLength(byte[] message){
+		return ((message[2] & 0xff) << 8) | (message[3] & 0xff);
+	}
+
+	/**
+	 * @return offset of the key, the key follows the header and the extras
+	 */
+	public static int getKeyOffset(byte[] message){
+		return MemcachedConstant.HEADER_SIZE + (message[4] & 0xff);
+	}
+
+	public static short getStatus(byte[] message){
+		return (short)(((message[6] & 0xff) << 8) | (message[7] & 0xff));
+	}
+
+	public static int getOpaque(byte[] message){
+		return ((message[12] & 0xff) << 24) | ((message[13] & 0xff) << 16)
+			   | ((message[14] & 0xff) << 8) | (message[15] & 0xff);
+	}
+
+	public static void setOpaque(byte[] message,int opaque){
+		message[12] = (byte) ((opaque >>> 24) & 0xff);
+		message[13] = (byte) ((opaque >>> 16) & 0xff);
+		message[14] = (byte) ((opaque >>> 8) & 0xff);
+		message[15] = (byte) (opaque & 0xff);
+	}
+
+	/**
+	 * quiet commands are answered by the server only when they fail (or a quiet get hits)
+	 */
+	public static boolean isQuiet(byte opCode){
+		switch(opCode){
+		case MemcachedConstant.COMMAND_GetQ:
+		case MemcachedConstant.COMMAND_GetKQ:
+		case MemcachedConstant.COMMAND_SetQ:
+		case MemcachedConstant.COMMAND_AddQ:
+		case MemcachedConstant.COMMAND_ReplaceQ:
+		case MemcachedConstant.COMMAND_DeleteQ:
+		case MemcachedConstant.COMMAND_IncrementQ:
+		case MemcachedConstant.COMMAND_DecrementQ:
+		case MemcachedConstant.COMMAND_QuitQ:
+		case MemcachedConstant.COMMAND_FlushQ:
+		case MemcachedConstant.COMMAND_AppendQ:
+		case MemcachedConstant.COMMAND_PrependQ:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	public static void main(String[] args) {
 		System.out.println(Integer.toHexString(2147483647));
 	}
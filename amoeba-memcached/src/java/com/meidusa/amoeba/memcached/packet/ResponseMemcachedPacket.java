@@ -0,0 +1,68 @@
+package com.meidusa.amoeba.memcached.packet;
+
+import java.io.UnsupportedEncodingException;
+
+import com.meidusa.amoeba.net.packet.AbstractPacketBuffer;
+
+/**
+ * response created by the proxy itself (noop, version, errors), the body holds no extras
+ * 
+ * @author struct
+ *
+ */
+public class ResponseMemcachedPacket extends AbstractMemcachedPacket {
+	
+	public byte[] key;
+	
+	public byte[] value;
+	
+	public ResponseMemcachedPacket(){
+		magic = MAGIC_RESPONSE;
+	}
+	
+	/**
+	 * response of the request with the status and a message as the value
+	 */
+	public static ResponseMemcachedPacket newResponse(byte[] request,short status,String message){
+		ResponseMemcachedPacket packet = new ResponseMemcachedPacket();
+		packet.opCode = AbstractMemcachedPacketBuffer.getOpCode(request);
+		packet.opaque = AbstractMemcachedPacketBuffer.getOpaque(request);
+		packet.status = status;
+		if(message != null){
+			try {
+				packet.value = message.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+			}
+		}
+		return packet;
+	}
+	
+	@Override
+	protected int calculatePacketSize() {
+		return super.calculatePacketSize() + (key == null ? 0 : key.length) + (value == null ? 0 : value.length);
+	}
+	
+	@Override
+	protected void write2Buffer(AbstractPacketBuffer buffer)
+			throws UnsupportedEncodingException {
+		keyLength = (short)(key == null ? 0 : key.length);
+		extrasLength = 0;
+		totalBodyLength = keyLength + (value == null ? 0 : value.length);
+		super.write2Buffer(buffer);
+		if(key != null){
+			buffer.writeBytes(key);
+		}
+		if(value != null){
+			buffer.writeBytes(value);
+		}
+	}
+	
+	public byte[] toByteArray(){
+		AbstractMemcachedPacketBuffer buffer = new AbstractMemcachedPacketBuffer(calculatePacketSize());
+		try {
+			write2Buffer(buffer);
+		} catch (UnsupportedEncodingException e) {
+		}
+		return buffer.toByteBuffer().array();
+	}
+}
@@ -0,0 +1,45 @@
+package com.meidusa.amoeba.memcached.route;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.meidusa.amoeba.util.HashFunction;
+
+/**
+ * ketama hash: the first 4 bytes of the md5 digest as an unsigned little endian int,
+ * keys are hashed from their raw bytes, other objects from the UTF-8 bytes of toString()
+ * 
+ * @author struct
+ *
+ */
+public class KetamaHashFunction implements HashFunction {
+	private static ThreadLocal<MessageDigest> md5Local = new ThreadLocal<MessageDigest>(){
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("MD5 not supported", e);
+			}
+		}
+	};
+	
+	public long hash(Object key) {
+		byte[] bytes = null;
+		if(key instanceof byte[]){
+			bytes = (byte[])key;
+		}else{
+			try {
+				bytes = key.toString().getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				bytes = key.toString().getBytes();
+			}
+		}
+		MessageDigest md5 = md5Local.get();
+		md5.reset();
+		byte[] digest = md5.digest(bytes);
+		return ((long)(digest[3] & 0xff) << 24) | ((long)(digest[2] & 0xff) << 16)
+				| ((long)(digest[1] & 0xff) << 8) | (digest[0] & 0xff);
+	}
+
+}
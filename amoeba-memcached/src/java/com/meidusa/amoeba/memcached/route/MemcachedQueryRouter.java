@@ -0,0 +1,131 @@
+package com.meidusa.amoeba.memcached.route;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.context.ContextChangedListener;
+import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.memcached.net.MemcachedClientConnection;
+import com.meidusa.amoeba.memcached.packet.AbstractMemcachedPacketBuffer;
+import com.meidusa.amoeba.net.poolable.ObjectPool;
+import com.meidusa.amoeba.route.QueryRouter;
+import com.meidusa.amoeba.util.ConsistentHash;
+import com.meidusa.amoeba.util.HashFunction;
+import com.meidusa.amoeba.util.Initialisable;
+import com.meidusa.amoeba.util.InitialisationException;
+import com.meidusa.amoeba.util.StringUtil;
+
+/**
+ * shard the keys over the pools by consistent hashing, the query object is the request packet.
+ * 
+ * <pre>
+ * 	&lt;queryRouter class="com.meidusa.amoeba.memcached.route.MemcachedQueryRouter"&gt;
+ * 		&lt;property name="poolNames"&gt;server1,server2&lt;/property&gt;
+ * 		&lt;property name="replicas"&gt;160&lt;/property&gt;
+ * 	&lt;/queryRouter&gt;
+ * </pre>
+ * 
+ * @author struct
+ *
+ */
+public class MemcachedQueryRouter implements QueryRouter<MemcachedClientConnection,byte[]>, Initialisable ,ContextChangedListener {
+	private static Logger logger = Logger.getLogger(MemcachedQueryRouter.class);
+	
+	/**
+	 * Separated by commas,such as: server1,server2
+	 */
+	private String poolNames;
+	
+	/**
+	 * points of each pool on the circle
+	 */
+	private int replicas = 160;
+	
+	private HashFunction hashFunction = new KetamaHashFunction();
+	
+	private volatile ConsistentHash<String> consistentHash;
+	private volatile Map<String,ObjectPool> pools;
+	private volatile ObjectPool[] allPools;
+	
+	public String getPoolNames() {
+		return poolNames;
+	}
+
+	public void setPoolNames(String poolNames) {
+		this.poolNames = poolNames;
+	}
+
+	public int getReplicas() {
+		return replicas;
+	}
+
+	public void setReplicas(int replicas) {
+		this.replicas = replicas;
+	}
+
+	public HashFunction getHashFunction() {
+		return hashFunction;
+	}
+
+	public void setHashFunction(HashFunction hashFunction) {
+		this.hashFunction = hashFunction;
+	}
+
+	public void init() throws InitialisationException {
+		if(StringUtil.isEmpty(poolNames)){
+			throw new InitialisationException("poolNames required!");
+		}
+		try{
+			doChange();
+		}catch(IllegalArgumentException e){
+			throw new InitialisationException(e.getMessage());
+		}
+	}
+	
+	public void doChange() {
+		String[] names = StringUtil.split(poolNames, ", ");
+		ConsistentHash<String> hash = new ConsistentHash<String>(hashFunction);
+		Map<String,ObjectPool> poolMap = new HashMap<String,ObjectPool>();
+		ObjectPool[] all = new ObjectPool[names.length];
+		for(int i=0;i<names.length;i++){
+			ObjectPool pool = ProxyRuntimeContext.getInstance().getPoolMap().get(names[i]);
+			if(pool == null){
+				logger.error("cannot found Pool="+names[i]);
+				throw new IllegalArgumentException("cannot found Pool="+names[i]);
+			}
+			hash.add(names[i], replicas);
+			poolMap.put(names[i], pool);
+			all[i] = pool;
+		}
+		this.pools = poolMap;
+		this.allPools = all;
+		this.consistentHash = hash;
+	}
+	
+	/**
+	 * @param message request packet with a key
+	 */
+	public ObjectPool getPool(byte[] message){
+		int keyLength = AbstractMemcachedPacketBuffer.getKeyLength(message);
+		byte[] key = new byte[keyLength];
+		System.arraycopy(message, AbstractMemcachedPacketBuffer.getKeyOffset(message), key, 0, keyLength);
+		return pools.get(consistentHash.get(key));
+	}
+	
+	public ObjectPool[] doRoute(MemcachedClientConnection connection, byte[] message) {
+		if(AbstractMemcachedPacketBuffer.getKeyLength(message) == 0){
+			return allPools;
+		}
+		return new ObjectPool[]{getPool(message)};
+	}
+
+	/**
+	 * @return all the pools of the circle
+	 */
+	public ObjectPool[] getDefaultObjectPool() {
+		return allPools;
+	}
+
+}
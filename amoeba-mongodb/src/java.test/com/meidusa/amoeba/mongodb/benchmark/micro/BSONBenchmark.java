@@ -0,0 +1,75 @@
+package com.meidusa.amoeba.mongodb.benchmark.micro;
+
+import java.util.Date;
+
+import org.bson.BSONDecoder;
+import org.bson.BSONEncoder;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+import org.bson.types.BasicBSONList;
+import org.bson.types.ObjectId;
+
+import com.meidusa.amoeba.benchmark.micro.MicroBenchmark;
+
+/**
+ * {@link BSONEncoder} and {@link BSONDecoder} of a document with nested objects and arrays, about 400 bytes
+ * 
+ * @author struct
+ *
+ */
+public class BSONBenchmark extends MicroBenchmark {
+	private BSONObject document;
+	private byte[] bytes;
+	private boolean encode;
+	private final BSONEncoder encoder = new BSONEncoder();
+	private final BSONDecoder decoder = new BSONDecoder();
+
+	public String[] getParams(){
+		return new String[]{"encode","decode"};
+	}
+
+	public void setUp(String param) throws Exception {
+		encode = "encode".equals(param);
+		BasicBSONObject address = new BasicBSONObject();
+		address.put("city", "hangzhou");
+		address.put("street", "wen san road 100");
+		address.put("zip", "310012");
+
+		BasicBSONList tags = new BasicBSONList();
+		tags.add("proxy");
+		tags.add("mysql");
+		tags.add("mongodb");
+
+		BasicBSONList orders = new BasicBSONList();
+		for(int i=0;i<5;i++){
+			BasicBSONObject order = new BasicBSONObject();
+			order.put("id", 1000000L + i);
+			order.put("amount", 99.5d * i);
+			order.put("status", i % 3);
+			orders.add(order);
+		}
+
+		BasicBSONObject document = new BasicBSONObject();
+		document.put("_id", new ObjectId());
+		document.put("uid", 1234567L);
+		document.put("name", "amoeba");
+		document.put("email", "amoeba@meidusa.com");
+		document.put("age", 30);
+		document.put("active", true);
+		document.put("created", new Date());
+		document.put("address", address);
+		document.put("tags", tags);
+		document.put("orders", orders);
+		this.document = document;
+		bytes = encoder.encode(document);
+	}
+
+	public Object run() throws Exception {
+		if(encode){
+			return encoder.encode(document);
+		}else{
+			return decoder.readObject(bytes);
+		}
+	}
+
+}
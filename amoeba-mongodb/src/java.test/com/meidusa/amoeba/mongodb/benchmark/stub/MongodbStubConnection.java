@@ -0,0 +1,69 @@
+package com.meidusa.amoeba.mongodb.benchmark.stub;
+
+import java.nio.channels.SocketChannel;
+
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.mongodb.io.MongodbPacketConstant;
+import com.meidusa.amoeba.mongodb.net.AbstractMongodbConnection;
+import com.meidusa.amoeba.mongodb.packet.GetMoreMongodbPacket;
+import com.meidusa.amoeba.mongodb.packet.MongodbPacketBuffer;
+import com.meidusa.amoeba.mongodb.packet.QueryMongodbPacket;
+
+/**
+ * server side connection of {@link MongodbStubServer}, the messages are handled in the io thread.
+ *
+ * @author struct
+ *
+ */
+public class MongodbStubConnection extends AbstractMongodbConnection {
+	private static Logger logger = Logger.getLogger(MongodbStubConnection.class);
+	private MongodbStubServer server;
+
+	/**
+	 * time the last reply is posted, see {@link com.meidusa.amoeba.benchmark.LatencyInjector#postMessage(com.meidusa.amoeba.net.Connection, byte[], long)}
+	 */
+	private long lastResponse;
+
+	public MongodbStubConnection(SocketChannel channel, long createStamp, MongodbStubServer server) {
+		super(channel, createStamp);
+		this.server = server;
+	}
+
+	protected void doReceiveMessage(byte[] message) {
+		int type = MongodbPacketBuffer.getOPMessageType(message);
+		if(type == MongodbPacketConstant.OP_QUERY){
+			QueryMongodbPacket query = new QueryMongodbPacket();
+			query.init(message, this);
+			if(logger.isDebugEnabled()){
+				logger.debug("query from "+this.getSocketId()+": "+query.fullCollectionName+" "+query.query);
+			}
+			if(query.fullCollectionName != null && query.fullCollectionName.endsWith(".$cmd")){
+				response(server.commandReply(query.requestID));
+			}else{
+				response(server.queryReply(query.requestID, query.numberToSkip, query.numberToReturn));
+			}
+		}else if(type == MongodbPacketConstant.OP_GET_MORE){
+			GetMoreMongodbPacket getMore = new GetMoreMongodbPacket();
+			getMore.init(message, this);
+			response(server.getMoreReply(getMore.requestID, getMore.cursorID, getMore.numberToReturn));
+		}else if(type == MongodbPacketConstant.OP_KILL_CURSORS){
+			//header, int32 ZERO, int32 numberOfCursorIDs, int64* cursorIDs
+			MongodbPacketBuffer buffer = new MongodbPacketBuffer(message);
+			buffer.setPosition(20);
+			int count = buffer.readInt();
+			for(int i=0;i<count;i++){
+				server.killCursor(buffer.readLong());
+			}
+		}
+		//OP_INSERT, OP_UPDATE, OP_DELETE and OP_MSG have no reply
+	}
+
+	protected void response(byte[] message){
+		lastResponse = server.getLatencyInjector().postMessage(this, message, lastResponse);
+	}
+
+	public boolean checkIdle(long now) {
+		return false;
+	}
+}
@@ -0,0 +1,25 @@
+package com.meidusa.amoeba.mongodb.benchmark.stub;
+
+import java.nio.channels.SocketChannel;
+
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.net.FrontendConnectionFactory;
+
+/**
+ *
+ * @author struct
+ *
+ */
+public class MongodbStubConnectionFactory extends FrontendConnectionFactory {
+	private MongodbStubServer server;
+
+	public MongodbStubConnectionFactory(MongodbStubServer server){
+		this.server = server;
+	}
+
+	@Override
+	protected Connection newConnectionInstance(SocketChannel channel,
+			long createStamp) {
+		return new MongodbStubConnection(channel, createStamp, server);
+	}
+}
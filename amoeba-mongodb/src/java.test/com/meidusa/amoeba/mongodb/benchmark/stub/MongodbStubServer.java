@@ -0,0 +1,285 @@
+package com.meidusa.amoeba.mongodb.benchmark.stub;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.bson.BSON;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+import org.bson.LazyBSONObject;
+
+import com.meidusa.amoeba.benchmark.LatencyInjector;
+import com.meidusa.amoeba.mongodb.packet.ResponseMongodbPacket;
+import com.meidusa.amoeba.net.ServerableConnectionManager;
+import com.meidusa.amoeba.util.CmdLineParser;
+import com.meidusa.amoeba.util.CmdLineParser.BooleanOption;
+import com.meidusa.amoeba.util.CmdLineParser.IntegerOption;
+import com.meidusa.amoeba.util.CmdLineParser.StringOption;
+
+/**
+ * <pre>
+ * a mongodb server speaking the wire protocol without storage, the backend of benchmarks that should not depend on mongodb:
+ * a query returns documents in OP_REPLY batches of batchSize, the rest is fetched with OP_GET_MORE on a cursor,
+ * a query on $cmd (getlasterror, ismaster ...) returns {ok:1}, insert,update and delete have no reply.
+ *
+ * the document is encoded once at start up, the latency of a real database can be injected.
+ * several servers on port, port+1 ... stand in for the shards of a dbServers.xml.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class MongodbStubServer extends ServerableConnectionManager {
+	private static Logger logger = Logger.getLogger(MongodbStubServer.class);
+	protected static CmdLineParser parser = new CmdLineParser(System.getProperty("application", "mongodbstub"));
+	protected static CmdLineParser.Option<?> portOption = parser.addOption(new IntegerOption('P', "port",true,false,27018,"port of the first server, default 27018"));
+	protected static CmdLineParser.Option<?> hostOption = parser.addOption(new StringOption('h', "host",true,false,"listen address, default all addresses"));
+	protected static CmdLineParser.Option<?> shardsOption = parser.addOption(new IntegerOption('n', "shards",true,false,1,"number of servers listening on port .. port+n-1, default 1"));
+	protected static CmdLineParser.Option<?> documentsOption = parser.addOption(new IntegerOption('d', "documents",true,false,10,"documents found by a query, default 10"));
+	protected static CmdLineParser.Option<?> batchOption = parser.addOption(new IntegerOption('b', "batch",true,false,101,"documents of a reply if the query does not limit it, default 101"));
+	protected static CmdLineParser.Option<?> sizeOption = parser.addOption(new IntegerOption('s', "size",true,false,100,"bytes of the value in a document, default 100"));
+	protected static CmdLineParser.Option<?> latencyOption = parser.addOption(new IntegerOption('l', "latency",true,false,0,"ms before a reply is sent, default 0"));
+	protected static CmdLineParser.Option<?> jitterOption = parser.addOption(new IntegerOption('j', "jitter",true,false,0,"random ms added to the latency, default 0"));
+	protected static CmdLineParser.Option<?> helpOption = parser.addOption(new BooleanOption('?', "help",false,false,true,"Show this help message"));
+
+	/**
+	 * responseFlags of a get more on a closed cursor
+	 */
+	public static final int CURSOR_NOT_FOUND = 1;
+
+	static class Cursor{
+		int position;
+		int remaining;
+	}
+
+	private int documents = 10;
+	private int batchSize = 101;
+	private int documentSize = 100;
+	private LatencyInjector latencyInjector = new LatencyInjector();
+	private CountDownLatch listening = new CountDownLatch(1);
+
+	private byte[] document;
+	private byte[] commandResult;
+	private final AtomicInteger requestIdGenerator = new AtomicInteger();
+	private final AtomicLong cursorIdGenerator = new AtomicLong();
+	private final Map<Long, Cursor> cursors = new ConcurrentHashMap<Long, Cursor>();
+
+	public MongodbStubServer() throws IOException {
+		super();
+		this.setDaemon(true);
+	}
+
+	public int getDocuments() {
+		return documents;
+	}
+
+	public void setDocuments(int documents) {
+		this.documents = documents;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getDocumentSize() {
+		return documentSize;
+	}
+
+	public void setDocumentSize(int documentSize) {
+		this.documentSize = documentSize;
+	}
+
+	public LatencyInjector getLatencyInjector() {
+		return latencyInjector;
+	}
+
+	public void setLatency(int latency) {
+		latencyInjector.setLatency(latency);
+	}
+
+	public void setJitter(int jitter) {
+		latencyInjector.setJitter(jitter);
+	}
+
+	public void init() {
+		this.setName("mongodbStub-"+port);
+		this.setConnectionFactory(new MongodbStubConnectionFactory(this));
+
+		StringBuilder value = new StringBuilder(documentSize);
+		for(int i=0;i<documentSize;i++){
+			value.append((char)('a' + i % 26));
+		}
+		BasicBSONObject doc = new BasicBSONObject();
+		doc.put("_id", 1);
+		doc.put("name", "amoeba");
+		doc.put("value", value.toString());
+		document = BSON.encode(doc);
+
+		BasicBSONObject result = new BasicBSONObject();
+		result.put("ismaster", true);
+		result.put("n", 0);
+		result.put("err", null);
+		result.put("ok", 1.0d);
+		commandResult = BSON.encode(result);
+	}
+
+	/**
+	 * @return the reply of a query on $cmd
+	 */
+	public byte[] commandReply(int responseTo){
+		List<BSONObject> list = new ArrayList<BSONObject>(1);
+		list.add(new LazyBSONObject(commandResult));
+		return reply(responseTo, 0, 0, 0, list);
+	}
+
+	/**
+	 * the first batch of a query, a cursor is kept if the documents do not fit in it
+	 */
+	public byte[] queryReply(int responseTo,int numberToSkip,int numberToReturn){
+		int found = Math.max(0, documents - Math.max(0, numberToSkip));
+		int count = Math.min(found, numberToReturn == 0 ? batchSize : Math.abs(numberToReturn));
+		long cursorID = 0;
+
+		//a negative numberToReturn or 1 closes the cursor after the first batch
+		if(count < found && numberToReturn != 1 && numberToReturn >= 0){
+			Cursor cursor = new Cursor();
+			cursor.position = count;
+			cursor.remaining = found - count;
+			cursorID = cursorIdGenerator.incrementAndGet();
+			cursors.put(cursorID, cursor);
+		}
+		return reply(responseTo, 0, cursorID, 0, documents(count));
+	}
+
+	public byte[] getMoreReply(int responseTo,long cursorID,int numberToReturn){
+		Cursor cursor = cursors.get(cursorID);
+		if(cursor == null){
+			return reply(responseTo, CURSOR_NOT_FOUND, 0, 0, null);
+		}
+		int startingFrom;
+		int count;
+		synchronized (cursor) {
+			startingFrom = cursor.position;
+			count = Math.min(cursor.remaining, numberToReturn <= 0 ? batchSize : numberToReturn);
+			cursor.position += count;
+			cursor.remaining -= count;
+			if(cursor.remaining <= 0){
+				cursors.remove(cursorID);
+				cursorID = 0;
+			}
+		}
+		return reply(responseTo, 0, cursorID, startingFrom, documents(count));
+	}
+
+	public void killCursor(long cursorID){
+		cursors.remove(cursorID);
+	}
+
+	/**
+	 * @return cursors not exhausted or killed yet
+	 */
+	public int getCursorCount(){
+		return cursors.size();
+	}
+
+	private List<BSONObject> documents(int count){
+		List<BSONObject> list = new ArrayList<BSONObject>(count);
+		for(int i=0;i<count;i++){
+			list.add(new LazyBSONObject(document));
+		}
+		return list;
+	}
+
+	private byte[] reply(int responseTo,int responseFlags,long cursorID,int startingFrom,List<BSONObject> docs){
+		ResponseMongodbPacket packet = new ResponseMongodbPacket();
+		packet.requestID = requestIdGenerator.incrementAndGet();
+		packet.responseTo = responseTo;
+		packet.responseFlags = responseFlags;
+		packet.cursorID = cursorID;
+		packet.startingFrom = startingFrom;
+		packet.numberReturned = docs == null ? 0 : docs.size();
+		packet.documents = docs;
+		return packet.toByteBuffer(null).array();
+	}
+
+	protected void willStart() {
+		super.willStart();
+		listening.countDown();
+	}
+
+	/**
+	 * block until the server socket is bound
+	 */
+	public void waitListening() throws InterruptedException{
+		listening.await();
+	}
+
+	/**
+	 * start count servers in this jvm listening on port .. port+count-1
+	 */
+	public static List<MongodbStubServer> startShards(String ipAddress,int port,int count,
+			int documents,int batchSize,int documentSize,int latency,int jitter) throws Exception{
+		List<MongodbStubServer> servers = new ArrayList<MongodbStubServer>();
+		for(int i=0;i<count;i++){
+			MongodbStubServer server = new MongodbStubServer();
+			server.setIpAddress(ipAddress);
+			server.setPort(port + i);
+			server.setDocuments(documents);
+			server.setBatchSize(batchSize);
+			server.setDocumentSize(documentSize);
+			server.setLatency(latency);
+			server.setJitter(jitter);
+			server.init();
+			server.start();
+			servers.add(server);
+		}
+		for(MongodbStubServer server : servers){
+			server.waitListening();
+		}
+		return servers;
+	}
+
+	public static void main(String[] args) throws Exception{
+		try {
+			parser.parse(args);
+		} catch (CmdLineParser.OptionException e) {
+			System.err.println(e.getMessage());
+			parser.printUsage();
+			System.exit(2);
+		}
+		Boolean help = (Boolean)parser.getOptionValue(helpOption,false);
+		if(help){
+			parser.printUsage();
+			return;
+		}
+		if(!Logger.getRootLogger().getAllAppenders().hasMoreElements()){
+			BasicConfigurator.configure();
+			Logger.getRootLogger().setLevel(Level.WARN);
+		}
+
+		int port = (Integer)parser.getOptionValue(portOption,27018);
+		int shards = (Integer)parser.getOptionValue(shardsOption,1);
+		startShards((String)parser.getOptionValue(hostOption),port,shards,
+				(Integer)parser.getOptionValue(documentsOption,10),
+				(Integer)parser.getOptionValue(batchOption,101),
+				(Integer)parser.getOptionValue(sizeOption,100),
+				(Integer)parser.getOptionValue(latencyOption,0),
+				(Integer)parser.getOptionValue(jitterOption,0));
+		logger.warn(shards+" mongodb stub server(s) listening on port "+port+(shards > 1 ? " - "+(port + shards - 1) : ""));
+		System.out.println(shards+" mongodb stub server(s) listening on port "+port+(shards > 1 ? " - "+(port + shards - 1) : ""));
+		Thread.sleep(Long.MAX_VALUE);
+	}
+}
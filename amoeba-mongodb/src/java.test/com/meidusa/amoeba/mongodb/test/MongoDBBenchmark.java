@@ -1,6 +1,7 @@
 package com.meidusa.amoeba.mongodb.test;
 
 
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.CountDownLatch;
 
 import org.apache.commons.lang.StringUtils;
@@ -13,9 +14,10 @@ import com.meidusa.amoeba.benchmark.AbstractBenchmarkClient;
 import com.meidusa.amoeba.config.ConfigUtil;
 import com.meidusa.amoeba.config.ParameterMapping;
 import com.meidusa.amoeba.config.PropertyTransfer;
-import com.meidusa.amoeba.mongodb.net.MongodbClientConnectionFactory;
+import com.meidusa.amoeba.mongodb.benchmark.stub.MongodbStubServer;
 import com.meidusa.amoeba.net.Connection;
 import com.meidusa.amoeba.net.ConnectionFactory;
+import com.meidusa.amoeba.net.FrontendConnectionFactory;
 import com.meidusa.amoeba.util.CmdLineParser;
 
 public class MongoDBBenchmark extends AbstractBenchmark{
@@ -60,12 +62,22 @@ public class MongoDBBenchmark extends AbstractBenchmark{
 		AbstractBenchmark.main(args);
 	}
 
-	private ConnectionFactory factory = new MongodbClientConnectionFactory();
+	private ConnectionFactory factory = new FrontendConnectionFactory(){
+		@Override
+		protected Connection newConnectionInstance(SocketChannel channel, long createStamp) {
+			return new MongodbBenchmarkConnection(channel,createStamp);
+		}
+	};
 	@Override
 	public ConnectionFactory getConnectionFactory() {
 		return factory;
 	}
 
+	@Override
+	protected void startStubServers(String ip, int port, int count, int latency, int jitter) throws Exception {
+		MongodbStubServer.startShards(ip, port, count, 10, 101, 100, latency, jitter);
+	}
+
 	@Override
 	public AbstractBenchmarkClient<?> newBenchmarkClient(Connection conn,
 			CountDownLatch requestLatcher, CountDownLatch responseLatcher,
@@ -105,30 +105,6 @@ public class MongodbBenchmarkClient extends AbstractBenchmarkClient<AbstractMong
 		super.init();
 	}
 
-	@Override
-	public void startBenchmark() {
-		
-		AbstractMongodbPacket packet = this.createRequestPacket();
-		if(packet.opCode == MongodbPacketConstant.OP_DELETE 
-				|| packet.opCode == MongodbPacketConstant.OP_INSERT 
-				|| packet.opCode == MongodbPacketConstant.OP_UPDATE){
-			isLastModifyOperation = true;
-		}else{
-			isLastModifyOperation = false;
-		}
-		
-		if(isLastModifyOperation){
-			byte[] packetMessage = packet.toByteBuffer(this.getConnection()).array();
-			byte[] lastError = getLastErrorPacket().toByteBuffer(this.getConnection()).array();
-			byte[] message = new byte[packetMessage.length+lastError.length];
-			System.arraycopy(packetMessage, 0, message, 0, packetMessage.length);
-			System.arraycopy(lastError, 0, message, packetMessage.length,lastError.length);
-			getConnection().postMessage(message);
-		}else{
-			getConnection().postMessage(packet.toByteBuffer(this.getConnection()));
-		}
-	}
-	
 	protected QueryMongodbPacket getLastErrorPacket(){
 		QueryMongodbPacket packet = new QueryMongodbPacket();
 		packet.fullCollectionName = "admin.$cmd";
@@ -140,15 +116,20 @@ public class MongodbBenchmarkClient extends AbstractBenchmarkClient<AbstractMong
 	}
 	
 	protected void postPacketToServer(){
+		AbstractMongodbPacket packet = this.createRequestPacket();
+		isLastModifyOperation = packet.opCode == MongodbPacketConstant.OP_DELETE 
+				|| packet.opCode == MongodbPacketConstant.OP_INSERT 
+				|| packet.opCode == MongodbPacketConstant.OP_UPDATE;
+		
 		if(isLastModifyOperation){
-			byte[] packetMessage = createRequestPacket().toByteBuffer(this.getConnection()).array();
+			byte[] packetMessage = packet.toByteBuffer(this.getConnection()).array();
 			byte[] lastError = getLastErrorPacket().toByteBuffer(this.getConnection()).array();
 			byte[] message = new byte[packetMessage.length+lastError.length];
 			System.arraycopy(packetMessage, 0, message, 0, packetMessage.length);
 			System.arraycopy(lastError, 0, message, packetMessage.length,lastError.length);
 			getConnection().postMessage(message);
 		}else{
-			getConnection().postMessage(createRequestPacket().toByteBuffer(this.getConnection()));
+			getConnection().postMessage(packet.toByteBuffer(this.getConnection()));
 		}
 	}
 }
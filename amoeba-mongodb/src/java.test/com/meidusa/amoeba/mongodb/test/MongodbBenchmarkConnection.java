@@ -0,0 +1,31 @@
+package com.meidusa.amoeba.mongodb.test;
+
+import java.nio.channels.SocketChannel;
+
+import com.meidusa.amoeba.mongodb.net.AbstractMongodbConnection;
+
+/**
+ * client side connection of {@link MongoDBBenchmark}, the replies are queued and handled by the {@link MongodbBenchmarkClient}
+ * instead of the proxy handlers of {@link com.meidusa.amoeba.mongodb.net.MongodbClientConnection}
+ *
+ * @author struct
+ *
+ */
+public class MongodbBenchmarkConnection extends AbstractMongodbConnection {
+
+	public MongodbBenchmarkConnection(SocketChannel channel, long createStamp) {
+		super(channel, createStamp);
+	}
+
+	protected void doReceiveMessage(byte[] message) {
+		_inQueue.append(message);
+	}
+
+	protected void messageProcess() {
+		_handler.handleMessage(this);
+	}
+
+	public boolean checkIdle(long now) {
+		return false;
+	}
+}
@@ -0,0 +1,161 @@
+package com.meidusa.amoeba.mongodb.test.bson;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.BSONDecoder;
+import org.bson.BSONEncoder;
+import org.bson.BSONException;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+import org.bson.LazyBSONObject;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+/**
+ * field decoding of {@link LazyBSONObject} against the {@link BSONDecoder} of the same bytes.
+ *
+ * @author struct
+ *
+ */
+public class LazyBSONObjectTest {
+
+	private static byte[] encode(BSONObject document){
+		return new BSONEncoder().encode(document);
+	}
+
+	private static BSONObject sample(){
+		BSONObject document = new BasicBSONObject();
+		document.put("_id", new ObjectId());
+		document.put("int", 42);
+		document.put("long", 1L << 40);
+		document.put("double", 1.5);
+		document.put("string", "amoeba");
+		document.put("bool", true);
+		document.put("date", new Date(1000000L));
+		document.put("null", null);
+		document.put("object", new BasicBSONObject("x", 1));
+		document.put("array", Arrays.asList(new Object[]{1, 2, 3}));
+		document.put("last", "end");
+		return document;
+	}
+
+	/**
+	 * {"a": &lt;element of the type&gt;, "b": 7}
+	 */
+	private static byte[] withElement(byte type, byte[] value){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(type);
+		out.write('a');
+		out.write(0);
+		out.write(value, 0, value.length);
+		out.write(16);
+		out.write('b');
+		out.write(0);
+		out.write(new byte[]{7, 0, 0, 0}, 0, 4);
+		out.write(0);
+		byte[] body = out.toByteArray();
+		int length = body.length + 4;
+		byte[] document = new byte[length];
+		document[0] = (byte)length;
+		document[1] = (byte)(length >> 8);
+		System.arraycopy(body, 0, document, 4, body.length);
+		return document;
+	}
+
+	@Test
+	public void testScalarFields(){
+		BSONObject expected = sample();
+		LazyBSONObject lazy = new LazyBSONObject(encode(expected));
+		assertEquals(expected.get("_id"), lazy.get("_id"));
+		assertEquals(42, lazy.get("int"));
+		assertEquals(1L << 40, lazy.get("long"));
+		assertEquals(1.5, lazy.get("double"));
+		assertEquals("amoeba", lazy.get("string"));
+		assertEquals(Boolean.TRUE, lazy.get("bool"));
+		assertEquals(new Date(1000000L), lazy.get("date"));
+		assertNull(lazy.get("null"));
+		assertTrue(lazy.containsField("null"));
+		assertFalse(lazy.containsField("missing"));
+		assertEquals("end", lazy.get("last"));
+		assertFalse(lazy.isModified());
+	}
+
+	@Test
+	public void testKeySetAndNestedValues(){
+		BSONObject expected = sample();
+		LazyBSONObject lazy = new LazyBSONObject(encode(expected));
+		assertEquals(expected.keySet().toString(), lazy.keySet().toString());
+		assertEquals(1, ((BSONObject)lazy.get("object")).get("x"));
+		assertEquals(3, ((List<?>)lazy.get("array")).size());
+		assertTrue(lazy.isModified());
+	}
+
+	@Test
+	public void testOffsetAndRawBytes(){
+		byte[] first = encode(new BasicBSONObject("n", 1));
+		byte[] second = encode(sample());
+		byte[] buffer = new byte[first.length + second.length];
+		System.arraycopy(first, 0, buffer, 0, first.length);
+		System.arraycopy(second, 0, buffer, first.length, second.length);
+
+		LazyBSONObject lazy = new LazyBSONObject(buffer, first.length);
+		assertEquals(second.length, lazy.getLength());
+		assertEquals("amoeba", lazy.get("string"));
+		assertArrayEquals(second, lazy.getBytes());
+		assertEquals(new LazyBSONObject(second), lazy);
+		assertEquals(new BSONDecoder().readObject(second), new BasicBSONObject(lazy.toMap()));
+	}
+
+	@Test
+	public void testModify(){
+		LazyBSONObject lazy = new LazyBSONObject(encode(new BasicBSONObject("n", 1)));
+		lazy.put("n", 2);
+		assertTrue(lazy.isModified());
+		assertEquals(2, lazy.get("n"));
+		assertEquals(1, new LazyBSONObject(lazy.getBytes()).get("n"));
+	}
+
+	@Test
+	public void testSkipDecimal128(){
+		LazyBSONObject lazy = new LazyBSONObject(withElement((byte)19, new byte[16]));
+		assertEquals(7, lazy.get("b"));
+		assertTrue(lazy.containsField("a"));
+		assertEquals(2, lazy.keySet().size());
+	}
+
+	@Test
+	public void testUnknownType(){
+		LazyBSONObject lazy = new LazyBSONObject(withElement((byte)0x20, new byte[4]));
+		try{
+			lazy.get("b");
+			fail("unknown type must not be skipped");
+		}catch(BSONException e){
+		}
+		try{
+			lazy.get("a");
+			fail("unknown type must not be decoded");
+		}catch(BSONException e){
+		}
+	}
+
+	@Test
+	public void testBadLength(){
+		byte[] document = withElement((byte)2, new byte[]{(byte)0xff, 0, 0, 0, 'x', 0});
+		LazyBSONObject lazy = new LazyBSONObject(document);
+		try{
+			lazy.get("b");
+			fail("string longer than the document must not be skipped");
+		}catch(BSONException e){
+		}
+	}
+}
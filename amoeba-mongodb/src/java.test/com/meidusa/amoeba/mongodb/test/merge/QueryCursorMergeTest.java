@@ -0,0 +1,260 @@
+package com.meidusa.amoeba.mongodb.test.merge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BSONEncoder;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+import org.bson.LazyBSONObject;
+import org.junit.Test;
+
+import com.meidusa.amoeba.mongodb.handler.merge.QueryCursorMerge;
+import com.meidusa.amoeba.mongodb.handler.merge.QueryCursorMerge.ShardCursor;
+import com.meidusa.amoeba.mongodb.io.MongodbPacketConstant;
+import com.meidusa.amoeba.mongodb.packet.CursorEntry;
+import com.meidusa.amoeba.mongodb.packet.QueryMongodbPacket;
+import com.meidusa.amoeba.mongodb.packet.ResponseMongodbPacket;
+import com.meidusa.amoeba.net.poolable.ObjectPool;
+import com.meidusa.amoeba.util.MemoryAccountant;
+import com.meidusa.amoeba.util.Tuple;
+
+/**
+ * global $orderby, skip and limit of {@link QueryCursorMerge} over several shards, and the shard errors.
+ *
+ * @author struct
+ *
+ */
+public class QueryCursorMergeTest {
+
+	private static BSONObject document(int a){
+		BSONObject document = new BasicBSONObject();
+		document.put("a", a);
+		document.put("name", "doc" + a);
+		return new LazyBSONObject(new BSONEncoder().encode(document));
+	}
+
+	private static ResponseMongodbPacket reply(long cursorID, int... values){
+		ResponseMongodbPacket reply = new ResponseMongodbPacket();
+		reply.cursorID = cursorID;
+		reply.documents = new ArrayList<BSONObject>();
+		for(int value : values){
+			reply.documents.add(document(value));
+		}
+		reply.numberReturned = values.length;
+		return reply;
+	}
+
+	private static Tuple<CursorEntry,ObjectPool> cursor(long cursorID){
+		CursorEntry entry = new CursorEntry();
+		entry.cursorID = cursorID;
+		entry.fullCollectionName = "test.c";
+		return new Tuple<CursorEntry,ObjectPool>(entry, null);
+	}
+
+	private static List<Integer> values(List<BSONObject> batch){
+		List<Integer> values = new ArrayList<Integer>();
+		for(BSONObject document : batch){
+			values.add((Integer)document.get("a"));
+		}
+		return values;
+	}
+
+	private static List<Integer> list(int... values){
+		List<Integer> list = new ArrayList<Integer>();
+		for(int value : values){
+			list.add(value);
+		}
+		return list;
+	}
+
+	private static QueryMongodbPacket query(BSONObject orderBy, int numberToSkip, int numberToReturn){
+		QueryMongodbPacket packet = new QueryMongodbPacket();
+		packet.fullCollectionName = "test.c";
+		packet.query = new BasicBSONObject();
+		if(orderBy != null){
+			packet.query.put("query", new BasicBSONObject());
+			packet.query.put("orderby", orderBy);
+		}
+		packet.numberToSkip = numberToSkip;
+		packet.numberToReturn = numberToReturn;
+		return packet;
+	}
+
+	@Test
+	public void testCreate(){
+		assertNull(QueryCursorMerge.create(query(null, 0, 0)));
+		assertNull(QueryCursorMerge.create(query(null, 0, 100)));
+		assertNotNull(QueryCursorMerge.create(query(new BasicBSONObject("a", 1), 0, 0)));
+		assertNotNull(QueryCursorMerge.create(query(null, 5, 0)));
+		assertNotNull(QueryCursorMerge.create(query(null, 0, -10)));
+		assertNotNull(QueryCursorMerge.create(query(null, 0, 1)));
+	}
+
+	@Test
+	public void testShardNumberToReturn(){
+		assertEquals(0, QueryCursorMerge.getShardNumberToReturn(5, 0));
+		assertEquals(15, QueryCursorMerge.getShardNumberToReturn(5, 10));
+		assertEquals(-15, QueryCursorMerge.getShardNumberToReturn(5, -10));
+		assertEquals(-1, QueryCursorMerge.getShardNumberToReturn(0, 1));
+	}
+
+	@Test
+	public void testOrderBy(){
+		QueryCursorMerge merge = new QueryCursorMerge(new BasicBSONObject("a", 1), 0, 0);
+		merge.addShard(null, reply(0, 1, 4, 7));
+		merge.addShard(null, reply(0, 2, 5, 8));
+		merge.addShard(null, reply(0, 3, 6, 9));
+		assertEquals(list(1, 2, 3, 4), values(merge.nextBatch(4)));
+		assertTrue(merge.hasMore());
+		assertEquals(list(5, 6, 7, 8, 9), values(merge.nextBatch(0)));
+		assertFalse(merge.hasMore());
+		merge.close();
+	}
+
+	@Test
+	public void testOrderByDescending(){
+		QueryCursorMerge merge = new QueryCursorMerge(new BasicBSONObject("a", -1), 0, 0);
+		merge.addShard(null, reply(0, 9, 3));
+		merge.addShard(null, reply(0, 8, 7, 1));
+		assertEquals(list(9, 8, 7, 3, 1), values(merge.nextBatch(0)));
+		merge.close();
+	}
+
+	@Test
+	public void testSkipAndLimit(){
+		QueryCursorMerge merge = new QueryCursorMerge(new BasicBSONObject("a", 1), 2, -3);
+		merge.addShard(null, reply(0, 1, 3, 5, 7));
+		merge.addShard(null, reply(0, 2, 4, 6, 8));
+		assertEquals(list(3, 4, 5), values(merge.nextBatch(-3)));
+		assertFalse(merge.hasMore());
+	}
+
+	@Test
+	public void testSkipWithoutOrderBy(){
+		QueryCursorMerge merge = new QueryCursorMerge(null, 3, 0);
+		merge.addShard(null, reply(0, 1, 2));
+		merge.addShard(null, reply(0, 10, 20));
+		assertEquals(list(20), values(merge.nextBatch(0)));
+		merge.close();
+	}
+
+	@Test
+	public void testStarvingShardBlocksOrderBy(){
+		QueryCursorMerge merge = new QueryCursorMerge(new BasicBSONObject("a", 1), 0, 0);
+		merge.addShard(cursor(11), reply(11, 1, 2));
+		ShardCursor second = merge.addShard(cursor(12), reply(12, 3));
+		merge.addShard(null, reply(0, 4, 10));
+
+		assertEquals(list(1, 2), values(merge.nextBatch(0)));
+		assertEquals(1, merge.getStarvingShards().size());
+		assertEquals(0, merge.nextBatch(0).size());
+
+		merge.refill(merge.getStarvingShards().get(0), reply(0, 5, 6));
+		assertEquals(list(3), values(merge.nextBatch(0)));
+		assertTrue(second.isStarving());
+
+		merge.refill(second, reply(0, 11));
+		assertEquals(list(4, 5, 6, 10, 11), values(merge.nextBatch(0)));
+		assertFalse(merge.hasMore());
+		merge.close();
+	}
+
+	@Test
+	public void testPrefetchNumberToReturn(){
+		int size = ((LazyBSONObject)document(1)).getLength();
+		QueryCursorMerge merge = new QueryCursorMerge(new BasicBSONObject("a", 1), 0, 0);
+		merge.addShard(cursor(11), reply(11, 1, 2));
+		merge.addShard(cursor(12), reply(12, 3, 4));
+		assertEquals(4 * size, merge.getBufferedBytes());
+
+		//room for 10 more documents in the budget, 5 for each of the two shards
+		assertEquals(5, merge.getPrefetchNumberToReturn(14 * size, 2, 0));
+		assertEquals(3, merge.getPrefetchNumberToReturn(14 * size, 2, 3));
+		assertEquals(5, merge.getPrefetchNumberToReturn(14 * size, 2, -100));
+		assertEquals(0, merge.getPrefetchNumberToReturn(5 * size, 2, 0));
+		assertEquals(0, merge.getPrefetchNumberToReturn(4 * size, 1, 0));
+
+		//1 and 2 are returned, the first shard is drained
+		assertEquals(2, merge.nextBatch(0).size());
+		assertEquals(2 * size, merge.getBufferedBytes());
+		assertEquals(12, merge.getPrefetchNumberToReturn(14 * size, 1, 0));
+		merge.close();
+	}
+
+	@Test
+	public void testSpillOverBudget(){
+		MemoryAccountant accountant = MemoryAccountant.getInstance();
+		long sessionLimit = accountant.getSessionLimit();
+		long globalLimit = accountant.getGlobalLimit();
+		String spillDirectory = accountant.getSpillDirectory().getPath();
+		long used = accountant.getUsed();
+		int size = ((LazyBSONObject)document(1)).getLength();
+		accountant.configure(3 * size, 0, null);
+		try{
+			QueryCursorMerge merge = new QueryCursorMerge(new BasicBSONObject("a", 1), 1, 0);
+			merge.addShard(cursor(11), reply(11, 1, 4, 7));
+			merge.addShard(null, reply(0, 2, 5, 8));
+			merge.addShard(null, reply(0, 3, 6, 9));
+			assertEquals(9 * size, merge.getBufferedBytes());
+			assertEquals(list(2, 3, 4), values(merge.nextBatch(3)));
+
+			assertEquals(list(5, 6, 7), values(merge.nextBatch(0)));
+
+			//the drained shard is refilled into its cleared list
+			assertEquals(1, merge.getStarvingShards().size());
+			merge.refill(merge.getStarvingShards().get(0), reply(0, 10));
+			assertEquals(list(8, 9, 10), values(merge.nextBatch(0)));
+			assertFalse(merge.hasMore());
+			merge.close();
+			assertEquals(used, accountant.getUsed());
+		}finally{
+			accountant.configure(sessionLimit, globalLimit, spillDirectory);
+		}
+	}
+
+	@Test
+	public void testFail(){
+		QueryCursorMerge merge = new QueryCursorMerge(new BasicBSONObject("a", 1), 0, 0);
+		merge.addShard(cursor(11), reply(11, 1, 2));
+		merge.fail("read-ahead timeout");
+		assertEquals("read-ahead timeout", merge.getError().get("$err"));
+		assertEquals(0, merge.nextBatch(0).size());
+		assertFalse(merge.hasMore());
+		merge.close();
+	}
+
+	@Test
+	public void testShardError(){
+		ResponseMongodbPacket failure = new ResponseMongodbPacket();
+		failure.responseFlags = MongodbPacketConstant.REPLY_QUERY_FAILURE;
+		failure.documents = new ArrayList<BSONObject>();
+		failure.documents.add(new BasicBSONObject("$err", "bad query"));
+		failure.numberReturned = 1;
+		assertEquals("bad query", QueryCursorMerge.getError(failure).get("$err"));
+
+		ResponseMongodbPacket err = reply(0);
+		err.documents.add(new BasicBSONObject("$err", "unauthorized"));
+		assertEquals("unauthorized", QueryCursorMerge.getError(err).get("$err"));
+
+		ResponseMongodbPacket notFound = reply(0);
+		notFound.responseFlags = MongodbPacketConstant.REPLY_CURSOR_NOT_FOUND;
+		assertNotNull(QueryCursorMerge.getError(notFound));
+		assertNull(QueryCursorMerge.getError(reply(0, 1, 2)));
+
+		QueryCursorMerge merge = new QueryCursorMerge(new BasicBSONObject("a", 1), 0, 0);
+		merge.addShard(cursor(11), reply(11, 1, 2));
+		merge.addShard(null, failure);
+		assertEquals("bad query", merge.getError().get("$err"));
+		assertFalse(merge.hasMore());
+		assertFalse(merge.startPrefetch());
+		assertEquals(0, merge.getStarvingShards().size());
+		merge.close();
+	}
+}
@@ -19,6 +19,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.bson.BSONException;
 import org.bson.BSONObject;
 import org.bson.BasicBSONObject;
 
@@ -39,6 +40,8 @@ import com.meidusa.amoeba.mongodb.packet.ResponseMongodbPacket;
 import com.meidusa.amoeba.net.Connection;
 import com.meidusa.amoeba.net.MessageHandler;
 import com.meidusa.amoeba.net.SessionMessageHandler;
+import com.meidusa.amoeba.util.MemoryAccountant;
+import com.meidusa.amoeba.util.SpillBufferList;
 
 public abstract class AbstractSessionHandler<T extends AbstractMongodbPacket> implements SessionMessageHandler {
 	public static Logger PACKET_LOGGER = Logger.getLogger("PACKET_LOGGER");
@@ -73,6 +76,14 @@ public abstract class AbstractSessionHandler<T extends AbstractMongodbPacket> im
 	protected int cmd  = 0;
 	protected final long startTime = System.currentTimeMillis();
 	protected boolean isEnd = false;
+	
+	/**
+	 * raw bytes of the replies kept for a merge, over the memory budget of the session they are spilled to disk
+	 * and read back once all the shards replied, see {@link #readResponses()}
+	 */
+	protected final MemoryAccountant.Session memory = MemoryAccountant.getInstance().newSession();
+	private SpillBufferList multiResponseMessage;
+	private boolean decodeFailed = false;
 	public AbstractSessionHandler(MongodbClientConnection clientConn,T t){
 		this.clientConn = clientConn;
 		this.requestPacket = t;
@@ -87,25 +98,104 @@ public abstract class AbstractSessionHandler<T extends AbstractMongodbPacket> im
 					doClientRequest((MongodbClientConnection)conn,message);
 				} catch (Exception e) {
 					handlerLogger.error("do client recieve message error",e);
-					ResponseMongodbPacket result = new ResponseMongodbPacket();
-					result.numberReturned = 1;
-					result.responseFlags = 1;
-					result.documents = new ArrayList<BSONObject>();
-					BSONObject error = new BasicBSONObject();
-					error.put("err", e.getMessage());
-					error.put("errmsg", e.getMessage());
-					error.put("ok", 0.0);
-					error.put("n", 1);
-					result.documents.add(error);
-					result.responseTo = requestPacket.requestID;
-					conn.postMessage(result.toByteBuffer(conn));
+					conn.postMessage(newErrorResponse(e.getMessage()).toByteBuffer(conn));
 				}
 			}else{
-				doServerResponse((MongodbServerConnection)conn,message);
+				try{
+					doServerResponse((MongodbServerConnection)conn,message);
+				}catch(BSONException e){
+					handlerLogger.error("decode server response error, request="+this.requestPacket,e);
+					decodeFailed((MongodbServerConnection)conn,e.getMessage());
+				}
 			}
 		
 	}
 
+	protected ResponseMongodbPacket newErrorResponse(String message){
+		ResponseMongodbPacket result = new ResponseMongodbPacket();
+		result.numberReturned = 1;
+		result.responseFlags = 1;
+		result.documents = new ArrayList<BSONObject>();
+		BSONObject error = new BasicBSONObject();
+		error.put("err", message);
+		error.put("errmsg", message);
+		error.put("ok", 0.0);
+		error.put("n", 1);
+		result.documents.add(error);
+		result.responseTo = requestPacket.requestID;
+		return result;
+	}
+	
+	/**
+	 * keep the reply for the merge, a reply that can not be spilled ends the session
+	 * @return false if the session has been ended
+	 */
+	protected synchronized boolean keepResponse(MongodbServerConnection conn,byte[] message){
+		if(multiResponseMessage == null){
+			multiResponseMessage = new SpillBufferList(memory);
+		}
+		try{
+			multiResponseMessage.add(message);
+			return true;
+		}catch(IllegalStateException e){
+			handlerLogger.error("spill server response error, request="+this.requestPacket,e);
+			decodeFailed(conn,e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * decode the replies kept by {@link #keepResponse(MongodbServerConnection, byte[])} into {@link #multiResponsePacket},
+	 * their bytes are released
+	 */
+	protected synchronized void readResponses(){
+		if(multiResponseMessage != null){
+			for(byte[] message : multiResponseMessage){
+				ResponseMongodbPacket packet = new ResponseMongodbPacket();
+				packet.init(message, clientConn);
+				multiResponsePacket.add(packet);
+			}
+		}
+		clearResponses();
+	}
+	
+	protected synchronized void clearResponses(){
+		if(multiResponseMessage != null){
+			multiResponseMessage.clear();
+		}
+		memory.releaseAll();
+	}
+	
+	/**
+	 * forward the error replied by a shard of a merged query
+	 */
+	protected void postQueryFailure(BSONObject error){
+		clearResponses();
+		ResponseMongodbPacket result = new ResponseMongodbPacket();
+		result.numberReturned = 1;
+		result.responseFlags = MongodbPacketConstant.REPLY_QUERY_FAILURE;
+		result.documents = new ArrayList<BSONObject>(1);
+		result.documents.add(error);
+		result.responseTo = requestPacket.requestID;
+		clientConn.postMessage(result.toByteBuffer(clientConn));
+	}
+	
+	/**
+	 * a reply that can not be decoded or kept ends the session: the other server connections are closed 
+	 * and the client gets an $err reply instead of the merged one
+	 */
+	protected synchronized void decodeFailed(MongodbServerConnection conn,String cause){
+		if(handlerMap.containsKey(conn)){
+			endQuery(conn);
+		}
+		if(decodeFailed){
+			return;
+		}
+		decodeFailed = true;
+		closeAllServerConnection();
+		postQueryFailure(new BasicBSONObject("$err", cause));
+	}
+
 	protected abstract void doServerResponse(MongodbServerConnection conn, byte[] message);
 
 	protected abstract void doClientRequest(MongodbClientConnection conn, byte[] message) throws Exception;
@@ -207,6 +297,7 @@ public abstract class AbstractSessionHandler<T extends AbstractMongodbPacket> im
 			return;
 		}
 		closeAllServerConnection();
+		clearResponses();
 		BSONObject errObject = new BasicBSONObject();
 		errObject.put("err", cause);
 		errObject.put("errmsg", cause);
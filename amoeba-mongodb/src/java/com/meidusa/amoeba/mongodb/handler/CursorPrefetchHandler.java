@@ -0,0 +1,201 @@
+/*
+ * Copyright amoeba.meidusa.com
+ *
+ * 	This program is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU AFFERO GENERAL PUBLIC LICENSE as published by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * 	This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU AFFERO GENERAL PUBLIC LICENSE for more details.
+ * 	You should have received a copy of the GNU AFFERO GENERAL PUBLIC LICENSE along with this program;
+ * if not, write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.meidusa.amoeba.mongodb.handler;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.mongodb.handler.merge.QueryCursorMerge;
+import com.meidusa.amoeba.mongodb.handler.merge.QueryCursorMerge.ShardCursor;
+import com.meidusa.amoeba.mongodb.io.MongodbPacketConstant;
+import com.meidusa.amoeba.mongodb.net.MongodbClientConnection;
+import com.meidusa.amoeba.mongodb.net.MongodbServerConnection;
+import com.meidusa.amoeba.mongodb.packet.CursorEntry;
+import com.meidusa.amoeba.mongodb.packet.GetMoreMongodbPacket;
+import com.meidusa.amoeba.mongodb.packet.MongodbPacketBuffer;
+import com.meidusa.amoeba.mongodb.packet.ResponseMongodbPacket;
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.net.MessageHandler;
+import com.meidusa.amoeba.net.SessionMessageHandler;
+
+/**
+ * Read ahead the next batch of every drained shard cursor of a merged cursor, so that the next
+ * OP_GET_MORE of the client can be answered from the proxy without another fan-out round trip.
+ *
+ * @author struct
+ */
+public class CursorPrefetchHandler implements SessionMessageHandler{
+	private static Logger logger = Logger.getLogger(CursorPrefetchHandler.class);
+	private Map<Connection,MessageHandler> handlerMap = new HashMap<Connection,MessageHandler>();
+	private Map<Connection,ShardCursor> shardMap = new HashMap<Connection,ShardCursor>();
+	private MongodbClientConnection clientConn;
+	private long cursorID;
+	private QueryCursorMerge cursorMerge;
+	private boolean isEnd = false;
+	protected final long startTime = System.currentTimeMillis();
+
+	/**
+	 * start a read-ahead if the merged cursor has drained shards and its buffers are below the client's prefetch budget
+	 * @param numberToReturn batch size of the client, every shard is asked for at most this many documents
+	 * and all of them together for no more than the rest of the budget
+	 */
+	public static void prefetch(MongodbClientConnection clientConn,long cursorID,QueryCursorMerge cursorMerge,int numberToReturn){
+		if(clientConn.getCursorPrefetchSize() <= 0 || !cursorMerge.hasMore()){
+			return;
+		}
+
+		List<ShardCursor> starving = cursorMerge.getStarvingShards();
+		if(starving.size() == 0){
+			return;
+		}
+
+		int shardNumberToReturn = cursorMerge.getPrefetchNumberToReturn(clientConn.getCursorPrefetchSize(), starving.size(), numberToReturn);
+		if(shardNumberToReturn <= 0 || !cursorMerge.startPrefetch()){
+			return;
+		}
+
+		new CursorPrefetchHandler(clientConn,cursorID,cursorMerge).start(starving,shardNumberToReturn);
+	}
+
+	private CursorPrefetchHandler(MongodbClientConnection clientConn,long cursorID,QueryCursorMerge cursorMerge){
+		this.clientConn = clientConn;
+		this.cursorID = cursorID;
+		this.cursorMerge = cursorMerge;
+	}
+
+	private void start(List<ShardCursor> shards,int numberToReturn){
+		MongodbServerConnection[] conns = new MongodbServerConnection[shards.size()];
+		synchronized (this) {
+			int index = 0;
+			for(ShardCursor shard : shards){
+				try {
+					MongodbServerConnection serverConn = (MongodbServerConnection)shard.cursor.right.borrowObject();
+					handlerMap.put(serverConn, serverConn.getMessageHandler());
+					shardMap.put(serverConn, shard);
+					serverConn.setSessionMessageHandler(this);
+					conns[index++] = serverConn;
+				} catch (Exception e) {
+					logger.warn("poolName=["+shard.cursor.right.getName()+"] borrow Connection error, skip read-ahead",e);
+				}
+			}
+
+			if(index == 0){
+				finish();
+				return;
+			}
+		}
+
+		for(MongodbServerConnection serverConn : conns){
+			if(serverConn == null){
+				continue;
+			}
+			ShardCursor shard = shardMap.get(serverConn);
+			GetMoreMongodbPacket packet = new GetMoreMongodbPacket();
+			packet.fullCollectionName = shard.cursor.left.fullCollectionName;
+			packet.cursorID = shard.cursor.left.cursorID;
+			packet.numberToReturn = numberToReturn;
+			packet.requestID = clientConn.getNextRequestId();
+			serverConn.postMessage(packet.toByteBuffer(serverConn));
+			if(logger.isDebugEnabled()){
+				logger.debug("--->>>@CursorPrefetchPakcet="+packet+"," +clientConn.getSocketId()+" send packet --->"+serverConn.getSocketId());
+			}
+		}
+	}
+
+	@Override
+	public void handleMessage(Connection conn, byte[] message) {
+		ShardCursor shard = shardMap.get(conn);
+		if(MongodbPacketBuffer.getOPMessageType(message) == MongodbPacketConstant.OP_REPLY){
+			ResponseMongodbPacket packet = new ResponseMongodbPacket();
+			packet.init(message, conn);
+			CursorEntry entry = shard.cursor.left;
+			cursorMerge.refill(shard, packet);
+			if(packet.cursorID <= 0){
+				clientConn.removeCursorItem(cursorID, entry);
+			}
+		}else{
+			logger.error("unkown read-ahead response packet type="+MongodbPacketBuffer.getOPMessageType(message)+" ,from "+conn.getSocketId());
+		}
+		endQuery(conn);
+	}
+
+	private synchronized void endQuery(Connection conn){
+		MessageHandler handler = handlerMap.remove(conn);
+		if(handler == null){
+			//closed by forceEndSession
+			return;
+		}
+		MongodbServerConnection serverConn = (MongodbServerConnection) conn;
+		serverConn.setSessionMessageHandler(null);
+		serverConn.setMessageHandler(handler);
+		try {
+			serverConn.getObjectPool().returnObject(serverConn);
+		} catch (Exception e) {
+		}
+		if(handlerMap.size() == 0){
+			finish();
+		}
+	}
+
+	private void finish(){
+		if(isEnd){
+			return;
+		}
+		isEnd = true;
+		Runnable pending = cursorMerge.endPrefetch();
+		if(pending != null){
+			//the deferred OP_GET_MORE borrows server connections, not from the connection manager thread
+			ProxyRuntimeContext.getInstance().getRuntimeContext().getClientSideExecutor().execute(pending);
+		}
+	}
+
+	public boolean checkIdle(long now){
+		if(isEnd){
+			return true;
+		}
+		if(ProxyRuntimeContext.getInstance().getRuntimeContext().getQueryTimeout() >0){
+			return (now - startTime) > ProxyRuntimeContext.getInstance().getRuntimeContext().getQueryTimeout() * 1000;
+		}else{
+			return false;
+		}
+	}
+
+	/**
+	 * the server connections that did not answer are given back their message handler and closed,
+	 * their reply may still arrive. The batch of their shards may have been consumed by mongod: the merge fails,
+	 * the next OP_GET_MORE of the client gets an error instead of a result with missing documents
+	 */
+	@Override
+	public synchronized void forceEndSession(String cause) {
+		if(isEnd){
+			return;
+		}
+		for(Map.Entry<Connection,MessageHandler> entry : handlerMap.entrySet()){
+			MongodbServerConnection serverConn = (MongodbServerConnection) entry.getKey();
+			serverConn.setSessionMessageHandler(null);
+			serverConn.setMessageHandler(entry.getValue());
+			serverConn.close(new Exception(cause));
+		}
+		if(handlerMap.size() > 0){
+			logger.warn("read-ahead of cursor="+cursorID+" ended without the reply of "+handlerMap.size()+" shards, cause="+cause);
+			cursorMerge.fail("read-ahead of the shard cursors failed: "+cause);
+		}
+		handlerMap.clear();
+		finish();
+	}
+}
@@ -18,6 +18,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.bson.BSONObject;
+
+import com.meidusa.amoeba.mongodb.handler.merge.QueryCursorMerge;
+import com.meidusa.amoeba.mongodb.handler.merge.QueryCursorMerge.ShardCursor;
 import com.meidusa.amoeba.mongodb.io.MongodbPacketConstant;
 import com.meidusa.amoeba.mongodb.net.MongodbClientConnection;
 import com.meidusa.amoeba.mongodb.net.MongodbServerConnection;
@@ -32,14 +36,31 @@ import com.meidusa.amoeba.util.Tuple;
 public class GetMoreMessageHandler extends AbstractSessionHandler<GetMoreMongodbPacket> {
 	private long cursorID;
 	private Map<MongodbServerConnection,CursorEntry> cursorMap = null;
+	private QueryCursorMerge cursorMerge;
+	private Map<MongodbServerConnection,ShardCursor> shardMap;
 	public GetMoreMessageHandler(MongodbClientConnection clientConn,
 			GetMoreMongodbPacket t) {
 		super(clientConn, t);
 	}
 
 	@Override
-	protected void doClientRequest(MongodbClientConnection conn, byte[] message)
+	protected void doClientRequest(final MongodbClientConnection conn, final byte[] message)
 			throws Exception {
+		this.cursorID = this.requestPacket.cursorID;
+		cursorMerge = clientConn.getCursorMerge(cursorID);
+		if(cursorMerge != null){
+			//the read-ahead of the previous batch is still running, continue when it is done
+			boolean deferred = cursorMerge.deferWhilePrefetching(new Runnable(){
+				public void run(){
+					GetMoreMessageHandler.this.handleMessage(conn, message);
+				}
+			});
+			if(!deferred){
+				doMergeRequest();
+			}
+			return;
+		}
+		
 		List<Tuple<CursorEntry,ObjectPool>> tuples = (List<Tuple<CursorEntry,ObjectPool>>)clientConn.getCursor(cursorID);
 		
 		if(tuples == null || tuples.size() ==0){
@@ -49,12 +70,10 @@ public class GetMoreMessageHandler extends AbstractSessionHandler<GetMoreMongodb
 			return;
 		}
 		
-		this.cursorID = this.requestPacket.cursorID;
-		
+		cursorMap = new HashMap<MongodbServerConnection,CursorEntry>();
 		if(tuples != null && tuples.size() > 1){
 			isMulti = true;
 			this.multiResponsePacket = new ArrayList<ResponseMongodbPacket>();
-			cursorMap = new HashMap<MongodbServerConnection,CursorEntry>();
 		}
 		
 		int index =0;
@@ -75,6 +94,69 @@ public class GetMoreMessageHandler extends AbstractSessionHandler<GetMoreMongodb
 		}
 	}
 
+	/**
+	 * continue a merged cursor, only the shards whose buffered documents ran out are asked for their next batch
+	 */
+	private void doMergeRequest() throws Exception{
+		List<ShardCursor> starving = cursorMerge.getStarvingShards();
+		if(starving.size() == 0){
+			postMergedResponse();
+			return;
+		}
+		
+		isMulti = true;
+		this.multiResponsePacket = new ArrayList<ResponseMongodbPacket>();
+		cursorMap = new HashMap<MongodbServerConnection,CursorEntry>();
+		shardMap = new HashMap<MongodbServerConnection,ShardCursor>();
+		
+		int index =0;
+		MongodbServerConnection[] conns = new MongodbServerConnection[starving.size()];
+		for(ShardCursor shard: starving){
+			MongodbServerConnection serverConn = (MongodbServerConnection)shard.cursor.right.borrowObject();
+			handlerMap.put(serverConn, serverConn.getMessageHandler());
+			serverConn.setSessionMessageHandler(this);
+			conns[index++] = serverConn;
+			cursorMap.put(serverConn, shard.cursor.left);
+			shardMap.put(serverConn, shard);
+		}
+		
+		index = 0;
+		for(ShardCursor shard: starving){
+			this.requestPacket.cursorID = shard.cursor.left.cursorID;
+			conns[index].postMessage(requestPacket.toByteBuffer(this.clientConn));
+			index++;
+		}
+	}
+	
+	private void postMergedResponse(){
+		int startingFrom = cursorMerge.getPosition();
+		List<BSONObject> documents = cursorMerge.nextBatch(this.requestPacket.numberToReturn);
+		BSONObject error = cursorMerge.getError();
+		if(error != null){
+			List<Tuple<CursorEntry,ObjectPool>> tuples = clientConn.removeCursor(cursorID);
+			if(tuples != null && tuples.size() >0){
+				new CursorCloseMessageHandler(clientConn.getSocketId(),tuples);
+			}
+			postQueryFailure(error);
+			return;
+		}
+		ResponseMongodbPacket result = new ResponseMongodbPacket();
+		result.responseTo = this.requestPacket.requestID;
+		result.startingFrom = startingFrom;
+		result.documents = documents;
+		result.numberReturned = result.documents.size();
+		if(cursorMerge.hasMore()){
+			result.cursorID = cursorID;
+			CursorPrefetchHandler.prefetch(clientConn, cursorID, cursorMerge, this.requestPacket.numberToReturn);
+		}else{
+			List<Tuple<CursorEntry,ObjectPool>> tuples = clientConn.removeCursor(cursorID);
+			if(tuples != null && tuples.size() >0){
+				new CursorCloseMessageHandler(clientConn.getSocketId(),tuples);
+			}
+		}
+		clientConn.postMessage(result.toByteBuffer(this.clientConn));
+	}
+
 	@Override
 	protected void doServerResponse(MongodbServerConnection conn, byte[] message) {
 		SimpleResponseMongodbPacket packet = null;
@@ -103,10 +185,21 @@ public class GetMoreMessageHandler extends AbstractSessionHandler<GetMoreMongodb
 			this.clientConn.removeCursorItem(this.cursorID,cursorMap.get(serverConn));
 		}
 		
-		if(isMulti){
-			multiResponsePacket.add((ResponseMongodbPacket)packet);
+		if(cursorMerge != null){
+			cursorMerge.refill(shardMap.get(serverConn), (ResponseMongodbPacket)packet);
+			if(endQuery(conn)){
+				postMergedResponse();
+			}
+		}else if(isMulti){
+			if(ROUTER_TRACE.isDebugEnabled()){
+				message = packet.toByteBuffer(conn).array();
+			}
+			if(!keepResponse(serverConn, message)){
+				return;
+			}
 
 			if(endQuery(conn)){
+				readResponses();
 				ResponseMongodbPacket result = mergeResponse(this.requestPacket.numberToReturn == -1);
 				result.cursorID = cursorID;
 				clientConn.postMessage(result.toByteBuffer(this.clientConn));
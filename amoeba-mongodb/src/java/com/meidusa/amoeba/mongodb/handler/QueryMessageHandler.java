@@ -20,6 +20,8 @@ import org.bson.BSONObject;
 
 import com.meidusa.amoeba.context.ProxyRuntimeContext;
 import com.meidusa.amoeba.mongodb.handler.merge.FunctionMerge;
+import com.meidusa.amoeba.mongodb.handler.merge.GroupResponseMerge;
+import com.meidusa.amoeba.mongodb.handler.merge.QueryCursorMerge;
 import com.meidusa.amoeba.mongodb.io.MongodbPacketConstant;
 import com.meidusa.amoeba.mongodb.net.MongodbClientConnection;
 import com.meidusa.amoeba.mongodb.net.MongodbServerConnection;
@@ -35,6 +37,8 @@ import com.meidusa.amoeba.util.Tuple;
 public class QueryMessageHandler extends AbstractSessionHandler<QueryMongodbPacket> {
 	
 	private List<Tuple<CursorEntry,ObjectPool>> cursorList;
+	private QueryCursorMerge cursorMerge;
+	private GroupResponseMerge groupMerge;
 	public QueryMessageHandler(MongodbClientConnection clientConn,QueryMongodbPacket packet) {
 		super(clientConn,packet);
 	}
@@ -109,8 +113,26 @@ public class QueryMessageHandler extends AbstractSessionHandler<QueryMongodbPack
 			isMulti = true;
 			cursorList = new ArrayList<Tuple<CursorEntry,ObjectPool>>();
 			this.multiResponsePacket = new ArrayList<ResponseMongodbPacket>();
+
+			//sort, skip and limit must be applied over all shards, shard cursors are read ahead by the merge
+			if(cmd == 0 && requestPacket.fullCollectionName.indexOf(".$cmd")<0
+					&& requestPacket.fullCollectionName.indexOf("system.namespaces")<0){
+				cursorMerge = QueryCursorMerge.create(requestPacket);
+				if(cursorMerge != null){
+					int numberToSkip = requestPacket.numberToSkip;
+					int numberToReturn = requestPacket.numberToReturn;
+					requestPacket.numberToSkip = 0;
+					requestPacket.numberToReturn = QueryCursorMerge.getShardNumberToReturn(numberToSkip, numberToReturn);
+					message = requestPacket.toByteBuffer(clientConn).array();
+					requestPacket.numberToSkip = numberToSkip;
+					requestPacket.numberToReturn = numberToReturn;
+				}
+			}else if(cmd == MongodbPacketConstant.CMD_GROUP){
+				//shard replies are reduced as they arrive
+				groupMerge = new GroupResponseMerge(requestPacket);
+			}
 		}
-		
+
 		MongodbServerConnection[] conns = new MongodbServerConnection[pools.length];
 		int index =0;
 		for(ObjectPool pool: pools){
@@ -161,16 +183,39 @@ public class QueryMessageHandler extends AbstractSessionHandler<QueryMongodbPack
 			putDebugInfoToResponsePacket((ResponseMongodbPacket)packet,conn);
 		}
 		if(isMulti){
-			multiResponsePacket.add((ResponseMongodbPacket)packet);
+			if(groupMerge != null){
+				groupMerge.addResponse((ResponseMongodbPacket)packet);
+				if(endQuery(conn)){
+					clientConn.postMessage(groupMerge.getResponse(this.requestPacket.requestID).toByteBuffer(this.clientConn));
+				}
+				return;
+			}
+
+			Tuple<CursorEntry,ObjectPool> tuple = null;
 			if(packet.cursorID >0){
 				CursorEntry entry = new CursorEntry();
 				entry.cursorID = packet.cursorID;
 				entry.fullCollectionName = this.requestPacket.fullCollectionName;
-				Tuple<CursorEntry,ObjectPool> tuple = new Tuple<CursorEntry,ObjectPool>(entry,serverConn.getObjectPool());
+				tuple = new Tuple<CursorEntry,ObjectPool>(entry,serverConn.getObjectPool());
 				this.cursorList.add(tuple);
 			}
-			
+
+			if(cursorMerge != null){
+				cursorMerge.addShard(tuple, (ResponseMongodbPacket)packet);
+				if(endQuery(conn)){
+					postMergedResponse();
+				}
+				return;
+			}
+
+			if(ROUTER_TRACE.isDebugEnabled()){
+				message = packet.toByteBuffer(conn).array();
+			}
+			if(!keepResponse(serverConn, message)){
+				return;
+			}
 			if(endQuery(conn)){
+				readResponses();
 				long cursrID = 0;
 				if(cursorList.size()>=1){
 					cursrID = this.clientConn.nextCursorID();
@@ -214,4 +259,37 @@ public class QueryMessageHandler extends AbstractSessionHandler<QueryMongodbPack
 			}
 		}
 	}
+
+	/**
+	 * first batch of a multi-pool query, the following batches are served by {@link GetMoreMessageHandler}
+	 */
+	private void postMergedResponse(){
+		List<BSONObject> documents = cursorMerge.nextBatch(this.requestPacket.numberToReturn);
+		BSONObject error = cursorMerge.getError();
+		if(error != null){
+			List<Tuple<CursorEntry,ObjectPool>> openCursors = cursorMerge.getOpenCursors();
+			cursorMerge.close();
+			if(openCursors.size() >0){
+				new CursorCloseMessageHandler(clientConn.getSocketId(),openCursors);
+			}
+			postQueryFailure(error);
+			return;
+		}
+		ResponseMongodbPacket result = new ResponseMongodbPacket();
+		result.responseTo = this.requestPacket.requestID;
+		result.documents = documents;
+		result.numberReturned = result.documents.size();
+		if(cursorMerge.hasMore()){
+			result.cursorID = this.clientConn.nextCursorID();
+			clientConn.putCursorMerge(result.cursorID, cursorMerge);
+			CursorPrefetchHandler.prefetch(clientConn, result.cursorID, cursorMerge, this.requestPacket.numberToReturn);
+		}else{
+			List<Tuple<CursorEntry,ObjectPool>> openCursors = cursorMerge.getOpenCursors();
+			cursorMerge.close();
+			if(openCursors.size() >0){
+				new CursorCloseMessageHandler(clientConn.getSocketId(),openCursors);
+			}
+		}
+		clientConn.postMessage(result.toByteBuffer(this.clientConn));
+	}
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright amoeba.meidusa.com
+ *
+ * 	This program is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU AFFERO GENERAL PUBLIC LICENSE as published by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * 	This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU AFFERO GENERAL PUBLIC LICENSE for more details.
+ * 	You should have received a copy of the GNU AFFERO GENERAL PUBLIC LICENSE along with this program;
+ * if not, write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.meidusa.amoeba.mongodb.handler;
+
+import org.apache.log4j.Logger;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+
+import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.mongodb.io.MongodbPacketConstant;
+import com.meidusa.amoeba.mongodb.net.MongodbClientConnection;
+import com.meidusa.amoeba.mongodb.net.MongodbServerConnection;
+import com.meidusa.amoeba.mongodb.packet.MongodbPacketBuffer;
+import com.meidusa.amoeba.mongodb.packet.QueryMongodbPacket;
+import com.meidusa.amoeba.mongodb.packet.ResponseMongodbPacket;
+import com.meidusa.amoeba.mongodb.route.MongodbQueryRouter;
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.net.MessageHandler;
+import com.meidusa.amoeba.net.SessionMessageHandler;
+import com.meidusa.amoeba.net.poolable.ObjectPool;
+
+/**
+ * Reserve the next segment of a {@link SequenceSegmentBuffer} with a findandmodify on AMOEBA.SEQUENCE,
+ * independent of the client request that started it.
+ *
+ * @author struct
+ */
+public class SequenceFetchHandler implements SessionMessageHandler{
+	private static Logger logger = Logger.getLogger(SequenceFetchHandler.class);
+	private static String SEQ_NAME="seq_name";
+	private static String VALUE = "value";
+	private MongodbClientConnection clientConn;
+	private SequenceSegmentBuffer buffer;
+	private Object previous;
+	private long size;
+	private MessageHandler messageHandler;
+	private boolean isEnd = false;
+	protected final long startTime = System.currentTimeMillis();
+
+	/**
+	 * the result is reported to {@link SequenceSegmentBuffer#loaded} or {@link SequenceSegmentBuffer#failed}.
+	 * the fetch may be started from the connection manager thread that received the previous segment,
+	 * the server connection is borrowed on the client side executor.
+	 * @param previous segment the new one is linked behind, null for the first segment
+	 */
+	public static void fetch(MongodbClientConnection clientConn,SequenceSegmentBuffer buffer,Object previous,long size){
+		final SequenceFetchHandler handler = new SequenceFetchHandler();
+		handler.clientConn = clientConn;
+		handler.buffer = buffer;
+		handler.previous = previous;
+		handler.size = size;
+		ProxyRuntimeContext.getInstance().getRuntimeContext().getClientSideExecutor().execute(new Runnable(){
+			public void run(){
+				handler.start();
+			}
+		});
+	}
+
+	private void start(){
+		QueryMongodbPacket packet = getSequenceRequest();
+		MongodbServerConnection serverConn = null;
+		try{
+			MongodbQueryRouter router = (MongodbQueryRouter)ProxyRuntimeContext.getInstance().getQueryRouter();
+			QueryMongodbPacket routePacket = new QueryMongodbPacket();
+			routePacket.fullCollectionName = MongodbPacketConstant.AMOEBA_SEQUENCE;
+			routePacket.query = (BSONObject)packet.query.get("query");
+			ObjectPool[] pools = router.doRoute(clientConn, routePacket);
+			if(pools == null || pools.length==0){
+				pools = router.getDefaultObjectPool();
+			}
+			if(pools == null || pools.length == 0){
+				throw new Exception("no pool to query sequence="+buffer.getName());
+			}
+
+			//the segment must be reserved in a single place
+			synchronized (this) {
+				serverConn = (MongodbServerConnection)pools[0].borrowObject();
+				messageHandler = serverConn.getMessageHandler();
+				serverConn.setSessionMessageHandler(this);
+			}
+		}catch(Exception e){
+			logger.error("fetch sequence segment error, seq_name="+buffer.getName(),e);
+			finish(null,0,e.getMessage() == null ? "SEQUENCE segment fetch error" : e.getMessage());
+			return;
+		}
+
+		if(logger.isDebugEnabled()){
+			logger.debug("--->>>@SequenceFetchPakcet="+packet+"," +clientConn.getSocketId()+" send packet --->"+serverConn.getSocketId());
+		}
+		serverConn.postMessage(packet.toByteBuffer(serverConn));
+	}
+
+	@Override
+	public void handleMessage(Connection conn, byte[] message) {
+		int type = MongodbPacketBuffer.getOPMessageType(message);
+		if(type != MongodbPacketConstant.OP_REPLY){
+			logger.error("unkown sequence response packet type="+type+" ,from "+conn.getSocketId());
+			endQuery(conn);
+			finish(null,0,"SEQUENCE key not found");
+			return;
+		}
+
+		ResponseMongodbPacket packet = new ResponseMongodbPacket();
+		packet.init(message, conn);
+		endQuery(conn);
+
+		if(packet.documents == null || packet.documents.size() == 0){
+			finish(null,0,"SEQUENCE key not found");
+			return;
+		}
+
+		//findandmodify returns the document before $inc, it is null if it has just been created by the upsert
+		long value = 0;
+		Object result = packet.documents.get(0).get(VALUE);
+		if(result instanceof BSONObject){
+			Object object = ((BSONObject)result).get(VALUE);
+			if(object instanceof Number){
+				value = ((Number)object).longValue();
+			}
+		}else if(packet.documents.get(0).get("errmsg") != null){
+			finish(null,0,String.valueOf(packet.documents.get(0).get("errmsg")));
+			return;
+		}
+		finish(Boolean.TRUE,value,null);
+	}
+
+	private synchronized void endQuery(Connection conn){
+		MongodbServerConnection serverConn = (MongodbServerConnection) conn;
+		serverConn.setSessionMessageHandler(null);
+		serverConn.setMessageHandler(messageHandler);
+		try {
+			serverConn.getObjectPool().returnObject(serverConn);
+		} catch (Exception e) {
+		}
+	}
+
+	private void finish(Boolean success,long value,String cause){
+		synchronized (this) {
+			if(isEnd){
+				return;
+			}
+			isEnd = true;
+		}
+		if(success != null){
+			buffer.loaded(clientConn, previous, value, size);
+		}else{
+			buffer.failed(cause);
+		}
+	}
+
+	public boolean checkIdle(long now){
+		return (now - startTime) > ProxyRuntimeContext.getInstance().getRuntimeContext().getQueryTimeout() * 1000;
+	}
+
+	@Override
+	public void forceEndSession(String cause) {
+		finish(null,0,cause);
+	}
+
+	private QueryMongodbPacket getSequenceRequest(){
+		QueryMongodbPacket packet = new QueryMongodbPacket();
+		packet.query = new BasicBSONObject();
+		packet.numberToReturn = -1;
+		packet.fullCollectionName = "AMOEBA.$cmd";
+
+		//findandmodify
+		packet.query.put("findandmodify", "SEQUENCE");
+
+		//query
+		BSONObject queryKey = new BasicBSONObject();
+		queryKey.put(SEQ_NAME, buffer.getName());
+
+		packet.query.put("query",queryKey);
+
+		//update
+		BSONObject update = new BasicBSONObject();
+		BSONObject value = new BasicBSONObject();
+		value.put(VALUE, size);
+		update.put("$inc", value);
+
+		BSONObject set = new BasicBSONObject();
+		set.put(SEQ_NAME, buffer.getName());
+		update.put("$set", set);
+
+		packet.query.put("update",update);
+
+		BSONObject returnFieldSelector = new BasicBSONObject();
+		returnFieldSelector.put(VALUE, 1);
+		packet.query.put("fields", returnFieldSelector);
+		//upsert
+		packet.query.put("upsert", true);
+
+		packet.requestID = this.clientConn.getNextRequestId();
+		return packet;
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright amoeba.meidusa.com
+ *
+ * 	This program is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU AFFERO GENERAL PUBLIC LICENSE as published by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * 	This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU AFFERO GENERAL PUBLIC LICENSE for more details.
+ * 	You should have received a copy of the GNU AFFERO GENERAL PUBLIC LICENSE along with this program;
+ * if not, write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.meidusa.amoeba.mongodb.handler;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.meidusa.amoeba.mongodb.net.MongodbClientConnection;
+
+/**
+ * Sequence values of one <code>seq_name</code>, handed out from segments reserved in AMOEBA.SEQUENCE.
+ *
+ * <pre>
+ * The current segment is consumed with a single incrementAndGet. Once less than 1/5 of it is left
+ * the next segment is fetched in the background by {@link SequenceFetchHandler} and linked behind it,
+ * the first caller that runs past the end of the current segment switches to it with a CAS.
+ *
+ * Only requests that find both segments exhausted have to wait, they are queued as {@link SequenceCallback}
+ * and answered when the fetch completes, no thread is blocked.
+ *
+ * The segment size doubles while a segment lasts less than {@link #SEGMENT_DURATION}
+ * and halves when it lasts more than twice as long, between {@link #MIN_STEP} and {@link #MAX_STEP}.
+ *
+ * After a failed fetch no other one is started for a delay doubling from {@link #MIN_RETRY_DELAY} to {@link #MAX_RETRY_DELAY}
+ * with the consecutive failures, the requests that need a new segment meanwhile fail with the last error.
+ * </pre>
+ *
+ * @author struct
+ */
+public class SequenceSegmentBuffer {
+	public static final long MIN_STEP = 1000;
+	public static final long MAX_STEP = 1000000;
+	public static final long SEGMENT_DURATION = 15 * 60 * 1000L;
+	public static final long MIN_RETRY_DELAY = 500;
+	public static final long MAX_RETRY_DELAY = 30 * 1000L;
+	private static final long NONE = Long.MIN_VALUE;
+
+	public static interface SequenceCallback{
+		public void onSequence(long value);
+		public void onError(String cause);
+	}
+
+	private static class Segment{
+		/**
+		 * values in (start, end]
+		 */
+		final long start;
+		final long end;
+		final AtomicLong value;
+		final long createTime = System.currentTimeMillis();
+		volatile Segment next;
+
+		Segment(long start,long end){
+			this.start = start;
+			this.end = end;
+			this.value = new AtomicLong(start);
+		}
+	}
+
+	private final String name;
+	private final AtomicReference<Segment> current = new AtomicReference<Segment>();
+	private final AtomicBoolean loading = new AtomicBoolean(false);
+	private final ConcurrentLinkedQueue<SequenceCallback> waiters = new ConcurrentLinkedQueue<SequenceCallback>();
+	private volatile long step = MIN_STEP;
+	private volatile long failTime;
+	private volatile long retryDelay;
+	private volatile String failCause;
+
+	public SequenceSegmentBuffer(String name){
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return size of the next segment
+	 */
+	public long getStep() {
+		return step;
+	}
+
+	/**
+	 * answer the callback with the next value, from the calling thread if the buffered segments are not exhausted
+	 * @param conn connection the segment request is issued for if a fetch has to be started
+	 */
+	public void next(MongodbClientConnection conn,SequenceCallback callback){
+		long value = allocate(conn);
+		if(value != NONE){
+			callback.onSequence(value);
+			return;
+		}
+		waiters.add(callback);
+
+		//the fetch may have completed or failed before the callback was queued
+		if(isAvailable()){
+			drain(conn);
+		}else if(!loading.get()){
+			load(conn,current.get());
+		}
+	}
+
+	private long allocate(MongodbClientConnection conn){
+		for(;;){
+			Segment segment = current.get();
+			if(segment == null){
+				load(conn,null);
+				return NONE;
+			}
+
+			long value = segment.value.incrementAndGet();
+			if(value <= segment.end){
+				if(segment.next == null && (segment.end - value) * 5 < (segment.end - segment.start)){
+					load(conn,segment);
+				}
+				return value;
+			}
+
+			Segment next = segment.next;
+			if(next == null){
+				load(conn,segment);
+				return NONE;
+			}
+			current.compareAndSet(segment, next);
+		}
+	}
+
+	private boolean isAvailable(){
+		Segment segment = current.get();
+		return segment != null && (segment.value.get() < segment.end || segment.next != null);
+	}
+
+	/**
+	 * start fetching the segment following <code>segment</code> unless a fetch is already running
+	 */
+	private void load(MongodbClientConnection conn,Segment segment){
+		if(System.currentTimeMillis() - failTime < retryDelay){
+			failWaiters(failCause);
+			return;
+		}
+
+		if(!loading.compareAndSet(false, true)){
+			return;
+		}
+
+		//the segment may have been fetched between the check and the flag
+		if(current.get() != segment || (segment != null && segment.next != null)){
+			loading.set(false);
+			return;
+		}
+
+		long size = step;
+		if(segment != null){
+			long duration = System.currentTimeMillis() - segment.createTime;
+			if(duration < SEGMENT_DURATION){
+				size = Math.min(size * 2, MAX_STEP);
+			}else if(duration > SEGMENT_DURATION * 2){
+				size = Math.max(size / 2, MIN_STEP);
+			}
+			step = size;
+		}
+		SequenceFetchHandler.fetch(conn, this, segment, size);
+	}
+
+	/**
+	 * called by {@link SequenceFetchHandler} with the segment reserved in AMOEBA.SEQUENCE
+	 * @param previous argument of the fetch, null if it is the first segment
+	 * @param start value before the reservation
+	 * @param size number of values reserved
+	 */
+	void loaded(MongodbClientConnection conn,Object previous,long start,long size){
+		Segment segment = new Segment(start,start + size);
+		if(previous == null){
+			current.compareAndSet(null, segment);
+		}else{
+			((Segment)previous).next = segment;
+		}
+		retryDelay = 0;
+		loading.set(false);
+		drain(conn);
+	}
+
+	/**
+	 * called by {@link SequenceFetchHandler} if the segment could not be fetched, the waiting requests fail
+	 */
+	void failed(String cause){
+		failCause = cause;
+		retryDelay = (retryDelay == 0 ? MIN_RETRY_DELAY : Math.min(retryDelay * 2, MAX_RETRY_DELAY));
+		failTime = System.currentTimeMillis();
+		loading.set(false);
+		failWaiters(cause);
+	}
+
+	private void failWaiters(String cause){
+		SequenceCallback callback = null;
+		while((callback = waiters.poll()) != null){
+			callback.onError(cause);
+		}
+	}
+
+	private void drain(MongodbClientConnection conn){
+		SequenceCallback callback = null;
+		while((callback = waiters.poll()) != null){
+			long value = allocate(conn);
+			if(value != NONE){
+				callback.onSequence(value);
+				continue;
+			}
+			waiters.add(callback);
+			if(!isAvailable()){
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright amoeba.meidusa.com
+ *
+ * 	This program is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU AFFERO GENERAL PUBLIC LICENSE as published by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * 	This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU AFFERO GENERAL PUBLIC LICENSE for more details.
+ * 	You should have received a copy of the GNU AFFERO GENERAL PUBLIC LICENSE along with this program;
+ * if not, write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.meidusa.amoeba.mongodb.handler.merge;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.bson.BSONObject;
+import org.bson.types.BSONTimestamp;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import com.meidusa.amoeba.util.StringUtil;
+
+/**
+ * Compare documents the way mongod does for a <code>$orderby</code> specification,
+ * so that sorted shard batches can be merged in the proxy.
+ *
+ * <pre>
+ * type order: null &lt; numbers &lt; strings &lt; objects &lt; arrays &lt; binary &lt; ObjectId &lt; boolean &lt; date &lt; timestamp &lt; regex
+ * </pre>
+ *
+ * @author struct
+ */
+public class BSONComparator implements Comparator<BSONObject> {
+	private String[][] paths;
+	private int[] directions;
+
+	public BSONComparator(BSONObject orderBy){
+		Set<String> keys = orderBy.keySet();
+		paths = new String[keys.size()][];
+		directions = new int[keys.size()];
+		int index = 0;
+		for(String key : keys){
+			paths[index] = StringUtil.split(key, ".");
+			Object direction = orderBy.get(key);
+			if(direction instanceof Number && ((Number)direction).intValue() < 0){
+				directions[index] = -1;
+			}else{
+				directions[index] = 1;
+			}
+			index++;
+		}
+	}
+
+	public int compare(BSONObject o1, BSONObject o2) {
+		for(int i=0;i<paths.length;i++){
+			int result = compareValue(getValue(o1,paths[i]),getValue(o2,paths[i]));
+			if(result != 0){
+				return result * directions[i];
+			}
+		}
+		return 0;
+	}
+
+	protected static Object getValue(BSONObject object,String[] path){
+		Object value = object;
+		for(String name : path){
+			if(value instanceof BSONObject){
+				value = ((BSONObject)value).get(name);
+			}else{
+				return null;
+			}
+		}
+		return value;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static int compareValue(Object v1,Object v2){
+		int t1 = typeOrder(v1);
+		int t2 = typeOrder(v2);
+		if(t1 != t2){
+			return t1 < t2 ? -1 : 1;
+		}
+
+		switch(t1){
+		case 0:
+			return 0;
+		case 1:{
+			Number n1 = (Number)v1;
+			Number n2 = (Number)v2;
+			if(isIntegral(n1) && isIntegral(n2)){
+				long l1 = n1.longValue();
+				long l2 = n2.longValue();
+				return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+			}
+			return Double.compare(n1.doubleValue(), n2.doubleValue());
+		}
+		case 2:
+			return v1.toString().compareTo(v2.toString());
+		case 4:{
+			List<Object> l1 = (List<Object>)v1;
+			List<Object> l2 = (List<Object>)v2;
+			int size = Math.min(l1.size(), l2.size());
+			for(int i=0;i<size;i++){
+				int result = compareValue(l1.get(i),l2.get(i));
+				if(result != 0){
+					return result;
+				}
+			}
+			return l1.size() - l2.size();
+		}
+		case 3:{
+			BSONObject b1 = (BSONObject)v1;
+			BSONObject b2 = (BSONObject)v2;
+			Object[] k1 = b1.keySet().toArray();
+			Object[] k2 = b2.keySet().toArray();
+			int size = Math.min(k1.length, k2.length);
+			for(int i=0;i<size;i++){
+				int result = ((String)k1[i]).compareTo((String)k2[i]);
+				if(result == 0){
+					result = compareValue(b1.get((String)k1[i]),b2.get((String)k2[i]));
+				}
+				if(result != 0){
+					return result;
+				}
+			}
+			return k1.length - k2.length;
+		}
+		case 5:{
+			byte[] b1 = v1 instanceof Binary ? ((Binary)v1).getData() : (byte[])v1;
+			byte[] b2 = v2 instanceof Binary ? ((Binary)v2).getData() : (byte[])v2;
+			if(b1.length != b2.length){
+				return b1.length - b2.length;
+			}
+			for(int i=0;i<b1.length;i++){
+				if(b1[i] != b2[i]){
+					return (b1[i] & 0xff) - (b2[i] & 0xff);
+				}
+			}
+			return 0;
+		}
+		case 6:
+			return ((ObjectId)v1).compareTo((ObjectId)v2);
+		case 7:{
+			boolean b1 = (Boolean)v1;
+			boolean b2 = (Boolean)v2;
+			return b1 == b2 ? 0 : (b1 ? 1 : -1);
+		}
+		case 8:
+			return ((Date)v1).compareTo((Date)v2);
+		case 9:{
+			BSONTimestamp ts1 = (BSONTimestamp)v1;
+			BSONTimestamp ts2 = (BSONTimestamp)v2;
+			if(ts1.getTime() != ts2.getTime()){
+				return ts1.getTime() < ts2.getTime() ? -1 : 1;
+			}
+			return ts1.getInc() - ts2.getInc();
+		}
+		default:
+			return v1.toString().compareTo(v2.toString());
+		}
+	}
+
+	private static boolean isIntegral(Number number){
+		return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+	}
+
+	private static int typeOrder(Object value){
+		if(value == null){
+			return 0;
+		}else if(value instanceof Number){
+			return 1;
+		}else if(value instanceof String || value instanceof Character){
+			return 2;
+		}else if(value instanceof List){
+			return 4;
+		}else if(value instanceof BSONObject){
+			return 3;
+		}else if(value instanceof Binary || value instanceof byte[]){
+			return 5;
+		}else if(value instanceof ObjectId){
+			return 6;
+		}else if(value instanceof Boolean){
+			return 7;
+		}else if(value instanceof Date){
+			return 8;
+		}else if(value instanceof BSONTimestamp){
+			return 9;
+		}else if(value instanceof Pattern){
+			return 10;
+		}
+		return 11;
+	}
+}
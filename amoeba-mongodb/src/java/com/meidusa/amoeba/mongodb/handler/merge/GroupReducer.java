@@ -1,7 +1,9 @@
 package com.meidusa.amoeba.mongodb.handler.merge;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -15,12 +17,14 @@ import com.meidusa.amoeba.util.ObjectUtil;
 import com.meidusa.amoeba.util.StringUtil;
 
 /**
+ * reduce and finalize functions of a group command are parsed once into OGNL expressions,
+ * the reducer is shared by every merge of the same command, the merge state is kept in an {@link Aggregation}.
  * 
  * @author struct
  *
  */
 public class GroupReducer {
-	protected Set<String> keys = null;
+	protected String[] keys = null;
 	private String[] reducerParams = new String[2];
 	private String finalizeParam;
 	private Object reduceExpression;
@@ -28,7 +32,8 @@ public class GroupReducer {
 	
 	public void initial(BSONObject keys,String function,String finalize){
 		if(keys != null){
-			this.keys = keys.keySet();
+			Set<String> keySet = keys.keySet();
+			this.keys = keySet.toArray(new String[keySet.size()]);
 		}
 		if(function !=null){
 			String temp[] = StringUtil.split(function, "{}");
@@ -65,68 +70,111 @@ public class GroupReducer {
 		
 	}
 	
+	public Aggregation newAggregation(){
+		return new Aggregation();
+	}
+
 	public List<BSONObject> reduce(List<List<BSONObject>> inputObjs){
-		List<BSONObject> output = null;
+		Aggregation aggregation = newAggregation();
 		for(List<BSONObject> inputs : inputObjs){
+			aggregation.add(inputs);
+		}
+		return aggregation.finish();
+	}
+
+	/**
+	 * groups of one merge, keyed by the values of the group key fields
+	 */
+	public class Aggregation{
+		private Map<GroupKey,BSONObject> groups = new LinkedHashMap<GroupKey,BSONObject>();
+		private Map<String,BSONObject> root = new HashMap<String,BSONObject>(2);
+		@SuppressWarnings("unchecked")
+		private Map<String,Object> context = Ognl.createDefaultContext(root);
+
+		/**
+		 * reduce the groups returned by one shard into the groups of the previous shards
+		 */
+		public synchronized void add(List<BSONObject> inputs){
 			if(inputs == null){
-				continue;
-			}
-			
-			if(output == null){
-				output = inputs;
+				return;
 			}
-			List<BSONObject> notMatchList = null;
-			Map<String,BSONObject> root = new HashMap<String,BSONObject>(2);
-			Map<String,Object> context = new HashMap<String,Object>();
 			for(BSONObject input : inputs){
-				_Match_:{
-					for(BSONObject prev : output ){
-						if(isMatch(input,prev)){
-							root.put(reducerParams[0], input);
-							root.put(reducerParams[1], prev);
-							function(context,root);
-							break _Match_;
-						}
-					}
-					
-					if(notMatchList == null){
-						notMatchList = new ArrayList<BSONObject>();
-					}
-					notMatchList.add(input);
+				GroupKey key = new GroupKey(input);
+				BSONObject prev = groups.get(key);
+				if(prev == null){
+					groups.put(key, input);
+				}else{
+					root.put(reducerParams[0], input);
+					root.put(reducerParams[1], prev);
+					function(context,root);
 				}
 			}
-			
-			if(notMatchList != null){
-				output.addAll(notMatchList);
-			}
-			
 		}
 		
-		if(output != null){
-			Map<String,BSONObject> root = new HashMap<String,BSONObject>(2);
-			Map<String,Object> context = new HashMap<String,Object>();
-			for(BSONObject prev : output ){
-				root.put(finalizeParam, prev);
-				finalize(context,root);
+		public synchronized int size(){
+			return groups.size();
+		}
+
+		/**
+		 * @return null if no shard returned any group
+		 */
+		public synchronized List<BSONObject> finish(){
+			if(groups.size() == 0){
+				return null;
+			}
+			List<BSONObject> output = new ArrayList<BSONObject>(groups.values());
+			if(finalizeExpression != null){
+				root.clear();
+				for(BSONObject prev : output ){
+					root.put(finalizeParam, prev);
+					GroupReducer.this.finalize(context,root);
+				}
 			}
+			return output;
 		}
-		
-		return output;
 	}
 	
-	protected boolean isMatch(BSONObject input,BSONObject prev){
-		if(keys == null){
-			return true;
+	private class GroupKey{
+		private Object[] values;
+		private int hash;
+
+		GroupKey(BSONObject input){
+			if(keys == null){
+				values = new Object[0];
+			}else{
+				values = new Object[keys.length];
+				for(int i=0;i<keys.length;i++){
+					values[i] = input.get(keys[i]);
+				}
+			}
+			hash = Arrays.deepHashCode(values);
+		}
+
+		public int hashCode(){
+			return hash;
 		}
-		for(String key : keys){
-			if(!ObjectUtil.equals(input.get(key),prev.get(key))){
+
+		public boolean equals(Object object){
+			if(!(object instanceof GroupKey)){
+				return false;
+			}
+			GroupKey other = (GroupKey)object;
+			if(hash != other.hash || values.length != other.values.length){
 				return false;
 			}
+			for(int i=0;i<values.length;i++){
+				if(!ObjectUtil.equals(values[i],other.values[i])){
+					return false;
+				}
+			}
+			return true;
 		}
-		return true;
 	}
 	
 	protected  void function(Map<String,Object> context,Map<String,BSONObject> root){
+		if(reduceExpression == null){
+			return;
+		}
 		try {
 			Ognl.getValue(reduceExpression, context, root);
 		} catch (OgnlException e) {
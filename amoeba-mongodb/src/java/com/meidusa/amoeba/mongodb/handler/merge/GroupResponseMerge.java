@@ -0,0 +1,91 @@
+/*
+ * Copyright amoeba.meidusa.com
+ *
+ * 	This program is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU AFFERO GENERAL PUBLIC LICENSE as published by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * 	This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU AFFERO GENERAL PUBLIC LICENSE for more details.
+ * 	You should have received a copy of the GNU AFFERO GENERAL PUBLIC LICENSE along with this program;
+ * if not, write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.meidusa.amoeba.mongodb.handler.merge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BSONObject;
+
+import com.meidusa.amoeba.mongodb.packet.QueryMongodbPacket;
+import com.meidusa.amoeba.mongodb.packet.ResponseMongodbPacket;
+
+/**
+ * merge the group command replies of every shard as they arrive,
+ * the retval of a reply is reduced into the groups of the previous replies and the reply is released.
+ *
+ * @author struct
+ */
+public class GroupResponseMerge {
+	private GroupReducer.Aggregation aggregation;
+	private ResponseMongodbPacket result;
+	private BSONObject errorResult;
+	private Number count;
+
+	public GroupResponseMerge(QueryMongodbPacket queryPacket){
+		BSONObject groupBSONObject = (BSONObject)queryPacket.query.get("group");
+		aggregation = GroupFunctionMerge.getGroupReducer(groupBSONObject).newAggregation();
+	}
+
+	@SuppressWarnings("unchecked")
+	public synchronized void addResponse(ResponseMongodbPacket response){
+		if(response.numberReturned <=0 || response.documents == null || response.documents.size() == 0){
+			return;
+		}
+
+		BSONObject document = response.documents.get(0);
+		List<BSONObject> list = (List<BSONObject>)document.get("retval");
+		if(list == null){
+			if(errorResult == null){
+				errorResult = document;
+			}
+			return;
+		}
+
+		if(result == null){
+			result = response;
+		}
+
+		Object scanned = document.get("count");
+		if(scanned instanceof Number){
+			count = (count == null ? (Number)scanned : MergeMath.add(count, (Number)scanned));
+		}
+		aggregation.add(list);
+	}
+
+	/**
+	 * @return reply of the first shard that returned a retval, holding the merged groups
+	 */
+	public synchronized ResponseMongodbPacket getResponse(int responseTo){
+		if(result == null){
+			result = new ResponseMongodbPacket();
+			result.documents = new ArrayList<BSONObject>(1);
+			if(errorResult != null){
+				result.documents.add(errorResult);
+			}
+		}else{
+			BSONObject res = result.documents.get(0);
+			List<BSONObject> groups = aggregation.finish();
+			res.put("retval",groups);
+			if(count != null){
+				res.put("count", count.doubleValue());
+			}
+			res.put("keys", groups == null ? 0 : groups.size());
+		}
+
+		result.responseTo = responseTo;
+		result.numberReturned = (result.documents == null?0:result.documents.size());
+		return result;
+	}
+}
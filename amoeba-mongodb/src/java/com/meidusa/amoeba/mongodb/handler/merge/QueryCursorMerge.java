@@ -0,0 +1,478 @@
+/*
+ * Copyright amoeba.meidusa.com
+ *
+ * 	This program is free software; you can redistribute it and/or modify it under the terms of
+ * the GNU AFFERO GENERAL PUBLIC LICENSE as published by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * 	This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU AFFERO GENERAL PUBLIC LICENSE for more details.
+ * 	You should have received a copy of the GNU AFFERO GENERAL PUBLIC LICENSE along with this program;
+ * if not, write to the Free Software Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package com.meidusa.amoeba.mongodb.handler.merge;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+import org.bson.BSONEncoder;
+import org.bson.BSONException;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+import org.bson.LazyBSONObject;
+
+import com.meidusa.amoeba.mongodb.io.MongodbPacketConstant;
+import com.meidusa.amoeba.mongodb.packet.CursorEntry;
+import com.meidusa.amoeba.mongodb.packet.QueryMongodbPacket;
+import com.meidusa.amoeba.mongodb.packet.ResponseMongodbPacket;
+import com.meidusa.amoeba.net.poolable.ObjectPool;
+import com.meidusa.amoeba.util.MemoryAccountant;
+import com.meidusa.amoeba.util.SpillBufferList;
+import com.meidusa.amoeba.util.Tuple;
+
+/**
+ * k-way merge of the batches returned by every shard of a multi-pool query that sorts, skips or limits its documents.
+ *
+ * <pre>
+ * Each shard returns its documents already sorted by <code>$orderby</code>, so the merge only has to
+ * pick the smallest head document of all shard buffers. A shard whose buffer is drained but whose
+ * cursor is still open blocks the merge until its next batch arrives through OP_GET_MORE.
+ *
+ * numberToSkip and a negative numberToReturn (hard limit) are applied once over the merged stream,
+ * every shard is asked for numberToSkip + numberToReturn documents instead.
+ *
+ * Without <code>$orderby</code> shard batches are returned as they are buffered and a drained shard
+ * does not block the others.
+ *
+ * A shard reply with the QueryFailure or CursorNotFound flag, or an <code>$err</code> document, is not merged:
+ * the merge keeps the first error and can not continue, its client gets the error instead of the next batch.
+ *
+ * The buffers also hold the batches read ahead by {@link com.meidusa.amoeba.mongodb.handler.CursorPrefetchHandler},
+ * a client OP_GET_MORE that arrives while a read-ahead is running is deferred until it completes.
+ *
+ * The raw bytes of the buffered documents are kept by a {@link SpillBufferList} per shard, accounted by a
+ * {@link MemoryAccountant.Session} of the merge: over the budget of the session they are spilled to disk
+ * and read back as the merge reaches them. The list of a shard is cleared each time the shard is drained.
+ * </pre>
+ *
+ * @author struct
+ */
+public class QueryCursorMerge {
+	private static Logger logger = Logger.getLogger(QueryCursorMerge.class);
+
+	/**
+	 * size assumed for the documents of a read-ahead before any document has been received
+	 */
+	private static final int DEFAULT_DOCUMENT_SIZE = 1024;
+
+	public static class ShardCursor{
+		/**
+		 * null if the shard cursor has been exhausted or closed by mongod
+		 */
+		public Tuple<CursorEntry,ObjectPool> cursor;
+		private SpillBufferList documents;
+		private int next;
+		private BSONObject head;
+		private int index;
+
+		private ShardCursor(MemoryAccountant.Session memory){
+			documents = new SpillBufferList(memory);
+		}
+
+		public boolean isStarving(){
+			return isEmpty() && cursor != null;
+		}
+
+		private boolean isEmpty(){
+			return next >= documents.size();
+		}
+
+		private BSONObject peek(){
+			if(head == null){
+				head = new LazyBSONObject(documents.get(next));
+			}
+			return head;
+		}
+
+		/**
+		 * the list is cleared once all its documents are taken, so that its memory and spill file are released
+		 */
+		private BSONObject poll(){
+			BSONObject document = peek();
+			head = null;
+			next++;
+			if(next >= documents.size()){
+				clear();
+			}
+			return document;
+		}
+
+		private void clear(){
+			documents.clear();
+			next = 0;
+			head = null;
+		}
+	}
+
+	private final Comparator<BSONObject> comparator;
+	private final List<ShardCursor> shards = new ArrayList<ShardCursor>();
+	private final Comparator<ShardCursor> shardComparator = new Comparator<ShardCursor>(){
+		public int compare(ShardCursor s1, ShardCursor s2) {
+			if(comparator != null){
+				int result = comparator.compare(s1.peek(), s2.peek());
+				if(result != 0){
+					return result;
+				}
+			}
+			return s1.index - s2.index;
+		}
+	};
+
+	private int skip;
+	private int limit;
+	private boolean singleBatch;
+	private int position;
+	private boolean closed;
+	private boolean prefetching;
+	private Runnable pendingRequest;
+	private volatile long lastAccessTime = System.currentTimeMillis();
+	private final MemoryAccountant.Session memory = MemoryAccountant.getInstance().newSession();
+	private long bufferedBytes;
+	private long receivedBytes;
+	private long receivedDocuments;
+	private BSONObject error;
+
+	/**
+	 * @param orderBy sort specification, null to concatenate shard batches in shard order
+	 * @param numberToSkip numberToSkip of the client query
+	 * @param numberToReturn numberToReturn of the client query
+	 */
+	public QueryCursorMerge(BSONObject orderBy,int numberToSkip,int numberToReturn){
+		this.comparator = (orderBy == null || orderBy.keySet().size() == 0) ? null : new BSONComparator(orderBy);
+		this.skip = Math.max(numberToSkip, 0);
+		if(numberToReturn < 0 || numberToReturn == 1){
+			this.limit = Math.abs(numberToReturn);
+			this.singleBatch = true;
+		}
+	}
+
+	/**
+	 * @return merge for a multi-pool query with <code>$orderby</code>, numberToSkip or a limit,
+	 * null if the shard batches can be passed through as they are
+	 */
+	public static QueryCursorMerge create(QueryMongodbPacket packet){
+		BSONObject orderBy = getOrderBy(packet.query);
+		if(orderBy == null && packet.numberToSkip <= 0 && packet.numberToReturn >= 0 && packet.numberToReturn != 1){
+			return null;
+		}
+		return new QueryCursorMerge(orderBy,packet.numberToSkip,packet.numberToReturn);
+	}
+
+	/**
+	 * @return the error of a shard reply, null if the reply holds documents to merge
+	 */
+	public static BSONObject getError(ResponseMongodbPacket reply){
+		BSONObject first = (reply.documents == null || reply.documents.size() == 0) ? null : reply.documents.get(0);
+		if((reply.responseFlags & MongodbPacketConstant.REPLY_CURSOR_NOT_FOUND) != 0){
+			return new BasicBSONObject("$err", "cursor not found");
+		}
+		if((reply.responseFlags & MongodbPacketConstant.REPLY_QUERY_FAILURE) != 0){
+			return (first != null ? first : new BasicBSONObject("$err", "query failure"));
+		}
+		if(first != null && first.containsField("$err")){
+			return first;
+		}
+		return null;
+	}
+
+	public static BSONObject getOrderBy(BSONObject query){
+		if(query == null){
+			return null;
+		}
+		Object orderBy = query.get("$orderby");
+		if(orderBy == null && query.containsField("query")){
+			orderBy = query.get("orderby");
+		}
+		if(orderBy instanceof BSONObject && ((BSONObject)orderBy).keySet().size() > 0){
+			return (BSONObject)orderBy;
+		}
+		return null;
+	}
+
+	/**
+	 * numberToReturn each shard must be asked for so that the global skip/limit can be applied by the proxy
+	 */
+	public static int getShardNumberToReturn(int numberToSkip,int numberToReturn){
+		if(numberToReturn == 0){
+			return 0;
+		}
+		int skip = Math.max(numberToSkip, 0);
+		if(numberToReturn < 0 || numberToReturn == 1){
+			return -(skip + Math.abs(numberToReturn));
+		}
+		return skip + numberToReturn;
+	}
+
+	/**
+	 * @param cursor cursor of the shard, null if the first batch is the only one
+	 * @param reply first batch of the shard
+	 */
+	public synchronized ShardCursor addShard(Tuple<CursorEntry,ObjectPool> cursor,ResponseMongodbPacket reply){
+		ShardCursor shard = new ShardCursor(memory);
+		shard.index = shards.size();
+		shard.cursor = cursor;
+		shards.add(shard);
+		append(shard,reply);
+		return shard;
+	}
+
+	/**
+	 * append the OP_GET_MORE batch of a shard, the shard cursor is exhausted if the cursorID of the reply is 0
+	 */
+	public synchronized void refill(ShardCursor shard,ResponseMongodbPacket reply){
+		append(shard,reply);
+		if(reply.cursorID <= 0){
+			shard.cursor = null;
+		}
+	}
+
+	private void append(ShardCursor shard,ResponseMongodbPacket reply){
+		BSONObject shardError;
+		try{
+			shardError = getError(reply);
+		}catch(BSONException e){
+			shardError = new BasicBSONObject("$err", e.getMessage());
+		}
+		if(shardError != null){
+			if(error == null){
+				error = shardError;
+			}
+			return;
+		}
+		if(reply.documents == null || closed){
+			return;
+		}
+		try{
+			for(BSONObject document : reply.documents){
+				byte[] bytes = toBytes(document);
+				shard.documents.add(bytes);
+				bufferedBytes += bytes.length;
+				receivedBytes += bytes.length;
+			}
+			receivedDocuments += reply.documents.size();
+		}catch(IllegalStateException e){
+			logger.error("spill shard documents error", e);
+			error = new BasicBSONObject("$err", e.getMessage());
+		}
+	}
+
+	/**
+	 * @return raw bytes of the document, a document changed after it was read is encoded again
+	 */
+	private static byte[] toBytes(BSONObject document){
+		if(document instanceof LazyBSONObject && !((LazyBSONObject)document).isModified()){
+			return ((LazyBSONObject)document).getBytes();
+		}
+		return new BSONEncoder().encode(document);
+	}
+
+	/**
+	 * shards that must be asked for their next batch before the merge can continue
+	 */
+	public synchronized List<ShardCursor> getStarvingShards(){
+		List<ShardCursor> starving = new ArrayList<ShardCursor>();
+		if(closed || error != null){
+			return starving;
+		}
+		for(ShardCursor shard : shards){
+			if(shard.isStarving()){
+				starving.add(shard);
+			}
+		}
+		return starving;
+	}
+
+	public synchronized List<Tuple<CursorEntry,ObjectPool>> getOpenCursors(){
+		List<Tuple<CursorEntry,ObjectPool>> cursors = new ArrayList<Tuple<CursorEntry,ObjectPool>>();
+		for(ShardCursor shard : shards){
+			if(shard.cursor != null){
+				cursors.add(shard.cursor);
+			}
+		}
+		return cursors;
+	}
+
+	/**
+	 * merge the next batch of documents, a sort key that can not be decoded fails the merge
+	 * @param batchSize numberToReturn of the client request, 0 means as many as the shard buffers allow
+	 */
+	public synchronized List<BSONObject> nextBatch(int batchSize){
+		List<BSONObject> batch = new ArrayList<BSONObject>();
+		if(closed || error != null){
+			return batch;
+		}
+
+		batchSize = Math.abs(batchSize);
+		try{
+			PriorityQueue<ShardCursor> heap = new PriorityQueue<ShardCursor>(Math.max(shards.size(),1),shardComparator);
+			for(ShardCursor shard : shards){
+				if(comparator != null && shard.isStarving()){
+					return batch;
+				}
+				if(!shard.isEmpty()){
+					heap.add(shard);
+				}
+			}
+
+			while(!heap.isEmpty()){
+				if(limit > 0 && position >= limit){
+					break;
+				}
+				if(batchSize > 0 && batch.size() >= batchSize){
+					break;
+				}
+				ShardCursor shard = heap.poll();
+				BSONObject document = shard.poll();
+				bufferedBytes -= ((LazyBSONObject)document).getLength();
+				if(skip > 0){
+					skip--;
+				}else{
+					batch.add(document);
+					position++;
+				}
+				if(!shard.isEmpty()){
+					heap.add(shard);
+				}else if(comparator != null && shard.cursor != null){
+					break;
+				}
+			}
+		}catch(BSONException e){
+			logger.error("merge shard documents error", e);
+			error = new BasicBSONObject("$err", e.getMessage());
+			batch.clear();
+		}
+
+		if(singleBatch){
+			close();
+		}
+		return batch;
+	}
+
+	/**
+	 * @return the first error replied by a shard, null if none, the merge can not continue otherwise
+	 */
+	public synchronized BSONObject getError(){
+		return error;
+	}
+
+	/**
+	 * drop the buffered documents, release their memory and delete the spill files, the shard cursors are closed by the caller
+	 */
+	public synchronized void close(){
+		closed = true;
+		for(ShardCursor shard : shards){
+			shard.clear();
+		}
+		bufferedBytes = 0;
+		memory.releaseAll();
+	}
+
+	/**
+	 * @return size of the buffered documents, on the heap or spilled
+	 */
+	public synchronized int getBufferedBytes(){
+		return (int)bufferedBytes;
+	}
+
+	/**
+	 * numberToReturn of a read-ahead: the starving shards together are asked for no more documents
+	 * than the rest of the budget holds, at the average size of the documents received so far
+	 * @param budget bytes the merge may buffer
+	 * @param numberToReturn batch size of the client, 0 for the default batch of mongod
+	 * @return numberToReturn of each shard, 0 if the budget has no room for one document per shard
+	 */
+	public synchronized int getPrefetchNumberToReturn(long budget,int shardCount,int numberToReturn){
+		long remaining = budget - bufferedBytes;
+		if(remaining <= 0 || shardCount <= 0){
+			return 0;
+		}
+		long averageSize = (receivedDocuments > 0 ? Math.max(receivedBytes / receivedDocuments, 1) : DEFAULT_DOCUMENT_SIZE);
+		long count = remaining / shardCount / averageSize;
+		if(numberToReturn != 0){
+			count = Math.min(count, Math.abs(numberToReturn));
+		}
+		return (int)Math.min(count, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * fail the merge, the next batch of the client is an error
+	 */
+	public synchronized void fail(String cause){
+		if(error == null){
+			error = new BasicBSONObject("$err", cause);
+		}
+	}
+
+	/**
+	 * @return false if a read-ahead is already running or the merge is closed or failed
+	 */
+	public synchronized boolean startPrefetch(){
+		if(prefetching || closed || error != null){
+			return false;
+		}
+		prefetching = true;
+		return true;
+	}
+
+	/**
+	 * @return the client request deferred during the read-ahead, or null
+	 */
+	public synchronized Runnable endPrefetch(){
+		prefetching = false;
+		Runnable request = pendingRequest;
+		pendingRequest = null;
+		return request;
+	}
+
+	/**
+	 * @return true if the request has been deferred until the running read-ahead completes
+	 */
+	public synchronized boolean deferWhilePrefetching(Runnable request){
+		lastAccessTime = System.currentTimeMillis();
+		if(prefetching){
+			pendingRequest = request;
+			return true;
+		}
+		return false;
+	}
+
+	public long getLastAccessTime(){
+		return lastAccessTime;
+	}
+
+	/**
+	 * @return documents returned to the client before the next batch
+	 */
+	public synchronized int getPosition(){
+		return position;
+	}
+
+	/**
+	 * @return true if the client may still ask for documents with OP_GET_MORE
+	 */
+	public synchronized boolean hasMore(){
+		if(closed || error != null || (limit > 0 && position >= limit)){
+			return false;
+		}
+		for(ShardCursor shard : shards){
+			if(shard.cursor != null || !shard.isEmpty()){
+				return true;
+			}
+		}
+		return false;
+	}
+}
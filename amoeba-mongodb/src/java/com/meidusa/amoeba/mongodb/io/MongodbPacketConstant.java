@@ -32,6 +32,9 @@ public interface MongodbPacketConstant {
 	public static int OP_DELETE = 2006;//  Delete documents  
 	public static int OP_KILL_CURSORS=  2007;//  Tell database client is done with a cursor
 	
+	public static int REPLY_CURSOR_NOT_FOUND = 1;//  responseFlags: the cursorID of OP_GET_MORE is not known by the server  
+	public static int REPLY_QUERY_FAILURE = 1<<1;//  responseFlags: the query failed, the reply holds one $err document  
+	
 	public static int CMD_COUNT = 1<<1;
 	public static int CMD_DISTINCT = 1<<2;
 	public static int CMD_MAP_REDUCE = 1<<3;
@@ -15,6 +15,7 @@ package com.meidusa.amoeba.mongodb.net;
 
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -36,6 +37,7 @@ import com.meidusa.amoeba.mongodb.handler.InsertMessageHandler;
 import com.meidusa.amoeba.mongodb.handler.KillCursorMessageHandler;
 import com.meidusa.amoeba.mongodb.handler.QueryMessageHandler;
 import com.meidusa.amoeba.mongodb.handler.UpdateMessageHandler;
+import com.meidusa.amoeba.mongodb.handler.merge.QueryCursorMerge;
 import com.meidusa.amoeba.mongodb.interceptor.PacketInterceptor;
 import com.meidusa.amoeba.mongodb.io.MongodbPacketConstant;
 import com.meidusa.amoeba.mongodb.packet.AbstractMongodbPacket;
@@ -62,13 +64,28 @@ public class MongodbClientConnection extends AbstractMongodbConnection{
 	protected  static Logger logger = Logger.getLogger(MongodbClientConnection.class);
 	private LinkedBlockingQueue<byte[]> lastErrorQueue = new LinkedBlockingQueue<byte[]>(1);
 	private Map<String,PacketInterceptor<AbstractMongodbPacket>> interceptors;
+	
+	/**
+	 * read-ahead budget of a merged cursor in bytes, 0 disables the read-ahead
+	 */
+	private int cursorPrefetchSize = 1024 * 1024;
+	
+	/**
+	 * merged cursors not accessed for this time (TimeUnit:second) are closed
+	 */
+	private int cursorPrefetchTimeout = 600;
 	private AtomicInteger LastErrorrequestId = new AtomicInteger(0);
 	private AtomicInteger sequeceRequestId = new AtomicInteger(0);
 	private AtomicLong currentCursorID = new AtomicLong(0x10001L);
+	private Map<Long,QueryCursorMerge> cursorMergeMap = new HashMap<Long,QueryCursorMerge>();
 	private LRUMap cursorMap = new LRUMap(10){
 		private static final long serialVersionUID = 1L;
 		protected boolean removeLRU(LinkEntry entry){
 			boolean result = super.removeLRU(entry);
+			QueryCursorMerge merge = cursorMergeMap.remove(entry.getKey());
+			if(merge != null){
+				merge.close();
+			}
 			List<Tuple<CursorEntry,ObjectPool>> tupleList = (List<Tuple<CursorEntry,ObjectPool>>)entry.getValue();
 			if(tupleList.size()>0){
 				new CursorCloseMessageHandler(MongodbClientConnection.this.getSocketId(),tupleList);
@@ -138,7 +155,7 @@ public class MongodbClientConnection extends AbstractMongodbConnection{
 				for(Tuple<CursorEntry,ObjectPool> storedTuple : tuples){
 					if(storedTuple.left.equals(cursorEntry)){
 						tuples.remove(storedTuple);
-						if(tuples.size() == 0){
+						if(tuples.size() == 0 && !cursorMergeMap.containsKey(cursorID)){
 							cursorMap.remove(cursorID);
 						}
 						break;
@@ -148,8 +165,28 @@ public class MongodbClientConnection extends AbstractMongodbConnection{
 		}
 	}
 	
+	/**
+	 * register a merged cursor, the open shard cursors of the merge are registered under the same cursorID
+	 */
+	public void putCursorMerge(long cursorID,QueryCursorMerge merge){
+		synchronized (cursorMap) {
+			cursorMap.put(cursorID, merge.getOpenCursors());
+			cursorMergeMap.put(cursorID, merge);
+		}
+	}
+	
+	public QueryCursorMerge getCursorMerge(long cursorID){
+		synchronized (cursorMap) {
+			return cursorMergeMap.get(cursorID);
+		}
+	}
+	
 	public List<Tuple<CursorEntry,ObjectPool>> removeCursor(long cursorID){
 		synchronized (cursorMap) {
+			QueryCursorMerge merge = cursorMergeMap.remove(cursorID);
+			if(merge != null){
+				merge.close();
+			}
 			return (List<Tuple<CursorEntry,ObjectPool>>) cursorMap.remove(cursorID);
 		}
 	}
@@ -174,6 +211,76 @@ public class MongodbClientConnection extends AbstractMongodbConnection{
 		return sequeceRequestId.incrementAndGet();
 	}
 
+	public int getCursorPrefetchSize() {
+		return cursorPrefetchSize;
+	}
+
+	public void setCursorPrefetchSize(int cursorPrefetchSize) {
+		this.cursorPrefetchSize = cursorPrefetchSize;
+	}
+
+	public int getCursorPrefetchTimeout() {
+		return cursorPrefetchTimeout;
+	}
+
+	public void setCursorPrefetchTimeout(int cursorPrefetchTimeout) {
+		this.cursorPrefetchTimeout = cursorPrefetchTimeout;
+	}
+
+	public boolean checkIdle(long now){
+		if(cursorPrefetchTimeout > 0){
+			expireCursorMerges(now);
+		}
+		return super.checkIdle(now);
+	}
+	
+	/**
+	 * release the buffered documents of idle merged cursors and close their shard cursors
+	 */
+	private void expireCursorMerges(long now){
+		final List<List<Tuple<CursorEntry,ObjectPool>>> expired = new ArrayList<List<Tuple<CursorEntry,ObjectPool>>>();
+		synchronized (cursorMap) {
+			if(cursorMergeMap.size() == 0){
+				return;
+			}
+			for(Long cursorID : new ArrayList<Long>(cursorMergeMap.keySet())){
+				QueryCursorMerge merge = cursorMergeMap.get(cursorID);
+				if(now - merge.getLastAccessTime() > cursorPrefetchTimeout * 1000L){
+					cursorMergeMap.remove(cursorID);
+					merge.close();
+					List<Tuple<CursorEntry,ObjectPool>> tuples = (List<Tuple<CursorEntry,ObjectPool>>)cursorMap.remove(cursorID);
+					if(tuples != null && tuples.size() >0){
+						expired.add(tuples);
+					}
+				}
+			}
+		}
+		
+		if(expired.size() >0){
+			//do not borrow server connections from the connection manager thread
+			ProxyRuntimeContext.getInstance().getRuntimeContext().getClientSideExecutor().execute(new Runnable(){
+				public void run(){
+					for(List<Tuple<CursorEntry,ObjectPool>> tuples : expired){
+						new CursorCloseMessageHandler(MongodbClientConnection.this.getSocketId(),tuples);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * the buffered documents of the merged cursors are released with the connection
+	 */
+	protected void close(Exception exception) {
+		super.close(exception);
+		synchronized (cursorMap) {
+			for(QueryCursorMerge merge : cursorMergeMap.values()){
+				merge.close();
+			}
+			cursorMergeMap.clear();
+		}
+	}
+	
 	public Map<String, PacketInterceptor<AbstractMongodbPacket>> getInterceptors() {
 		return interceptors;
 	}
@@ -24,6 +24,24 @@ import com.meidusa.amoeba.net.Connection;
 
 public class MongodbClientConnectionFactory extends AbstractConnectionFactory{
 	private Map<String,PacketInterceptor<AbstractMongodbPacket>> interceptors;
+	private int cursorPrefetchSize = 1024 * 1024;
+	private int cursorPrefetchTimeout = 600;
+	
+	public int getCursorPrefetchSize() {
+		return cursorPrefetchSize;
+	}
+
+	public void setCursorPrefetchSize(int cursorPrefetchSize) {
+		this.cursorPrefetchSize = cursorPrefetchSize;
+	}
+
+	public int getCursorPrefetchTimeout() {
+		return cursorPrefetchTimeout;
+	}
+
+	public void setCursorPrefetchTimeout(int cursorPrefetchTimeout) {
+		this.cursorPrefetchTimeout = cursorPrefetchTimeout;
+	}
 	
 	public Map<String, PacketInterceptor<AbstractMongodbPacket>> getInterceptors() {
 		return interceptors;
@@ -39,6 +57,8 @@ public class MongodbClientConnectionFactory extends AbstractConnectionFactory{
 			long createStamp) {
 		MongodbClientConnection conn = new MongodbClientConnection(channel,createStamp);
 		conn.setInterceptors(interceptors);
+		conn.setCursorPrefetchSize(cursorPrefetchSize);
+		conn.setCursorPrefetchTimeout(cursorPrefetchTimeout);
 		return conn;
 	}
 
@@ -19,6 +19,7 @@ import java.io.UnsupportedEncodingException;
 import org.bson.BSONDecoder;
 import org.bson.BSONEncoder;
 import org.bson.BSONObject;
+import org.bson.LazyBSONObject;
 import org.bson.io.BasicOutputBuffer;
 
 import com.meidusa.amoeba.net.packet.AbstractPacketBuffer;
@@ -139,7 +140,21 @@ public class MongodbPacketBuffer extends AbstractPacketBuffer {
 		return null;
 	}
 	
+	/**
+	 * the returned document keeps a reference to this buffer and decodes its fields on access
+	 */
+	public LazyBSONObject readLazyBSONObject(){
+		LazyBSONObject object = new LazyBSONObject(this.buffer,this.position);
+		this.position += object.getLength();
+		return object;
+	}
+	
 	public void writeBSONObject(BSONObject object){
+		if(object instanceof LazyBSONObject && !((LazyBSONObject)object).isModified()){
+			LazyBSONObject lazy = (LazyBSONObject)object;
+			writeBytes(lazy.getBuffer(), lazy.getOffset(), lazy.getLength());
+			return;
+		}
 		BasicOutputBuffer buffer = new BasicOutputBuffer();
 		ENCODER.get().set(buffer);
 		ENCODER.get().encode(object);
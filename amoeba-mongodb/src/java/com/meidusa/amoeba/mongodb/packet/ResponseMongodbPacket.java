@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.bson.BSONObject;
+import org.bson.LazyBSONObject;
 
 import com.meidusa.amoeba.mongodb.io.MongodbPacketConstant;
 
@@ -59,12 +60,23 @@ public class ResponseMongodbPacket extends SimpleResponseMongodbPacket {
 		if(buffer.hasRemaining()){
 			documents = new ArrayList<BSONObject>();
 			do{
-				BSONObject obj = buffer.readBSONObject();
+				BSONObject obj = buffer.readLazyBSONObject();
 				documents.add(obj);
 			}while(buffer.hasRemaining());
 		}
 	}
 
+	@Override
+	protected int calculatePacketSize() {
+		int size = super.calculatePacketSize() + 20;
+		if(documents != null){
+			for(BSONObject doc: documents){
+				size += (doc instanceof LazyBSONObject ? ((LazyBSONObject)doc).getLength() : 64);
+			}
+		}
+		return size;
+	}
+
 	@Override
 	protected void write2Buffer(MongodbPacketBuffer buffer)
 			throws UnsupportedEncodingException {
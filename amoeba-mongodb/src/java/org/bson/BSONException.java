@@ -0,0 +1,19 @@
+// BSONException.java
+
+package org.bson;
+
+/**
+ * A document that can not be decoded: unknown element type or bad length.
+ */
+public class BSONException extends RuntimeException {
+
+    private static final long serialVersionUID = -4415279469780082174L;
+
+    public BSONException( String msg ){
+        super( msg );
+    }
+
+    public BSONException( String msg , Throwable t ){
+        super( msg , t );
+    }
+}
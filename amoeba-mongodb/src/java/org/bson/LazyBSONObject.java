@@ -0,0 +1,318 @@
+// LazyBSONObject.java
+
+package org.bson;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.bson.BSON.*;
+import org.bson.types.*;
+
+/**
+ * A <code>BSONObject</code> backed by the raw bytes it was read from.
+ * Top level scalar fields are decoded on access without building the document tree,
+ * the whole document is only decoded by {@link BSONDecoder} when it is modified,
+ * a nested object or array is requested, or it is converted to a map.
+ * <p>
+ * While the document is not modified {@link #getBytes()} returns the original encoding,
+ * so documents that are only forwarded can be copied byte-for-byte.
+ * <p>
+ * A field of a type that can not be read, or a bad length, raises a {@link BSONException} when it is reached.
+ */
+public class LazyBSONObject implements BSONObject {
+
+    /**
+     * @param bytes buffer holding the document, it must not be changed afterwards
+     * @param offset position of the document length
+     */
+    public LazyBSONObject( byte[] bytes , int offset ){
+        _bytes = bytes;
+        _offset = offset;
+        _length = readInt( offset );
+    }
+
+    public LazyBSONObject( byte[] bytes ){
+        this( bytes , 0 );
+    }
+
+    /**
+     * @return true if the raw bytes no longer reflect the content of this document
+     */
+    public boolean isModified(){
+        return _modified;
+    }
+
+    /**
+     * @return total size of the encoded document
+     */
+    public int getLength(){
+        return _length;
+    }
+
+    public byte[] getBuffer(){
+        return _bytes;
+    }
+
+    public int getOffset(){
+        return _offset;
+    }
+
+    /**
+     * @return a copy of the original encoding
+     */
+    public byte[] getBytes(){
+        byte[] b = new byte[_length];
+        System.arraycopy( _bytes , _offset , b , 0 , _length );
+        return b;
+    }
+
+    public Object get( String key ){
+        if ( _document != null )
+            return _document.get( key );
+
+        int pos = find( key );
+        if ( pos < 0 )
+            return null;
+
+        final byte type = _bytes[pos];
+        int value = skipCString( pos + 1 );
+        switch ( type ){
+        case NULL:
+            return null;
+        case BOOLEAN:
+            return BSON.applyDecodingHooks( _bytes[value] > 0 );
+        case NUMBER:
+            return BSON.applyDecodingHooks( Double.longBitsToDouble( readLong( value ) ) );
+        case NUMBER_INT:
+            return BSON.applyDecodingHooks( readInt( value ) );
+        case NUMBER_LONG:
+            return BSON.applyDecodingHooks( readLong( value ) );
+        case DATE:
+            return BSON.applyDecodingHooks( new Date( readLong( value ) ) );
+        case TIMESTAMP:
+            return BSON.applyDecodingHooks( new BSONTimestamp( readInt( value + 4 ) , readInt( value ) ) );
+        case OID:
+            return BSON.applyDecodingHooks( new ObjectId( readInt( value ) , readInt( value + 4 ) , readInt( value + 8 ) ) );
+        case SYMBOL:
+        case CODE:
+        case STRING:
+            return BSON.applyDecodingHooks( readString( value + 4 , readInt( value ) - 1 ) );
+        default:
+            // mutable values: the caller may change them in place
+            return document( true ).get( key );
+        }
+    }
+
+    public boolean containsField( String s ){
+        if ( _document != null )
+            return _document.containsField( s );
+        return find( s ) >= 0;
+    }
+
+    /**
+     * @deprecated
+     */
+    @Deprecated
+    public boolean containsKey( String s ){
+        return containsField( s );
+    }
+
+    public Set<String> keySet(){
+        if ( _document != null )
+            return _document.keySet();
+
+        Set<String> keys = new LinkedHashSet<String>();
+        int pos = _offset + 4;
+        final int end = _offset + _length;
+        while ( pos < end && _bytes[pos] != EOO ){
+            int value = skipCString( pos + 1 );
+            if ( _bytes[pos] != UNDEFINED )
+                keys.add( readString( pos + 1 , value - pos - 2 ) );
+            pos = skipValue( _bytes[pos] , value );
+        }
+        return keys;
+    }
+
+    public Object put( String key , Object v ){
+        return document( true ).put( key , v );
+    }
+
+    public void putAll( BSONObject o ){
+        document( true ).putAll( o );
+    }
+
+    @SuppressWarnings("rawtypes")
+    public void putAll( Map m ){
+        document( true ).putAll( m );
+    }
+
+    public Object removeField( String key ){
+        return document( true ).removeField( key );
+    }
+
+    @SuppressWarnings("rawtypes")
+    public Map toMap(){
+        return document( true ).toMap();
+    }
+
+    public boolean equals( Object o ){
+        if ( this == o )
+            return true;
+        if ( o instanceof LazyBSONObject && !_modified && !((LazyBSONObject)o)._modified ){
+            LazyBSONObject other = (LazyBSONObject)o;
+            if ( _length != other._length )
+                return false;
+            for ( int i = 0; i < _length; i++ )
+                if ( _bytes[_offset + i] != other._bytes[other._offset + i] )
+                    return false;
+            return true;
+        }
+        return o instanceof BSONObject && document( false ).equals( o );
+    }
+
+    public int hashCode(){
+        return document( false ).hashCode();
+    }
+
+    public String toString(){
+        return document( false ).toString();
+    }
+
+    /**
+     * @param modify true if the caller may change the decoded document, the raw bytes are stale from then on
+     */
+    private BSONObject document( boolean modify ){
+        if ( _document == null ){
+            try {
+                _document = new BSONDecoder().readObject( new ByteArrayInputStream( _bytes , _offset , _length ) );
+            }
+            catch ( IOException ioe ){
+                throw new BSONException( "bad document" , ioe );
+            }
+            catch ( RuntimeException e ){
+                throw new BSONException( "can't decode document : " + e.getMessage() , e );
+            }
+        }
+        if ( modify )
+            _modified = true;
+        return _document;
+    }
+
+    /**
+     * @return position of the type byte of the element, -1 if not found
+     */
+    private int find( String key ){
+        final byte[] name;
+        try {
+            name = key.getBytes( "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException uee ){
+            throw new RuntimeException( "impossible" , uee );
+        }
+
+        int pos = _offset + 4;
+        final int end = _offset + _length;
+        while ( pos < end && _bytes[pos] != EOO ){
+            int value = skipCString( pos + 1 );
+            if ( _bytes[pos] != UNDEFINED && value - pos - 2 == name.length ){
+                boolean match = true;
+                for ( int i = 0; i < name.length; i++ ){
+                    if ( _bytes[pos + 1 + i] != name[i] ){
+                        match = false;
+                        break;
+                    }
+                }
+                if ( match )
+                    return pos;
+            }
+            pos = skipValue( _bytes[pos] , value );
+        }
+        return -1;
+    }
+
+    private int skipCString( int pos ){
+        while ( _bytes[pos] != 0 )
+            pos++;
+        return pos + 1;
+    }
+
+    private int skipValue( byte type , int pos ){
+        int next = valueEnd( type , pos );
+        if ( next < pos || next > _offset + _length )
+            throw new BSONException( "bad length of element type : " + type );
+        return next;
+    }
+
+    private int valueEnd( byte type , int pos ){
+        switch ( type ){
+        case NULL:
+        case UNDEFINED:
+        case MINKEY:
+        case MAXKEY:
+            return pos;
+        case BOOLEAN:
+            return pos + 1;
+        case NUMBER_INT:
+            return pos + 4;
+        case NUMBER:
+        case NUMBER_LONG:
+        case DATE:
+        case TIMESTAMP:
+            return pos + 8;
+        case OID:
+            return pos + 12;
+        case DECIMAL128:
+            return pos + 16;
+        case SYMBOL:
+        case CODE:
+        case STRING:
+            return pos + 4 + readInt( pos );
+        case OBJECT:
+        case ARRAY:
+        case CODE_W_SCOPE:
+            return pos + readInt( pos );
+        case BINARY:
+            return pos + 5 + readInt( pos );
+        case REGEX:
+            return skipCString( skipCString( pos ) );
+        case REF:
+            return pos + 4 + readInt( pos ) + 12;
+        default:
+            throw new BSONException( "LazyBSONObject doesn't understand type : " + type );
+        }
+    }
+
+    private int readInt( int pos ){
+        final byte[] b = _bytes;
+        return (b[pos] & 0xff)
+            | ((b[pos + 1] & 0xff) << 8)
+            | ((b[pos + 2] & 0xff) << 16)
+            | ((b[pos + 3] & 0xff) << 24);
+    }
+
+    private long readLong( int pos ){
+        return (readInt( pos ) & 0xFFFFFFFFL) | (((long)readInt( pos + 4 )) << 32);
+    }
+
+    private String readString( int pos , int len ){
+        try {
+            return new String( _bytes , pos , len , "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException uee ){
+            throw new RuntimeException( "impossible" , uee );
+        }
+    }
+
+    private static final byte DECIMAL128 = 19;
+
+    private final byte[] _bytes;
+    private final int _offset;
+    private final int _length;
+    private BSONObject _document;
+    private boolean _modified;
+}
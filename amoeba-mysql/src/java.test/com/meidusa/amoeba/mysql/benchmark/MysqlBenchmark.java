@@ -8,6 +8,7 @@ import org.apache.log4j.Logger;
 
 import com.meidusa.amoeba.benchmark.AbstractBenchmark;
 import com.meidusa.amoeba.benchmark.AbstractBenchmarkClient;
+import com.meidusa.amoeba.mysql.benchmark.stub.MysqlStubServer;
 import com.meidusa.amoeba.mysql.net.MysqlServerConnection;
 import com.meidusa.amoeba.mysql.net.MysqlServerConnectionFactory;
 import com.meidusa.amoeba.net.AuthingableConnection;
@@ -51,12 +52,21 @@ public class MysqlBenchmark extends AbstractBenchmark{
 		return new MysqlBenchmarkClient(connection,requestLatcher,responseLatcher,task);
 	}
 	
+	/**
+	 * CmdLineParser.getOptionValue consumes the value, the options are read once for all clients
+	 */
+	private String user = (String)parser.getOptionValue(userOption);
+	private String password = (String)parser.getOptionValue(passwordOption);
+	private String sql = (String)parser.getOptionValue(sqlOption);
+	
+	public String getSql() {
+		return sql;
+	}
+	
 	private BackendConnectionFactory factory = new MysqlServerConnectionFactory(){
 		{
-			String user = (String)parser.getOptionValue(userOption);
-			this.setUser(user);
-			String password = (String)parser.getOptionValue(passwordOption);
-			this.setPassword(password);
+			this.setUser(MysqlBenchmark.this.user);
+			this.setPassword(MysqlBenchmark.this.password);
 		}
 		protected Connection newConnectionInstance(SocketChannel channel,
 				long createStamp) {
@@ -70,4 +80,9 @@ public class MysqlBenchmark extends AbstractBenchmark{
 		return factory;
 	}
 	
+	@Override
+	protected void startStubServers(String ip, int port, int count, int latency, int jitter) throws Exception {
+		MysqlStubServer.startShards(ip, port, count, user, password, 1, 4, 16, latency, jitter);
+	}
+	
 }
@@ -22,9 +22,7 @@ import com.meidusa.amoeba.mysql.net.packet.QueryCommandPacket;
 import com.meidusa.amoeba.mysql.net.packet.ResultSetHeaderPacket;
 import com.meidusa.amoeba.mysql.net.packet.RowDataPacket;
 import com.meidusa.amoeba.net.Connection;
-import com.meidusa.amoeba.util.CmdLineParser;
 import com.meidusa.amoeba.util.StringUtil;
-import com.meidusa.amoeba.util.CmdLineParser.Option;
 
 /**
  * 
@@ -72,9 +70,7 @@ public class MysqlBenchmarkClient extends AbstractBenchmarkClient<AbstractPacket
 				beanParameterMap.put(entry.getKey().toString(), entry.getValue());
 			}
 		}
-		CmdLineParser parser = this.getBenchmark().getCmdLineParser();
-		Option option = parser.getOption("sql");
-		String sql = (String)parser.getOptionValue(option);
+		String sql = ((MysqlBenchmark)this.getBenchmark()).getSql();
 		if(!StringUtil.isEmpty(sql)){
 			beanParameterMap.put("query", sql);
 		}
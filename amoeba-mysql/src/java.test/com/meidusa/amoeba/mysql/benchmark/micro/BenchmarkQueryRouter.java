@@ -0,0 +1,42 @@
+package com.meidusa.amoeba.mysql.benchmark.micro;
+
+import java.util.List;
+
+import com.meidusa.amoeba.mysql.parser.MysqlQueryRouter;
+import com.meidusa.amoeba.route.SqlQueryObject;
+import com.meidusa.amoeba.route.TableRuleFileLoader;
+import com.meidusa.amoeba.util.InitialisationException;
+
+/**
+ * exposes the route evaluation of {@link MysqlQueryRouter} to the micro benchmarks
+ * 
+ * @author struct
+ *
+ */
+public class BenchmarkQueryRouter extends MysqlQueryRouter {
+
+	/**
+	 * @param ruleFile rule file under ${amoeba.home}
+	 * @param statementCacheSize size of the parsed statement cache
+	 */
+	public BenchmarkQueryRouter(String ruleFile,int statementCacheSize) throws InitialisationException{
+		BenchmarkRuntimeContext.install();
+		TableRuleFileLoader loader = new TableRuleFileLoader();
+		loader.setRuleFile(BenchmarkRuntimeContext.getFile(ruleFile));
+		loader.setFunctionFile(BenchmarkRuntimeContext.getFile("conf/ruleFunctionMap.xml"));
+		loader.init();
+		setRuleLoader(loader);
+		setSqlFunctionFile(BenchmarkRuntimeContext.getFile("conf/functionMap.xml"));
+		setDefaultPool(BenchmarkRuntimeContext.POOLS[0]);
+		setLRUMapSize(statementCacheSize);
+		init();
+	}
+
+	/**
+	 * the pool names the query is routed to
+	 */
+	public List<String> evaluate(SqlQueryObject queryObject){
+		beforeSelectPool(null, queryObject);
+		return evaluate(logger.isDebugEnabled() ? new StringBuffer() : null, null, queryObject);
+	}
+}
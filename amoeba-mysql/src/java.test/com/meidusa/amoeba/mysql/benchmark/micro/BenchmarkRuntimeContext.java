@@ -0,0 +1,55 @@
+package com.meidusa.amoeba.mysql.benchmark.micro;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.meidusa.amoeba.config.ConfigUtil;
+import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.context.RuntimeContext;
+import com.meidusa.amoeba.mysql.context.MysqlRuntimeContext;
+import com.meidusa.amoeba.net.poolable.ObjectPool;
+import com.meidusa.amoeba.net.poolable.PoolableObjectPool;
+
+/**
+ * runtime context of the micro benchmarks, no server is started and the pools are never borrowed from.
+ * 
+ * @author struct
+ *
+ */
+public class BenchmarkRuntimeContext extends ProxyRuntimeContext {
+	public static final String[] POOLS = {"server1","server2","server3","server4"};
+	private RuntimeContext runtimeContext = new MysqlRuntimeContext();
+	private Map<String, ObjectPool> poolMap = new HashMap<String, ObjectPool>();
+
+	public BenchmarkRuntimeContext(){
+		runtimeContext.setServerCharset("UTF-8");
+		for(String pool : POOLS){
+			poolMap.put(pool, new PoolableObjectPool());
+		}
+	}
+
+	public Map<String, ObjectPool> getPoolMap() {
+		return poolMap;
+	}
+
+	public RuntimeContext getRuntimeContext() {
+		return runtimeContext;
+	}
+
+	public static synchronized void install(){
+		if(!(ProxyRuntimeContext.getInstance() instanceof BenchmarkRuntimeContext)){
+			ProxyRuntimeContext.setInstance(new BenchmarkRuntimeContext());
+		}
+	}
+
+	/**
+	 * configuration files are resolved under ${amoeba.home}, default is build/build-mysql
+	 */
+	public static File getFile(String path){
+		if(System.getProperty("amoeba.home") == null){
+			System.setProperty("amoeba.home", "build/build-mysql");
+		}
+		return new File(ConfigUtil.filter("${amoeba.home}/" + path));
+	}
+}
@@ -0,0 +1,86 @@
+package com.meidusa.amoeba.mysql.benchmark.micro;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import com.meidusa.amoeba.benchmark.micro.MicroBenchmark;
+import com.meidusa.amoeba.mysql.io.MySqlPacketConstant;
+import com.meidusa.amoeba.mysql.io.MysqlFramedInputStream;
+
+/**
+ * {@link com.meidusa.amoeba.net.io.PacketInputStream#readPacket(ReadableByteChannel)} framing of a result set with 100 packets,
+ * the channel returns at most 16k per read like a socket. the parameter is the size of the packet body.
+ * 
+ * @author struct
+ *
+ */
+public class MysqlFramedInputStreamBenchmark extends MicroBenchmark {
+	private static final int PACKETS = 100;
+	private static final int READ_SIZE = 16 * 1024;
+
+	private static class ArrayChannel implements ReadableByteChannel{
+		private final byte[] data;
+		private int position;
+
+		ArrayChannel(byte[] data){
+			this.data = data;
+		}
+
+		public int read(ByteBuffer dst) throws IOException {
+			int length = Math.min(Math.min(dst.remaining(), READ_SIZE), data.length - position);
+			dst.put(data, position, length);
+			position += length;
+			return length;
+		}
+
+		public void close() throws IOException {
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+	}
+
+	private ArrayChannel channel;
+	private MysqlFramedInputStream input;
+
+	public String[] getParams(){
+		return new String[]{"64","1024","16384"};
+	}
+
+	public void setUp(String param) throws Exception {
+		int size = Integer.parseInt(param);
+		int packetSize = size + MySqlPacketConstant.HEADER_SIZE;
+		byte[] data = new byte[packetSize * PACKETS];
+		for(int i=0;i<PACKETS;i++){
+			int offset = i * packetSize;
+			data[offset] = (byte)(size & 0xff);
+			data[offset+1] = (byte)(size >>> 8);
+			data[offset+2] = (byte)(size >>> 16);
+			data[offset+3] = (byte)(i + 1);
+		}
+		channel = new ArrayChannel(data);
+		input = new MysqlFramedInputStream(true);
+	}
+
+	public Object run() throws Exception {
+		channel.position = 0;
+		int count = 0;
+		byte[] packet = null;
+		while(count < PACKETS){
+			byte[] message = input.readPacket(channel);
+			if(message == null){
+				//partial packet, continued by the next read as on the next OP_READ
+				if(channel.position == channel.data.length){
+					throw new IllegalStateException("read "+count+" packets");
+				}
+				continue;
+			}
+			packet = message;
+			count ++;
+		}
+		return packet;
+	}
+
+}
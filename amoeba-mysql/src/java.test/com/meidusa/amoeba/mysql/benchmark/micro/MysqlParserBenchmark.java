@@ -0,0 +1,54 @@
+package com.meidusa.amoeba.mysql.benchmark.micro;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.meidusa.amoeba.benchmark.micro.MicroBenchmark;
+
+/**
+ * {@link com.meidusa.amoeba.mysql.parser.sql.MysqlParser} through {@link com.meidusa.amoeba.route.SqlBaseQueryRouter#parseStatement},
+ * the statement cache holds one entry and two statements differing in a literal are parsed in turn, so every call is a cache miss.
+ * the case "cached" parses one statement, every call is a cache hit.
+ * 
+ * @author struct
+ *
+ */
+public class MysqlParserBenchmark extends MicroBenchmark {
+	private static final Map<String,String> SQLS = new HashMap<String,String>();
+	static{
+		SQLS.put("select", "select ID, UID, NAME, STATUS, CREATE_TIME from mydb.ORDERS where UID = %d and STATUS in (1, 2, 3) order by CREATE_TIME desc limit 0, 20");
+		SQLS.put("join", "select o.ID, o.AMOUNT, u.NAME from mydb.ORDERS o inner join mydb.USER u on o.UID = u.UID where o.ID = %d and u.STATUS > 0 and o.CREATE_TIME between '2012-01-01' and '2012-02-01'");
+		SQLS.put("insert", "insert into mydb.ORDERS (ID, UID, AMOUNT, STATUS, CREATE_TIME) values (%d, 1234567, 99.5, 1, now())");
+		SQLS.put("update", "update mydb.USER set NAME = 'amoeba', LOGIN_COUNT = LOGIN_COUNT + 1 where UID = %d");
+		SQLS.put("cached", "select * from mydb.USER where UID = %d");
+	}
+
+	private BenchmarkQueryRouter router;
+	private String[] sqls;
+	private int index;
+
+	public String[] getParams(){
+		return new String[]{"select","join","insert","update","cached"};
+	}
+
+	public void setUp(String param) throws Exception {
+		router = new BenchmarkQueryRouter("benchmark/microRule.xml", 1);
+		String sql = SQLS.get(param);
+		if("cached".equals(param)){
+			sqls = new String[]{String.format(sql, 1)};
+		}else{
+			sqls = new String[]{String.format(sql, 1), String.format(sql, 2)};
+		}
+		for(String s : sqls){
+			if(router.parseStatement(null, s) == null){
+				throw new IllegalStateException("parse error:"+s);
+			}
+		}
+	}
+
+	public Object run() throws Exception {
+		index = (index + 1) % sqls.length;
+		return router.parseStatement(null, sqls[index]);
+	}
+
+}
@@ -0,0 +1,52 @@
+package com.meidusa.amoeba.mysql.benchmark.micro;
+
+import java.util.ArrayList;
+
+import com.meidusa.amoeba.benchmark.micro.MicroBenchmark;
+import com.meidusa.amoeba.mysql.net.packet.RowDataPacket;
+
+/**
+ * {@link com.meidusa.amoeba.mysql.net.packet.MysqlPacketBuffer} encoding and decoding of a text protocol row with 10 columns
+ * 
+ * @author struct
+ *
+ */
+public class MysqlRowPacketBenchmark extends MicroBenchmark {
+	private RowDataPacket row;
+	private byte[] message;
+	private boolean encode;
+
+	public String[] getParams(){
+		return new String[]{"encode","decode"};
+	}
+
+	public void setUp(String param) throws Exception {
+		BenchmarkRuntimeContext.install();
+		encode = "encode".equals(param);
+		row = new RowDataPacket(false);
+		row.packetId = 5;
+		row.columns = new ArrayList<Object>();
+		row.columns.add(1234567L);
+		row.columns.add(7654321L);
+		row.columns.add("amoeba");
+		row.columns.add("amoeba@meidusa.com");
+		row.columns.add(null);
+		row.columns.add(99.5d);
+		row.columns.add(1);
+		row.columns.add("2012-01-01 12:00:00");
+		row.columns.add("a product description of about sixty characters long, utf-8");
+		row.columns.add(0);
+		message = row.toByteBuffer(null).array();
+	}
+
+	public Object run() throws Exception {
+		if(encode){
+			return row.toByteBuffer(null);
+		}else{
+			RowDataPacket packet = new RowDataPacket(false);
+			packet.init(message, null);
+			return packet;
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.meidusa.amoeba.mysql.benchmark.micro;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.meidusa.amoeba.benchmark.micro.MicroBenchmark;
+import com.meidusa.amoeba.route.SqlQueryObject;
+
+/**
+ * {@link com.meidusa.amoeba.route.AbstractQueryRouter#evaluate} over the rules of ${amoeba.home}/benchmark/microRule.xml,
+ * the statements are parsed once and served from the statement cache as in the proxy.
+ * 
+ * @author struct
+ *
+ */
+public class QueryRouterBenchmark extends MicroBenchmark {
+	private static final Map<String,Object[]> QUERIES = new HashMap<String,Object[]>();
+	static{
+		QUERIES.put("hash", new Object[]{"select * from mydb.USER where UID = 1234567", null});
+		QUERIES.put("range", new Object[]{"select * from mydb.ORDERS where ID = 7500000 and STATUS = 1", null});
+		QUERIES.put("in", new Object[]{"select * from mydb.ORDERS where ID in (100, 1500000, 2500000, 7500000)", null});
+		QUERIES.put("prepared", new Object[]{"update mydb.USER set NAME = ? where UID = ?", new Object[]{"amoeba", 1234567L}});
+		QUERIES.put("regex", new Object[]{"insert into mydb.LOG_201201 (ID, MSG) values (15, 'message')", null});
+		QUERIES.put("noRule", new Object[]{"select * from mydb.PRODUCT where ID = 1", null});
+	}
+
+	private BenchmarkQueryRouter router;
+	private SqlQueryObject queryObject;
+
+	public String[] getParams(){
+		return new String[]{"hash","range","in","prepared","regex","noRule"};
+	}
+
+	public void setUp(String param) throws Exception {
+		if(router == null){
+			router = new BenchmarkQueryRouter("benchmark/microRule.xml", 1000);
+		}
+		Object[] query = QUERIES.get(param);
+		queryObject = new SqlQueryObject();
+		queryObject.sql = (String)query[0];
+		queryObject.parameters = (Object[])query[1];
+		if(router.evaluate(queryObject).isEmpty()){
+			throw new IllegalStateException("no pool matched:"+queryObject.sql);
+		}
+	}
+
+	public Object run() throws Exception {
+		return router.evaluate(queryObject);
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.meidusa.amoeba.mysql.benchmark.stub;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.meidusa.amoeba.mysql.net.packet.AuthenticationPacket;
+import com.meidusa.amoeba.mysql.util.CharsetMapping;
+import com.meidusa.amoeba.mysql.util.Security;
+import com.meidusa.amoeba.net.AuthResponseData;
+import com.meidusa.amoeba.net.Authenticator;
+import com.meidusa.amoeba.net.AuthingableConnection;
+import com.meidusa.amoeba.util.StringUtil;
+
+/**
+ * checks the user and the scrambled password as mysql does
+ *
+ * @author struct
+ *
+ */
+public class MysqlStubAuthenticator extends Authenticator<AuthenticationPacket> {
+	private String user;
+	private String password;
+
+	public String getUser() {
+		return user;
+	}
+
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	protected void processAuthentication(AuthingableConnection conn,
+			AuthenticationPacket packet, AuthResponseData rdata) {
+		MysqlStubConnection stubConn = (MysqlStubConnection)conn;
+		boolean passwordChecked = false;
+		try{
+			if(!StringUtil.isEmpty(password)){
+				String encrypted = new String(Security.scramble411(password, stubConn.getSeed()),AuthenticationPacket.CODE_PAGE_1252);
+				passwordChecked = packet.encryptedPassword != null
+						&& StringUtils.equals(new String(packet.encryptedPassword,AuthenticationPacket.CODE_PAGE_1252), encrypted);
+			}else{
+				passwordChecked = packet.encryptedPassword == null || packet.encryptedPassword.length == 0;
+			}
+		}catch(Exception e){
+			rdata.code = AuthResponseData.ERROR;
+			rdata.message = e.getMessage();
+			return;
+		}
+
+		if(StringUtil.equals(user, packet.user) && passwordChecked){
+			String charset = CharsetMapping.INDEX_TO_CHARSET[packet.charsetNumber & 0xff];
+			stubConn.setCharset(charset);
+			stubConn.setSchema(packet.database);
+			rdata.code = AuthResponseData.SUCCESS;
+		}else{
+			rdata.code = AuthResponseData.ERROR;
+			rdata.message = "Access denied for user '"+packet.user+"'@'"+ conn.getSocketId() +"'"
+					+(packet.encryptedPassword != null && packet.encryptedPassword.length > 0 ? " (using password: YES)" : "");
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.meidusa.amoeba.mysql.benchmark.stub;
+
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.mysql.context.MysqlRuntimeContext;
+import com.meidusa.amoeba.mysql.io.MySqlPacketConstant;
+import com.meidusa.amoeba.mysql.net.MysqlConnection;
+import com.meidusa.amoeba.mysql.net.packet.AuthenticationPacket;
+import com.meidusa.amoeba.mysql.net.packet.ErrorPacket;
+import com.meidusa.amoeba.mysql.net.packet.HandshakePacket;
+import com.meidusa.amoeba.mysql.net.packet.OkPacket;
+import com.meidusa.amoeba.mysql.net.packet.QueryCommandPacket;
+import com.meidusa.amoeba.net.AuthResponseData;
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.util.StringUtil;
+
+/**
+ * server side connection of {@link MysqlStubServer}, the messages are handled in the io thread.
+ *
+ * @author struct
+ *
+ */
+public class MysqlStubConnection extends MysqlConnection implements MySqlPacketConstant {
+	private static Logger logger = Logger.getLogger(MysqlStubConnection.class);
+	private static final AtomicInteger threadIdGenerator = new AtomicInteger();
+	private static final byte[] AUTHENTICATE_OK;
+	static {
+		OkPacket ok = new OkPacket();
+		ok.packetId = 2;
+		ok.serverStatus = 2;
+		AUTHENTICATE_OK = ok.toByteBuffer(null).array();
+	}
+
+	private MysqlStubServer server;
+	private String seed;
+
+	/**
+	 * time the last response is posted, see {@link com.meidusa.amoeba.benchmark.LatencyInjector#postMessage(Connection, byte[], long)}
+	 */
+	private long lastResponse;
+
+	public MysqlStubConnection(SocketChannel channel, long createStamp, MysqlStubServer server) {
+		super(channel, createStamp);
+		this.server = server;
+	}
+
+	public String getSeed() {
+		return seed;
+	}
+
+	protected void beforeAuthing() {
+		HandshakePacket handshakePacket = new HandshakePacket();
+		handshakePacket.packetId = 0;
+		handshakePacket.protocolVersion = 0x0a;
+		handshakePacket.seed = StringUtil.getRandomString(8);
+		handshakePacket.restOfScrambleBuff = StringUtil.getRandomString(12);
+		handshakePacket.serverStatus = 2;
+		handshakePacket.serverVersion = MysqlRuntimeContext.SERVER_VERSION;
+		handshakePacket.serverCapabilities = CLIENT_LONG_FLAG | CLIENT_CONNECT_WITH_DB
+											| CLIENT_PROTOCOL_41 | CLIENT_SECURE_CONNECTION;
+		handshakePacket.serverCharsetIndex = (byte)(MysqlStubServer.CHARSET_INDEX & 0xff);
+		handshakePacket.threadId = threadIdGenerator.incrementAndGet();
+		this.seed = handshakePacket.seed + handshakePacket.restOfScrambleBuff;
+		this.postMessage(handshakePacket.toByteBuffer(this).array());
+	}
+
+	protected void connectionAuthenticateSuccess(AuthResponseData data) {
+		super.connectionAuthenticateSuccess(data);
+		postMessage(AUTHENTICATE_OK);
+	}
+
+	protected void connectionAuthenticateFaild(AuthResponseData data) {
+		super.connectionAuthenticateFaild(data);
+		logger.warn("authenticate failed: "+data.message);
+		ErrorPacket error = new ErrorPacket();
+		error.packetId = 2;
+		error.errno = 1045;
+		error.sqlstate = "28000";
+		error.serverErrorMessage = data.message;
+		postMessage(error.toByteBuffer(this).array());
+	}
+
+	@SuppressWarnings("unchecked")
+	public void handleMessage(Connection conn) {
+		byte[] message = null;
+		while((message = this.getInQueue().getNonBlocking()) != null){
+			if(!isAuthenticatedSeted()){
+				AuthenticationPacket packet = new AuthenticationPacket();
+				packet.init(message, this);
+				this.getAuthenticator().authenticateConnection(this, packet);
+			}else if(isAuthenticated()){
+				processCommand(message);
+			}
+		}
+	}
+
+	protected void processCommand(byte[] message){
+		if(message.length <= HEADER_SIZE){
+			return;
+		}
+		byte command = message[HEADER_SIZE];
+		switch(command){
+		case QueryCommandPacket.COM_QUIT:
+			postClose(null);
+			break;
+		case QueryCommandPacket.COM_STMT_CLOSE:
+		case QueryCommandPacket.COM_STMT_SEND_LONG_DATA:
+			//no response
+			break;
+		case QueryCommandPacket.COM_PING:
+		case QueryCommandPacket.COM_INIT_DB:
+			response(server.getOk());
+			break;
+		case QueryCommandPacket.COM_QUERY:
+			QueryCommandPacket query = new QueryCommandPacket();
+			query.init(message, this);
+			if(logger.isDebugEnabled()){
+				logger.debug("query from "+this.getSocketId()+": "+query.query);
+			}
+			response(server.getQueryResponse(query.query));
+			break;
+		default:
+			response(server.getError(1047, "command "+command+" is not supported by the stub server"));
+		}
+	}
+
+	protected void response(byte[] message){
+		lastResponse = server.getLatencyInjector().postMessage(this, message, lastResponse);
+	}
+
+	public boolean checkIdle(long now) {
+		return false;
+	}
+}
@@ -0,0 +1,25 @@
+package com.meidusa.amoeba.mysql.benchmark.stub;
+
+import java.nio.channels.SocketChannel;
+
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.net.FrontendConnectionFactory;
+
+/**
+ *
+ * @author struct
+ *
+ */
+public class MysqlStubConnectionFactory extends FrontendConnectionFactory {
+	private MysqlStubServer server;
+
+	public MysqlStubConnectionFactory(MysqlStubServer server){
+		this.server = server;
+	}
+
+	@Override
+	protected Connection newConnectionInstance(SocketChannel channel,
+			long createStamp) {
+		return new MysqlStubConnection(channel, createStamp, server);
+	}
+}
@@ -0,0 +1,327 @@
+package com.meidusa.amoeba.mysql.benchmark.stub;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.benchmark.LatencyInjector;
+import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.mysql.benchmark.micro.BenchmarkRuntimeContext;
+import com.meidusa.amoeba.mysql.jdbc.MysqlDefs;
+import com.meidusa.amoeba.mysql.net.packet.AbstractPacket;
+import com.meidusa.amoeba.mysql.net.packet.EOFPacket;
+import com.meidusa.amoeba.mysql.net.packet.ErrorPacket;
+import com.meidusa.amoeba.mysql.net.packet.FieldPacket;
+import com.meidusa.amoeba.mysql.net.packet.MysqlPacketBuffer;
+import com.meidusa.amoeba.mysql.net.packet.OkPacket;
+import com.meidusa.amoeba.mysql.net.packet.ResultSetHeaderPacket;
+import com.meidusa.amoeba.mysql.net.packet.RowDataPacket;
+import com.meidusa.amoeba.net.ServerableConnectionManager;
+import com.meidusa.amoeba.util.CmdLineParser;
+import com.meidusa.amoeba.util.CmdLineParser.BooleanOption;
+import com.meidusa.amoeba.util.CmdLineParser.IntegerOption;
+import com.meidusa.amoeba.util.CmdLineParser.StringOption;
+
+/**
+ * <pre>
+ * a mysql server speaking the real protocol without storage, the backend of benchmarks that should not depend on mysql:
+ * handshake and authentication as mysql 5, COM_QUERY returns a result set of rows * columns for select,show,desc,explain,
+ * an ok packet for the other statements (affected rows 1 for insert,update,delete,replace),
+ * COM_PING and COM_INIT_DB return ok. prepared statements are not supported.
+ *
+ * the responses are encoded once at start up, the latency of a real database can be injected.
+ * several servers on port, port+1 ... stand in for the shards of a dbServers.xml.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class MysqlStubServer extends ServerableConnectionManager {
+	private static Logger logger = Logger.getLogger(MysqlStubServer.class);
+	protected static CmdLineParser parser = new CmdLineParser(System.getProperty("application", "mysqlstub"));
+	protected static CmdLineParser.Option<?> portOption = parser.addOption(new IntegerOption('P', "port",true,false,3307,"port of the first server, default 3307"));
+	protected static CmdLineParser.Option<?> hostOption = parser.addOption(new StringOption('h', "host",true,false,"listen address, default all addresses"));
+	protected static CmdLineParser.Option<?> shardsOption = parser.addOption(new IntegerOption('n', "shards",true,false,1,"number of servers listening on port .. port+n-1, default 1"));
+	protected static CmdLineParser.Option<?> userOption = parser.addOption(new StringOption('u', "user",true,false,"root","user name, default root"));
+	protected static CmdLineParser.Option<?> passwordOption = parser.addOption(new StringOption('p', "password",true,false,"password, default empty"));
+	protected static CmdLineParser.Option<?> rowsOption = parser.addOption(new IntegerOption('r', "rows",true,false,1,"rows of a query result, default 1"));
+	protected static CmdLineParser.Option<?> columnsOption = parser.addOption(new IntegerOption('c', "columns",true,false,4,"columns of a query result, default 4"));
+	protected static CmdLineParser.Option<?> sizeOption = parser.addOption(new IntegerOption('s', "size",true,false,16,"bytes of a column value, default 16"));
+	protected static CmdLineParser.Option<?> latencyOption = parser.addOption(new IntegerOption('l', "latency",true,false,0,"ms before a response is sent, default 0"));
+	protected static CmdLineParser.Option<?> jitterOption = parser.addOption(new IntegerOption('j', "jitter",true,false,0,"random ms added to the latency, default 0"));
+	protected static CmdLineParser.Option<?> helpOption = parser.addOption(new BooleanOption('?', "help",false,false,true,"Show this help message"));
+
+	/**
+	 * utf8_general_ci
+	 */
+	public static final int CHARSET_INDEX = 33;
+
+	private String user = "root";
+	private String password;
+	private int rows = 1;
+	private int columns = 4;
+	private int columnSize = 16;
+	private LatencyInjector latencyInjector = new LatencyInjector();
+	private CountDownLatch listening = new CountDownLatch(1);
+
+	private byte[] resultSet;
+	private byte[] ok;
+	private byte[] updateOk;
+
+	public MysqlStubServer() throws IOException {
+		super();
+		this.setDaemon(true);
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public void setRows(int rows) {
+		this.rows = rows;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public void setColumns(int columns) {
+		this.columns = columns;
+	}
+
+	public int getColumnSize() {
+		return columnSize;
+	}
+
+	public void setColumnSize(int columnSize) {
+		this.columnSize = columnSize;
+	}
+
+	public LatencyInjector getLatencyInjector() {
+		return latencyInjector;
+	}
+
+	public void setLatency(int latency) {
+		latencyInjector.setLatency(latency);
+	}
+
+	public void setJitter(int jitter) {
+		latencyInjector.setJitter(jitter);
+	}
+
+	public void init() {
+		if(ProxyRuntimeContext.getInstance() == null){
+			//RowDataPacket encodes with the server charset of the runtime context
+			BenchmarkRuntimeContext.install();
+		}
+		this.setName("mysqlStub-"+port);
+		MysqlStubAuthenticator authenticator = new MysqlStubAuthenticator();
+		authenticator.setUser(user);
+		authenticator.setPassword(password);
+		this.setAuthenticator(authenticator);
+		this.setConnectionFactory(new MysqlStubConnectionFactory(this));
+
+		try{
+			resultSet = encodeResultSet();
+		}catch(UnsupportedEncodingException e){
+			throw new IllegalStateException(e);
+		}
+		ok = encodeOk(0);
+		updateOk = encodeOk(1);
+	}
+
+	private byte[] encodeResultSet() throws UnsupportedEncodingException{
+		List<AbstractPacket> packets = new ArrayList<AbstractPacket>();
+		ResultSetHeaderPacket header = new ResultSetHeaderPacket();
+		header.columns = columns;
+		packets.add(header);
+		for(int i=0;i<columns;i++){
+			FieldPacket field = new FieldPacket();
+			field.catalog = "def";
+			field.db = "stub";
+			field.table = "stub";
+			field.orgTable = "stub";
+			field.name = "c"+i;
+			field.orgName = "c"+i;
+			field.character = CHARSET_INDEX;
+			field.length = columnSize * 3;
+			field.type = (byte)MysqlDefs.FIELD_TYPE_VAR_STRING;
+			packets.add(field);
+		}
+		EOFPacket eof = new EOFPacket();
+		eof.serverStatus = 2;
+		packets.add(eof);
+
+		StringBuilder value = new StringBuilder(columnSize);
+		for(int i=0;i<columnSize;i++){
+			value.append((char)('a' + i % 26));
+		}
+		for(int i=0;i<rows;i++){
+			RowDataPacket row = new RowDataPacket(false);
+			row.columns = new ArrayList<Object>(columns);
+			for(int j=0;j<columns;j++){
+				row.columns.add(value.toString());
+			}
+			packets.add(row);
+		}
+		eof = new EOFPacket();
+		eof.serverStatus = 2;
+		packets.add(eof);
+
+		MysqlPacketBuffer buffer = new MysqlPacketBuffer(1024 + rows * columns * (columnSize + 9));
+		buffer.init(null);
+		buffer.setPosition(0);
+		byte packetId = 1;
+		for(AbstractPacket packet : packets){
+			packet.packetId = packetId++;
+			packet.appendToBuffer(buffer);
+		}
+		return buffer.getBytes(0, buffer.getPosition());
+	}
+
+	private static byte[] encodeOk(long affectedRows){
+		OkPacket ok = new OkPacket();
+		ok.packetId = 1;
+		ok.affectedRows = affectedRows;
+		ok.serverStatus = 2;
+		return ok.toByteBuffer(null).array();
+	}
+
+	/**
+	 * @return the response of COM_QUERY
+	 */
+	public byte[] getQueryResponse(String sql){
+		String verb = firstWord(sql);
+		if("select".equals(verb) || "show".equals(verb) || "desc".equals(verb)
+				|| "describe".equals(verb) || "explain".equals(verb)){
+			return resultSet;
+		}else if("insert".equals(verb) || "update".equals(verb) || "delete".equals(verb) || "replace".equals(verb)){
+			return updateOk;
+		}else{
+			return ok;
+		}
+	}
+
+	public byte[] getOk() {
+		return ok;
+	}
+
+	public byte[] getError(int errno,String message){
+		ErrorPacket error = new ErrorPacket();
+		error.packetId = 1;
+		error.errno = errno;
+		error.sqlstate = "HY000";
+		error.serverErrorMessage = message;
+		return error.toByteBuffer(null).array();
+	}
+
+	private static String firstWord(String sql){
+		if(sql == null){
+			return "";
+		}
+		int start = 0;
+		int length = sql.length();
+		while(start < length && !Character.isLetter(sql.charAt(start))){
+			start++;
+		}
+		int end = start;
+		while(end < length && Character.isLetter(sql.charAt(end))){
+			end++;
+		}
+		return sql.substring(start, end).toLowerCase();
+	}
+
+	protected void willStart() {
+		super.willStart();
+		listening.countDown();
+	}
+
+	/**
+	 * block until the server socket is bound
+	 */
+	public void waitListening() throws InterruptedException{
+		listening.await();
+	}
+
+	/**
+	 * start count servers in this jvm listening on port .. port+count-1
+	 */
+	public static List<MysqlStubServer> startShards(String ipAddress,int port,int count,String user,String password,
+			int rows,int columns,int columnSize,int latency,int jitter) throws Exception{
+		List<MysqlStubServer> servers = new ArrayList<MysqlStubServer>();
+		for(int i=0;i<count;i++){
+			MysqlStubServer server = new MysqlStubServer();
+			server.setIpAddress(ipAddress);
+			server.setPort(port + i);
+			server.setUser(user);
+			server.setPassword(password);
+			server.setRows(rows);
+			server.setColumns(columns);
+			server.setColumnSize(columnSize);
+			server.setLatency(latency);
+			server.setJitter(jitter);
+			server.init();
+			server.start();
+			servers.add(server);
+		}
+		for(MysqlStubServer server : servers){
+			server.waitListening();
+		}
+		return servers;
+	}
+
+	public static void main(String[] args) throws Exception{
+		try {
+			parser.parse(args);
+		} catch (CmdLineParser.OptionException e) {
+			System.err.println(e.getMessage());
+			parser.printUsage();
+			System.exit(2);
+		}
+		Boolean help = (Boolean)parser.getOptionValue(helpOption,false);
+		if(help){
+			parser.printUsage();
+			return;
+		}
+		if(!Logger.getRootLogger().getAllAppenders().hasMoreElements()){
+			BasicConfigurator.configure();
+			Logger.getRootLogger().setLevel(Level.WARN);
+		}
+
+		int port = (Integer)parser.getOptionValue(portOption,3307);
+		int shards = (Integer)parser.getOptionValue(shardsOption,1);
+		startShards((String)parser.getOptionValue(hostOption),port,shards,
+				(String)parser.getOptionValue(userOption,"root"),
+				(String)parser.getOptionValue(passwordOption),
+				(Integer)parser.getOptionValue(rowsOption,1),
+				(Integer)parser.getOptionValue(columnsOption,4),
+				(Integer)parser.getOptionValue(sizeOption,16),
+				(Integer)parser.getOptionValue(latencyOption,0),
+				(Integer)parser.getOptionValue(jitterOption,0));
+		logger.warn(shards+" mysql stub server(s) listening on port "+port+(shards > 1 ? " - "+(port + shards - 1) : ""));
+		System.out.println(shards+" mysql stub server(s) listening on port "+port+(shards > 1 ? " - "+(port + shards - 1) : ""));
+		Thread.sleep(Long.MAX_VALUE);
+	}
+}
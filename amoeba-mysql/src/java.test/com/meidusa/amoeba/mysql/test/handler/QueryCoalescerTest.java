@@ -0,0 +1,136 @@
+package com.meidusa.amoeba.mysql.test.handler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.meidusa.amoeba.mysql.handler.QueryCoalescer;
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.net.io.PacketInputStream;
+import com.meidusa.amoeba.net.io.PacketOutputStream;
+
+/**
+ * a response of the leader fanned out by {@link QueryCoalescer} to the waiters, numbered from their own packet ids.
+ *
+ * @author struct
+ *
+ */
+public class QueryCoalescerTest {
+
+	/**
+	 * keeps the posted messages instead of writing them
+	 */
+	static class PostedConnection extends Connection {
+		List<byte[]> messages = new ArrayList<byte[]>();
+
+		PostedConnection(){
+			super(null, System.currentTimeMillis());
+		}
+
+		public void postMessage(ByteBuffer msg) {
+			byte[] message = new byte[msg.remaining()];
+			msg.get(message);
+			messages.add(message);
+		}
+
+		protected PacketInputStream createPacketInputStream() {
+			return null;
+		}
+
+		protected PacketOutputStream createPacketOutputStream() {
+			return null;
+		}
+	}
+
+	static class Fallback implements Runnable {
+		int runs;
+
+		public void run() {
+			runs++;
+		}
+	}
+
+	/**
+	 * a response of 3 packets numbered from packetId + 1
+	 */
+	private static byte[][] response(int packetId){
+		byte[][] packets = new byte[3][];
+		for(int i=0;i<packets.length;i++){
+			packets[i] = new byte[]{2, 0, 0, (byte)(packetId + 1 + i), (byte)i, (byte)(i * 2)};
+		}
+		return packets;
+	}
+
+	private static byte[] concat(byte[][] packets){
+		ByteBuffer buffer = ByteBuffer.allocate(packets.length * packets[0].length);
+		for(byte[] packet : packets){
+			buffer.put(packet);
+		}
+		return buffer.array();
+	}
+
+	@Test
+	public void testFanOut(){
+		QueryCoalescer coalescer = QueryCoalescer.getInstance();
+		PostedConnection same = new PostedConnection();
+		PostedConnection shifted = new PostedConnection();
+		Fallback fallback = new Fallback();
+
+		QueryCoalescer.Flight flight = coalescer.join("fan-out", new QueryCoalescer.Waiter(new PostedConnection(), (byte)0, fallback));
+		assertNotNull(flight);
+		assertNull(coalescer.join("fan-out", new QueryCoalescer.Waiter(same, (byte)0, fallback)));
+		assertNull(coalescer.join("fan-out", new QueryCoalescer.Waiter(shifted, (byte)2, fallback)));
+
+		byte[][] packets = response(0);
+		flight.complete(packets);
+		assertEquals(0, fallback.runs);
+		assertEquals(1, same.messages.size());
+		assertArrayEquals(concat(packets), same.messages.get(0));
+		assertEquals(1, shifted.messages.size());
+		assertArrayEquals(concat(response(2)), shifted.messages.get(0));
+
+		//the leader packets are not modified by the shift
+		assertEquals(1, packets[0][3]);
+
+		//a completed flight is not joined any more
+		QueryCoalescer.Flight next = coalescer.join("fan-out", new QueryCoalescer.Waiter(new PostedConnection(), (byte)0, fallback));
+		assertNotNull(next);
+		next.complete(null);
+	}
+
+	@Test
+	public void testPacketIdWrap(){
+		QueryCoalescer coalescer = QueryCoalescer.getInstance();
+		PostedConnection waiter = new PostedConnection();
+		QueryCoalescer.Flight flight = coalescer.join("wrap", new QueryCoalescer.Waiter(new PostedConnection(), (byte)0, new Fallback()));
+		coalescer.join("wrap", new QueryCoalescer.Waiter(waiter, (byte)254, new Fallback()));
+		flight.complete(response(0));
+
+		byte[] message = waiter.messages.get(0);
+		assertEquals((byte)255, message[3]);
+		assertEquals(0, message[9]);
+		assertEquals(1, message[15]);
+	}
+
+	@Test
+	public void testFallback(){
+		QueryCoalescer coalescer = QueryCoalescer.getInstance();
+		PostedConnection waiter = new PostedConnection();
+		Fallback fallback = new Fallback();
+		QueryCoalescer.Flight flight = coalescer.join("fallback", new QueryCoalescer.Waiter(new PostedConnection(), (byte)0, new Fallback()));
+		coalescer.join("fallback", new QueryCoalescer.Waiter(waiter, (byte)0, fallback));
+		coalescer.join("fallback", new QueryCoalescer.Waiter(waiter, (byte)3, fallback));
+
+		//the leader has no complete response, each waiter runs its own query
+		flight.complete(null);
+		assertEquals(2, fallback.runs);
+		assertEquals(0, waiter.messages.size());
+	}
+}
@@ -13,6 +13,9 @@ public class MysqlRuntimeContext extends RuntimeContext {
 	private byte               serverCharsetIndex;
 	private int statementCacheSize = 500;
 	private long statementExpiredTime = 5;
+	private int streamingBufferSize = 16 * 1024;
+	private int streamingPendingSize = 1024 * 1024;
+	private boolean queryCoalescing = false;
     public void setServerCharsetIndex(byte serverCharsetIndex) {
         this.serverCharsetIndex = serverCharsetIndex;
         this.setServerCharset(CharsetMapping.INDEX_TO_CHARSET[serverCharsetIndex & 0xff]);
@@ -43,6 +46,39 @@ public class MysqlRuntimeContext extends RuntimeContext {
 		this.statementExpiredTime = statementExpiredTime;
 	}
 	
+	/**
+	 * rows of a jdbc result set are encoded into buffers of this size before they are written to the client
+	 */
+	public int getStreamingBufferSize() {
+		return streamingBufferSize;
+	}
+
+	public void setStreamingBufferSize(int streamingBufferSize) {
+		this.streamingBufferSize = streamingBufferSize;
+	}
+
+	/**
+	 * bytes that may wait to be written to a slow client before the result set fetch pauses, 0 to buffer the whole result
+	 */
+	public int getStreamingPendingSize() {
+		return streamingPendingSize;
+	}
+
+	public void setStreamingPendingSize(int streamingPendingSize) {
+		this.streamingPendingSize = streamingPendingSize;
+	}
+
+	/**
+	 * identical read only queries received while one of them is running wait for its response instead of being sent
+	 */
+	public boolean isQueryCoalescing() {
+		return queryCoalescing;
+	}
+
+	public void setQueryCoalescing(boolean queryCoalescing) {
+		this.queryCoalescing = queryCoalescing;
+	}
+
 	public void init() throws InitialisationException{
 		super.init();
         Level level = logger.getLevel();
@@ -13,21 +13,34 @@
  */
 package com.meidusa.amoeba.mysql.handler;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.metrics.ActiveSessions;
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.LatencyHistogram;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
+import com.meidusa.amoeba.metrics.QueryLatency;
+import com.meidusa.amoeba.metrics.SlowQueryEvent;
+import com.meidusa.amoeba.metrics.SlowQueryLog;
 import com.meidusa.amoeba.mysql.handler.session.CommandStatus;
 import com.meidusa.amoeba.mysql.handler.session.ConnectionStatuts;
 import com.meidusa.amoeba.mysql.handler.session.SessionStatus;
+import com.meidusa.amoeba.mysql.io.MysqlFramedInputStream;
 import com.meidusa.amoeba.mysql.net.CommandInfo;
 import com.meidusa.amoeba.mysql.net.MysqlClientConnection;
 import com.meidusa.amoeba.mysql.net.MysqlConnection;
@@ -40,30 +53,49 @@ import com.meidusa.amoeba.mysql.net.packet.QueryCommandPacket;
 import com.meidusa.amoeba.net.Connection;
 import com.meidusa.amoeba.net.MessageHandler;
 import com.meidusa.amoeba.net.Sessionable;
+import com.meidusa.amoeba.net.WriteStallListener;
 import com.meidusa.amoeba.net.packet.AbstractPacketBuffer;
 import com.meidusa.amoeba.net.packet.PacketBuffer;
 import com.meidusa.amoeba.net.poolable.ObjectPool;
 import com.meidusa.amoeba.net.poolable.PoolableObject;
+import com.meidusa.amoeba.parser.dbobject.Table;
+import com.meidusa.amoeba.parser.statement.AbstractStatement;
 import com.meidusa.amoeba.parser.statement.CallStatement;
+import com.meidusa.amoeba.parser.statement.CommitStatement;
 import com.meidusa.amoeba.parser.statement.DMLStatement;
+import com.meidusa.amoeba.parser.statement.DeleteStatement;
+import com.meidusa.amoeba.parser.statement.InsertStatement;
+import com.meidusa.amoeba.parser.statement.RollbackStatement;
+import com.meidusa.amoeba.parser.statement.StartTansactionStatement;
 import com.meidusa.amoeba.parser.statement.Statement;
+import com.meidusa.amoeba.parser.statement.UpdateStatement;
+import com.meidusa.amoeba.route.AbstractQueryRouter;
+import com.meidusa.amoeba.route.QueryResultCache;
+import com.meidusa.amoeba.route.TableRule;
+import com.meidusa.amoeba.util.MemoryAccountant;
 import com.meidusa.amoeba.util.Reporter;
+import com.meidusa.amoeba.util.SerialExecutor;
+import com.meidusa.amoeba.util.SpillBufferList;
 import com.meidusa.amoeba.util.StringUtil;
+import com.meidusa.amoeba.util.ThreadLocalMap;
 
 /**
  * 
  * @author <a href=mailto:piratebase@sina.com>Struct chen</a>
  *
  */
-public abstract class CommandMessageHandler implements MessageHandler,Sessionable,Reporter.SubReporter {
+public abstract class CommandMessageHandler implements MessageHandler,Sessionable,Reporter.SubReporter,WriteStallListener {
 	static Logger logger = Logger.getLogger(CommandMessageHandler.class); 
+	private static final Counter sessionCounter = MetricsRegistry.getInstance().counter("mysql.sessions");
+	private static final Counter killedSessionCounter = MetricsRegistry.getInstance().counter("mysql.sessions.killed");
+	private static final LatencyHistogram sessionHistogram = MetricsRegistry.getInstance().histogram("mysql.session");
 	
 	protected MysqlClientConnection source;
 	private boolean completed;
 	private long createTime;
 	private long timeout;
 	private long endTime;
-	private boolean ended = false;
+	private volatile boolean ended = false;
 	protected CommandQueue commandQueue;
 	private boolean forceEnded =  false; 
 	private ObjectPool[] pools;
@@ -76,6 +108,65 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 	private ErrorPacket errorPacket;
 	protected Statement statment;
 	private QueryCommandPacket command = new QueryCommandPacket();
+	
+	/**
+	 * phases of the session in nanoseconds, recorded into {@link QueryLatency} when the session ends
+	 */
+	private String routeName;
+	private QueryLatency routeLatency;
+	private long routeNanos;
+	private long startNanos;
+	private long backendStartNanos;
+	private long mergeNanos;
+	private long responseNanos;
+	
+	/**
+	 * outbound backpressure: the servers are not read while the client is write stalled,
+	 * the client is not read while one of the servers is write stalled.
+	 * guarded by pauseLock and never by the handler itself, the io thread resumes the connections while a handler thread holds the handler.
+	 */
+	private final Object pauseLock = new Object();
+	private boolean serversPaused;
+	private Set<Connection> stalledServers = new HashSet<Connection>();
+	
+	/**
+	 * the session runs on the lane of the client connection: the client messages are handled there, 
+	 * the server messages are signaled there from the io threads, and endSession called from another thread is queued there.
+	 * the handler state is only touched by the lane and needs no lock.
+	 */
+	private final SerialExecutor lane;
+	private final ConcurrentMap<Connection,SerialExecutor.Signal> serverSignals = new ConcurrentHashMap<Connection,SerialExecutor.Signal>();
+	
+	/**
+	 * the server packets buffered by the session are accounted here, over the budget they are spilled to disk.
+	 * the merged packets are written while the client is not write stalled, the rest waits for {@link #writeResumed(Connection)}
+	 * and the next command waits for them.
+	 */
+	protected final MemoryAccountant.Session memory = MemoryAccountant.getInstance().newSession();
+	private volatile Iterator<byte[]> pendingPackets;
+	
+	/**
+	 * the response of a cacheable or coalesced read is captured while it is written to the client, the rows are not spliced then.
+	 * when the session ends it is put in the {@link QueryResultCache} and written to the waiters of the {@link QueryCoalescer.Flight}.
+	 */
+	private String cacheKey;
+	private Table[] cacheTables;
+	private long[] cacheVersions;
+	private long cacheTtl;
+	private QueryCoalescer.Flight flight;
+	private List<byte[]> capturedPackets;
+	private long capturedSize;
+	private long captureLimit;
+	private Connection pendingFrom;
+	private final Runnable pendingWriter = new Runnable(){
+		public void run() {
+			CommandInfo command = commandQueue.currentCommand;
+			if(writePendingPackets()){
+				afterCommandCompleted(command);
+			}
+		}
+	};
+	
 	public CommandMessageHandler(final MysqlClientConnection source,byte[] query,Statement statment, ObjectPool[] pools,long timeout){
 		commandQueue = new CommandQueue(source,statment);
 		command.init(query,source);
@@ -84,8 +175,20 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 		info.setMain(true);
 		this.statment = statment;
 		this.source = source;
+		this.lane = source.getSerialExecutor();
 		this.createTime = System.currentTimeMillis();
 		this.timeout = timeout;
+		
+		//the handler is created by the thread that routed the query
+		TableRule tableRule = (TableRule)ThreadLocalMap.get(AbstractQueryRouter._CURRENT_TABLE_RULE_);
+		if(tableRule != null && tableRule.table != null){
+			routeName = tableRule.table.toString();
+			routeLatency = QueryLatency.getRouteLatency(routeName);
+		}
+		Long nanos = (Long)ThreadLocalMap.get(AbstractQueryRouter._CURRENT_ROUTE_NANOS_);
+		if(nanos != null){
+			routeNanos = nanos.longValue();
+		}
 	}
 	
 	public boolean isMultiplayer(){
@@ -187,7 +290,31 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 		
 	}
 	
-	public synchronized void handleMessage(Connection fromConn) {
+	public void handleMessage(Connection fromConn) {
+		if(fromConn != source && !lane.isCurrentThread()){
+			getServerSignal(fromConn).signal();
+			return;
+		}
+		doHandleMessage(fromConn);
+	}
+	
+	private SerialExecutor.Signal getServerSignal(final Connection conn){
+		SerialExecutor.Signal signal = serverSignals.get(conn);
+		if(signal == null){
+			signal = new SerialExecutor.Signal(lane, new Runnable(){
+				public void run() {
+					doHandleMessage(conn);
+				}
+			});
+			SerialExecutor.Signal old = serverSignals.putIfAbsent(conn, signal);
+			if(old != null){
+				signal = old;
+			}
+		}
+		return signal;
+	}
+	
+	protected void doHandleMessage(Connection fromConn) {
 		byte[] message = null;
 		lastTimeMillis = System.currentTimeMillis();
 		if(fromConn == source){
@@ -207,6 +334,17 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 				//жǷ
 				CommandStatus commStatus = commandQueue.checkResponseCompleted(fromConn, message);
 				
+				if(commandQueue.currentCommand.isMain()){
+					ConnectionStatuts status = commandQueue.connStatusMap.get(fromConn);
+					if(status != null){
+						if(CommandStatus.AllCompleted == commStatus || CommandStatus.ConnectionCompleted == commStatus){
+							status.backendNanos = System.nanoTime() - backendStartNanos;
+						}else if((status.statusCode & SessionStatus.EOF_FIELDS) > 0 && !MysqlPacketBuffer.isEofPacket(message)){
+							status.rows ++;
+						}
+					}
+				}
+				
 				if(CommandStatus.AllCompleted == commStatus || CommandStatus.ConnectionCompleted == commStatus){
 					
 					//¼ prepared statement ID  close statement
@@ -235,14 +373,20 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 							commandQueue.mainCommandExecuted = true;
 							if(commandQueue.isMultiple()){
 								if(fromConnStatus.isMerged){
+									long mergeStart = System.nanoTime();
 									List<byte[]> list = this.mergeMessages();
+									responseNanos = System.nanoTime();
+									mergeNanos = responseNanos - mergeStart;
 									if(list != null){
-										for(byte[] buffer : list){
-											dispatchMessageFrom(fromConn,buffer);
+										pendingFrom = fromConn;
+										pendingPackets = list.iterator();
+										if(!writePendingPackets()){
+											return;
 										}
 									}
 								}
 							}else{
+								responseNanos = System.nanoTime();
 								dispatchMessageFrom(fromConn,message);
 							}
 						}else{
@@ -273,7 +417,7 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 							}
 						}
 					}finally{
-						if(fromConnStatus.isMerged){
+						if(fromConnStatus.isMerged && pendingPackets == null){
 							afterCommandCompleted(commandQueue.currentCommand);
 						}
 					}
@@ -285,6 +429,70 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 					}
 				}
 			}
+			startSplice((MysqlServerConnection)fromConn);
+		}
+	}
+	
+	/**
+	 * write the merged packets until the client is write stalled
+	 * @return true if all the packets are written
+	 */
+	private boolean writePendingPackets(){
+		Iterator<byte[]> packets = pendingPackets;
+		if(packets == null || ended){
+			return false;
+		}
+		lastTimeMillis = System.currentTimeMillis();
+		while(packets.hasNext()){
+			if(source.isWriteStalled()){
+				return false;
+			}
+			dispatchMessageFrom(pendingFrom,packets.next());
+		}
+		pendingPackets = null;
+		pendingFrom = null;
+		return true;
+	}
+	
+	/**
+	 * a single server streaming the rows of the main command: flush the buffered packets,
+	 * then the server connection forwards the next rows to the client as they are read, until the eof or error packet.
+	 * the splice does not start while packets read by the io thread are waiting, it is tried again at the next message.
+	 */
+	private void startSplice(MysqlServerConnection conn){
+		if(ended || commandQueue.isMultiple() || commandQueue.currentCommand == null 
+				|| !commandQueue.currentCommand.isMain() || conn.isSplicing() || capturedPackets != null){
+			return;
+		}
+		ConnectionStatuts status = commandQueue.connStatusMap.get(conn);
+		if(status == null || !status.isStreamingRows()){
+			return;
+		}
+		dispatchMessageTo(source,null);
+		conn.startSplice(source, new SpliceFilter(conn,status));
+	}
+	
+	/**
+	 * accepts the row packets, counted as the handler does, and stops at the packets that change the status of the connection
+	 */
+	private class SpliceFilter implements MysqlFramedInputStream.PacketFilter {
+		private final MysqlServerConnection conn;
+		private final ConnectionStatuts status;
+		
+		SpliceFilter(MysqlServerConnection conn,ConnectionStatuts status){
+			this.conn = conn;
+			this.status = status;
+		}
+		
+		public boolean accept(byte[] buffer, int offset, int length) {
+			if(ended || MysqlPacketBuffer.isEofPacket(buffer, offset, length) || MysqlPacketBuffer.isErrorPacket(buffer, offset, length)){
+				conn.stopSplice();
+				return false;
+			}
+			status.packetIndex ++;
+			status.rows ++;
+			lastTimeMillis = System.currentTimeMillis();
+			return true;
 		}
 	}
 	
@@ -293,7 +501,7 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 	 * ûǰػ
 	 * @param oldCommand ǰcommand
 	 */
-	protected synchronized void afterCommandCompleted(CommandInfo oldCommand){
+	protected void afterCommandCompleted(CommandInfo oldCommand){
 		if(this.commandQueue.currentCommand != oldCommand){
 			return;
 		}
@@ -311,7 +519,7 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 	
 	//жǷҪһͻ
 	//һ
-	protected synchronized void startNextCommand(){
+	protected void startNextCommand(){
 		if(commandQueue.currentCommand != null && (commandQueue.currentCommand.getStatusCode() & SessionStatus.ERROR) >0){
 			if(source.isAutoCommit()){
 				this.endSession(false);
@@ -340,6 +548,9 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 				
 			}
 			
+			if(backendStartNanos == 0){
+				backendStartNanos = System.nanoTime();
+			}
 			dispatchMessageFrom(source,commandQueue.currentCommand.getBuffer());
 			
 			if(commandCompleted){
@@ -369,6 +580,14 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 	 */
 	protected void dispatchMessageFrom(Connection fromConn,byte[] message){
 		if(fromConn != source){
+			if(capturedPackets != null && message != null){
+				capturedSize += message.length;
+				if(capturedSize > captureLimit){
+					capturedPackets = null;
+				}else{
+					capturedPackets.add(message);
+				}
+			}
 			dispatchMessageTo(source,message);
 		}else{
 			Collection<MysqlServerConnection> connSet =  commandQueue.connStatusMap.keySet();
@@ -405,7 +624,7 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 	 * @param writeNow
 	 * @return
 	 */
-	private synchronized boolean appendBufferToWrite(byte[] byts,PacketBuffer buffer,Connection conn,boolean writeNow){
+	private boolean appendBufferToWrite(byte[] byts,PacketBuffer buffer,Connection conn,boolean writeNow){
 		if(byts == null){
 			if(buffer.getPosition()>0){
 				conn.postMessage(buffer.toByteBuffer());
@@ -429,11 +648,15 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 		}
 	}
 	
-	protected synchronized void releaseConnection(Connection conn){
+	protected void releaseConnection(Connection conn){
 		MessageHandler handler = handlerMap.remove(conn);
 		if(handler != null){
 			conn.setMessageHandler(handler);
 		}
+		if(conn instanceof MysqlServerConnection){
+			((MysqlServerConnection)conn).stopSplice();
+		}
+		releaseStall(conn);
 		
 		if(conn instanceof MysqlServerConnection){
 			PoolableObject pooledObject = (PoolableObject)conn;
@@ -461,6 +684,10 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 			ConnectionStatuts status = this.commandQueue.connStatusMap.get(connection);
 			if(this.commandQueue.currentCommand == null || !isStarted() || (status != null && (status.statusCode & SessionStatus.COMPLETED)>0)){
 				connection.setMessageHandler(handler);
+				if(connection instanceof MysqlServerConnection){
+					((MysqlServerConnection)connection).stopSplice();
+				}
+				releaseStall(connection);
 				if(!connection.isClosed()){
 					if(connection instanceof MysqlServerConnection){
 						PoolableObject pooledObject = (PoolableObject)connection;
@@ -481,13 +708,60 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 		}
 	}
 	
+	/**
+	 * the server connection goes back to the pool readable and without listener, the client is resumed if it was paused by this server only
+	 */
+	private void releaseStall(Connection conn){
+		conn.removeWriteStallListener(this);
+		synchronized (pauseLock) {
+			conn.setReadPaused(false);
+			if(stalledServers.remove(conn) && stalledServers.isEmpty()){
+				source.setReadPaused(false);
+			}
+		}
+	}
+	
+	public void writeStalled(Connection conn) {
+		synchronized (pauseLock) {
+			if(conn == source){
+				serversPaused = true;
+				synchronized (handlerMap) {
+					for(Connection server : handlerMap.keySet()){
+						server.setReadPaused(true);
+					}
+				}
+			}else if(handlerMap.containsKey(conn)){
+				stalledServers.add(conn);
+				source.setReadPaused(true);
+			}
+		}
+	}
+	
+	public void writeResumed(Connection conn) {
+		synchronized (pauseLock) {
+			if(conn == source){
+				serversPaused = false;
+				synchronized (handlerMap) {
+					for(Connection server : handlerMap.keySet()){
+						server.setReadPaused(false);
+					}
+				}
+			}else if(stalledServers.remove(conn) && stalledServers.isEmpty()){
+				source.setReadPaused(false);
+			}
+		}
+		if(conn == source && pendingPackets != null){
+			lane.execute(pendingWriter);
+		}
+	}
+	
 	/**
 	 * ϲ˵Ϣ͵ͻ
 	 * ֻڶӵҪݰۺϣۺԺһݰͨ {@link #dispatchMessageFrom(Connection, byte[])}ͳȥ,
 	 * һһֱͨ{@link #dispatchMessageFrom(Connection, byte[])}  ֱӷͳȥ,Ҫmerge
 	 * @return
 	 */
-	protected synchronized List<byte[]> mergeMessages(){
+	protected List<byte[]> mergeMessages(){
 		if(this.commandQueue.currentCommand.isMerged()){
 			return null;
 		}
@@ -543,59 +817,44 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 		}
 		
 		if(isSelectQuery){
-			//ǰpacketId
-			byte paketId = 0;
+			//the packets are read from the buffers when they are written, the spilled rows are never all on the heap
+			MergedPackets merged = new MergedPackets();
 			
 			//fieldϢ
-			for(byte[] buffer : buffers){
-				if(MysqlPacketBuffer.isEofPacket(buffer)){
-					returnList.add(buffer);
-					paketId = buffer[3];
-					break;
-				}else{
-					returnList.add(buffer);
-					paketId = buffer[3];
-				}
+			int fieldEnd = indexOfEof(buffers,0);
+			if(fieldEnd < 0){
+				fieldEnd = buffers.size()-1;
 			}
-			paketId += 1;
+			merged.add(buffers.subList(0, fieldEnd+1));
+			merged.numberFrom((byte)(buffers.get(fieldEnd)[3] + 1));
+			
 			//rowsݰ
 			for(ConnectionStatuts connStatus : connectionStatutsSet){
-				boolean rowStart = false;
-				boolean isRowEnd = false;
-				for(byte[] buffer : connStatus.buffers){
-					if(!rowStart){
-						if(MysqlPacketBuffer.isEofPacket(buffer)){
-							rowStart = true;
-						}else{
-							continue;
-						}
-					}else{
-						if(!MysqlPacketBuffer.isEofPacket(buffer)){
-							if(!isRowEnd){
-								buffer[3] = paketId;
-								paketId += 1;
-								returnList.add(buffer);
-							}
-						}else{
-							isRowEnd = true;
-						}
+				int rowStart = indexOfEof(connStatus.buffers,0) + 1;
+				if(rowStart == 0){
+					continue;
+				}
+				int rowEnd;
+				if(!isCall){
+					rowEnd = connStatus.buffers.size();
+					if(rowEnd > rowStart && MysqlPacketBuffer.isEofPacket(connStatus.buffers.get(rowEnd-1))){
+						rowEnd --;
+					}
+				}else{
+					rowEnd = indexOfEof(connStatus.buffers,rowStart);
+					if(rowEnd < 0){
+						rowEnd = connStatus.buffers.size();
 					}
 				}
+				merged.add(connStatus.buffers.subList(rowStart, rowEnd));
 			}
 			
 			if(!isCall){
-				byte[] eofBuffer = buffers.get(buffers.size()-1);
-				eofBuffer[3] = paketId;
-				returnList.add(eofBuffer);
+				merged.add(buffers.subList(buffers.size()-1, buffers.size()));
 			}else{
-				byte[] eofBuffer = buffers.get(buffers.size()-2);
-				eofBuffer[3] = paketId;
-				returnList.add(eofBuffer);
-				paketId ++;
-				byte[] okBuffer = buffers.get(buffers.size()-1);
-				okBuffer[3] = paketId;
-				returnList.add(okBuffer);
+				merged.add(buffers.subList(buffers.size()-2, buffers.size()));
 			}
+			return merged;
 		}else{
 			OkPacket ok = new OkPacket();
 			StringBuffer strbuffer = new StringBuffer();
@@ -614,6 +873,63 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 		}
 		return returnList;
 	}
+	
+	private static int indexOfEof(List<byte[]> buffers,int from){
+		for(int i=from;i<buffers.size();i++){
+			if(MysqlPacketBuffer.isEofPacket(buffers.get(i))){
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * the merged packets as a view of the buffers of the connections, a packet is read from its buffers when it is written to the client.
+	 * the packets after the field packets are numbered when they are read.
+	 */
+	static class MergedPackets extends AbstractList<byte[]> {
+		private final List<List<byte[]>> parts = new ArrayList<List<byte[]>>();
+		private int size;
+		private int numberedFrom = -1;
+		private byte firstPacketId;
+		
+		void add(List<byte[]> part){
+			if(part.size() > 0){
+				parts.add(part);
+				size += part.size();
+			}
+		}
+		
+		/**
+		 * the next packets added are numbered from packetId
+		 */
+		void numberFrom(byte packetId){
+			numberedFrom = size;
+			firstPacketId = packetId;
+		}
+		
+		public byte[] get(int index) {
+			if(index < 0 || index >= size){
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			int offset = index;
+			for(List<byte[]> part : parts){
+				if(offset < part.size()){
+					byte[] buffer = part.get(offset);
+					if(numberedFrom >= 0 && index >= numberedFrom){
+						buffer[3] = (byte)(firstPacketId + (index - numberedFrom));
+					}
+					return buffer;
+				}
+				offset -= part.size();
+			}
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		
+		public int size() {
+			return size;
+		}
+	}
 
 	protected abstract ConnectionStatuts newConnectionStatuts(Connection conn);
 
@@ -621,25 +937,115 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 		return this.started;
 	}
 	
-	public synchronized void startSession() throws Exception {
+	/**
+	 * cache the response of the main command, the versions of the tables are read now, before the command is sent
+	 */
+	public void setResultCache(String key,Table[] tables,long ttl){
+		this.cacheKey = key;
+		this.cacheTables = tables;
+		this.cacheTtl = ttl;
+		this.cacheVersions = QueryResultCache.getInstance().getVersions(tables);
+		this.captureLimit = Math.max(captureLimit, QueryResultCache.getInstance().getMaxEntrySize());
+		this.capturedPackets = new ArrayList<byte[]>();
+	}
+	
+	/**
+	 * this session leads the flight, it must be set before the session starts
+	 */
+	public void setFlight(QueryCoalescer.Flight flight){
+		this.flight = flight;
+		this.captureLimit = Math.max(captureLimit, QueryCoalescer.MAX_RESULT_SIZE);
+		this.capturedPackets = new ArrayList<byte[]>();
+	}
+	
+	/**
+	 * a complete response ends with an eof packet or is one error packet, only the results are cached
+	 */
+	private void completeCapture(){
+		List<byte[]> packets = capturedPackets;
+		capturedPackets = null;
+		byte[][] result = null;
+		if(packets != null && !forceEnded && commandQueue.mainCommandExecuted && packets.size() > 0){
+			boolean error = MysqlPacketBuffer.isErrorPacket(packets.get(0));
+			if(error || MysqlPacketBuffer.isEofPacket(packets.get(packets.size()-1))){
+				result = packets.toArray(new byte[packets.size()][]);
+			}
+			if(result != null && !error && cacheKey != null && capturedSize <= QueryResultCache.getInstance().getMaxEntrySize()){
+				QueryResultCache.getInstance().put(cacheKey, result, cacheTables, cacheVersions, cacheTtl);
+			}
+		}
+		if(flight != null){
+			QueryCoalescer.Flight flight = this.flight;
+			this.flight = null;
+			flight.complete(result);
+		}
+	}
+	
+	/**
+	 * the cached results of the tables written by the session are stale when it starts and when it ends,
+	 * and again when the transaction that wrote them commits.
+	 * the statements whose tables are not known (call, ddl, not parsed) make the whole cache stale.
+	 */
+	private void invalidateCachedTables(boolean ending){
+		QueryResultCache cache = QueryResultCache.getInstance();
+		Table[] tables = null;
+		if(statment instanceof InsertStatement || statment instanceof UpdateStatement || statment instanceof DeleteStatement){
+			tables = ((AbstractStatement)statment).getTables();
+			cache.invalidate(tables);
+		}else if(statment instanceof CallStatement
+				|| (statment == null && command.command == QueryCommandPacket.COM_QUERY && QueryResultCache.isWrite(command.query))){
+			cache.invalidateAll();
+		}else if(!ending){
+			return;
+		}
+		if(!ending){
+			if(!source.isAutoCommit()){
+				source.addTransactionTables(tables);
+			}
+		}else if(statment instanceof RollbackStatement){
+			source.endTransaction(false);
+		}else if(statment instanceof CommitStatement || statment instanceof StartTansactionStatement || source.isAutoCommit()){
+			source.endTransaction(true);
+		}
+	}
+	
+	public void startSession() throws Exception {
 		if(logger.isInfoEnabled()){
 			logger.info("session start[type="+this.command.command+"]:ip="+this.source.getSocketId()+",handlerId="+this.hashCode()
 					+",time="+(System.currentTimeMillis()-createTime)
 					+",sql="+(this.statment ==null?null:this.statment.getSql()));
 		}
 		
+		startNanos = System.nanoTime();
+		invalidateCachedTables(false);
+		ActiveSessions.add(this, source.getSocketId(), statment == null ? null : statment.getSql());
+		source.setWriteStallListener(this);
 		for(ObjectPool pool:pools){
 			MysqlServerConnection conn;
+			long borrowStart = System.nanoTime();
 			conn = (MysqlServerConnection)pool.borrowObject();
+			long borrowNanos = System.nanoTime() - borrowStart;
 			handlerMap.put(conn, conn.getMessageHandler());
+			getServerSignal(conn);
 			if(conn.getMessageHandler() instanceof CommandMessageHandler){
 				logger.error("current handler="+conn.getMessageHandler().toString()+",");
 			}
 			conn.setMessageHandler(this);
-			commandQueue.connStatusMap.put(conn, newConnectionStatuts(conn));
+			conn.setWriteStallListener(this);
+			synchronized (pauseLock) {
+				if(serversPaused){
+					conn.setReadPaused(true);
+				}
+			}
+			ConnectionStatuts status = newConnectionStatuts(conn);
+			status.buffers = new SpillBufferList(memory);
+			status.latency = QueryLatency.getPoolLatency(pool.getName());
+			status.borrowNanos = borrowNanos;
+			commandQueue.connStatusMap.put(conn, status);
 		}
 		
 		this.started = true;
+		sessionCounter.increment();
 		appendPreMainCommand();
 		this.commandQueue.appendCommand(info, true);
 		startNextCommand();
@@ -661,19 +1067,30 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 		}
 	}
 
-	public  void endSession(boolean force) {
-		if(!isEnded()){
-			synchronized (this) {
-				if(!ended){
-					forceEnded = force;
-					endTime = System.currentTimeMillis();
-					ended = true;
-				}else{
-					return;
+	public  void endSession(final boolean force) {
+		if(!lane.isCurrentThread()){
+			//closed connections and idle checks end the session on its lane, after the messages already queued
+			lane.execute(new Runnable(){
+				public void run() {
+					endSession(force);
 				}
-			}
+			});
+			return;
+		}
+		
+		boolean ending = false;
+		if(!ended){
+			ending = true;
+			ActiveSessions.remove(this);
+			forceEnded = force;
+			endTime = System.currentTimeMillis();
+			ended = true;
+			sessionHistogram.recordValue((endTime - createTime) * 1000000L);
 		}
 		
+		for(MysqlServerConnection conn : commandQueue.connStatusMap.keySet()){
+			conn.stopSplice();
+		}
 		this.releaseAllCompletedConnection();
 		if(!this.commandQueue.mainCommandExecuted){
 			StringBuffer buffer = new StringBuffer();
@@ -708,6 +1125,7 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 				this.dispatchMessageTo(source, errorPacket.toByteBuffer(source).array());
 				logger.warn("session was killed!!",new Exception());
 			}
+			killedSessionCounter.increment();
 			
 			source.postClose(null);
 		}else{
@@ -718,10 +1136,101 @@ public abstract class CommandMessageHandler implements MessageHandler,Sessionabl
 			}
 		}
 		this.dispatchMessageTo(source,null);
+		pendingPackets = null;
+		commandQueue.clearAllBuffer();
+		memory.releaseAll();
+		source.removeWriteStallListener(this);
+		writeResumed(source);
+		synchronized (pauseLock) {
+			if(!stalledServers.isEmpty()){
+				stalledServers.clear();
+				source.setReadPaused(false);
+			}
+		}
+		if(ending){
+			completeCapture();
+			invalidateCachedTables(true);
+		}
+		if(ending && startNanos != 0){
+			long now = System.nanoTime();
+			if(this.commandQueue.mainCommandExecuted){
+				recordLatency(now);
+			}
+			logSlowQuery(now);
+		}
+	}
+	
+	/**
+	 * hand the session to the {@link SlowQueryLog} if it is slow or sampled, killed sessions are logged with error=true
+	 * @param now time of the final client write
+	 */
+	private void logSlowQuery(long now){
+		SlowQueryLog slowQueryLog = SlowQueryLog.getInstance();
+		if(!slowQueryLog.isEnabled()){
+			return;
+		}
+		int check = slowQueryLog.check(now - startNanos);
+		if(check == SlowQueryLog.NONE){
+			return;
+		}
+		SlowQueryEvent event = new SlowQueryEvent();
+		event.slow = (check == SlowQueryLog.SLOW);
+		event.type = this.getClass().getSimpleName();
+		event.client = source.getSocketId();
+		event.route = routeName;
+		event.sql = (this.statment == null ? null : this.statment.getSql());
+		event.error = !this.commandQueue.mainCommandExecuted || this.errorPacket != null;
+		event.pools = new String[pools.length];
+		for(int i=0;i<pools.length;i++){
+			event.pools[i] = pools[i].getName();
+		}
+		for(ConnectionStatuts status : commandQueue.connStatusMap.values()){
+			event.rows += status.rows;
+			event.phases[QueryLatency.BORROW] = Math.max(event.phases[QueryLatency.BORROW], status.borrowNanos);
+			event.phases[QueryLatency.BACKEND] = Math.max(event.phases[QueryLatency.BACKEND], status.backendNanos);
+		}
+		event.phases[QueryLatency.ROUTE] = routeNanos;
+		event.phases[QueryLatency.MERGE] = mergeNanos;
+		event.phases[QueryLatency.WRITE] = responseNanos > 0 ? now - responseNanos : 0;
+		event.phases[QueryLatency.TOTAL] = now - startNanos;
+		slowQueryLog.log(event);
+	}
+	
+	/**
+	 * record the phases of the session into the latency of each pool and of the matched table rule,
+	 * the table rule takes the slowest pool for the borrow and backend phases.
+	 * @param now time of the final client write
+	 */
+	private void recordLatency(long now){
+		long writeNanos = responseNanos > 0 ? now - responseNanos : 0;
+		long totalNanos = now - startNanos;
+		long borrowNanos = 0;
+		long backendNanos = 0;
+		for(ConnectionStatuts status : commandQueue.connStatusMap.values()){
+			if(status.latency != null){
+				recordLatency(status.latency, status.borrowNanos, status.backendNanos, writeNanos, totalNanos);
+			}
+			borrowNanos = Math.max(borrowNanos, status.borrowNanos);
+			backendNanos = Math.max(backendNanos, status.backendNanos);
+		}
+		if(routeLatency != null){
+			recordLatency(routeLatency, borrowNanos, backendNanos, writeNanos, totalNanos);
+		}
+	}
+	
+	private void recordLatency(QueryLatency latency,long borrowNanos,long backendNanos,long writeNanos,long totalNanos){
+		latency.record(QueryLatency.ROUTE, routeNanos);
+		latency.record(QueryLatency.BORROW, borrowNanos);
+		latency.record(QueryLatency.BACKEND, backendNanos);
+		if(commandQueue.isMultiple()){
+			latency.record(QueryLatency.MERGE, mergeNanos);
+		}
+		latency.record(QueryLatency.WRITE, writeNanos);
+		latency.record(QueryLatency.TOTAL, totalNanos);
 	}
 	
 
-	public synchronized boolean isEnded() {
+	public boolean isEnded() {
 		return this.ended;
 	}
 	
@@ -13,6 +13,7 @@
  */
 package com.meidusa.amoeba.mysql.handler;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -40,9 +41,11 @@ import com.meidusa.amoeba.net.MessageHandler;
 import com.meidusa.amoeba.net.Sessionable;
 import com.meidusa.amoeba.net.poolable.ObjectPool;
 import com.meidusa.amoeba.parser.dbobject.Column;
+import com.meidusa.amoeba.parser.dbobject.Table;
 import com.meidusa.amoeba.parser.statement.SelectStatement;
 import com.meidusa.amoeba.parser.statement.ShowStatement;
 import com.meidusa.amoeba.parser.statement.Statement;
+import com.meidusa.amoeba.route.QueryResultCache;
 import com.meidusa.amoeba.route.SqlBaseQueryRouter;
 import com.meidusa.amoeba.route.SqlQueryObject;
 
@@ -66,6 +69,49 @@ public class MySqlCommandDispatcher implements MessageHandler {
         STATIC_OK_BUFFER = ok.toByteBuffer(null).array();
     }
 
+    /**
+     * @param cacheKey the result is cached if not null
+     * @param flight the session leads the flight if not null
+     */
+    private void startQuerySession(MysqlClientConnection conn, byte[] message, Statement statement, ObjectPool[] pools,
+    		String cacheKey, Table[] cacheTables, long cacheTtl, QueryCoalescer.Flight flight) throws Exception {
+    	QueryCommandMessageHandler handler = null;
+    	try {
+    		handler = new QueryCommandMessageHandler(conn, message,statement, pools, timeout);
+    		if(cacheKey != null){
+    			handler.setResultCache(cacheKey, cacheTables, cacheTtl);
+    		}
+    		if(flight != null){
+    			handler.setFlight(flight);
+    		}
+    		handler.startSession();
+    	} catch (Exception e) {
+    		logger.error("start Session error:", e);
+    		if(handler != null){
+    			handler.endSession(true);
+    		}else if(flight != null){
+    			flight.complete(null);
+    		}
+    		throw e;
+    	}
+    }
+
+    /**
+     * the cached packets are numbered from 1, they are written in one buffer
+     */
+    private static void postCachedResult(MysqlClientConnection conn, byte[][] packets){
+    	int length = 0;
+    	for(byte[] packet : packets){
+    		length += packet.length;
+    	}
+    	ByteBuffer buffer = ByteBuffer.allocate(length);
+    	for(byte[] packet : packets){
+    		buffer.put(packet);
+    	}
+    	buffer.flip();
+    	conn.postMessage(buffer);
+    }
+
     /**
      * Ping COM_STMT_SEND_LONG_DATA command remove to @MysqlClientConnection #doReceiveMessage()
      */
@@ -116,17 +162,58 @@ public class MySqlCommandDispatcher implements MessageHandler {
 	                	return;
 	                }
 	                
-	                MessageHandler handler = new QueryCommandMessageHandler(conn, message,statement, pools, timeout);
-	                if (handler instanceof Sessionable) {
-	                    Sessionable session = (Sessionable) handler;
-	                    try {
-	                        session.startSession();
-	                    } catch (Exception e) {
-	                        logger.error("start Session error:", e);
-	                        session.endSession(true);
-	                        throw e;
-	                    }
+	                /**
+	                 * ֻĽͬѯĺϲautocommitʹã
+	                 * ӡʱ(NOW()RAND())߼Ĳѯ(FOR UPDATE)Ҳϲ
+	                 */
+	                String key = null;
+	                Table[] cacheTables = null;
+	                long cacheTtl = 0;
+	                QueryResultCache cache = QueryResultCache.getInstance();
+	                boolean coalescing = ((MysqlRuntimeContext)ProxyRuntimeContext.getInstance().getRuntimeContext()).isQueryCoalescing();
+	                if((cache.isEnabled() || coalescing) && statement instanceof SelectStatement && ((SelectStatement)statement).isReadStatement() && conn.isAutoCommit()
+	                		&& QueryResultCache.isCacheable(((SelectStatement)statement).getTables(), command.query)){
+	                	key = QueryResultCache.newKey(conn.getSchema(), conn.getCharset(), command.query, null);
+	                	if(cache.isEnabled()){
+		                	cacheTables = ((SelectStatement)statement).getTables();
+		                	cacheTtl = QueryResultCache.getTtl(router, cacheTables);
+		                	if(cacheTtl > 0){
+		                		byte[][] packets = cache.get(key);
+		                		if(packets != null){
+		                			postCachedResult(conn, packets);
+		                			return;
+		                		}
+		                	}
+	                	}
+	                }
+	                
+	                QueryCoalescer.Flight flight = null;
+	                if(key != null && coalescing){
+	                	final MysqlClientConnection waiterConn = conn;
+	                	final byte[] waiterMessage = message;
+	                	final Statement waiterStatement = statement;
+	                	final ObjectPool[] waiterPools = pools;
+	                	final String waiterCacheKey = (cacheTtl > 0 ? key : null);
+	                	final Table[] waiterTables = cacheTables;
+	                	final long waiterTtl = cacheTtl;
+	                	flight = QueryCoalescer.getInstance().join(key, new QueryCoalescer.Waiter(conn, message[3], new Runnable(){
+	                		public void run() {
+	                			waiterConn.getSerialExecutor().execute(new Runnable(){
+	                				public void run() {
+	                					try {
+	                						startQuerySession(waiterConn, waiterMessage, waiterStatement, waiterPools, waiterCacheKey, waiterTables, waiterTtl, null);
+	                					} catch (Exception e) {
+	                						logger.error("coalesced query error:", e);
+	                					}
+	                				}
+	                			});
+	                		}
+	                	}));
+	                	if(flight == null){
+	                		return;
+	                	}
 	                }
+	                startQuerySession(conn, message, statement, pools, (cacheTtl > 0 ? key : null), cacheTables, cacheTtl, flight);
 	            } else if (MysqlPacketBuffer.isPacketType(message, QueryCommandPacket.COM_STMT_PREPARE)) {
 	            	
 	            	/**
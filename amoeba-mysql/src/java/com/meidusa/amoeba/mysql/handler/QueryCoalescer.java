@@ -0,0 +1,164 @@
+package com.meidusa.amoeba.mysql.handler;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.route.QueryResultCache;
+
+/**
+ * <pre>
+ * identical reads (schema, client charset, normalised sql, parameters) received while one of them is running are not sent to the servers:
+ * they wait for the response of the running one, the leader, which is written to each of them with its own packet ids.
+ * only the reads of tables whose result does not depend on the connection nor on the time are coalesced,
+ * see {@link QueryResultCache#isCacheable(com.meidusa.amoeba.parser.dbobject.Table[], String)}.
+ * when the leader has no complete response (closed, timeout, response over {@link #MAX_RESULT_SIZE}),
+ * the waiters run their own query.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class QueryCoalescer {
+	private static Logger logger = Logger.getLogger(QueryCoalescer.class);
+	private static QueryCoalescer instance = new QueryCoalescer();
+
+	/**
+	 * a response over this size is not fanned out, the waiters run their own query
+	 */
+	public static final int MAX_RESULT_SIZE = 4 * 1024 * 1024;
+
+	private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+
+	private final Counter leaders = MetricsRegistry.getInstance().counter("coalesce.leaders");
+	private final Counter joined = MetricsRegistry.getInstance().counter("coalesce.joined");
+	private final Counter fallbacks = MetricsRegistry.getInstance().counter("coalesce.fallbacks");
+
+	public static QueryCoalescer getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param waiter waits for the running flight of the key, if any, else it is the leader of the new one
+	 * @return a new flight the caller leads and must complete, null if the waiter joined a running one
+	 */
+	public Flight join(String key, Waiter waiter){
+		while(true){
+			Flight flight = flights.get(key);
+			if(flight == null){
+				flight = new Flight(key, waiter.packetId);
+				if(flights.putIfAbsent(key, flight) == null){
+					leaders.increment();
+					return flight;
+				}
+			}else if(flight.attach(waiter)){
+				joined.increment();
+				return null;
+			}else{
+				flights.remove(key, flight);
+			}
+		}
+	}
+
+	/**
+	 * a client waiting for the response of a flight
+	 */
+	public static class Waiter {
+		private final Connection conn;
+		private final byte packetId;
+		private final Runnable fallback;
+
+		/**
+		 * @param packetId packet id of the command, the response is numbered from the next one
+		 * @param fallback runs the query of the waiter if the flight has no response,
+		 * it is called from the thread of the leader and must hand over to the thread of its client
+		 */
+		public Waiter(Connection conn, byte packetId, Runnable fallback){
+			this.conn = conn;
+			this.packetId = packetId;
+			this.fallback = fallback;
+		}
+	}
+
+	public class Flight {
+		private final String key;
+		private final byte packetId;
+		private List<Waiter> waiters = new ArrayList<Waiter>();
+
+		Flight(String key, byte packetId){
+			this.key = key;
+			this.packetId = packetId;
+		}
+
+		private synchronized boolean attach(Waiter waiter){
+			if(waiters == null){
+				return false;
+			}
+			waiters.add(waiter);
+			return true;
+		}
+
+		/**
+		 * called once by the leader when its session ends
+		 * @param packets the response of the leader, null if it has none
+		 */
+		public void complete(byte[][] packets){
+			flights.remove(key, this);
+			List<Waiter> list;
+			synchronized (this) {
+				list = waiters;
+				waiters = null;
+			}
+			if(list.size() == 0){
+				return;
+			}
+			if(packets == null){
+				fallbacks.add(list.size());
+			}
+			ByteBuffer shared = null;
+			for(Waiter waiter : list){
+				try{
+					if(packets == null){
+						waiter.fallback.run();
+					}else if(waiter.packetId == packetId){
+						if(shared == null){
+							shared = toBuffer(packets, (byte)0);
+						}
+						waiter.conn.postMessage(shared.duplicate());
+					}else{
+						waiter.conn.postMessage(toBuffer(packets, (byte)(waiter.packetId - packetId)));
+					}
+				}catch(Exception e){
+					logger.error("coalesced response to "+waiter.conn.getSocketId()+" error", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * the packets in one buffer, their packet ids shifted
+	 */
+	private static ByteBuffer toBuffer(byte[][] packets, byte shift){
+		int length = 0;
+		for(byte[] packet : packets){
+			length += packet.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for(byte[] packet : packets){
+			int start = buffer.position();
+			buffer.put(packet);
+			if(shift != 0){
+				buffer.put(start + 3, (byte)(packet[3] + shift));
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -39,6 +39,11 @@ public class QueryCommandMessageHandler extends CommandMessageHandler {
             super(conn);
         }
 
+        @Override
+        public boolean isStreamingRows() {
+            return this.commandType == QueryCommandPacket.COM_QUERY && lastStatusCode == SessionStatus.EOF_FIELDS && !isCompleted();
+        }
+
         /**
          * <pre>
          * Command Query:ֽmysql Query
@@ -3,6 +3,7 @@ package com.meidusa.amoeba.mysql.handler.session;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.meidusa.amoeba.metrics.QueryLatency;
 import com.meidusa.amoeba.mysql.net.packet.ErrorPacket;
 import com.meidusa.amoeba.mysql.net.packet.MysqlPacketBuffer;
 import com.meidusa.amoeba.mysql.net.packet.QueryCommandPacket;
@@ -26,6 +27,15 @@ public abstract class ConnectionStatuts{
 	public int lastStatusCode;
 	public boolean isMerged;
 	public boolean isCall = false;
+	
+	/**
+	 * latency of the pool the connection is borrowed from, with the borrow and backend nanoseconds and the rows of the current session
+	 */
+	public QueryLatency latency;
+	public long borrowNanos;
+	public long backendNanos;
+	public long rows;
+	
 	public void clearBuffer(){
 		if(buffers != null){
 			buffers.clear();
@@ -43,6 +53,14 @@ public abstract class ConnectionStatuts{
 	public boolean isCompleted(){
 		return (statusCode & SessionStatus.COMPLETED) == SessionStatus.COMPLETED;
 	}
+	
+	/**
+	 * @return true while the rows of a result set are read: until the eof or error packet, the packets are rows that
+	 * do not change the status and can be forwarded without {@link #isCompleted(byte[])}
+	 */
+	public boolean isStreamingRows(){
+		return false;
+	}
 	/**
 	 * жϴӷ˷صݰǷʾǰĽ
 	 * @param buffer
@@ -11,6 +11,11 @@
  */
 package com.meidusa.amoeba.mysql.io;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
 import com.meidusa.amoeba.net.io.PacketInputStream;
 
 /**
@@ -47,6 +52,21 @@ public class MysqlFramedInputStream extends PacketInputStream implements MySqlPa
 
 	private byte _packetId;
 	private boolean readPackedWithHead;
+	
+	/**
+	 * packets forwarded as they are read, see {@link MysqlFramedInputStream#readPackets(ReadableByteChannel, PacketFilter, int)}
+	 */
+	public static interface PacketFilter {
+		
+		/**
+		 * @param buffer the read buffer, the packet header included starts at offset. the packet id may be rewritten in place.
+		 * @param offset
+		 * @param length packet length with the header
+		 * @return false to stop at this packet, the packet and the following ones are left to {@link MysqlFramedInputStream#readPacket(ReadableByteChannel)}
+		 */
+		public boolean accept(byte[] buffer,int offset,int length);
+	}
+	
 	public byte getPacketId(){
 		return _packetId;
 	}
@@ -81,6 +101,94 @@ public class MysqlFramedInputStream extends PacketInputStream implements MySqlPa
 		return HEADER_SIZE;
 	}
 	
+	/**
+	 * <pre>
+	 * read whatever the channel has and return the complete packets accepted by the filter in one buffer, without one byte[] per packet.
+	 * when the accepted packets fill most of the read buffer the buffer itself is returned and replaced, else they are copied once.
+	 * the bytes of a partial packet, and the packets from the first one refused by the filter, stay in the stream.
+	 * </pre>
+	 * 
+	 * @param bufferSize minimum size of the read buffer
+	 * @return the accepted packets with their header, or null if there are none
+	 */
+	public ByteBuffer readPackets(ReadableByteChannel source,PacketFilter filter,int bufferSize) throws IOException{
+		if(_buffer.capacity() < bufferSize){
+			expandBuffer(bufferSize);
+		}
+		
+		int offset = 0;
+		while(true){
+			if(_buffer.hasRemaining()){
+				int got = source.read(_buffer);
+				if (got == -1) {
+					throw new EOFException();
+				}
+				_have += got;
+			}
+			
+			byte[] array = _buffer.array();
+			boolean refused = false;
+			while(_have - offset >= HEADER_SIZE){
+				int length = (array[offset] & 0xff)
+							+ ((array[offset + 1] & 0xff) << 8)
+							+ ((array[offset + 2] & 0xff) << 16)
+							+ HEADER_SIZE;
+				if(_have - offset < length){
+					break;
+				}
+				if(!filter.accept(array, offset, length)){
+					refused = true;
+					break;
+				}
+				offset += length;
+			}
+			
+			if(offset > 0 || refused || _buffer.hasRemaining()){
+				break;
+			}
+			
+			//one packet larger than the buffer
+			int newSize = _buffer.capacity() << 1;
+			if(newSize > MAX_BUFFER_CAPACITY){
+				throw new IOException("packet over MAX_BUFFER_CAPACITY size="+newSize);
+			}
+			expandBuffer(newSize);
+		}
+		
+		if(offset == 0){
+			_length = this.decodeLength();
+			return null;
+		}
+		
+		ByteBuffer packets;
+		int left = _have - offset;
+		if(offset >= _buffer.capacity() / 2){
+			packets = _buffer;
+			_buffer = ByteBuffer.allocate(_buffer.capacity());
+			_buffer.put(packets.array(), offset, left);
+			packets.position(0);
+			packets.limit(offset);
+		}else{
+			packets = ByteBuffer.allocate(offset);
+			packets.put(_buffer.array(), 0, offset);
+			packets.flip();
+			_buffer.limit(_have);
+			_buffer.position(offset);
+			_buffer.compact();
+		}
+		_have = left;
+		_length = this.decodeLength();
+		return packets;
+	}
+	
+	private void expandBuffer(int size){
+		ByteBuffer newbuf = ByteBuffer.allocate(size);
+		_buffer.limit(_have);
+		_buffer.position(0);
+		newbuf.put(_buffer);
+		_buffer = newbuf;
+	}
+	
 	protected byte[] readPacket(){
         byte[] msg = new byte[_length];
         int position = _buffer.position();
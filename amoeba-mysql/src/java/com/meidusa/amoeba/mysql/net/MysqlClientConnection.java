@@ -27,6 +27,8 @@ import org.apache.commons.collections.map.LRUMap;
 import org.apache.log4j.Logger;
 
 import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
 import com.meidusa.amoeba.mysql.context.MysqlRuntimeContext;
 import com.meidusa.amoeba.mysql.handler.MySqlCommandDispatcher;
 import com.meidusa.amoeba.mysql.handler.PreparedStatmentInfo;
@@ -44,6 +46,9 @@ import com.meidusa.amoeba.mysql.net.packet.result.MysqlResultSetPacket;
 import com.meidusa.amoeba.net.AuthResponseData;
 import com.meidusa.amoeba.net.Connection;
 import com.meidusa.amoeba.parser.ParseException;
+import com.meidusa.amoeba.parser.dbobject.Table;
+import com.meidusa.amoeba.route.QueryResultCache;
+import com.meidusa.amoeba.util.SerialExecutor;
 import com.meidusa.amoeba.util.StringUtil;
 import com.meidusa.amoeba.util.ThreadLocalMap;
 
@@ -58,6 +63,8 @@ public class MysqlClientConnection extends MysqlConnection implements MySqlPacke
 			.getLogger(MysqlClientConnection.class);
 	private static Logger authLogger = Logger.getLogger("auth");
 	private static Logger lastInsertID = Logger.getLogger("lastInsertId");
+	private static final Counter preparedCacheHits = MetricsRegistry.getInstance().counter("statementCache.prepared.hits");
+	private static final Counter preparedCacheMisses = MetricsRegistry.getInstance().counter("statementCache.prepared.misses");
 	
 	protected static byte[] AUTHENTICATEOKPACKETDATA;
     static {
@@ -107,6 +114,28 @@ public class MysqlClientConnection extends MysqlConnection implements MySqlPacke
 			.synchronizedMap(new HashMap<String, Long>(256));
 	private AtomicLong atomicLong = new AtomicLong(1);
 
+	/**
+	 * tables written by the open transaction, their cached results are invalidated again when it commits.
+	 * a statement whose tables are not known makes the whole cache stale at the commit.
+	 */
+	private final List<Table> transactionTables = new ArrayList<Table>();
+	private boolean transactionWritesUnknown;
+
+	/**
+	 * the messages of this client, and of the sessions it starts, are handled in order on this lane.
+	 * a read event only signals the lane, the handler drains all the messages read before it runs.
+	 */
+	private final SerialExecutor serialExecutor = new SerialExecutor(null);
+	private final SerialExecutor.Signal messageSignal = new SerialExecutor.Signal(serialExecutor, new Runnable() {
+		public void run() {
+			try {
+				MysqlClientConnection.this.getMessageHandler().handleMessage(MysqlClientConnection.this);
+			} finally {
+				ThreadLocalMap.reset();
+			}
+		}
+	});
+
 	public int getStatementCacheSize() {
 		return statementCacheSize;
 	}
@@ -168,10 +197,12 @@ public class MysqlClientConnection extends MysqlConnection implements MySqlPacke
 		Long id = sql_statment_id_map.get(preparedSql);
 		PreparedStatmentInfo info = null;
 		if (id == null) {
+			preparedCacheMisses.increment();
 			info = new PreparedStatmentInfo(this, atomicLong.getAndIncrement(),
 					preparedSql);
 			prepared_statment_map.put(info.getStatmentId(), info);
 		} else {
+			preparedCacheHits.increment();
 			info = getPreparedStatmentInfo(id);
 		}
 		return info;
@@ -285,15 +316,12 @@ public class MysqlClientConnection extends MysqlConnection implements MySqlPacke
 			executor = ProxyRuntimeContext.getInstance().getRuntimeContext().getServerSideExecutor();
 		}
 		
-		executor.execute(new Runnable() {
-			public void run() {
-				try {
-					MysqlClientConnection.this.getMessageHandler().handleMessage(MysqlClientConnection.this);
-				} finally {
-					ThreadLocalMap.reset();
-				}
-			}
-		});
+		serialExecutor.setExecutor(executor);
+		messageSignal.signal();
+	}
+
+	public SerialExecutor getSerialExecutor() {
+		return serialExecutor;
 	}
 
 	public void addLongData(byte[] longData) {
@@ -307,6 +335,34 @@ public class MysqlClientConnection extends MysqlConnection implements MySqlPacke
 	public List<byte[]> getLongDataList() {
 		return unmodifiableLongDataList;
 	}
+
+	/**
+	 * @param tables written by a statement of the open transaction, null if they are not known
+	 */
+	public synchronized void addTransactionTables(Table[] tables) {
+		if(tables == null){
+			transactionWritesUnknown = true;
+		}else{
+			for(Table table : tables){
+				transactionTables.add(table);
+			}
+		}
+	}
+
+	/**
+	 * the open transaction ended, the cached results of the tables it wrote are stale if it committed
+	 */
+	public synchronized void endTransaction(boolean committed) {
+		if(committed){
+			if(transactionWritesUnknown){
+				QueryResultCache.getInstance().invalidateAll();
+			}else if(!transactionTables.isEmpty()){
+				QueryResultCache.getInstance().invalidate(transactionTables.toArray(new Table[transactionTables.size()]));
+			}
+		}
+		transactionTables.clear();
+		transactionWritesUnknown = false;
+	}
 	
 	public long getLastInsertId() {
 		if(lastInsertID.isDebugEnabled()){
@@ -46,8 +46,7 @@ public abstract class MysqlConnection extends DatabaseConnection {
 	 */
 	public void postMessage(byte[] msg)
     {
-		_outQueue.append(ByteBuffer.wrap(msg));
-        writeMessage();
+		postMessage(ByteBuffer.wrap(msg));
     }
     
 }
@@ -11,6 +11,9 @@
  */
 package com.meidusa.amoeba.mysql.net;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
 import org.apache.log4j.Level;
@@ -20,7 +23,10 @@ import com.meidusa.amoeba.net.poolable.ObjectPool;
 import com.meidusa.amoeba.net.poolable.PoolableObject;
 import com.meidusa.amoeba.context.ProxyRuntimeContext;
 import com.meidusa.amoeba.mysql.context.MysqlRuntimeContext;
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
 import com.meidusa.amoeba.mysql.io.MySqlPacketConstant;
+import com.meidusa.amoeba.mysql.io.MysqlFramedInputStream;
 import com.meidusa.amoeba.mysql.net.packet.AuthenticationPacket;
 import com.meidusa.amoeba.mysql.net.packet.ErrorPacket;
 import com.meidusa.amoeba.mysql.net.packet.HandshakePacket;
@@ -67,6 +73,17 @@ public class MysqlServerConnection extends MysqlConnection implements MySqlPacke
 	 */
 	private long queryTimeout;
 	
+	/**
+	 * splice: the packets accepted by the filter are posted to the target as they are read, in the read buffer,
+	 * without byte[] per packet and without the message handler.
+	 */
+	private static final int SPLICE_BUFFER_SIZE = 64 * 1024;
+	private static final Counter spliceBytes = MetricsRegistry.getInstance().counter("mysql.splice.bytes");
+	private static final Counter spliceReads = MetricsRegistry.getInstance().counter("mysql.splice.reads");
+	private volatile Connection spliceTarget;
+	private volatile MysqlFramedInputStream.PacketFilter spliceFilter;
+	private final Object spliceLock = new Object();
+	
 	public MysqlServerConnection(SocketChannel channel, long createStamp) {
 		super(channel, createStamp);
 	}
@@ -401,6 +418,72 @@ public class MysqlServerConnection extends MysqlConnection implements MySqlPacke
 		return objectPool == null;
 	}
 	
+	/**
+	 * forward the next packets read to the target while the filter accepts them, the filter calls {@link #stopSplice()} before refusing a packet.
+	 * the messages are handled on another thread than the io thread: the splice starts only when no packet is being read 
+	 * and all the packets read were taken by the handler, else the handler will be signaled again and can retry.
+	 * 
+	 * @return false if packets are waiting in the in queue
+	 */
+	public boolean startSplice(Connection target,MysqlFramedInputStream.PacketFilter filter){
+		synchronized (spliceLock) {
+			if(getInQueue().size() > 0){
+				return false;
+			}
+			this.spliceFilter = filter;
+			this.spliceTarget = target;
+			return true;
+		}
+	}
+	
+	public void stopSplice(){
+		this.spliceTarget = null;
+	}
+	
+	public boolean isSplicing(){
+		return spliceTarget != null;
+	}
+	
+	public int handleEvent(long when) {
+		Connection target = spliceTarget;
+		if(target == null){
+			synchronized (spliceLock) {
+				return super.handleEvent(when);
+			}
+		}
+		
+		int bytesInTotal = 0;
+		try {
+			MysqlFramedInputStream input = (MysqlFramedInputStream)getPacketInputStream();
+			ByteBuffer packets = input.readPackets(_channel, spliceFilter, SPLICE_BUFFER_SIZE);
+			if(packets != null){
+				_lastEvent = when;
+				bytesInTotal = packets.remaining();
+				spliceReads.increment();
+				spliceBytes.add(bytesInTotal);
+				target.postMessage(packets);
+			}
+		} catch (EOFException eofe) {
+			handleFailure(eofe);
+			return bytesInTotal;
+		} catch (IOException ioe) {
+			String msg = ioe.getMessage();
+			if (msg == null || msg.indexOf("reset by peer") == -1) {
+				logger.info("Error reading message from connection ["+ toString() + "], error=" + ioe + "].", ioe);
+			}
+			handleFailure(ioe);
+			return bytesInTotal;
+		}
+		
+		//the filter refused a packet, it is handled with the following ones by the message handler
+		if(spliceTarget == null){
+			synchronized (spliceLock) {
+				bytesInTotal += super.handleEvent(when);
+			}
+		}
+		return bytesInTotal;
+	}
+	
 	protected void close(Exception exception){
 		super.close(exception);
 		final ObjectPool tmpPool = objectPool;
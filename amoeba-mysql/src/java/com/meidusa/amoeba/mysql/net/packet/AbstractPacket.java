@@ -64,6 +64,23 @@ public class AbstractPacket extends com.meidusa.amoeba.net.packet.AbstractPacket
         buffer.setPosition(position);
     }
 
+    /**
+     * ݰ׷ӵbufferǰλ֮, СݰԹͬһbufferһд
+     */
+    public void appendToBuffer(AbstractPacketBuffer buffer) throws UnsupportedEncodingException {
+        int start = buffer.getPosition();
+        buffer.setPosition(start + HEADER_SIZE);
+        write2Buffer(buffer);
+        int position = buffer.getPosition();
+        packetLength = position - start - HEADER_SIZE;
+        buffer.setPosition(start);
+        buffer.writeByte((byte) (packetLength & 0xff));
+        buffer.writeByte((byte) (packetLength >>> 8));
+        buffer.writeByte((byte) (packetLength >>> 16));
+        buffer.writeByte((byte) (packetId & 0xff));// packet id
+        buffer.setPosition(position);
+    }
+
     @Override
     protected Class<? extends AbstractPacketBuffer> getPacketBufferClass() {
         return MysqlPacketBuffer.class;
@@ -410,6 +410,26 @@ public class MysqlPacketBuffer extends AbstractPacketBuffer {
         return false;
     }
 
+    /**
+     * same as {@link #isPacketType(byte[], byte)} for a packet read in a larger buffer
+     * @param offset start of the packet header
+     * @param length packet length with the header
+     */
+    public static boolean isPacketType(byte[] bytes, int offset, int length, byte type) {
+        if (length >= 5) {
+            return bytes[offset + 4] == type;
+        }
+        return false;
+    }
+
+    public static boolean isErrorPacket(byte[] bty, int offset, int length) {
+        return isPacketType(bty, offset, length, (byte) 0xff);
+    }
+
+    public static boolean isEofPacket(byte[] bty, int offset, int length) {
+        return length < 13 && isPacketType(bty, offset, length, (byte) 0xfe);
+    }
+
     public static boolean isOkPacket(byte[] bty) {
         return isPacketType(bty, (byte) 0x00);
     }
@@ -16,6 +16,15 @@ public class ErrorResultPacket implements ResultPacket{
 	}
 
 	private int errorCode;
+
+	protected int getErrorCode() {
+		return errorCode;
+	}
+
+	protected String getErrorMessage() {
+		return errorMessage;
+	}
+
 	public void setError(int errorCode,String errorMessage) {
 		isError = true;
 		this.errorCode = errorCode;
@@ -1,10 +1,17 @@
 package com.meidusa.amoeba.mysql.net.packet.result;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.mysql.net.packet.AbstractPacket;
 import com.meidusa.amoeba.mysql.net.packet.EOFPacket;
+import com.meidusa.amoeba.mysql.net.packet.ErrorPacket;
 import com.meidusa.amoeba.mysql.net.packet.FieldPacket;
+import com.meidusa.amoeba.mysql.net.packet.MysqlPacketBuffer;
 import com.meidusa.amoeba.mysql.net.packet.ResultSetHeaderPacket;
 import com.meidusa.amoeba.mysql.net.packet.RowDataPacket;
 import com.meidusa.amoeba.net.Connection;
@@ -17,6 +24,7 @@ import com.meidusa.amoeba.net.packet.PacketBuffer;
  *
  */
 public class MysqlResultSetPacket extends ErrorResultPacket {
+	private static Logger logger = Logger.getLogger(MysqlResultSetPacket.class);
 	
 	public ResultSetHeaderPacket resulthead;
 	public FieldPacket[] fieldPackets;
@@ -33,6 +41,12 @@ public class MysqlResultSetPacket extends ErrorResultPacket {
 
 	private byte[] content;
 	
+	private Connection streamConnection;
+	private int streamBufferSize;
+	private int streamPendingSize;
+	private MysqlPacketBuffer streamBuffer;
+	private byte streamPacketId;
+	
 	public void setContent(byte[] content) {
 		this.content = content;
 	}
@@ -45,17 +59,128 @@ public class MysqlResultSetPacket extends ErrorResultPacket {
 		this.rowList = rows;
 	}
 	
-	public synchronized void addRowDataPacket(RowDataPacket row){
-		if(rowList == null){
-			rowList = new ArrayList<RowDataPacket>();
+	/**
+	 * the rows added from now on are encoded into a reusable buffer and written to the connection
+	 * instead of being kept until {@link #wirteToConnection(Connection)}.
+	 * 
+	 * @param bufferSize the buffer is written to the connection once it holds this many bytes
+	 * @param pendingSize {@link #addRowDataPacket(RowDataPacket)} waits, without holding the lock of this packet,
+	 * until the connection has written its out queue down to this many bytes
+	 */
+	public synchronized void startStreaming(Connection conn,int bufferSize,int pendingSize){
+		this.streamConnection = conn;
+		this.streamBufferSize = bufferSize;
+		this.streamPendingSize = Math.max(pendingSize, bufferSize);
+	}
+	
+	/**
+	 * @return true if rows are not kept by this packet, the caller may reuse the row packet
+	 */
+	public boolean isStreaming(){
+		return streamConnection != null;
+	}
+	
+	public void addRowDataPacket(RowDataPacket row){
+		synchronized (this) {
+			if(streamConnection == null){
+				if(rowList == null){
+					rowList = new ArrayList<RowDataPacket>();
+				}
+				rowList.add(row);
+				return;
+			}
+			if(!streamRow(row)){
+				return;
+			}
+		}
+		
+		//the client reads slower than the rows are fetched
+		if(streamConnection.getOutQueueBytes() > streamPendingSize){
+			try {
+				streamConnection.awaitOutQueueBytes(streamPendingSize);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the buffer has been written to the connection
+	 */
+	private boolean streamRow(RowDataPacket row){
+		try{
+			if(streamBuffer == null){
+				streamBuffer = new MysqlPacketBuffer(streamBufferSize + 1024);
+				streamBuffer.init(streamConnection);
+				streamBuffer.setPosition(0);
+				streamPacketId = 1;
+				appendPacket(resulthead);
+				if(fieldPackets != null){
+					for(int i=0;i<fieldPackets.length;i++){
+						appendPacket(fieldPackets[i]);
+					}
+				}
+				EOFPacket eof = new EOFPacket();
+				eof.serverStatus = 2;
+				eof.warningCount = 0;
+				appendPacket(eof);
+			}
+			appendPacket(row);
+		}catch(UnsupportedEncodingException e){
+			logger.error("encode row error", e);
+			return false;
+		}
+
+		if(streamBuffer.getPosition() >= streamBufferSize){
+			flushStream();
+			return true;
+		}
+		return false;
+	}
+	
+	private void appendPacket(AbstractPacket packet) throws UnsupportedEncodingException{
+		packet.packetId = streamPacketId++;
+		packet.appendToBuffer(streamBuffer);
+	}
+	
+	private void flushStream(){
+		if(streamBuffer.getPosition() > 0){
+			
+			//MysqlPacketBuffer.toByteBuffer() only returns the first packet
+			streamConnection.postMessage(ByteBuffer.wrap(streamBuffer.getBytes(0, streamBuffer.getPosition())));
+			streamBuffer.reset();
+			streamBuffer.setPosition(0);
 		}
-		rowList.add(row);
 	}
 	
 	/* (non-Javadoc)
 	 * @see com.meidusa.amoeba.aladdin.io.ResultPacket#wirteToConnection(com.meidusa.amoeba.net.Connection)
 	 */
 	public void wirteToConnection(Connection conn){
+		synchronized (this) {
+			if(streamBuffer != null){
+				
+				//header, fields and rows have been written, an error can only replace the last eof
+				try {
+					if(isError()){
+						ErrorPacket error = new ErrorPacket();
+						error.errno = getErrorCode();
+						error.serverErrorMessage = getErrorMessage();
+						appendPacket(error);
+					}else{
+						EOFPacket eof = new EOFPacket();
+						eof.serverStatus = 2;
+						eof.warningCount = 0;
+						appendPacket(eof);
+					}
+				} catch (UnsupportedEncodingException e) {
+					logger.error("encode eof error", e);
+				}
+				flushStream();
+				return;
+			}
+		}
+		
 		if(isError()){
 			super.wirteToConnection(conn);
 			return;
@@ -17,9 +17,12 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import com.meidusa.amoeba.config.ConfigUtil;
 import com.meidusa.amoeba.log4j.DOMConfigurator;
+import com.meidusa.amoeba.metrics.LatencyHistogram;
 import com.meidusa.amoeba.net.AuthingableConnection;
 import com.meidusa.amoeba.net.BackendConnectionFactory;
 import com.meidusa.amoeba.net.Connection;
@@ -49,6 +52,12 @@ public abstract class AbstractBenchmark {
 	protected static CmdLineParser.Option connOption = parser.addOption(new IntegerOption('c', "conn",true,true,"The number of concurrent connections"));
 	protected static CmdLineParser.Option totalOption = parser.addOption(new LongOption('n', "total",true,true,"total requests"));
 	protected static CmdLineParser.Option timeoutOption = parser.addOption(new IntegerOption('t', "timeout",true,false,-1,"query timeout, default value=-1 "));
+	protected static CmdLineParser.Option<?> rateOption = parser.addOption(new IntegerOption('r', "rate",true,false,0,"open-loop mode: requests per second sent whatever the responses are, default 0 (closed-loop)"));
+	protected static CmdLineParser.Option<?> warmupOption = parser.addOption(new IntegerOption('w', "warmup",true,false,0,"seconds at the beginning excluded from the results, default 0"));
+	protected static CmdLineParser.Option<?> intervalOption = parser.addOption(new IntegerOption('i', "interval",true,false,1,"seconds between two progress reports, default 1"));
+	protected static CmdLineParser.Option<?> stubOption = parser.addOption(new IntegerOption('S', "stub",true,false,0,"start N stub servers in this jvm on port .. port+N-1 and spread the connections over them, default 0"));
+	protected static CmdLineParser.Option<?> stubLatencyOption = parser.addOption(new IntegerOption('L', "stubLatency",true,false,0,"ms the stub servers wait before a response, default 0"));
+	protected static CmdLineParser.Option<?> stubJitterOption = parser.addOption(new IntegerOption('J', "stubJitter",true,false,0,"random ms added to the stub latency, default 0"));
     
 	protected static CmdLineParser.Option contextOption = parser.addOption(new StringOption('C', "context",true,false,"Context xml File"));
 	protected static CmdLineParser.Option requestOption = parser.addOption(new StringOption('f', "file",true,false,"request xml File"));
@@ -70,6 +79,17 @@ public abstract class AbstractBenchmark {
 	
 	private List<AbstractBenchmarkClient<?>> benchmarkClientList = new ArrayList<AbstractBenchmarkClient<?>>();
 	
+	/**
+	 * latency of the requests completed after the warm-up
+	 */
+	private LatencyHistogram histogram = new LatencyHistogram();
+	
+	/**
+	 * latency of the requests completed since the last progress report
+	 */
+	private AtomicReference<LatencyHistogram> intervalHistogram = new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+	private volatile long recordFrom = Long.MAX_VALUE;
+	
 	
 	public List<AbstractBenchmarkClient<?>> getBenchmarkClientList() {
 		return benchmarkClientList;
@@ -122,8 +142,41 @@ public abstract class AbstractBenchmark {
 	
 	public abstract ConnectionFactory getConnectionFactory();
 	
+	/**
+	 * start count stub servers of the protocol listening on port .. port+count-1
+	 */
+	protected void startStubServers(String ip,int port,int count,int latency,int jitter) throws Exception{
+		throw new UnsupportedOperationException(this.getClass().getSimpleName()+" has no stub server");
+	}
+	
 	private ConnectionManager connManager; 
 	
+	/**
+	 * record the latency of one request, requests completed during the warm-up are only in the progress report
+	 */
+	public void recordLatency(long start,long end){
+		long latency = end - start;
+		intervalHistogram.get().recordValue(latency);
+		if(end >= recordFrom){
+			histogram.recordValue(latency);
+		}
+	}
+	
+	public LatencyHistogram getHistogram() {
+		return histogram;
+	}
+	
+	/**
+	 * @return the latency recorded since the last call
+	 */
+	public LatencyHistogram getIntervalHistogram() {
+		return intervalHistogram.getAndSet(new LatencyHistogram());
+	}
+	
+	private static String toMillis(long nanos){
+		return String.format("%.3fms", nanos / 1000000d);
+	}
+	
 	public ConnectionManager getConnManager() {
 		return connManager;
 	}
@@ -180,6 +233,18 @@ public abstract class AbstractBenchmark {
 		final TaskRunnable task = new TaskRunnable();
 		final AtomicLong errorNum = new AtomicLong(0);
 		int port = (Integer)parser.getOptionValue(portOption);
+		final int rate = (Integer)parser.getOptionValue(rateOption,0);
+		final int warmup = (Integer)parser.getOptionValue(warmupOption,0);
+		final int interval = Math.max(1, (Integer)parser.getOptionValue(intervalOption,1));
+		final int stubs = (Integer)parser.getOptionValue(stubOption,0);
+		final AbstractBenchmark benckmark = AbstractBenchmark.getInstance();
+		if(stubs > 0){
+			int latency = (Integer)parser.getOptionValue(stubLatencyOption,0);
+			int jitter = (Integer)parser.getOptionValue(stubJitterOption,0);
+			benckmark.startStubServers(ip, port, stubs, latency, jitter);
+			System.out.println(stubs+" stub server(s) started on port "+port+(stubs > 1 ? " - "+(port + stubs - 1) : "")
+					+(latency > 0 || jitter > 0 ? ",latency="+latency+"ms,jitter="+jitter+"ms" : ""));
+		}
 		
 		final MultiConnectionManagerWrapper manager = new MultiConnectionManagerWrapper();
 		manager.addConnectionObserver(new ConnectionObserver(){
@@ -241,9 +306,15 @@ public abstract class AbstractBenchmark {
 					}
 					lastCount = current;
 					lastTime = currentTime;
-					System.out.println(new Date() +"     compeleted="+(total - lastCount)+ " TPS="+tps +" ,conns="+manager.getSize());
+					LatencyHistogram snapshot = benckmark.getIntervalHistogram();
+					System.out.println(new Date() +"     compeleted="+(total - lastCount)+ " TPS="+tps +" ,conns="+manager.getSize()
+							+(snapshot.getTotalCount() > 0 ? " ,p50="+toMillis(snapshot.getValueAtPercentile(50))
+									+" p99="+toMillis(snapshot.getValueAtPercentile(99))
+									+" p999="+toMillis(snapshot.getValueAtPercentile(99.9))
+									+" max="+toMillis(snapshot.getMax()) : "")
+							+(System.nanoTime() < benckmark.recordFrom ? " (warmup)" : ""));
 					try {
-						Thread.sleep(1000);
+						Thread.sleep(interval * 1000L);
 					} catch (InterruptedException e) {
 					}
 					
@@ -263,8 +334,8 @@ public abstract class AbstractBenchmark {
 			
 		}.start();
 		
-		System.out.println("\r\nconnect to ip="+ip+",port="+port+",connection size="+conn+",total request="+total);
-		AbstractBenchmark benckmark = AbstractBenchmark.getInstance();
+		System.out.println("\r\nconnect to ip="+ip+",port="+port+",connection size="+conn+",total request="+total
+				+(rate > 0 ? ",open-loop rate="+rate+"/s" : "")+(warmup > 0 ? ",warmup="+warmup+"s" : ""));
 		benckmark.setConnManager(manager);
 		ConnectionFactory factory = benckmark.getConnectionFactory();
 		if(factory instanceof BackendConnectionFactory)
@@ -277,7 +348,7 @@ public abstract class AbstractBenchmark {
 		
 		long createConnectionStartTime = System.nanoTime();
 		for(int i=0;i<conn;i++){
-			InetSocketAddress address = new InetSocketAddress(ip,port);
+			InetSocketAddress address = new InetSocketAddress(ip,stubs > 0 ? port + i % stubs : port);
 			try{
 				Connection connection = factory.createConnection(SocketChannel.open(address),System.currentTimeMillis());
 				
@@ -285,6 +356,7 @@ public abstract class AbstractBenchmark {
 				client.setBenchmark(benckmark);
 				client.setTimeout(timeout.intValue());
 				client.setDebug(value.booleanValue());
+				client.setOpenLoop(rate > 0);
 				
 				client.putAllRequestProperties(properties);
 				client.init();
@@ -300,11 +372,45 @@ public abstract class AbstractBenchmark {
 		}
 		
 		long createConnectionEndTime = System.nanoTime();
+		benckmark.recordFrom = createConnectionEndTime + TimeUnit.NANOSECONDS.convert(warmup, TimeUnit.SECONDS);
 		
-		for(AbstractBenchmarkClient<?> connection: benckmark.benchmarkClientList){
-			if(requestLatcher.getCount()>0){
-				requestLatcher.countDown();
-				connection.startBenchmark();
+		if(rate > 0){
+			/*
+			 * open-loop: every connection has a thread scheduling its share of the requests at a fixed rate,
+			 * a client busy with an earlier request queues the new one, and the latency is measured from the scheduled time
+			 */
+			final List<AbstractBenchmarkClient<?>> clients = benckmark.benchmarkClientList;
+			final double period = 1000d * 1000d * 1000d / rate;
+			final long scheduleStart = createConnectionEndTime;
+			for(int i=0;i<clients.size();i++){
+				final int index = i;
+				new Thread("scheduler-"+i){
+					{this.setDaemon(true);}
+					public void run(){
+						AbstractBenchmarkClient<?> client = clients.get(index);
+						for(long sequence = index;;sequence += clients.size()){
+							long intendedStart = scheduleStart + (long)(sequence * period);
+							long wait = intendedStart - System.nanoTime();
+							if(wait > 0){
+								LockSupport.parkNanos(wait);
+							}
+							synchronized (requestLatcher) {
+								if(requestLatcher.getCount() == 0){
+									break;
+								}
+								requestLatcher.countDown();
+							}
+							client.scheduleRequest(intendedStart);
+						}
+					}
+				}.start();
+			}
+		}else{
+			for(AbstractBenchmarkClient<?> connection: benckmark.benchmarkClientList){
+				if(requestLatcher.getCount()>0){
+					requestLatcher.countDown();
+					connection.startBenchmark();
+				}
 			}
 		}
 		
@@ -312,28 +418,17 @@ public abstract class AbstractBenchmark {
 		task.running = false;
 		responseLatcher.await();
 		long endBenchmarkTime = System.nanoTime();
-		long min = benckmark.benchmarkClientList.get(0).min;
-		long max = 0;
-		long minStart = benckmark.benchmarkClientList.get(0).start;
-		long maxend = 0;
-		long average = 0;
-		int totleConnection = 0;
-		for(AbstractBenchmarkClient<?> connection: benckmark.benchmarkClientList){
-			if(connection.count>0){
-				min = Math.min(min, connection.min);
-				max = Math.max(max, connection.max);
-				average += (connection.end - connection.start)/connection.count;
-				minStart = Math.min(minStart,connection.start);
-				maxend = Math.max(maxend, connection.end);
-				totleConnection ++;
-			}
-		}
-		long time = TimeUnit.MILLISECONDS.convert((maxend - minStart),TimeUnit.NANOSECONDS);
-		System.out.println("completed requests total="+total+ ", errorNum="+errorNum.get()+", cost="+TimeUnit.MILLISECONDS.convert((maxend - minStart), TimeUnit.NANOSECONDS)+"ms , TPS="+ (time>0?((long)total*1000)/time:total)+"/s");
-		System.out.println("min="+TimeUnit.MILLISECONDS.convert(min, TimeUnit.NANOSECONDS)+"ms");
-		System.out.println("max="+TimeUnit.MILLISECONDS.convert(max, TimeUnit.NANOSECONDS)+"ms");
-		average = TimeUnit.MILLISECONDS.convert(average, TimeUnit.NANOSECONDS)/totleConnection;
-		System.out.println("average="+average+"ms");
+		LatencyHistogram histogram = benckmark.getHistogram();
+		long measured = histogram.getTotalCount();
+		long time = TimeUnit.MILLISECONDS.convert(endBenchmarkTime - Math.min(benckmark.recordFrom, endBenchmarkTime),TimeUnit.NANOSECONDS);
+		System.out.println("completed requests total="+total+ ", errorNum="+errorNum.get()+", measured="+measured+", cost="+time+"ms , TPS="+ (time>0?(measured*1000)/time:measured)+"/s");
+		System.out.println("min="+toMillis(histogram.getMin()));
+		System.out.println("p50="+toMillis(histogram.getValueAtPercentile(50)));
+		System.out.println("p90="+toMillis(histogram.getValueAtPercentile(90)));
+		System.out.println("p99="+toMillis(histogram.getValueAtPercentile(99)));
+		System.out.println("p999="+toMillis(histogram.getValueAtPercentile(99.9)));
+		System.out.println("max="+toMillis(histogram.getMax()));
+		System.out.println("average="+toMillis((long)histogram.getMean()));
 		
 		System.out.println("create Connections time="+TimeUnit.MILLISECONDS.convert(createConnectionEndTime - createConnectionStartTime, TimeUnit.NANOSECONDS)+"ms");
 		long tpsTime = TimeUnit.MILLISECONDS.convert(endBenchmarkTime - createConnectionEndTime, TimeUnit.NANOSECONDS);
@@ -1,6 +1,7 @@
 package com.meidusa.amoeba.benchmark;
 
 import java.nio.ByteBuffer;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
@@ -18,12 +19,17 @@ public abstract class AbstractBenchmarkClient<T extends Packet> implements Messa
 	private boolean debug = false;
 	private int timeout = -1;
 	private Properties properties;
-	long min = System.nanoTime();
-	long start = 0;
-	long max = 0;
-	long end = min;
-	long next = min;
-	long count = 0;
+	
+	/**
+	 * start time of the requests sent and not completed, oldest first
+	 */
+	private final LinkedList<Long> inflight = new LinkedList<Long>();
+	
+	/**
+	 * intended start time of the requests scheduled by the open-loop mode and not sent yet
+	 */
+	private final LinkedList<Long> scheduled = new LinkedList<Long>();
+	private boolean openLoop = false;
 	protected CountDownLatch requestLatcher;
 	protected CountDownLatch responseLatcher;
 	protected TaskRunnable task;
@@ -75,7 +81,6 @@ public abstract class AbstractBenchmarkClient<T extends Packet> implements Messa
 	
 	public AbstractBenchmarkClient(Connection connection, CountDownLatch requestLatcher,CountDownLatch responseLatcher,TaskRunnable task) {
 		this.connection = connection;
-		start = System.nanoTime();
 		this.requestLatcher = requestLatcher;
 		this.responseLatcher = responseLatcher;
 		this.task = task;
@@ -91,8 +96,62 @@ public abstract class AbstractBenchmarkClient<T extends Packet> implements Messa
 
 	public abstract T decodeRecievedPacket(byte[] message);
 
+	public boolean isOpenLoop() {
+		return openLoop;
+	}
+
+	public void setOpenLoop(boolean openLoop) {
+		this.openLoop = openLoop;
+	}
+
+	/**
+	 * max requests of the connection in flight in the open-loop mode
+	 */
+	protected int getMaxInflight(){
+		return 1;
+	}
+
 	public void startBenchmark(){
-		postPacketToServer();
+		sendRequest(System.nanoTime());
+	}
+	
+	/**
+	 * open-loop mode: the request should start at intendedStart, it is sent now if the connection has room,
+	 * otherwise it waits for a response. the latency is measured from intendedStart,
+	 * so the time waiting for the connection is reported too (no coordinated omission).
+	 */
+	public void scheduleRequest(long intendedStart){
+		synchronized (inflight) {
+			scheduled.addLast(intendedStart);
+			sendScheduledRequests();
+		}
+	}
+	
+	private void sendScheduledRequests(){
+		synchronized (inflight) {
+			while(inflight.size() < getMaxInflight() && !scheduled.isEmpty()){
+				sendRequest(scheduled.removeFirst());
+			}
+		}
+	}
+	
+	/**
+	 * @return start time of the request being sent by {@link #postPacketToServer()}
+	 */
+	protected Long getSendingRequestStart(){
+		synchronized (inflight) {
+			return inflight.isEmpty() ? null : inflight.getLast();
+		}
+	}
+	
+	/**
+	 * send one request, the latency of it will be measured from the start time
+	 */
+	protected void sendRequest(long start){
+		synchronized (inflight) {
+			inflight.addLast(start);
+			postPacketToServer();
+		}
 	}
 	
 	protected void afterMessageRecieved(byte[] message){
@@ -100,6 +159,13 @@ public abstract class AbstractBenchmarkClient<T extends Packet> implements Messa
 	}
 	
 	protected void doReceiveMessage(byte[] message) {
+		doReceiveMessage(message, null);
+	}
+	
+	/**
+	 * @param start start time of the request this message belongs to, null means the oldest request in flight
+	 */
+	protected void doReceiveMessage(byte[] message, Long start) {
 		boolean completed = responseIsCompleted(message);
 		if (debug) {
 			T t = decodeRecievedPacket(message);
@@ -109,29 +175,31 @@ public abstract class AbstractBenchmarkClient<T extends Packet> implements Messa
 		afterMessageRecieved(message);
 		
 		if(completed){
-			end = System.nanoTime();
-			long current = end - next;
-			next = end;
-			min = Math.min(min, current);
-			max = Math.max(max, current);
-			count++;
+			long end = System.nanoTime();
+			synchronized (inflight) {
+				if(start == null){
+					start = inflight.poll();
+				}else{
+					inflight.remove(start);
+				}
+			}
+			if(start != null){
+				benchmark.recordLatency(start, end);
+			}
 			afterResponseCompleted();
 		}
 	}
 	
 	public void handleMessage(Connection conn){
 		
-		if(conn instanceof AuthingableConnection){
-			if(!((AuthingableConnection)conn).isAuthenticated()){
-				connOldMessageHandler.handleMessage(conn);
-			}else{
-				byte[] message = null;
-				while((message = conn.getInQueue().getNonBlocking()) != null){
-					doReceiveMessage(message);
-				}
-			}
-		}else{
+		if(conn instanceof AuthingableConnection && !((AuthingableConnection)conn).isAuthenticated()){
 			connOldMessageHandler.handleMessage(conn);
+		}else{
+			//connections without authentication (mongodb) are ready once connected
+			byte[] message = null;
+			while((message = conn.getInQueue().getNonBlocking()) != null){
+				doReceiveMessage(message);
+			}
 		}
 	}
 	
@@ -141,10 +209,12 @@ public abstract class AbstractBenchmarkClient<T extends Packet> implements Messa
 	
 	protected void afterResponseCompleted(){
 		responseLatcher.countDown();
-		if(task.running){
+		if(openLoop){
+			sendScheduledRequests();
+		}else if(task.running){
 			if(requestLatcher.getCount()>0){
 				requestLatcher.countDown();
-				postPacketToServer();
+				sendRequest(System.nanoTime());
 			}
 		}
 	}
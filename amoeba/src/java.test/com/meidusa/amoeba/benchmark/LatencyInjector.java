@@ -0,0 +1,96 @@
+package com.meidusa.amoeba.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.meidusa.amoeba.net.Connection;
+
+/**
+ * delays the responses of the stub servers, to stand in for the time a real database spends on a query.
+ * a response is posted after latency + random(0, jitter) milliseconds, or at once if both are 0.
+ * the delayed responses are posted by one thread, the responses of a connection are never reordered.
+ *
+ * @author struct
+ *
+ */
+public class LatencyInjector {
+	private static ScheduledExecutorService scheduler;
+
+	private int latency;
+	private int jitter;
+	private final Random random = new Random();
+
+	public LatencyInjector(){
+	}
+
+	public LatencyInjector(int latency,int jitter){
+		this.latency = latency;
+		this.jitter = jitter;
+	}
+
+	public int getLatency() {
+		return latency;
+	}
+
+	public void setLatency(int latency) {
+		this.latency = latency;
+	}
+
+	public int getJitter() {
+		return jitter;
+	}
+
+	public void setJitter(int jitter) {
+		this.jitter = jitter;
+	}
+
+	private static synchronized ScheduledExecutorService getScheduler(){
+		if(scheduler == null){
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r,"latencyInjector");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	/**
+	 * @return the delay of the next response in nanoseconds
+	 */
+	public long nextDelay(){
+		long delay = latency * 1000L * 1000L;
+		if(jitter > 0){
+			synchronized (random) {
+				delay += (long)(random.nextDouble() * jitter * 1000L * 1000L);
+			}
+		}
+		return delay;
+	}
+
+	/**
+	 * @param notBefore the time ({@link System#nanoTime()}) the previous response of the connection is posted
+	 * @return the time this response is posted, to be passed as notBefore of the next response
+	 */
+	public long postMessage(final Connection conn,final byte[] message,long notBefore){
+		long now = System.nanoTime();
+		if(latency <= 0 && jitter <= 0){
+			conn.postMessage(message);
+			return now;
+		}
+		long postTime = Math.max(now + nextDelay(), notBefore);
+		getScheduler().schedule(new Runnable(){
+			public void run() {
+				if(!conn.isClosed()){
+					conn.postMessage(message);
+				}
+			}
+		}, postTime - now, TimeUnit.NANOSECONDS);
+		return postTime;
+	}
+}
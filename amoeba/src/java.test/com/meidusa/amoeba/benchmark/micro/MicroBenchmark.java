@@ -0,0 +1,41 @@
+package com.meidusa.amoeba.benchmark.micro;
+
+/**
+ * <pre>
+ * a hot path measured in isolation by {@link MicroBenchmarkRunner}, without sockets and threads.
+ * {@link #run()} is one operation, it is invoked in a loop and timed in batches,
+ * the returned object is consumed by the runner so the work can not be removed by the JIT.
+ *
+ * every value of {@link #getParams()} is a separate case, the instance is set up once per case.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public abstract class MicroBenchmark {
+
+	/**
+	 * @return values of the case parameter, null means only one case without parameter
+	 */
+	public String[] getParams(){
+		return null;
+	}
+
+	/**
+	 * prepare the data of the case, not measured
+	 */
+	public void setUp(String param) throws Exception{
+	}
+
+	/**
+	 * one operation of the hot path
+	 */
+	public abstract Object run() throws Exception;
+
+	public void tearDown() throws Exception{
+	}
+
+	public String getName(){
+		return this.getClass().getSimpleName();
+	}
+}
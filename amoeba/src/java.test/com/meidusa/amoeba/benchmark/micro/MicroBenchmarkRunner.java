@@ -0,0 +1,248 @@
+package com.meidusa.amoeba.benchmark.micro;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.util.CmdLineParser;
+import com.meidusa.amoeba.util.CmdLineParser.BooleanOption;
+import com.meidusa.amoeba.util.CmdLineParser.IntegerOption;
+import com.meidusa.amoeba.util.CmdLineParser.StringOption;
+
+/**
+ * <pre>
+ * runs {@link MicroBenchmark} classes in the current jvm, the way JMH does it in a simplified form:
+ * each case is warmed up for some iterations, then measured for some iterations of a fixed time,
+ * the score is the average time of one operation with a 99.9% confidence interval.
+ *
+ * results can be saved, and compared with saved results to catch regressions:
+ * benchmark -s base.properties com.x.ABenchmark
+ * benchmark -b base.properties -r 10 com.x.ABenchmark   (exit 1 if a case is 10% slower than the baseline)
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class MicroBenchmarkRunner {
+	protected static CmdLineParser parser = new CmdLineParser(System.getProperty("application", "microbenchmark")+" [options] benchmarkClass...");
+	protected static CmdLineParser.Option<?> warmupOption = parser.addOption(new IntegerOption('w', "warmup",true,false,5,"warm up iterations of each case, default 5"));
+	protected static CmdLineParser.Option<?> iterationsOption = parser.addOption(new IntegerOption('i', "iterations",true,false,10,"measured iterations of each case, default 10"));
+	protected static CmdLineParser.Option<?> timeOption = parser.addOption(new IntegerOption('t', "time",true,false,1000,"time of one iteration in ms, default 1000"));
+	protected static CmdLineParser.Option<?> filterOption = parser.addOption(new StringOption('f', "filter",true,false,"regex of the cases to run, matched against name[param]"));
+	protected static CmdLineParser.Option<?> saveOption = parser.addOption(new StringOption('s', "save",true,false,"save the scores to the properties file"));
+	protected static CmdLineParser.Option<?> baselineOption = parser.addOption(new StringOption('b', "baseline",true,false,"compare the scores with a file saved by --save"));
+	protected static CmdLineParser.Option<?> regressionOption = parser.addOption(new IntegerOption('r', "regression",true,false,10,"percent slower than the baseline reported as regression, default 10"));
+	protected static CmdLineParser.Option<?> helpOption = parser.addOption(new BooleanOption('?', "help",false,false,true,"Show this help message"));
+
+	/**
+	 * two-sided 99.9% quantiles of the student distribution, index is degrees of freedom - 1
+	 */
+	private static final double[] T_999 = {636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59,
+		4.44, 4.32, 4.22, 4.14, 4.07, 4.01, 3.97, 3.92, 3.88, 3.85,
+		3.82, 3.79, 3.77, 3.75, 3.73, 3.71, 3.69, 3.67, 3.66, 3.65};
+
+	public static class Result{
+		public String name;
+		public String param;
+		public double[] scores;
+		public double mean;
+		public double error;
+
+		public String getKey(){
+			return param == null ? name : name + "[" + param + "]";
+		}
+	}
+
+	private final int warmup;
+	private final int iterations;
+	private final long iterationNanos;
+
+	/**
+	 * the results of the operations are stored here, so the JIT can not drop them
+	 */
+	private Object sink;
+	private int batch = 1;
+
+	public MicroBenchmarkRunner(int warmup,int iterations,long iterationMillis){
+		this.warmup = warmup;
+		this.iterations = iterations;
+		this.iterationNanos = iterationMillis * 1000L * 1000L;
+	}
+
+	public Result run(MicroBenchmark benchmark,String param) throws Exception{
+		benchmark.setUp(param);
+		try{
+			batch = 1;
+			for(int i=0;i<warmup;i++){
+				iteration(benchmark);
+			}
+			System.gc();
+			Result result = new Result();
+			result.name = benchmark.getName();
+			result.param = param;
+			result.scores = new double[iterations];
+			for(int i=0;i<iterations;i++){
+				result.scores[i] = iteration(benchmark);
+			}
+			statistics(result);
+			return result;
+		}finally{
+			benchmark.tearDown();
+		}
+	}
+
+	/**
+	 * @return ns per operation
+	 */
+	private double iteration(MicroBenchmark benchmark) throws Exception{
+		long ops = 0;
+		long start = System.nanoTime();
+		long deadline = start + iterationNanos;
+		long now = start;
+		do{
+			long batchStart = now;
+			for(int i=0;i<batch;i++){
+				sink = benchmark.run();
+			}
+			ops += batch;
+			now = System.nanoTime();
+			//about 100 microseconds between two time checks
+			if(now - batchStart < 100 * 1000L && batch < (1 << 24)){
+				batch <<= 1;
+			}
+		}while(now < deadline);
+		return (double)(now - start) / ops;
+	}
+
+	private static void statistics(Result result){
+		int n = result.scores.length;
+		double sum = 0;
+		for(double score : result.scores){
+			sum += score;
+		}
+		result.mean = sum / n;
+		if(n > 1){
+			double variance = 0;
+			for(double score : result.scores){
+				variance += (score - result.mean) * (score - result.mean);
+			}
+			double stddev = Math.sqrt(variance / (n - 1));
+			double t = n - 1 <= T_999.length ? T_999[n - 2] : 3.29;
+			result.error = t * stddev / Math.sqrt(n);
+		}
+	}
+
+	public Object getSink() {
+		return sink;
+	}
+
+	public static void printHeader(){
+		System.out.println(String.format("%-40s %-12s %5s %14s %12s %14s", "Benchmark", "Param", "Cnt", "ns/op", "Error(99.9%)", "ops/s"));
+	}
+
+	public static void print(Result result){
+		System.out.println(String.format("%-40s %-12s %5d %14.2f %12.2f %14.0f", result.name, result.param == null ? "" : result.param,
+				result.scores.length, result.mean, result.error, 1000d * 1000d * 1000d / result.mean));
+	}
+
+	public static void main(String[] args) throws Exception {
+		try {
+			parser.parse(args);
+		} catch (CmdLineParser.OptionException e) {
+			System.err.println(e.getMessage());
+			parser.printUsage();
+			System.exit(2);
+		}
+
+		Boolean help = (Boolean)parser.getOptionValue(helpOption,false);
+		String[] classNames = parser.getRemainingArgs();
+		if(help || classNames.length == 0){
+			parser.printUsage();
+			return;
+		}
+
+		if(!Logger.getRootLogger().getAllAppenders().hasMoreElements()){
+			BasicConfigurator.configure();
+			Logger.getRootLogger().setLevel(Level.WARN);
+		}
+
+		int warmup = (Integer)parser.getOptionValue(warmupOption,5);
+		int iterations = (Integer)parser.getOptionValue(iterationsOption,10);
+		int time = (Integer)parser.getOptionValue(timeOption,1000);
+		String filter = (String)parser.getOptionValue(filterOption);
+		Pattern pattern = filter == null ? null : Pattern.compile(filter);
+
+		MicroBenchmarkRunner runner = new MicroBenchmarkRunner(warmup,iterations,time);
+		List<Result> results = new ArrayList<Result>();
+		printHeader();
+		for(String className : classNames){
+			MicroBenchmark benchmark = (MicroBenchmark)Class.forName(className.trim()).newInstance();
+			String[] params = benchmark.getParams();
+			if(params == null){
+				params = new String[]{null};
+			}
+			for(String param : params){
+				String key = param == null ? benchmark.getName() : benchmark.getName() + "[" + param + "]";
+				if(pattern != null && !pattern.matcher(key).find()){
+					continue;
+				}
+				Result result = runner.run(benchmark, param);
+				results.add(result);
+				print(result);
+			}
+		}
+
+		String save = (String)parser.getOptionValue(saveOption);
+		if(save != null){
+			Properties properties = new Properties();
+			for(Result result : results){
+				properties.setProperty(result.getKey(), String.valueOf(result.mean));
+			}
+			OutputStream out = new FileOutputStream(save);
+			try{
+				properties.store(out, "ns/op");
+			}finally{
+				out.close();
+			}
+		}
+
+		String baseline = (String)parser.getOptionValue(baselineOption);
+		if(baseline != null){
+			int regression = (Integer)parser.getOptionValue(regressionOption,10);
+			Properties properties = new Properties();
+			InputStream in = new FileInputStream(new File(baseline));
+			try{
+				properties.load(in);
+			}finally{
+				in.close();
+			}
+			boolean failed = false;
+			System.out.println();
+			System.out.println(String.format("%-54s %14s %14s %8s", "Compared with "+baseline, "baseline", "ns/op", "change"));
+			for(Result result : results){
+				String value = properties.getProperty(result.getKey());
+				if(value == null){
+					continue;
+				}
+				double base = Double.parseDouble(value);
+				double change = (result.mean - base) * 100 / base;
+				boolean slower = change > regression;
+				failed = failed || slower;
+				System.out.println(String.format("%-54s %14.2f %14.2f %7.1f%%%s", result.getKey(), base, result.mean, change, slower ? " REGRESSION" : ""));
+			}
+			if(failed){
+				System.exit(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.meidusa.amoeba.benchmark.micro;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.meidusa.amoeba.route.TableRuleFileLoader;
+import com.meidusa.amoeba.sqljep.RowJEP;
+import com.meidusa.amoeba.sqljep.function.Comparative;
+import com.meidusa.amoeba.sqljep.function.ComparativeOR;
+import com.meidusa.amoeba.sqljep.variable.Variable;
+
+/**
+ * {@link com.meidusa.amoeba.sqljep.BaseJEP#getValue(Comparable[])} of rule expressions,
+ * the parameter is cloned before each evaluation as the query router does.
+ *
+ * @author struct
+ *
+ */
+public class RuleExpressionBenchmark extends MicroBenchmark {
+
+	private static final Map<String,String> EXPRESSIONS = new HashMap<String,String>();
+	static{
+		EXPRESSIONS.put("range", "ID >= 1000000 and ID < 2000000");
+		EXPRESSIONS.put("hash", "var hashid = abs(hash(ID)) % 16;"
+				+ " case hashid when range(0,8,1,1) then 'server1'; when range(9,15,1,1) then 'server2'; END CASE;");
+		EXPRESSIONS.put("in", "ID between 1000001 and 2000000");
+	}
+
+	private RowJEP jep;
+	private Comparative condition;
+
+	public String[] getParams(){
+		return new String[]{"range","hash","in"};
+	}
+
+	public void setUp(String param) throws Exception{
+		jep = new RowJEP(EXPRESSIONS.get(param));
+		Map<String,Integer> columns = new HashMap<String,Integer>();
+		columns.put("ID", 0);
+		jep.parseExpression(columns, new HashMap<String,Variable>(), TableRuleFileLoader.ruleFunTab);
+
+		if("in".equals(param)){
+			ComparativeOR or = new ComparativeOR();
+			for(long id = 1500000; id < 1500010; id++){
+				or.addComparative(new Comparative(Comparative.Equivalent, id));
+			}
+			condition = or;
+		}else{
+			condition = new Comparative(Comparative.Equivalent, 1500001L);
+		}
+	}
+
+	public Object run() throws Exception {
+		return jep.getValue(new Comparable<?>[]{(Comparative)condition.clone()});
+	}
+
+}
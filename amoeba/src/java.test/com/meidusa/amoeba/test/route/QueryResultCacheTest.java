@@ -0,0 +1,161 @@
+package com.meidusa.amoeba.test.route;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.meidusa.amoeba.parser.dbobject.Schema;
+import com.meidusa.amoeba.parser.dbobject.Table;
+import com.meidusa.amoeba.route.QueryResultCache;
+
+/**
+ * keys, table versions, ttl and eviction of the {@link QueryResultCache}, and the statements it may keep.
+ *
+ * @author struct
+ *
+ */
+public class QueryResultCacheTest {
+	private QueryResultCache cache = QueryResultCache.getInstance();
+	private long maxSize;
+
+	@Before
+	public void saveMaxSize(){
+		maxSize = cache.getMaxSize();
+		cache.setMaxSize(1024);
+	}
+
+	@After
+	public void restoreMaxSize(){
+		cache.setMaxSize(maxSize);
+	}
+
+	private static Table[] tables(String... names){
+		Schema schema = new Schema();
+		schema.setName("test");
+		Table[] tables = new Table[names.length];
+		for(int i=0;i<names.length;i++){
+			tables[i] = new Table();
+			tables[i].setSchema(schema);
+			tables[i].setName(names[i]);
+		}
+		return tables;
+	}
+
+	private static byte[][] packets(int size){
+		return new byte[][]{new byte[size]};
+	}
+
+	@Test
+	public void testNewKey(){
+		String key = QueryResultCache.newKey("test", "UTF8", "select  *\n\tfrom t where a = 'x  y'", null);
+		assertEquals(key, QueryResultCache.newKey("test", "utf8", " select * from t  where a = 'x  y' ", null));
+		assertFalse(key.equals(QueryResultCache.newKey("test", "utf8", "select * from t where a = 'x y'", null)));
+		assertFalse(key.equals(QueryResultCache.newKey("test", "gbk", "select * from t where a = 'x  y'", null)));
+		assertFalse(key.equals(QueryResultCache.newKey("other", "utf8", "select * from t where a = 'x  y'", null)));
+		assertFalse(QueryResultCache.newKey("test", "utf8", "select * from t where a = ?", new Object[]{1}).equals(
+				QueryResultCache.newKey("test", "utf8", "select * from t where a = ?", new Object[]{2})));
+	}
+
+	@Test
+	public void testInvalidate(){
+		Table[] tables = tables("invalidated");
+		cache.put("invalidated", packets(10), tables, cache.getVersions(tables), 60000);
+		assertNotNull(cache.get("invalidated"));
+
+		cache.invalidate(tables("INVALIDATED"));
+		assertNull(cache.get("invalidated"));
+	}
+
+	@Test
+	public void testWriteDuringRead(){
+		Table[] tables = tables("written", "other");
+		long[] versions = cache.getVersions(tables);
+		cache.invalidate(tables("written"));
+		cache.put("written", packets(10), tables, versions, 60000);
+		assertNull(cache.get("written"));
+	}
+
+	@Test
+	public void testInvalidateAll(){
+		Table[] tables = tables("all");
+		cache.put("all", packets(10), tables, cache.getVersions(tables), 60000);
+		long[] versions = cache.getVersions(tables);
+		cache.invalidateAll();
+		assertNull(cache.get("all"));
+
+		cache.put("all", packets(10), tables, versions, 60000);
+		assertNull(cache.get("all"));
+	}
+
+	@Test
+	public void testTtl() throws InterruptedException{
+		Table[] tables = tables("expired");
+		cache.put("expired", packets(10), tables, cache.getVersions(tables), 1);
+		Thread.sleep(20);
+		assertNull(cache.get("expired"));
+	}
+
+	@Test
+	public void testLruEviction(){
+		Table[] tables = tables("lru");
+		byte[][] first = packets(400);
+		cache.put("first", first, tables, cache.getVersions(tables), 60000);
+		cache.put("second", packets(400), tables, cache.getVersions(tables), 60000);
+		assertSame(first, cache.get("first"));
+
+		//the second one is the least recently used
+		cache.put("third", packets(400), tables, cache.getVersions(tables), 60000);
+		assertNull(cache.get("second"));
+		assertSame(first, cache.get("first"));
+		assertNotNull(cache.get("third"));
+
+		cache.put("large", packets(2048), tables, cache.getVersions(tables), 60000);
+		assertNull(cache.get("large"));
+
+		cache.setMaxSize(0);
+		assertFalse(cache.isEnabled());
+		assertNull(cache.get("first"));
+	}
+
+	@Test
+	public void testCacheable(){
+		Table[] tables = tables("t");
+		assertTrue(QueryResultCache.isCacheable(tables, "select * from t where a = 1"));
+		assertTrue(QueryResultCache.isCacheable(tables, "select 'now()', \"@x\" from t /* for update */"));
+		assertTrue(QueryResultCache.isCacheable(tables, "select t.user(a), updated_at from t"));
+		assertTrue(QueryResultCache.isCacheable(tables, "select * from t -- rand()\n where a = 1"));
+		assertFalse(QueryResultCache.isCacheable(null, "select 1"));
+		assertFalse(QueryResultCache.isCacheable(new Table[0], "select 1"));
+		assertFalse(QueryResultCache.isCacheable(tables, "select now() from t"));
+		assertFalse(QueryResultCache.isCacheable(tables, "select * from t order by RAND ()"));
+		assertFalse(QueryResultCache.isCacheable(tables, "select connection_id(), a from t"));
+		assertFalse(QueryResultCache.isCacheable(tables, "select current_timestamp from t"));
+		assertFalse(QueryResultCache.isCacheable(tables, "select * from t where a = @a"));
+		assertFalse(QueryResultCache.isCacheable(tables, "select @@session.tx_isolation from t"));
+		assertFalse(QueryResultCache.isCacheable(tables, "select * from t where a = 1 for update"));
+		assertFalse(QueryResultCache.isCacheable(tables, "select * from t where a = 1 lock in share mode"));
+		assertFalse(QueryResultCache.isCacheable(tables, "select a into @a from t"));
+		assertFalse(QueryResultCache.isCacheable(tables, "select * from t into outfile '/tmp/t'"));
+	}
+
+	@Test
+	public void testWrite(){
+		assertFalse(QueryResultCache.isWrite("select * from t"));
+		assertFalse(QueryResultCache.isWrite(" (select 1) union (select 2)"));
+		assertFalse(QueryResultCache.isWrite("/* hint */ SHOW tables"));
+		assertFalse(QueryResultCache.isWrite("set names utf8"));
+		assertFalse(QueryResultCache.isWrite(null));
+		assertTrue(QueryResultCache.isWrite("truncate table t"));
+		assertTrue(QueryResultCache.isWrite("/* hint */ ALTER TABLE t add c int"));
+		assertTrue(QueryResultCache.isWrite("drop table t"));
+		assertTrue(QueryResultCache.isWrite("rename table t to u"));
+		assertTrue(QueryResultCache.isWrite("load data infile 'x' into table t"));
+	}
+}
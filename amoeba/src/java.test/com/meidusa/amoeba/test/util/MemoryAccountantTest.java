@@ -0,0 +1,88 @@
+package com.meidusa.amoeba.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.meidusa.amoeba.util.MemoryAccountant;
+
+/**
+ * session and global limits of the {@link MemoryAccountant} reservations.
+ *
+ * @author struct
+ *
+ */
+public class MemoryAccountantTest {
+	private MemoryAccountant accountant = MemoryAccountant.getInstance();
+	private long sessionLimit;
+	private long globalLimit;
+	private String spillDirectory;
+
+	@Before
+	public void saveLimits(){
+		sessionLimit = accountant.getSessionLimit();
+		globalLimit = accountant.getGlobalLimit();
+		spillDirectory = accountant.getSpillDirectory().getPath();
+	}
+
+	@After
+	public void restoreLimits(){
+		accountant.configure(sessionLimit, globalLimit, spillDirectory);
+	}
+
+	@Test
+	public void testSessionLimit(){
+		accountant.configure(100, 0, null);
+		MemoryAccountant.Session session = accountant.newSession();
+		assertTrue(session.reserve(60));
+		assertFalse(session.reserve(50));
+		assertEquals(60, session.getUsed());
+
+		session.release(30);
+		assertTrue(session.reserve(50));
+		assertEquals(80, session.getUsed());
+		session.releaseAll();
+		assertEquals(0, session.getUsed());
+	}
+
+	@Test
+	public void testGlobalLimit(){
+		long used = accountant.getUsed();
+		accountant.configure(0, used + 100, null);
+		MemoryAccountant.Session first = accountant.newSession();
+		MemoryAccountant.Session second = accountant.newSession();
+		assertTrue(first.reserve(60));
+		assertFalse(second.reserve(50));
+		assertEquals(0, second.getUsed());
+		assertTrue(second.reserve(40));
+		assertEquals(used + 100, accountant.getUsed());
+
+		first.releaseAll();
+		assertTrue(second.reserve(60));
+		second.releaseAll();
+		assertEquals(used, accountant.getUsed());
+	}
+
+	@Test
+	public void testUnlimited(){
+		accountant.configure(0, 0, null);
+		MemoryAccountant.Session session = accountant.newSession();
+		assertTrue(session.reserve(Integer.MAX_VALUE));
+		session.releaseAll();
+	}
+
+	@Test
+	public void testReleaseMoreThanReserved(){
+		long used = accountant.getUsed();
+		accountant.configure(100, 0, null);
+		MemoryAccountant.Session session = accountant.newSession();
+		assertTrue(session.reserve(10));
+		session.release(50);
+		assertEquals(0, session.getUsed());
+		assertEquals(used, accountant.getUsed());
+	}
+}
@@ -0,0 +1,128 @@
+package com.meidusa.amoeba.test.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.meidusa.amoeba.util.MemoryAccountant;
+import com.meidusa.amoeba.util.SpillBufferList;
+
+/**
+ * packets of a {@link SpillBufferList} kept on the heap until the session budget is reached, then spilled and read back.
+ *
+ * @author struct
+ *
+ */
+public class SpillBufferListTest {
+	private MemoryAccountant accountant = MemoryAccountant.getInstance();
+	private long sessionLimit;
+	private long globalLimit;
+	private String spillDirectory;
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException{
+		sessionLimit = accountant.getSessionLimit();
+		globalLimit = accountant.getGlobalLimit();
+		spillDirectory = accountant.getSpillDirectory().getPath();
+
+		directory = File.createTempFile("amoeba-spill-test", "");
+		directory.delete();
+		directory.mkdir();
+		accountant.configure(100, 0, directory.getPath());
+	}
+
+	@After
+	public void tearDown(){
+		accountant.configure(sessionLimit, globalLimit, spillDirectory);
+		File[] files = directory.listFiles();
+		for(int i=0; files != null && i<files.length; i++){
+			files[i].delete();
+		}
+		directory.delete();
+	}
+
+	private static byte[] packet(int value, int length){
+		byte[] packet = new byte[length];
+		Arrays.fill(packet, (byte)value);
+		return packet;
+	}
+
+	private int spillFiles(){
+		return directory.list().length;
+	}
+
+	@Test
+	public void testHeapWithinBudget(){
+		MemoryAccountant.Session session = accountant.newSession();
+		SpillBufferList list = new SpillBufferList(session);
+		list.add(packet(1, 40));
+		list.add(packet(2, 40));
+		assertFalse(list.isSpilled());
+		assertEquals(80, session.getUsed());
+		assertEquals(0, spillFiles());
+
+		list.clear();
+		assertEquals(0, list.size());
+		assertEquals(0, session.getUsed());
+	}
+
+	@Test
+	public void testSpillOverBudget(){
+		MemoryAccountant.Session session = accountant.newSession();
+		SpillBufferList list = new SpillBufferList(session);
+		for(int i=0;i<5;i++){
+			list.add(packet(i, 40));
+		}
+		assertTrue(list.isSpilled());
+		assertEquals(5, list.size());
+		assertEquals(80, session.getUsed());
+		assertEquals(1, spillFiles());
+		for(int i=0;i<5;i++){
+			assertArrayEquals(packet(i, 40), list.get(i));
+		}
+
+		//the order is kept: once spilled, the next packets are spilled even if the session has room again
+		session.release(80);
+		list.add(packet(5, 10));
+		assertEquals(0, session.getUsed());
+		assertArrayEquals(packet(5, 10), list.get(5));
+
+		list.clear();
+		assertFalse(list.isSpilled());
+		assertEquals(0, list.size());
+		assertEquals(0, spillFiles());
+	}
+
+	@Test
+	public void testSpilledPacketIsCopied(){
+		SpillBufferList list = new SpillBufferList(accountant.newSession());
+		list.add(packet(1, 100));
+		list.add(packet(2, 10));
+		list.get(1)[0] = 9;
+		assertArrayEquals(packet(2, 10), list.get(1));
+		list.clear();
+	}
+
+	@Test
+	public void testPacketLargerThanSegment(){
+		SpillBufferList list = new SpillBufferList(accountant.newSession());
+		list.add(packet(1, 100));
+		byte[] large = packet(2, SpillBufferList.SEGMENT_SIZE + 1);
+		list.add(large);
+		list.add(packet(3, 20));
+		assertArrayEquals(large, list.get(1));
+		assertArrayEquals(packet(3, 20), list.get(2));
+		list.clear();
+		assertEquals(0, spillFiles());
+	}
+}
@@ -51,6 +51,7 @@ import com.meidusa.amoeba.heartbeat.HeartbeatDelayed;
 import com.meidusa.amoeba.heartbeat.HeartbeatManager;
 import com.meidusa.amoeba.heartbeat.Status;
 import com.meidusa.amoeba.net.ConnectionManager;
+import com.meidusa.amoeba.net.poolable.GenericObjectPool;
 import com.meidusa.amoeba.net.poolable.MultipleLoadBalanceObjectPool;
 import com.meidusa.amoeba.net.poolable.ObjectPool;
 import com.meidusa.amoeba.net.poolable.PoolableObject;
@@ -510,6 +511,12 @@ public class ProxyRuntimeContext implements Reporter {
             String poolName = entry.getKey();
             buffer.append("* Server pool=").append(poolName == null ? "default pool" : poolName).append("\n").append(" - pool active Size=").append(pool.getNumActive());
             buffer.append(", pool Idle size=").append(pool.getNumIdle()).append("\n");
+            if (pool instanceof GenericObjectPool) {
+                PoolableObjectFactory factory = ((GenericObjectPool) pool).getFactory();
+                if (factory instanceof Reporter.SubReporter) {
+                    ((Reporter.SubReporter) factory).appendReport(buffer, now, sinceLast, reset, level);
+                }
+            }
         }
     }
 
@@ -1,21 +1,42 @@
 package com.meidusa.amoeba.context;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.metrics.SlowQueryLog;
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.route.QueryResultCache;
 import com.meidusa.amoeba.util.Initialisable;
 import com.meidusa.amoeba.util.InitialisationException;
+import com.meidusa.amoeba.util.MemoryAccountant;
 
 public class RuntimeContext implements Initialisable {
+	private static Logger logger = Logger.getLogger(RuntimeContext.class);
+	
+	/**
+	 * the handlers of a connection run on its serial lane and never wait on a lock, 
+	 * the pools need no more threads than the cores to keep busy
+	 */
+	public static final int DEFAULT_THREAD_POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
 	private String serverCharset;
 	private Executor readExecutor;
 	private Executor clientSideExecutor;
 	private Executor serverSideExecutor;
-	private int readThreadPoolSize = 16;
-	private int clientSideThreadPoolSize = 16;
-	private int serverSideThreadPoolSize = 16;
+	private int readThreadPoolSize = DEFAULT_THREAD_POOL_SIZE;
+	private int clientSideThreadPoolSize = DEFAULT_THREAD_POOL_SIZE;
+	private int serverSideThreadPoolSize = DEFAULT_THREAD_POOL_SIZE;
+	
+	/**
+	 * blocking jdbc calls run on their own executor, they never occupy the client or server side threads
+	 */
+	private Executor jdbcExecutor;
+	private int jdbcThreadPoolSize = 32;
+	private boolean useVirtualThread = false;
 	
 	/**
 	 * query time out
@@ -28,6 +49,33 @@ public class RuntimeContext implements Initialisable {
 	 */
 	private int maxResult = -1;
 	
+	/**
+	 * slow query log, see {@link SlowQueryLog}: threshold in ms, 1-in-N sample rate, max events waiting for the writer
+	 */
+	private int slowQueryThreshold;
+	private int slowQuerySampleRate;
+	private int slowQueryBufferSize = 1024;
+	
+	/**
+	 * outbound backpressure, see {@link Connection#setWatermarks(long, long)}: bytes queued for a connection over which the connections
+	 * feeding it stop reading, and under which they read again. outQueueHighWatermark <=0 disables it
+	 */
+	private long outQueueHighWatermark = Connection.getHighWatermark();
+	private long outQueueLowWatermark = Connection.getLowWatermark();
+	
+	/**
+	 * server packets buffered for a merge, see {@link MemoryAccountant}: bytes one session and all the sessions may keep on the heap,
+	 * the next packets are spilled to temp files in spillDirectory. <=0 unlimited
+	 */
+	private long sessionMemoryLimit = MemoryAccountant.getInstance().getSessionLimit();
+	private long globalMemoryLimit = MemoryAccountant.getInstance().getGlobalLimit();
+	private String spillDirectory;
+	
+	/**
+	 * bytes of the results cached for the tableRules with a cacheTtl, see {@link QueryResultCache}. <=0 disables the cache
+	 */
+	private long queryCacheSize = QueryResultCache.getInstance().getMaxSize();
+	
 	public int getQueryTimeout() {
 		return queryTimeout;
 	}
@@ -72,6 +120,33 @@ public class RuntimeContext implements Initialisable {
 		this.serverSideExecutor = serverSideExecutor;
 	}
 
+	public Executor getJdbcExecutor() {
+		return jdbcExecutor;
+	}
+
+	public void setJdbcExecutor(Executor jdbcExecutor) {
+		this.jdbcExecutor = jdbcExecutor;
+	}
+
+	public int getJdbcThreadPoolSize() {
+		return jdbcThreadPoolSize;
+	}
+
+	public void setJdbcThreadPoolSize(int jdbcThreadPoolSize) {
+		this.jdbcThreadPoolSize = jdbcThreadPoolSize;
+	}
+
+	public boolean isUseVirtualThread() {
+		return useVirtualThread;
+	}
+
+	/**
+	 * run jdbc calls on virtual threads if the jvm supports them, jdbcThreadPoolSize is ignored then
+	 */
+	public void setUseVirtualThread(boolean useVirtualThread) {
+		this.useVirtualThread = useVirtualThread;
+	}
+
 	public int getReadThreadPoolSize() {
 		return readThreadPoolSize;
 	}
@@ -108,6 +183,78 @@ public class RuntimeContext implements Initialisable {
 		this.maxResult = maxResult;
 	}
 
+	public int getSlowQueryThreshold() {
+		return slowQueryThreshold;
+	}
+
+	public void setSlowQueryThreshold(int slowQueryThreshold) {
+		this.slowQueryThreshold = slowQueryThreshold;
+	}
+
+	public int getSlowQuerySampleRate() {
+		return slowQuerySampleRate;
+	}
+
+	public void setSlowQuerySampleRate(int slowQuerySampleRate) {
+		this.slowQuerySampleRate = slowQuerySampleRate;
+	}
+
+	public int getSlowQueryBufferSize() {
+		return slowQueryBufferSize;
+	}
+
+	public void setSlowQueryBufferSize(int slowQueryBufferSize) {
+		this.slowQueryBufferSize = slowQueryBufferSize;
+	}
+
+	public long getOutQueueHighWatermark() {
+		return outQueueHighWatermark;
+	}
+
+	public void setOutQueueHighWatermark(long outQueueHighWatermark) {
+		this.outQueueHighWatermark = outQueueHighWatermark;
+	}
+
+	public long getOutQueueLowWatermark() {
+		return outQueueLowWatermark;
+	}
+
+	public void setOutQueueLowWatermark(long outQueueLowWatermark) {
+		this.outQueueLowWatermark = outQueueLowWatermark;
+	}
+
+	public long getSessionMemoryLimit() {
+		return sessionMemoryLimit;
+	}
+
+	public void setSessionMemoryLimit(long sessionMemoryLimit) {
+		this.sessionMemoryLimit = sessionMemoryLimit;
+	}
+
+	public long getGlobalMemoryLimit() {
+		return globalMemoryLimit;
+	}
+
+	public void setGlobalMemoryLimit(long globalMemoryLimit) {
+		this.globalMemoryLimit = globalMemoryLimit;
+	}
+
+	public String getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	public void setSpillDirectory(String spillDirectory) {
+		this.spillDirectory = spillDirectory;
+	}
+
+	public long getQueryCacheSize() {
+		return queryCacheSize;
+	}
+
+	public void setQueryCacheSize(long queryCacheSize) {
+		this.queryCacheSize = queryCacheSize;
+	}
+
 	static class ReNameableThreadExecutor extends ThreadPoolExecutor {
 
 		public ReNameableThreadExecutor(int poolSize) {
@@ -123,5 +270,27 @@ public class RuntimeContext implements Initialisable {
 				getServerSideThreadPoolSize());
 		clientSideExecutor = new ReNameableThreadExecutor(
 				getClientSideThreadPoolSize());
+		if(jdbcExecutor == null){
+			if(useVirtualThread){
+				jdbcExecutor = newVirtualThreadExecutor();
+			}
+			if(jdbcExecutor == null){
+				jdbcExecutor = new ReNameableThreadExecutor(getJdbcThreadPoolSize());
+			}
+		}
+		SlowQueryLog.getInstance().configure(slowQueryThreshold, slowQuerySampleRate, slowQueryBufferSize);
+		Connection.setWatermarks(outQueueHighWatermark, outQueueLowWatermark);
+		MemoryAccountant.getInstance().configure(sessionMemoryLimit, globalMemoryLimit, spillDirectory);
+		QueryResultCache.getInstance().setMaxSize(queryCacheSize);
+	}
+	
+	private static Executor newVirtualThreadExecutor(){
+		try {
+			Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (Executor)method.invoke(null);
+		} catch (Exception e) {
+			logger.warn("virtual thread is not supported by this jvm, using jdbc thread pool");
+			return null;
+		}
 	}
 }
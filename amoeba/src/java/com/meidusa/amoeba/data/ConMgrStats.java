@@ -11,29 +11,49 @@
  */
 package com.meidusa.amoeba.data;
 
-import java.util.concurrent.atomic.AtomicLong;
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.Gauge;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
 
 
 /**
  * Used to track and report stats on the connection manager.
+ * the counters are monotonic, they are published to the {@link MetricsRegistry} as name.connects ... by {@link #register(String, Gauge)}
  * @author <a href=mailto:piratebase@sina.com>Struct chen</a>
  */
-public class ConMgrStats implements Cloneable
+public class ConMgrStats
 {
 
     /** The number of connection events since the server started up. */
-    public AtomicLong connects = new AtomicLong(0);
+    public final Counter connects = new Counter();
 
     /** The number of disconnection events since the server started up. */
-    public AtomicLong disconnects = new AtomicLong(0);
-
-    @Override // from Object
-    public Object clone ()
-    {
-        try {
-            return super.clone();
-        } catch (CloneNotSupportedException cnse) {
-            throw new RuntimeException(cnse);
-        }
+    public final Counter disconnects = new Counter();
+
+    /** The number of select() calls that returned ready keys. */
+    public final Counter selects = new Counter();
+
+    /** The number of ready keys processed, events / selects is the load of the selector. */
+    public final Counter events = new Counter();
+
+    /**
+     * @param registered the number of registered connections
+     */
+    public void register(String name, Gauge registered){
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.register(name + ".connects", connects);
+        registry.register(name + ".disconnects", disconnects);
+        registry.register(name + ".selects", selects);
+        registry.register(name + ".events", events);
+        registry.register(name + ".registered", registered);
+    }
+
+    public void unregister(String name, Gauge registered){
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.unregister(name + ".connects", connects);
+        registry.unregister(name + ".disconnects", disconnects);
+        registry.unregister(name + ".selects", selects);
+        registry.unregister(name + ".events", events);
+        registry.unregister(name + ".registered", registered);
     }
 }
@@ -1,5 +1,7 @@
 package com.meidusa.amoeba.heartbeat;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.DelayQueue;
 
@@ -61,4 +63,11 @@ public class HeartbeatManager {
 	public static void removeHeartbeat(HeartbeatDelayed delay) {
 		HEART_BEAT_QUEUE.remove(delay);
 	}
+	
+	/**
+	 * @return the waiting heartbeats, the one being checked is not in the queue
+	 */
+	public static List<HeartbeatDelayed> getHeartbeats() {
+		return new ArrayList<HeartbeatDelayed>(HEART_BEAT_QUEUE);
+	}
 }
\ No newline at end of file
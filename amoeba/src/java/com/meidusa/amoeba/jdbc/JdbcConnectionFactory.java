@@ -6,21 +6,53 @@ import java.sql.SQLException;
 import java.util.Properties;
 
 import org.apache.commons.pool.PoolableObjectFactory;
+import org.apache.log4j.Level;
 
 import com.meidusa.amoeba.util.Initialisable;
 import com.meidusa.amoeba.util.InitialisationException;
+import com.meidusa.amoeba.util.Reporter;
 
 /**
  * jdbc driver connection factory
  * @author struct
  *
  */
-public class JdbcConnectionFactory implements PoolableObjectFactory,Initialisable {
+public class JdbcConnectionFactory implements PoolableObjectFactory,Initialisable,Reporter.SubReporter {
 	private String url;
 	private Driver driver;
 	private Properties properties;
 	private ResultSetHandler resultSetHandler;
+	private int fetchSize;
+	private int statementCacheSize = 32;
+	private StatementCache.Stats statementCacheStats = new StatementCache.Stats();
 	
+	/**
+	 * prepared statements cached by every connection, 0 to close the statements after each query
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	public StatementCache.Stats getStatementCacheStats() {
+		return statementCacheStats;
+	}
+
+	/**
+	 * fetch size hint given to every query statement, 0 for the driver default.
+	 * mysql driver streams the rows only with Integer.MIN_VALUE (-2147483648)
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
 	public void setResultSetHandler(ResultSetHandler ioHandler) {
 		this.resultSetHandler = ioHandler;
 	}
@@ -63,6 +95,10 @@ public class JdbcConnectionFactory implements PoolableObjectFactory,Initialisabl
 	public Object makeObject() throws Exception {
 		PoolableJdbcConnection conn = new PoolableJdbcConnection(driver.connect(url, properties));
 		conn.setResultSetHandler(resultSetHandler);
+		conn.setFetchSize(fetchSize);
+		if(statementCacheSize > 0){
+			conn.setStatementCache(new StatementCache(statementCacheSize, statementCacheStats));
+		}
 		return conn;
 	}
 
@@ -86,4 +122,10 @@ public class JdbcConnectionFactory implements PoolableObjectFactory,Initialisabl
 
 	}
 
+	public void appendReport(StringBuilder buffer, long now, long sinceLast, boolean reset, Level level) {
+		if(statementCacheSize > 0){
+			statementCacheStats.appendReport(buffer, now, sinceLast, reset, level);
+		}
+	}
+
 }
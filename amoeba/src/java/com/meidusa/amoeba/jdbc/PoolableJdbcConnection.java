@@ -1,7 +1,9 @@
 package com.meidusa.amoeba.jdbc;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import org.apache.log4j.Logger;
 
@@ -19,7 +21,76 @@ public class PoolableJdbcConnection extends ConnectionWrapper implements Poolabl
 	private boolean active;
 	
 	private ResultSetHandler resultSetHandler;
+	private int fetchSize;
+	private StatementCache statementCache;
 	
+	/**
+	 * @return fetch size hint for the statements of this connection, 0 for the driver default
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	public StatementCache getStatementCache() {
+		return statementCache;
+	}
+
+	/**
+	 * @param statementCache null to close every statement after use
+	 */
+	public void setStatementCache(StatementCache statementCache) {
+		this.statementCache = statementCache;
+	}
+
+	/**
+	 * ӻȡsqlӦPreparedStatement, ʹϺҪ {@link #releaseStatement(String, Statement, boolean)}
+	 */
+	public PreparedStatement prepareCachedStatement(String sql) throws SQLException {
+		if(statementCache == null){
+			return prepareStatement(sql);
+		}
+		PreparedStatement pst = statementCache.get(sql);
+		if(pst == null){
+			pst = prepareStatement(sql);
+			statementCache.put(sql, pst);
+		}
+		return pst;
+	}
+
+	/**
+	 * ȡÿظʹõStatement, ʹϺҪ {@link #releaseStatement(String, Statement, boolean)}
+	 */
+	public Statement createCachedStatement() throws SQLException {
+		if(statementCache == null){
+			return createStatement();
+		}
+		Statement statement = statementCache.getStatement();
+		if(statement == null){
+			statement = createStatement();
+			statementCache.setStatement(statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * @param sql null for the statement of {@link #createCachedStatement()}
+	 * @param broken the statement got an error and will not be reused
+	 */
+	public void releaseStatement(String sql, Statement statement, boolean broken) {
+		if(statementCache == null){
+			try {
+				statement.close();
+			} catch (SQLException e) {
+			}
+		}else if(broken){
+			statementCache.remove(sql, statement);
+		}
+	}
+
 	public ResultSetHandler getResultSetHandler() {
 		return resultSetHandler;
 	}
@@ -59,6 +130,10 @@ public class PoolableJdbcConnection extends ConnectionWrapper implements Poolabl
 			logger.error("when invoke isclosed error",e1);
 		}
 		
+		if(statementCache != null){
+			statementCache.clear();
+		}
+		
 		try {
 			super.close();
 		} catch (SQLException e) {
@@ -0,0 +1,143 @@
+package com.meidusa.amoeba.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.util.Reporter;
+
+/**
+ * LRU cache of the prepared statements of one {@link PoolableJdbcConnection}, keyed by sql.
+ * a statement is closed when it is evicted or when the connection is closed.
+ *
+ * @author struct
+ *
+ */
+public class StatementCache {
+	private static Logger logger = Logger.getLogger(StatementCache.class);
+
+	/**
+	 * counters shared by every connection created by the same {@link JdbcConnectionFactory}
+	 */
+	public static class Stats implements Reporter.SubReporter{
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong evictions = new AtomicLong();
+
+		public long getHits() {
+			return hits.get();
+		}
+
+		public long getMisses() {
+			return misses.get();
+		}
+
+		public long getEvictions() {
+			return evictions.get();
+		}
+
+		public void appendReport(StringBuilder buffer, long now, long sinceLast, boolean reset, Level level) {
+			long hit = reset ? hits.getAndSet(0) : hits.get();
+			long miss = reset ? misses.getAndSet(0) : misses.get();
+			long eviction = reset ? evictions.getAndSet(0) : evictions.get();
+			long total = hit + miss;
+			buffer.append(" - statement cache hits=").append(hit).append(", misses=").append(miss);
+			buffer.append(", hit rate=").append(total == 0 ? 0 : hit * 100 / total).append("%");
+			buffer.append(", evictions=").append(eviction).append("\n");
+		}
+	}
+
+	private final Stats stats;
+	private final Map<String, PreparedStatement> statements;
+	private Statement statement;
+
+	public StatementCache(final int size, Stats stats){
+		this.stats = stats;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if(size() > size){
+					StatementCache.this.stats.evictions.incrementAndGet();
+					close(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @return the cached statement with its parameters cleared, null if the sql is not cached
+	 */
+	public synchronized PreparedStatement get(String sql) throws SQLException{
+		PreparedStatement pst = statements.get(sql);
+		if(pst == null){
+			stats.misses.incrementAndGet();
+			return null;
+		}
+		stats.hits.incrementAndGet();
+		pst.clearParameters();
+		return pst;
+	}
+
+	public synchronized void put(String sql, PreparedStatement pst){
+		PreparedStatement old = statements.put(sql, pst);
+		if(old != null && old != pst){
+			close(old);
+		}
+	}
+
+	public synchronized Statement getStatement(){
+		return statement;
+	}
+
+	public synchronized void setStatement(Statement statement){
+		this.statement = statement;
+	}
+
+	/**
+	 * close and forget the statement, it may be broken after an error
+	 * @param sql null for the plain statement
+	 */
+	public synchronized void remove(String sql, Statement stmt){
+		if(sql == null){
+			if(statement == stmt){
+				statement = null;
+			}
+		}else if(statements.get(sql) == stmt){
+			statements.remove(sql);
+		}
+		close(stmt);
+	}
+
+	public synchronized void clear(){
+		for(Iterator<PreparedStatement> it = statements.values().iterator(); it.hasNext();){
+			close(it.next());
+			it.remove();
+		}
+		if(statement != null){
+			close(statement);
+			statement = null;
+		}
+	}
+
+	public synchronized int size(){
+		return statements.size();
+	}
+
+	private static void close(Statement stmt){
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			logger.warn("close cached statement error", e);
+		}
+	}
+}
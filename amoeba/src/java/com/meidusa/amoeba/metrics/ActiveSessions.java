@@ -0,0 +1,90 @@
+package com.meidusa.amoeba.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * sessions started and not yet ended, the handlers add themselves when the session starts and remove themselves when it ends.
+ * the monitor reads the longest running sessions from it without locking the handlers.
+ *
+ * @author struct
+ *
+ */
+public class ActiveSessions {
+	private static final ConcurrentMap<Object, Session> sessions = new ConcurrentHashMap<Object, Session>();
+
+	static {
+		MetricsRegistry.getInstance().register("sessions.active", new Gauge(){
+			public long getValue() {
+				return sessions.size();
+			}
+		});
+	}
+
+	private static final Comparator<Session> START_TIME_COMPARATOR = new Comparator<Session>(){
+		public int compare(Session o1, Session o2) {
+			return o1.startTime < o2.startTime ? -1 : (o1.startTime == o2.startTime ? 0 : 1);
+		}
+	};
+
+	private static class Session {
+		final long startTime;
+		final String type;
+		final String client;
+		final String sql;
+
+		Session(long startTime, String type, String client, String sql){
+			this.startTime = startTime;
+			this.type = type;
+			this.client = client;
+			this.sql = sql;
+		}
+	}
+
+	/**
+	 * @param handler the session handler, the key of {@link #remove(Object)}
+	 * @param client socket id of the client connection
+	 * @param sql query of the session, may be null
+	 */
+	public static void add(Object handler, String client, String sql){
+		sessions.put(handler, new Session(System.currentTimeMillis(), handler.getClass().getSimpleName(), client, sql));
+	}
+
+	public static void remove(Object handler){
+		sessions.remove(handler);
+	}
+
+	public static int size(){
+		return sessions.size();
+	}
+
+	/**
+	 * @param count max sessions returned
+	 * @return the longest running sessions first, one map per session with startTime, time (ms), type, client and sql
+	 */
+	public static List<Map<String, Object>> getLongestRunning(int count){
+		List<Session> list = new ArrayList<Session>(sessions.values());
+		Collections.sort(list, START_TIME_COMPARATOR);
+		long now = System.currentTimeMillis();
+		List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+		for(Session session : list){
+			if(result.size() >= count){
+				break;
+			}
+			Map<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("startTime", session.startTime);
+			row.put("time", now - session.startTime);
+			row.put("type", session.type);
+			row.put("client", session.client);
+			row.put("sql", session.sql);
+			result.add(row);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,55 @@
+package com.meidusa.amoeba.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * a monotonic counter updated by many threads without contention:
+ * every thread adds to one of the striped cells (one cache line apart), {@link #get()} sums the cells.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class Counter {
+	private static final int STRIPES;
+	/**
+	 * 8 longs = 64 bytes, the cells of 2 stripes never share a cache line
+	 */
+	private static final int PADDING = 8;
+	static {
+		int stripes = 1;
+		int processors = Runtime.getRuntime().availableProcessors();
+		while(stripes < processors * 2 && stripes < 64){
+			stripes <<= 1;
+		}
+		STRIPES = stripes;
+	}
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	private static int cellIndex(){
+		long id = Thread.currentThread().getId();
+		return (int)((id ^ (id >>> 16)) & (STRIPES - 1)) * PADDING;
+	}
+
+	public void increment(){
+		cells.incrementAndGet(cellIndex());
+	}
+
+	public void add(long value){
+		cells.addAndGet(cellIndex(), value);
+	}
+
+	public long get(){
+		long sum = 0;
+		for(int i=0;i<STRIPES;i++){
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	public String toString(){
+		return String.valueOf(get());
+	}
+}
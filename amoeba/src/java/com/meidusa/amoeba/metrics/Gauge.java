@@ -0,0 +1,12 @@
+package com.meidusa.amoeba.metrics;
+
+/**
+ * a value read when the metrics are snapshotted, for example the size of a pool or a queue
+ *
+ * @author struct
+ *
+ */
+public interface Gauge {
+
+	public long getValue();
+}
@@ -0,0 +1,120 @@
+package com.meidusa.amoeba.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * a HdrHistogram like latency histogram in nanoseconds, safe to be recorded by many threads.
+ *
+ * values below 128 have their own bucket, larger values are grouped in log-linear buckets:
+ * every power of 2 is split into 64 buckets, so a value is reported with less than 1/64 (1.6%) error,
+ * the whole long range needs only 3776 buckets.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+	private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalValue = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(0);
+
+	static int indexOf(long value){
+		if(value < SUB_BUCKET_COUNT){
+			return (int)value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (int)((value >>> shift) - SUB_BUCKET_HALF_COUNT);
+	}
+
+	/**
+	 * @return the largest value that would be recorded in the bucket
+	 */
+	static long highestValueOf(int index){
+		if(index < SUB_BUCKET_COUNT){
+			return index;
+		}
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+		long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+		return (subBucket << shift) + (1L << shift) - 1;
+	}
+
+	public void recordValue(long value){
+		if(value < 0){
+			value = 0;
+		}
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(value);
+		long current;
+		while(value < (current = min.get()) && !min.compareAndSet(current, value));
+		while(value > (current = max.get()) && !max.compareAndSet(current, value));
+	}
+
+	/**
+	 * add all values recorded by the other histogram to this one
+	 */
+	public void add(LatencyHistogram other){
+		for(int i=0;i<BUCKET_COUNT;i++){
+			long count = other.counts.get(i);
+			if(count > 0){
+				counts.addAndGet(i, count);
+			}
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		totalValue.addAndGet(other.totalValue.get());
+		long current;
+		long value = other.min.get();
+		while(value < (current = min.get()) && !min.compareAndSet(current, value));
+		value = other.max.get();
+		while(value > (current = max.get()) && !max.compareAndSet(current, value));
+	}
+
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	public long getMin() {
+		return totalCount.get() == 0 ? 0 : min.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double)totalValue.get() / count;
+	}
+
+	/**
+	 * @param percentile 0 - 100, for example 99.9
+	 * @return the value that the given percentage of the recorded values are less than or equal to
+	 */
+	public long getValueAtPercentile(double percentile){
+		long count = totalCount.get();
+		if(count == 0){
+			return 0;
+		}
+		long countAtPercentile = (long)Math.ceil(Math.min(percentile, 100d) / 100d * count);
+		if(countAtPercentile < 1){
+			countAtPercentile = 1;
+		}
+		long seen = 0;
+		for(int i=0;i<BUCKET_COUNT;i++){
+			seen += counts.get(i);
+			if(seen >= countAtPercentile){
+				return Math.min(highestValueOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+}
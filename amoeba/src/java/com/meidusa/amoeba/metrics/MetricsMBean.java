@@ -0,0 +1,69 @@
+package com.meidusa.amoeba.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * read only MBean with one attribute per value of the {@link MetricsRegistry#snapshot()}, the attributes follow the metrics registered at runtime
+ *
+ * @author struct
+ *
+ */
+public class MetricsMBean implements DynamicMBean {
+	private MetricsRegistry registry;
+
+	public MetricsMBean(MetricsRegistry registry){
+		this.registry = registry;
+	}
+
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Number value = registry.snapshot().get(attribute);
+		if(value == null){
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		SortedMap<String, Number> snapshot = registry.snapshot();
+		AttributeList list = new AttributeList();
+		for(String attribute : attributes){
+			Number value = snapshot.get(attribute);
+			if(value != null){
+				list.add(new Attribute(attribute, value));
+			}
+		}
+		return list;
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		SortedMap<String, Number> snapshot = registry.snapshot();
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+		int index = 0;
+		for(Map.Entry<String, Number> entry : snapshot.entrySet()){
+			attributes[index++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+		}
+		return new MBeanInfo(this.getClass().getName(), "amoeba metrics", attributes, null, new MBeanOperationInfo[0], null);
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName()+" is read only");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+}
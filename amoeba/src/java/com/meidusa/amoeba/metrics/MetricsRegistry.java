@@ -0,0 +1,166 @@
+package com.meidusa.amoeba.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <pre>
+ * named counters, gauges and latency histograms of the server.
+ *
+ * components keep the metric objects they publish into, so the hot path never looks up a name nor allocates:
+ *    private static final Counter sessions = MetricsRegistry.getInstance().counter("mysql.sessions");
+ *
+ * {@link #snapshot()} reads all the metrics without stopping the writers,
+ * it is exported over JMX ({@link MetricsMBean}) and as plain text ({@link com.meidusa.amoeba.metrics.net.MetricsConnection}).
+ * histograms are recorded in nanoseconds and snapshotted as name.count, name.mean, name.p50, name.p99, name.p999, name.max in ms.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class MetricsRegistry {
+	private static Logger logger = Logger.getLogger(MetricsRegistry.class);
+	public static final String OBJECT_NAME = "com.meidusa.amoeba:type=Metrics";
+	private static MetricsRegistry instance = new MetricsRegistry();
+
+	private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+	public static MetricsRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @return the counter registered with the name, created if absent
+	 */
+	public Counter counter(String name){
+		Object metric = metrics.get(name);
+		if(metric == null){
+			Object old = metrics.putIfAbsent(name, metric = new Counter());
+			if(old != null){
+				metric = old;
+			}
+		}
+		if(!(metric instanceof Counter)){
+			throw new IllegalArgumentException("metric "+name+" is not a counter: "+metric.getClass().getName());
+		}
+		return (Counter)metric;
+	}
+
+	/**
+	 * @return the histogram registered with the name, created if absent
+	 */
+	public LatencyHistogram histogram(String name){
+		Object metric = metrics.get(name);
+		if(metric == null){
+			Object old = metrics.putIfAbsent(name, metric = new LatencyHistogram());
+			if(old != null){
+				metric = old;
+			}
+		}
+		if(!(metric instanceof LatencyHistogram)){
+			throw new IllegalArgumentException("metric "+name+" is not a histogram: "+metric.getClass().getName());
+		}
+		return (LatencyHistogram)metric;
+	}
+
+	/**
+	 * register a {@link Counter}, {@link Gauge} or {@link LatencyHistogram}, replaces the metric registered with the same name
+	 */
+	public void register(String name, Object metric){
+		if(!(metric instanceof Counter || metric instanceof Gauge || metric instanceof LatencyHistogram)){
+			throw new IllegalArgumentException("unsupported metric "+name+": "+(metric == null ? null : metric.getClass().getName()));
+		}
+		metrics.put(name, metric);
+	}
+
+	/**
+	 * remove the metric only if it is still the registered one, a component replaced by a new one with the same name (a reloaded pool) keeps its metric
+	 */
+	public boolean unregister(String name, Object metric){
+		return metrics.remove(name, metric);
+	}
+
+	public Object getMetric(String name){
+		return metrics.get(name);
+	}
+
+	/**
+	 * @return current values sorted by name, Long for counters and gauges, Long and Double for histograms
+	 */
+	public SortedMap<String, Number> snapshot(){
+		SortedMap<String, Number> snapshot = new TreeMap<String, Number>();
+		for(Map.Entry<String, Object> entry : metrics.entrySet()){
+			appendValues(snapshot, entry.getKey(), entry.getValue());
+		}
+		return snapshot;
+	}
+
+	static void appendValues(Map<String, Number> values, String name, Object metric){
+		if(metric instanceof Counter){
+			values.put(name, ((Counter)metric).get());
+		}else if(metric instanceof Gauge){
+			try{
+				values.put(name, ((Gauge)metric).getValue());
+			}catch(Exception e){
+				logger.warn("read gauge "+name+" error", e);
+			}
+		}else if(metric instanceof LatencyHistogram){
+			LatencyHistogram histogram = (LatencyHistogram)metric;
+			values.put(name + ".count", histogram.getTotalCount());
+			values.put(name + ".mean", toMillis(histogram.getMean()));
+			values.put(name + ".p50", toMillis(histogram.getValueAtPercentile(50)));
+			values.put(name + ".p99", toMillis(histogram.getValueAtPercentile(99)));
+			values.put(name + ".p999", toMillis(histogram.getValueAtPercentile(99.9)));
+			values.put(name + ".max", toMillis(histogram.getMax()));
+		}
+	}
+
+	private static double toMillis(double nanos){
+		return Math.round(nanos / 1000d) / 1000d;
+	}
+
+	/**
+	 * one "name value" line per value, names are made of [a-zA-Z0-9_] so that the text can be scraped by a prometheus like collector
+	 */
+	public void appendText(StringBuilder buffer){
+		for(Map.Entry<String, Number> entry : snapshot().entrySet()){
+			appendName(buffer, entry.getKey());
+			buffer.append(' ').append(entry.getValue()).append('\n');
+		}
+	}
+
+	private static void appendName(StringBuilder buffer, String name){
+		for(int i=0;i<name.length();i++){
+			char c = name.charAt(i);
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9' && i > 0) || c == '_'){
+				buffer.append(c);
+			}else{
+				buffer.append('_');
+			}
+		}
+	}
+
+	/**
+	 * register the metrics to the platform MBeanServer as {@link #OBJECT_NAME}
+	 */
+	public void registerMBean(){
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if(!server.isRegistered(name)){
+				server.registerMBean(new MetricsMBean(this), name);
+			}
+		} catch (Exception e) {
+			logger.error("register metrics MBean error", e);
+		}
+	}
+}
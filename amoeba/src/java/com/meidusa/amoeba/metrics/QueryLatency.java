@@ -0,0 +1,106 @@
+package com.meidusa.amoeba.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <pre>
+ * latency histograms of the phases of the queries proxied to a pool, or routed by a table rule:
+ *    route   : the query router selects the pools
+ *    borrow  : borrow the server connection from the pool
+ *    backend : from the first command sent to the server to the last packet of the server response
+ *    merge   : merge the responses of the servers, multiple pools only
+ *    write   : from the completed response to the final client write
+ *    total   : the whole session, from the session start to the final client write
+ *
+ * registered as query.pool.&lt;pool&gt;.&lt;phase&gt; and query.route.&lt;table&gt;.&lt;phase&gt;,
+ * the instances are never removed so that a session ending after a reload still records into a registered histogram.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class QueryLatency {
+	public static final int ROUTE = 0;
+	public static final int BORROW = 1;
+	public static final int BACKEND = 2;
+	public static final int MERGE = 3;
+	public static final int WRITE = 4;
+	public static final int TOTAL = 5;
+
+	private static final String[] PHASES = {"route","borrow","backend","merge","write","total"};
+
+	private static final ConcurrentMap<String, QueryLatency> pools = new ConcurrentHashMap<String, QueryLatency>();
+	private static final ConcurrentMap<String, QueryLatency> routes = new ConcurrentHashMap<String, QueryLatency>();
+
+	private final String name;
+	private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+
+	private QueryLatency(String name){
+		this.name = name;
+		for(int i=0;i<PHASES.length;i++){
+			histograms[i] = MetricsRegistry.getInstance().histogram(name + "." + PHASES[i]);
+		}
+	}
+
+	public static QueryLatency getPoolLatency(String pool){
+		return get(pools, "query.pool." + pool);
+	}
+
+	public static QueryLatency getRouteLatency(String table){
+		return get(routes, "query.route." + table);
+	}
+
+	private static QueryLatency get(ConcurrentMap<String, QueryLatency> map, String name){
+		QueryLatency latency = map.get(name);
+		if(latency == null){
+			QueryLatency old = map.putIfAbsent(name, latency = new QueryLatency(name));
+			if(old != null){
+				latency = old;
+			}
+		}
+		return latency;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param phase one of {@link #ROUTE}, {@link #BORROW}, {@link #BACKEND}, {@link #MERGE}, {@link #WRITE}, {@link #TOTAL}
+	 * @param nanos
+	 */
+	public void record(int phase, long nanos){
+		histograms[phase].recordValue(nanos);
+	}
+
+	public LatencyHistogram getHistogram(int phase){
+		return histograms[phase];
+	}
+
+	/**
+	 * one line per pool and table rule phase with count, p50, p99 and max in ms, the phases never recorded are skipped.
+	 */
+	public static void appendReport(StringBuilder buffer){
+		SortedMap<String, QueryLatency> all = new TreeMap<String, QueryLatency>(pools);
+		all.putAll(routes);
+		buffer.append(String.format("%-40s %-8s %10s %10s %10s %10s%n", "name", "phase", "count", "p50(ms)", "p99(ms)", "max(ms)"));
+		for(Map.Entry<String, QueryLatency> entry : all.entrySet()){
+			QueryLatency latency = entry.getValue();
+			for(int i=0;i<PHASES.length;i++){
+				LatencyHistogram histogram = latency.histograms[i];
+				long count = histogram.getTotalCount();
+				if(count == 0){
+					continue;
+				}
+				buffer.append(String.format("%-40s %-8s %10d %10.3f %10.3f %10.3f%n", latency.name, PHASES[i], count,
+						histogram.getValueAtPercentile(50) / 1000000d,
+						histogram.getValueAtPercentile(99) / 1000000d,
+						histogram.getMax() / 1000000d));
+			}
+		}
+	}
+}
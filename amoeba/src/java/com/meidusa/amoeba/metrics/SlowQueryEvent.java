@@ -0,0 +1,67 @@
+package com.meidusa.amoeba.metrics;
+
+/**
+ * a session handed to the {@link SlowQueryLog}, the phases are indexed by the phase constants of {@link QueryLatency}
+ *
+ * @author struct
+ *
+ */
+public class SlowQueryEvent {
+	public boolean slow;
+	public String type;
+	public String client;
+	public String route;
+	public String[] pools;
+	public String sql;
+	public long rows;
+	public boolean error;
+	public final long[] phases = new long[QueryLatency.TOTAL + 1];
+
+	void appendTo(StringBuilder buffer){
+		buffer.append(slow ? "slow" : "sample");
+		buffer.append(" total=");
+		appendMillis(buffer, phases[QueryLatency.TOTAL]);
+		buffer.append(" route=");
+		appendMillis(buffer, phases[QueryLatency.ROUTE]);
+		buffer.append(" borrow=");
+		appendMillis(buffer, phases[QueryLatency.BORROW]);
+		buffer.append(" backend=");
+		appendMillis(buffer, phases[QueryLatency.BACKEND]);
+		buffer.append(" merge=");
+		appendMillis(buffer, phases[QueryLatency.MERGE]);
+		buffer.append(" write=");
+		appendMillis(buffer, phases[QueryLatency.WRITE]);
+		buffer.append(" rows=").append(rows);
+		if(error){
+			buffer.append(" error=true");
+		}
+		buffer.append(" type=").append(type);
+		buffer.append(" client=").append(client);
+		buffer.append(" table=").append(route);
+		buffer.append(" pools=");
+		if(pools != null){
+			for(int i=0;i<pools.length;i++){
+				buffer.append(i == 0 ? "" : ",").append(pools[i]);
+			}
+		}
+		buffer.append(" sql=");
+		if(sql != null){
+			for(int i=0;i<sql.length();i++){
+				char c = sql.charAt(i);
+				buffer.append(c == '\n' || c == '\r' || c == '\t' ? ' ' : c);
+			}
+		}
+	}
+
+	private static void appendMillis(StringBuilder buffer, long nanos){
+		buffer.append(nanos / 1000000L).append('.');
+		long micros = (nanos / 1000L) % 1000L;
+		if(micros < 100){
+			buffer.append('0');
+		}
+		if(micros < 10){
+			buffer.append('0');
+		}
+		buffer.append(micros);
+	}
+}
@@ -0,0 +1,118 @@
+package com.meidusa.amoeba.metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <pre>
+ * slow and sampled query log, written to the "slowQuery" logger so that it stays on when the INFO level of the handlers is off.
+ *
+ * a session is logged when its total time is over the threshold, or one session out of sampleRate.
+ * the handlers check {@link #check(long)} first and build a {@link SlowQueryEvent} only for the logged sessions,
+ * the events are formatted and written by a background thread. when the bounded queue is full the event is dropped
+ * and counted as slowQuery.dropped, the io and handler threads never wait for the log.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class SlowQueryLog {
+	private static Logger logger = Logger.getLogger("slowQuery");
+	public static final int NONE = 0;
+	public static final int SLOW = 1;
+	public static final int SAMPLED = 2;
+
+	private static SlowQueryLog instance = new SlowQueryLog();
+
+	private volatile long thresholdNanos = -1;
+	private volatile int sampleRate;
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile BlockingQueue<SlowQueryEvent> queue;
+	private Thread writer;
+
+	private final Counter logged = MetricsRegistry.getInstance().counter("slowQuery.logged");
+	private final Counter dropped = MetricsRegistry.getInstance().counter("slowQuery.dropped");
+
+	public static SlowQueryLog getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param threshold ms, sessions over it are logged, <=0 disabled
+	 * @param sampleRate one session out of sampleRate is logged, <=0 disabled
+	 * @param bufferSize max events waiting for the writer
+	 */
+	public synchronized void configure(int threshold, int sampleRate, int bufferSize){
+		if(threshold <= 0 && sampleRate <= 0){
+			this.thresholdNanos = -1;
+			this.sampleRate = 0;
+			return;
+		}
+		if(queue == null){
+			queue = new ArrayBlockingQueue<SlowQueryEvent>(bufferSize > 0 ? bufferSize : 1024);
+			writer = new Thread(){
+				{
+					this.setDaemon(true);
+					this.setName("SlowQueryLogWriter");
+				}
+
+				public void run() {
+					StringBuilder buffer = new StringBuilder(256);
+					while(true){
+						try {
+							SlowQueryEvent event = queue.take();
+							buffer.setLength(0);
+							event.appendTo(buffer);
+							logger.info(buffer.toString());
+						} catch (InterruptedException e) {
+							return;
+						} catch (Exception e) {
+							logger.error("write slow query error", e);
+						}
+					}
+				}
+			};
+			writer.start();
+		}
+		this.thresholdNanos = threshold > 0 ? threshold * 1000000L : -1;
+		this.sampleRate = sampleRate > 0 ? sampleRate : 0;
+	}
+
+	public boolean isEnabled(){
+		return thresholdNanos > 0 || sampleRate > 0;
+	}
+
+	/**
+	 * @param totalNanos total time of the session
+	 * @return {@link #SLOW}, {@link #SAMPLED} or {@link #NONE} if the session is not logged
+	 */
+	public int check(long totalNanos){
+		long threshold = thresholdNanos;
+		if(threshold > 0 && totalNanos >= threshold){
+			return SLOW;
+		}
+		int rate = sampleRate;
+		if(rate > 0 && sequence.incrementAndGet() % rate == 0){
+			return SAMPLED;
+		}
+		return NONE;
+	}
+
+	/**
+	 * hand the event to the writer without blocking, the event is dropped if the writer is behind
+	 */
+	public void log(SlowQueryEvent event){
+		BlockingQueue<SlowQueryEvent> queue = this.queue;
+		if(queue == null){
+			return;
+		}
+		if(queue.offer(event)){
+			logged.increment();
+		}else{
+			dropped.increment();
+		}
+	}
+}
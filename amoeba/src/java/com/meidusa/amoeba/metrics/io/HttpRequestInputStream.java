@@ -0,0 +1,42 @@
+package com.meidusa.amoeba.metrics.io;
+
+import com.meidusa.amoeba.net.io.PacketInputStream;
+
+/**
+ * frames the header of a http request: a packet ends with the first empty line, the body of the request is not supported
+ *
+ * @author struct
+ *
+ */
+public class HttpRequestInputStream extends PacketInputStream {
+	public static final int MAX_HEADER_SIZE = 8192;
+
+	protected int decodeLength() {
+		for(int i=3;i<_have;i++){
+			if(_buffer.get(i) == '\n' && _buffer.get(i - 1) == '\r' && _buffer.get(i - 2) == '\n' && _buffer.get(i - 3) == '\r'){
+				return i + 1;
+			}
+		}
+		if(_have > MAX_HEADER_SIZE){
+			return -2;
+		}
+		return -1;
+	}
+
+	public int getHeaderSize() {
+		return 4;
+	}
+
+	protected byte[] readPacket() {
+		byte[] msg = new byte[_length];
+		int position = _buffer.position();
+		_buffer.position(0);
+		_buffer.get(msg, 0, _length);
+		_buffer.limit(_have);
+		_buffer.compact();
+		_buffer.position(position - _length);
+		_have -= _length;
+		_length = this.decodeLength();
+		return msg;
+	}
+}
@@ -0,0 +1,93 @@
+package com.meidusa.amoeba.metrics.net;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.metrics.MetricsRegistry;
+import com.meidusa.amoeba.metrics.io.HttpRequestInputStream;
+import com.meidusa.amoeba.net.Connection;
+import com.meidusa.amoeba.net.io.PacketInputStream;
+import com.meidusa.amoeba.net.io.PacketOutputStream;
+
+/**
+ * <pre>
+ * the plain text scrape endpoint of the {@link MetricsRegistry}:
+ * any http GET is answered with the "name value" lines of {@link MetricsRegistry#appendText(StringBuilder)}, then the connection is closed.
+ *    curl http://127.0.0.1:9067/metrics
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class MetricsConnection extends Connection {
+	private static Logger logger = Logger.getLogger(MetricsConnection.class);
+	private volatile boolean closeAfterWrite;
+
+	public MetricsConnection(SocketChannel channel, long createStamp) {
+		super(channel, createStamp);
+	}
+
+	@Override
+	protected PacketInputStream createPacketInputStream() {
+		return new HttpRequestInputStream();
+	}
+
+	@Override
+	protected PacketOutputStream createPacketOutputStream() {
+		return null;
+	}
+
+	protected void doReceiveMessage(byte[] message){
+		String request = null;
+		try {
+			request = new String(message, "ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+		}
+		int lineEnd = request.indexOf('\r');
+		String line = lineEnd > 0 ? request.substring(0, lineEnd) : request;
+		if(logger.isDebugEnabled()){
+			logger.debug("metrics request from "+this.getSocketId()+": "+line);
+		}
+
+		StringBuilder body = new StringBuilder(4096);
+		String status;
+		if(line.startsWith("GET ")){
+			status = "200 OK";
+			MetricsRegistry.getInstance().appendText(body);
+		}else{
+			status = "405 Method Not Allowed";
+			body.append("only GET is supported\n");
+		}
+		response(status, body);
+	}
+
+	protected void response(String status, StringBuilder body){
+		byte[] content = null;
+		byte[] header = null;
+		try {
+			content = body.toString().getBytes("UTF-8");
+			header = ("HTTP/1.0 "+status+"\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: "
+					+content.length+"\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1");
+		} catch (UnsupportedEncodingException e) {
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(header.length + content.length);
+		buffer.put(header).put(content).flip();
+		closeAfterWrite = true;
+		postMessage(buffer);
+	}
+
+	public boolean doWrite() throws IOException {
+		boolean finished = super.doWrite();
+		if(finished && closeAfterWrite){
+			postClose(null);
+		}
+		return finished;
+	}
+
+	protected void messageProcess() {
+	}
+}
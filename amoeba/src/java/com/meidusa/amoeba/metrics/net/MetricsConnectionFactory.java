@@ -0,0 +1,29 @@
+package com.meidusa.amoeba.metrics.net;
+
+import java.nio.channels.SocketChannel;
+
+import com.meidusa.amoeba.net.AbstractConnectionFactory;
+import com.meidusa.amoeba.net.Connection;
+
+/**
+ * connection factory of the metrics scrape service:
+ * <pre>
+ * &lt;service name="Amoeba Metrics Server" class="com.meidusa.amoeba.net.ServerableConnectionManager"&gt;
+ *    &lt;property name="port"&gt;9067&lt;/property&gt;
+ *    &lt;property name="connectionFactory"&gt;
+ *       &lt;bean class="com.meidusa.amoeba.metrics.net.MetricsConnectionFactory"&gt;&lt;/bean&gt;
+ *    &lt;/property&gt;
+ * &lt;/service&gt;
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class MetricsConnectionFactory extends AbstractConnectionFactory {
+
+	@Override
+	protected Connection newConnectionInstance(SocketChannel channel,
+			long createStamp) {
+		return new MetricsConnection(channel,createStamp);
+	}
+}
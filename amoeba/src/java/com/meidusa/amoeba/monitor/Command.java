@@ -2,6 +2,40 @@ package com.meidusa.amoeba.monitor;
 
 import java.io.Serializable;
 
+/**
+ * monitor commands and their funType of {@link com.meidusa.amoeba.monitor.packet.MonitorCommandPacket}
+ */
 public enum Command implements Serializable{
-	SHUTDOWN,OK,PING,PONG
+	SHUTDOWN(MonitorConstant.FUN_TYPE_AMOEBA_SHUTDOWN),
+	OK(MonitorConstant.FUN_TYPE_OK),
+	PING(MonitorConstant.FUN_TYPE_PING),
+	PONG(MonitorConstant.FUN_TYPE_OK),
+	LATENCY(MonitorConstant.FUN_TYPE_QUERY_LATENCY),
+	STATS(MonitorConstant.FUN_TYPE_STATS),
+	POOLS(MonitorConstant.FUN_TYPE_POOLS),
+	HEARTBEAT(MonitorConstant.FUN_TYPE_HEARTBEAT),
+	STATEMENT_CACHE(MonitorConstant.FUN_TYPE_STATEMENT_CACHE),
+	SESSIONS(MonitorConstant.FUN_TYPE_SESSIONS);
+	
+	private final byte funType;
+	
+	private Command(byte funType){
+		this.funType = funType;
+	}
+	
+	public byte getFunType() {
+		return funType;
+	}
+	
+	/**
+	 * @return the command of the name, case insensitive, null if none
+	 */
+	public static Command fromName(String name){
+		for(Command command : values()){
+			if(command.name().equalsIgnoreCase(name)){
+				return command;
+			}
+		}
+		return null;
+	}
 }
@@ -19,6 +19,21 @@ public interface MonitorConstant {
     byte   FUN_TYPE_RULE_DELETE      = 11;
     byte   FUN_TYPE_AMOEBA_RELOAD    = 21;
     byte   FUN_TYPE_AMOEBA_SHUTDOWN  = 22;
+    
+    /**
+     * query latency percentiles of the pools and table rules, responded with the report text as objects[0]
+     */
+    byte   FUN_TYPE_QUERY_LATENCY    = 23;
+    
+    /**
+     * live snapshots, responded with one Map per row as objects, see {@link MonitorStatus}
+     */
+    byte   FUN_TYPE_STATS            = 24;
+    byte   FUN_TYPE_POOLS            = 25;
+    byte   FUN_TYPE_HEARTBEAT        = 26;
+    byte   FUN_TYPE_STATEMENT_CACHE  = 27;
+    /** objects[0] of the request is the max sessions (Integer), default {@link MonitorStatus#DEFAULT_TOP_SESSIONS} */
+    byte   FUN_TYPE_SESSIONS         = 28;
 
     byte[] HEADER_PAD                = new byte[HEADER_SIZE];
 }
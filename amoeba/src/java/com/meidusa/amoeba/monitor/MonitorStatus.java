@@ -0,0 +1,159 @@
+package com.meidusa.amoeba.monitor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.heartbeat.HeartbeatDelayed;
+import com.meidusa.amoeba.heartbeat.HeartbeatManager;
+import com.meidusa.amoeba.metrics.ActiveSessions;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
+import com.meidusa.amoeba.net.poolable.GenericObjectPool;
+import com.meidusa.amoeba.net.poolable.ObjectPool;
+
+/**
+ * <pre>
+ * snapshots answered by the monitor server, read from the in-memory counters without locking the io.
+ * the active and idle counts of a pool take the lock of the pool for a moment, the waiters are read without locking.
+ * each snapshot is a list of rows, a row is a Map of String to Number, String or Boolean so that it can be serialized to any monitor client.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class MonitorStatus {
+	public static final int DEFAULT_TOP_SESSIONS = 10;
+	private static final String STATEMENT_CACHE_PREFIX = "statementCache.";
+
+	/**
+	 * @return one row with all the values of the {@link MetricsRegistry}: connection managers, pools, sessions, jvm
+	 */
+	public static List<Map<String, Object>> getStats(){
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		rows.add(new TreeMap<String, Object>(MetricsRegistry.getInstance().snapshot()));
+		return rows;
+	}
+
+	/**
+	 * @return one row per pool with name, enable, valid, active, idle and waiters (GenericObjectPool only),
+	 * the threads blocked in borrowObject on the exhausted pool
+	 */
+	public static List<Map<String, Object>> getPools(){
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		Map<String, ObjectPool> poolMap = new TreeMap<String, ObjectPool>(ProxyRuntimeContext.getInstance().getPoolMap());
+		for(Map.Entry<String, ObjectPool> entry : poolMap.entrySet()){
+			ObjectPool pool = entry.getValue();
+			Map<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("name", entry.getKey());
+			row.put("class", pool.getClass().getSimpleName());
+			row.put("enable", pool.isEnable());
+			row.put("valid", pool.isValid());
+			row.put("active", pool.getNumActive());
+			row.put("idle", pool.getNumIdle());
+			if(pool instanceof GenericObjectPool){
+				row.put("waiters", ((GenericObjectPool)pool).getNumWaiters());
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	/**
+	 * @return one row per waiting heartbeat with name, class, cycle, the ms before the next check and the pool status
+	 */
+	public static List<Map<String, Object>> getHeartbeats(){
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for(HeartbeatDelayed delayed : HeartbeatManager.getHeartbeats()){
+			Map<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("name", delayed.getName());
+			row.put("class", delayed.getClass().getSimpleName());
+			row.put("cycle", delayed.isCycle());
+			row.put("delay", delayed.getDelay(TimeUnit.MILLISECONDS));
+			if(delayed instanceof ObjectPool.ObjectPoolHeartbeatDelayed){
+				ObjectPool pool = ((ObjectPool.ObjectPoolHeartbeatDelayed)delayed).getPool();
+				row.put("valid", pool.isValid());
+				row.put("enable", pool.isEnable());
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	/**
+	 * @return one row per statement cache registered as statementCache.&lt;name&gt;.* with its values and the hitRate
+	 */
+	public static List<Map<String, Object>> getStatementCaches(){
+		SortedMap<String, Number> snapshot = MetricsRegistry.getInstance().snapshot();
+		Map<String, Map<String, Object>> caches = new TreeMap<String, Map<String, Object>>();
+		for(Map.Entry<String, Number> entry : snapshot.subMap(STATEMENT_CACHE_PREFIX, STATEMENT_CACHE_PREFIX + Character.MAX_VALUE).entrySet()){
+			String name = entry.getKey().substring(STATEMENT_CACHE_PREFIX.length());
+			int index = name.lastIndexOf('.');
+			if(index <= 0){
+				continue;
+			}
+			String cache = name.substring(0, index);
+			Map<String, Object> row = caches.get(cache);
+			if(row == null){
+				row = new LinkedHashMap<String, Object>();
+				row.put("name", cache);
+				caches.put(cache, row);
+			}
+			row.put(name.substring(index + 1), entry.getValue());
+		}
+
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for(Map<String, Object> row : caches.values()){
+			long hits = toLong(row.get("hits"));
+			long misses = toLong(row.get("misses"));
+			row.put("hitRate", hits + misses == 0 ? 0d : (double)hits / (hits + misses));
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	/**
+	 * @return the longest running sessions first
+	 */
+	public static List<Map<String, Object>> getSessions(int count){
+		return ActiveSessions.getLongestRunning(count);
+	}
+
+	private static long toLong(Object value){
+		return value instanceof Number ? ((Number)value).longValue() : 0;
+	}
+
+	/**
+	 * one line per row, name=value separated by tabs, the line breaks and tabs of the values are replaced by spaces
+	 */
+	public static void appendRows(StringBuilder buffer, Object[] rows){
+		if(rows == null){
+			return;
+		}
+		for(Object row : rows){
+			if(row instanceof Map){
+				boolean first = true;
+				for(Object object : ((Map<?, ?>)row).entrySet()){
+					Map.Entry<?, ?> entry = (Map.Entry<?, ?>)object;
+					if(!first){
+						buffer.append('\t');
+					}
+					buffer.append(entry.getKey()).append('=');
+					String value = String.valueOf(entry.getValue());
+					for(int i=0;i<value.length();i++){
+						char c = value.charAt(i);
+						buffer.append(c == '\n' || c == '\r' || c == '\t' ? ' ' : c);
+					}
+					first = false;
+				}
+			}else{
+				buffer.append(row);
+			}
+			buffer.append('\n');
+		}
+	}
+}
@@ -44,10 +44,26 @@ public class ShutdownClient implements MonitorConstant {
 	 * @return false if server not running
 	 */
 	public boolean run(MonitorCommandPacket command) {
+		MonitorCommandPacket response = request(command);
+		if(response == null){
+			return false;
+		}
+		if(response.funType == MonitorConstant.FUN_TYPE_OK){
+			System.out.println("remote application= "+ appplicationName+":"+port+" response OK");
+		}
+		return true;
+	}
+	
+	/**
+	 * 
+	 * @param command
+	 * @return the response packet, null if server not running
+	 */
+	public MonitorCommandPacket request(MonitorCommandPacket command) {
 		if(port <=0){
 			socketInfoFile = new File(ConfigUtil.filter("${amoeba.home}"),appplicationName+".shutdown.port");
 			if(!socketInfoFile.exists()){
-				return false;
+				return null;
 			}
 			
 			try {
@@ -55,14 +71,14 @@ public class ShutdownClient implements MonitorConstant {
 				String sport = reader.readLine();
 				String tmp[] = StringUtil.split(sport, ":");
 				if(tmp.length <=1){
-					return false;
+					return null;
 				}
 				this.port = Integer.parseInt(tmp[1]);
 				this.host = tmp[0];
 				reader.close();
 			}catch (Exception e) {
 				e.printStackTrace();
-				return false;
+				return null;
 			}
 		}
 		
@@ -79,7 +95,7 @@ public class ShutdownClient implements MonitorConstant {
 					}
 				}
 			}catch(IOException e){
-				return false;
+				return null;
 			}
 			socket.getOutputStream().write(command.toByteBuffer(null).array());
 			socket.getOutputStream().flush();
@@ -88,15 +104,12 @@ public class ShutdownClient implements MonitorConstant {
 			byte[] message = pis.readPacket(socket.getInputStream());
 			MonitorCommandPacket response = new MonitorCommandPacket();
 			response.init(message, null);
-			if(response.funType == MonitorConstant.FUN_TYPE_OK){
-				System.out.println("remote application= "+ appplicationName+":"+port+" response OK");
-			}
 			
 			socket.close();
-			return true;
+			return response;
 		} catch (Exception e) {
 			e.printStackTrace();
-			return false;
+			return null;
 		}
 	}
 
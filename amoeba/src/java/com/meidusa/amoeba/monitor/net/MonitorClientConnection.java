@@ -1,10 +1,14 @@
 package com.meidusa.amoeba.monitor.net;
 
 import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import com.meidusa.amoeba.metrics.QueryLatency;
 import com.meidusa.amoeba.monitor.MonitorConstant;
+import com.meidusa.amoeba.monitor.MonitorStatus;
 import com.meidusa.amoeba.monitor.io.MonitorPacketInputStream;
 import com.meidusa.amoeba.monitor.packet.MonitorCommandPacket;
 import com.meidusa.amoeba.net.Connection;
@@ -45,6 +49,33 @@ public class MonitorClientConnection extends Connection {
 			}
 			System.exit(0);
 			break;
+		}
+		case MonitorConstant.FUN_TYPE_QUERY_LATENCY:{
+			StringBuilder buffer = new StringBuilder();
+			QueryLatency.appendReport(buffer);
+			packet.objects = new Object[]{buffer.toString()};
+			this.postMessage(packet.toByteBuffer(this));
+			break;
+		}
+		case MonitorConstant.FUN_TYPE_STATS:
+			response(packet, MonitorStatus.getStats());
+			break;
+		case MonitorConstant.FUN_TYPE_POOLS:
+			response(packet, MonitorStatus.getPools());
+			break;
+		case MonitorConstant.FUN_TYPE_HEARTBEAT:
+			response(packet, MonitorStatus.getHeartbeats());
+			break;
+		case MonitorConstant.FUN_TYPE_STATEMENT_CACHE:
+			response(packet, MonitorStatus.getStatementCaches());
+			break;
+		case MonitorConstant.FUN_TYPE_SESSIONS:{
+			int count = MonitorStatus.DEFAULT_TOP_SESSIONS;
+			if(packet.objects != null && packet.objects.length >0 && packet.objects[0] instanceof Number){
+				count = ((Number)packet.objects[0]).intValue();
+			}
+			response(packet, MonitorStatus.getSessions(count));
+			break;
 		}
 			default:{
 				packet.funType = MonitorConstant.FUN_TYPE_OK;
@@ -55,6 +86,11 @@ public class MonitorClientConnection extends Connection {
 		
     }
     
+    private void response(MonitorCommandPacket packet, List<Map<String, Object>> rows){
+    	packet.objects = rows.toArray();
+    	this.postMessage(packet.toByteBuffer(this));
+    }
+    
     protected void messageProcess() {
     }
 }
@@ -21,11 +21,17 @@ import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.Gauge;
+import com.meidusa.amoeba.metrics.LatencyHistogram;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
 import com.meidusa.amoeba.net.io.PacketInputStream;
 import com.meidusa.amoeba.net.io.PacketOutputStream;
 import com.meidusa.amoeba.net.packet.Packet;
@@ -41,7 +47,41 @@ public abstract class Connection implements NetEventHandler {
     public static final long    PING_INTERVAL = 90 * 1000L;
     protected static final long LATENCY_GRACE = 30 * 1000L;
 
+    /**
+     * bytes waiting in the out queue: over the high watermark the connection is write stalled,
+     * it resumes once written down to the low watermark. high watermark <=0 disables the stall.
+     */
+    private static volatile long highWatermark = 4 * 1024 * 1024L;
+    private static volatile long lowWatermark  = 1024 * 1024L;
+
+    private static final AtomicInteger    stalledConnections = new AtomicInteger();
+    private static final Counter          writeStalls        = MetricsRegistry.getInstance().counter("net.writeStall.count");
+    private static final LatencyHistogram writeStallTime     = MetricsRegistry.getInstance().histogram("net.writeStall.time");
+    private static final AtomicInteger    pausedConnections  = new AtomicInteger();
+
+    static {
+        MetricsRegistry.getInstance().register("net.writeStall.active", new Gauge() {
+            public long getValue() {
+                return stalledConnections.get();
+            }
+        });
+        MetricsRegistry.getInstance().register("net.readPaused.active", new Gauge() {
+            public long getValue() {
+                return pausedConnections.get();
+            }
+        });
+    }
+
     private final Object writeLock = new Object();
+    private final Object stallLock = new Object();
+    private final Object readPauseLock = new Object();
+    private final Object drainLock = new Object();
+    private volatile int drainWaiters;
+    private final AtomicLong     _outQueueBytes = new AtomicLong();
+    private volatile boolean     writeStalled;
+    private long                 writeStallStart;
+    private volatile WriteStallListener writeStallListener;
+    private volatile boolean     readPaused;
     protected ConnectionManager _cmgr;
     protected SelectionKey      _selkey;
     protected SocketChannel     _channel;
@@ -90,9 +130,38 @@ public abstract class Connection implements NetEventHandler {
      * @see <code> {@link ConnectionManager#registerConnection(Connection, int)}</code>
      */
     protected void init() {
+    	int ops = 0;
     	if(_outQueue.size()>0){
-    		_selkey.interestOps(_selkey.interestOps() | SelectionKey.OP_WRITE);
+    		ops |= SelectionKey.OP_WRITE;
         }
+    	updateInterestOps(_selkey, ops, readPaused ? SelectionKey.OP_READ : 0);
+    }
+
+    /**
+     * the io thread, the handler threads and the write stall listeners all change the interest set,
+     * the read-modify-write is done with the key locked so that no thread loses the bit set by another one.
+     */
+    public static void updateInterestOps(SelectionKey key, int add, int remove) {
+        synchronized (key) {
+            key.interestOps((key.interestOps() | add) & ~remove);
+        }
+    }
+
+    /**
+     * @param high bytes waiting in the out queue over which the connection is write stalled, <=0 disables the stall
+     * @param low bytes waiting in the out queue under which the stalled connection resumes
+     */
+    public static void setWatermarks(long high, long low) {
+        highWatermark = high;
+        lowWatermark = Math.min(low, high);
+    }
+
+    public static long getHighWatermark() {
+        return highWatermark;
+    }
+
+    public static long getLowWatermark() {
+        return lowWatermark;
     }
 
     public void setConnectionManager(ConnectionManager cmgr) {
@@ -164,6 +233,11 @@ public abstract class Connection implements NetEventHandler {
         	}
         	socketClosed = true;
 		}
+
+        if (writeStalled) {
+            checkWatermark();
+        }
+        signalDrain();
         
         if (_handler instanceof Sessionable) {
         	try{
@@ -304,22 +378,56 @@ public abstract class Connection implements NetEventHandler {
     }
 
     public boolean doWrite() throws IOException {
+        boolean finished = true;
         synchronized (writeLock) {
             ByteBuffer buffer = null;
             int wrote = 0;
             int message = 0;
-            while ((buffer = _outQueue.getNonBlocking()) != null) {
-                wrote += this.getChannel().write(buffer);
-                if (buffer.remaining() > 0) {
-                    _outQueue.prepend(buffer);
-                    return false;
-                } else {
-                    // buffer.clear();
-                    message++;
+            try {
+                while ((buffer = _outQueue.getNonBlocking()) != null) {
+                    wrote += this.getChannel().write(buffer);
+                    if (buffer.remaining() > 0) {
+                        _outQueue.prepend(buffer);
+                        finished = false;
+                        break;
+                    } else {
+                        // buffer.clear();
+                        message++;
+                    }
                 }
+            } finally {
+                _outQueueBytes.addAndGet(-wrote);
             }
-            return true;
+        }
+        if (writeStalled) {
+            checkWatermark();
+        }
+        signalDrain();
+        return finished;
+    }
 
+    /**
+     * block the calling thread until the bytes waiting in the out queue are written down to the given size or the connection is closed,
+     * it is woken up by the io thread writing the queue. must not be called from the io thread.
+     */
+    public void awaitOutQueueBytes(long bytes) throws InterruptedException {
+        synchronized (drainLock) {
+            drainWaiters++;
+            try {
+                while (_outQueueBytes.get() > bytes && !isClosed()) {
+                    drainLock.wait();
+                }
+            } finally {
+                drainWaiters--;
+            }
+        }
+    }
+
+    private void signalDrain() {
+        if (drainWaiters > 0) {
+            synchronized (drainLock) {
+                drainLock.notifyAll();
+            }
         }
     }
 
@@ -343,13 +451,140 @@ public abstract class Connection implements NetEventHandler {
     }
 
     public void postMessage(ByteBuffer msg) {
+        long bytes = _outQueueBytes.addAndGet(msg.remaining());
         _outQueue.append(msg);
+        long high = highWatermark;
+        if (!writeStalled && high > 0 && bytes >= high) {
+            checkWatermark();
+        }
         writeMessage();
     }
 
+    /**
+     * stall or resume the connection when the queued bytes crossed a watermark, the listener is notified with the stall lock held
+     * so that a resume never overtakes the stall it ends.
+     */
+    private void checkWatermark() {
+        synchronized (stallLock) {
+            long bytes = _outQueueBytes.get();
+            long high = highWatermark;
+            if (!writeStalled) {
+                if (high <= 0 || bytes < high) {
+                    return;
+                }
+                writeStalled = true;
+                writeStallStart = System.nanoTime();
+                writeStalls.increment();
+                stalledConnections.incrementAndGet();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("write stalled, queued bytes=" + bytes + ", conn=" + this);
+                }
+                WriteStallListener listener = writeStallListener;
+                if (listener != null) {
+                    listener.writeStalled(this);
+                }
+            } else {
+                if (high > 0 && bytes > lowWatermark && !isClosed()) {
+                    return;
+                }
+                writeStalled = false;
+                writeStallTime.recordValue(System.nanoTime() - writeStallStart);
+                stalledConnections.decrementAndGet();
+                WriteStallListener listener = writeStallListener;
+                if (listener != null) {
+                    listener.writeResumed(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the bytes waiting in the out queue went over the high watermark and are not yet written down to the low watermark
+     */
+    public boolean isWriteStalled() {
+        return writeStalled;
+    }
+
+    /**
+     * @return bytes waiting in the out queue
+     */
+    public long getOutQueueBytes() {
+        return _outQueueBytes.get();
+    }
+
+    public WriteStallListener getWriteStallListener() {
+        return writeStallListener;
+    }
+
+    /**
+     * the listener is notified of the stalls of this connection, and at once if the connection is already stalled.
+     * the stall lock is taken so that a listener removed is never called after this method returns.
+     */
+    public void setWriteStallListener(WriteStallListener listener) {
+        synchronized (stallLock) {
+            this.writeStallListener = listener;
+            if (listener != null && writeStalled) {
+                listener.writeStalled(this);
+            }
+        }
+    }
+
+    /**
+     * remove the listener only if it is still the given one
+     */
+    public void removeWriteStallListener(WriteStallListener listener) {
+        synchronized (stallLock) {
+            if (this.writeStallListener == listener) {
+                this.writeStallListener = null;
+            }
+        }
+    }
+
+    /**
+     * stop or restart selecting this connection for reading, the data sent by the peer waits in the socket buffers meanwhile.
+     */
+    public void setReadPaused(boolean paused) {
+        synchronized (readPauseLock) {
+            if (readPaused == paused) {
+                return;
+            }
+            readPaused = paused;
+            if (paused) {
+                pausedConnections.incrementAndGet();
+            } else {
+                pausedConnections.decrementAndGet();
+            }
+            SelectionKey key = getSelectionKey();
+            if (key == null) {
+                return;
+            }
+            try {
+                if (paused) {
+                    updateInterestOps(key, 0, SelectionKey.OP_READ);
+                } else {
+                    updateInterestOps(key, SelectionKey.OP_READ, 0);
+                    key.selector().wakeup();
+                }
+            } catch (CancelledKeyException e) {
+                // closed, nothing to read
+            }
+        }
+    }
+
+    public boolean isReadPaused() {
+        return readPaused;
+    }
+
     public int getInQueueSize(){
     	return _outQueue.size();
     }
+
+    /**
+     * @return ȴдByteBuffer
+     */
+    public int getOutQueueSize(){
+    	return _outQueue.size();
+    }
     protected void writeMessage() {
         if (isClosed()) {
             return;
@@ -367,7 +602,9 @@ public abstract class Connection implements NetEventHandler {
                 boolean finished = doWrite();
                 
                 if (!finished) {
-                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    updateInterestOps(key, SelectionKey.OP_WRITE, 0);
+                    // the selector may be waiting with the old interest set
+                    key.selector().wakeup();
                 }
             }else{
             	if(key == null){
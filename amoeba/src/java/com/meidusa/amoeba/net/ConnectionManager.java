@@ -27,6 +27,7 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import com.meidusa.amoeba.data.ConMgrStats;
+import com.meidusa.amoeba.metrics.Gauge;
 import com.meidusa.amoeba.util.Initialisable;
 import com.meidusa.amoeba.util.InitialisationException;
 import com.meidusa.amoeba.util.LoopingThread;
@@ -59,6 +60,18 @@ public class ConnectionManager extends LoopingThread implements Reporter, Initia
     /** Our current runtime stats. */
     protected ConMgrStats                            _stats;
 
+    /** counters at the last reset report, the report shows the delta since then */
+    private long                                     _lastConnects;
+    private long                                     _lastDisconnects;
+    private long                                     _lastSelects;
+    private long                                     _lastEvents;
+
+    private final Gauge                              _registeredGauge                = new Gauge() {
+        public long getValue() {
+            return _selector.keys().size();
+        }
+    };
+
     /** ѾʧЧϿĶ */
     protected Queue<Tuple<Connection, Exception>>    _deathq                         = new Queue<Tuple<Connection, Exception>>();
 
@@ -83,13 +96,38 @@ public class ConnectionManager extends LoopingThread implements Reporter, Initia
 	public void appendReport(StringBuilder report, long now, long sinceLast, boolean reset, Level level) {
         report.append("* ").append(this.getName()).append(StringUtil.LINE_SEPARATOR);
         report.append("- Registed Connection size: ").append(_selector.keys().size()).append(StringUtil.LINE_SEPARATOR);
-        report.append("- created Connection size: ").append(_stats.connects.get()).append(StringUtil.LINE_SEPARATOR);
-        report.append("- disconnect Connection size: ").append(_stats.disconnects.get()).append(StringUtil.LINE_SEPARATOR);
+        long connects = _stats.connects.get();
+        long disconnects = _stats.disconnects.get();
+        long selects = _stats.selects.get();
+        long events = _stats.events.get();
+        report.append("- created Connection size: ").append(connects).append(" (+").append(connects - _lastConnects).append(")").append(StringUtil.LINE_SEPARATOR);
+        report.append("- disconnect Connection size: ").append(disconnects).append(" (+").append(disconnects - _lastDisconnects).append(")").append(StringUtil.LINE_SEPARATOR);
+        report.append("- selects: ").append(selects - _lastSelects).append(", events: ").append(events - _lastEvents).append(StringUtil.LINE_SEPARATOR);
         if (reset) {
-            _stats = new ConMgrStats();
+            _lastConnects = connects;
+            _lastDisconnects = disconnects;
+            _lastSelects = selects;
+            _lastEvents = events;
         }
     }
 
+    /**
+     * metrics name of this manager
+     */
+    protected String getMetricsName() {
+        return "connectionManager." + this.getName();
+    }
+
+    protected void willStart() {
+        super.willStart();
+        _stats.register(getMetricsName(), _registeredGauge);
+    }
+
+    protected void didShutdown() {
+        super.didShutdown();
+        _stats.unregister(getMetricsName(), _registeredGauge);
+    }
+
     public ConnectionManager() throws IOException{
         _selector = SelectorProvider.provider().openSelector();
         // create our stats record
@@ -187,6 +225,8 @@ public class ConnectionManager extends LoopingThread implements Reporter, Initia
         }
         // clear the runtime error count
         _runtimeExceptionCount = 0;
+        _stats.selects.increment();
+        _stats.events.add(ready.size());
 
         // ¼ȣ
         for (SelectionKey selkey : ready) {
@@ -209,7 +249,12 @@ public class ConnectionManager extends LoopingThread implements Reporter, Initia
 	            if (selkey.isWritable()) {
 	                    boolean finished = handler.doWrite();
 	                    if (finished) {
-	                        selkey.interestOps(selkey.interestOps() & ~SelectionKey.OP_WRITE);
+	                        Connection.updateInterestOps(selkey, 0, SelectionKey.OP_WRITE);
+	                        
+	                        // a message posted before OP_WRITE was cleared was left to this thread, write it on the next select
+	                        if (handler instanceof Connection && ((Connection) handler).getOutQueueSize() > 0) {
+	                            Connection.updateInterestOps(selkey, SelectionKey.OP_WRITE, 0);
+	                        }
 	                    }
 	            }
 	            
@@ -328,7 +373,7 @@ public class ConnectionManager extends LoopingThread implements Reporter, Initia
             selkey = selchan.register(_selector, key, connection);
             connection.setConnectionManager(this);
             connection.setSelectionKey(selkey);
-            _stats.connects.incrementAndGet();
+            _stats.connects.increment();
             connection.init();
             _selector.wakeup();
             return true;
@@ -361,7 +406,7 @@ public class ConnectionManager extends LoopingThread implements Reporter, Initia
          * ɾرյض
          */
         _handlers.remove(conn);
-        _stats.disconnects.incrementAndGet();
+        _stats.disconnects.increment();
         /**
          * ֪ͨObserverбѾر
          */
@@ -373,7 +418,7 @@ public class ConnectionManager extends LoopingThread implements Reporter, Initia
      */
     protected void connectionFailed(Connection conn, Exception ioe) {
         _handlers.remove(conn);
-        _stats.disconnects.incrementAndGet();
+        _stats.disconnects.increment();
 
         /**
          * 쳣ʱ֪ͨObservers
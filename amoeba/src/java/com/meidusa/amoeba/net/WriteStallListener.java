@@ -0,0 +1,21 @@
+package com.meidusa.amoeba.net;
+
+/**
+ * <pre>
+ * notified when the bytes waiting in the out queue of a connection go over the high watermark,
+ * and again when they are written down to the low watermark.
+ * the listener stops reading the connections feeding the stalled one, see {@link Connection#setReadPaused(boolean)}.
+ *
+ * both methods are called with the stall lock of the connection held, from the thread posting the message or
+ * from the io thread writing it, so that they must not block nor post messages.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public interface WriteStallListener {
+
+	public void writeStalled(Connection conn);
+
+	public void writeResumed(Connection conn);
+}
@@ -30,11 +30,16 @@ package com.meidusa.amoeba.net.poolable;
 
 import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.pool.PoolableObjectFactory;
 
 import com.meidusa.amoeba.heartbeat.HeartbeatManager;
 import com.meidusa.amoeba.heartbeat.Status;
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.Gauge;
+import com.meidusa.amoeba.metrics.LatencyHistogram;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
 import com.meidusa.amoeba.util.Initialisable;
 import com.meidusa.amoeba.util.InitialisationException;
 
@@ -308,6 +313,7 @@ public class GenericObjectPool extends org.apache.commons.pool.impl.GenericObjec
      */
     public GenericObjectPool(PoolableObjectFactory factory, int maxActive, byte whenExhaustedAction, long maxWait, int maxIdle, int minIdle, boolean testOnBorrow, boolean testOnReturn, long timeBetweenEvictionRunsMillis, int numTestsPerEvictionRun, long minEvictableIdleTimeMillis, boolean testWhileIdle) {
     	super(factory, maxActive, whenExhaustedAction, maxWait, maxIdle, minIdle, testOnBorrow, testOnReturn, timeBetweenEvictionRunsMillis, numTestsPerEvictionRun, minEvictableIdleTimeMillis, testWhileIdle, DEFAULT_SOFT_MIN_EVICTABLE_IDLE_TIME_MILLIS);
+    	this.factory = factory;
     }
 
     /**
@@ -329,6 +335,7 @@ public class GenericObjectPool extends org.apache.commons.pool.impl.GenericObjec
      */
     public GenericObjectPool(PoolableObjectFactory factory, int maxActive, byte whenExhaustedAction, long maxWait, int maxIdle, int minIdle, boolean testOnBorrow, boolean testOnReturn, long timeBetweenEvictionRunsMillis, int numTestsPerEvictionRun, long minEvictableIdleTimeMillis, boolean testWhileIdle, long softMinEvictableIdleTimeMillis) {
         super(factory, maxActive, whenExhaustedAction, maxWait, maxIdle, minIdle, testOnBorrow, testOnReturn, timeBetweenEvictionRunsMillis, numTestsPerEvictionRun, minEvictableIdleTimeMillis, testWhileIdle, softMinEvictableIdleTimeMillis, DEFAULT_LIFO);
+        this.factory = factory;
     }
     
     /**
@@ -354,7 +361,30 @@ public class GenericObjectPool extends org.apache.commons.pool.impl.GenericObjec
     
     private boolean isValid = true;
     private boolean enable;
+    private PoolableObjectFactory factory;
     private String name;
+
+    /** time spent in borrowObject, includes the wait of an exhausted pool */
+    private final LatencyHistogram borrowHistogram = new LatencyHistogram();
+    private final Counter borrowErrors = new Counter();
+    /** threads in borrowObject that found the pool exhausted and block until an object is returned */
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final Gauge waitersGauge = new Gauge(){
+    	public long getValue() {
+    		return waiters.get();
+    	}
+    };
+    private final Gauge activeGauge = new Gauge(){
+    	public long getValue() {
+    		return getNumActive();
+    	}
+    };
+    private final Gauge idleGauge = new Gauge(){
+    	public long getValue() {
+    		return getNumIdle();
+    	}
+    };
+
 	public boolean isEnable() {
 		return enable;
 	}
@@ -367,6 +397,15 @@ public class GenericObjectPool extends org.apache.commons.pool.impl.GenericObjec
 		return name;
 	}
 
+	public synchronized void setFactory(PoolableObjectFactory factory) throws IllegalStateException {
+		super.setFactory(factory);
+		this.factory = factory;
+	}
+
+	public PoolableObjectFactory getFactory() {
+		return factory;
+	}
+
 	public void setName(String name) {
 		this.name = name;
 	}
@@ -377,14 +416,48 @@ public class GenericObjectPool extends org.apache.commons.pool.impl.GenericObjec
 				throw new NoSuchElementException("poolName="+name+", pool is invalid");
 			}
 		}
+		long start = System.nanoTime();
+		boolean waiting = isExhausted();
+		if(waiting){
+			waiters.incrementAndGet();
+		}
 		try {
 			return super.borrowObject();
 		} catch (Exception e) {
 			isValid = false;
+			borrowErrors.increment();
 			throw e;
+		}finally{
+			if(waiting){
+				waiters.decrementAndGet();
+			}
+			borrowHistogram.recordValue(System.nanoTime() - start);
 		}
 	}
 	
+	/**
+	 * a borrow blocks when no object is idle and maxActive objects are active
+	 */
+	private boolean isExhausted(){
+		int maxActive = getMaxActive();
+		return getWhenExhaustedAction() == WHEN_EXHAUSTED_BLOCK && maxActive > 0 && getNumIdle() == 0 && getNumActive() >= maxActive;
+	}
+	
+	/**
+	 * @return threads that found the pool exhausted when they called borrowObject and still wait for an object, read without locking
+	 */
+	public int getNumWaiters() {
+		return waiters.get();
+	}
+
+	public LatencyHistogram getBorrowHistogram() {
+		return borrowHistogram;
+	}
+
+	protected String getMetricsName(){
+		return "pool." + name;
+	}
+	
 	public boolean isValid() {
 		return isValid;
 	}
@@ -397,6 +470,12 @@ public class GenericObjectPool extends org.apache.commons.pool.impl.GenericObjec
 	@Override
 	public void init() throws InitialisationException {
 		HeartbeatManager.addHeartbeat(delay);
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		registry.register(getMetricsName() + ".borrow", borrowHistogram);
+		registry.register(getMetricsName() + ".borrowErrors", borrowErrors);
+		registry.register(getMetricsName() + ".active", activeGauge);
+		registry.register(getMetricsName() + ".idle", idleGauge);
+		registry.register(getMetricsName() + ".waiters", waitersGauge);
 	}
 
 	public static class GenericHeartbeatDelayed extends ObjectPoolHeartbeatDelayed{
@@ -416,6 +495,12 @@ public class GenericObjectPool extends org.apache.commons.pool.impl.GenericObjec
 
 	public void close() throws Exception{
 		HeartbeatManager.removeHeartbeat(delay);
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		registry.unregister(getMetricsName() + ".borrow", borrowHistogram);
+		registry.unregister(getMetricsName() + ".borrowErrors", borrowErrors);
+		registry.unregister(getMetricsName() + ".active", activeGauge);
+		registry.unregister(getMetricsName() + ".idle", idleGauge);
+		registry.unregister(getMetricsName() + ".waiters", waitersGauge);
 		super.close();
 	}
 	
@@ -31,6 +31,9 @@ import com.meidusa.amoeba.config.BeanObjectEntityConfig;
 import com.meidusa.amoeba.config.ConfigurationException;
 import com.meidusa.amoeba.context.ContextChangedListener;
 import com.meidusa.amoeba.context.ProxyRuntimeContext;
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.Gauge;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
 import com.meidusa.amoeba.net.Connection;
 import com.meidusa.amoeba.net.poolable.ObjectPool;
 import com.meidusa.amoeba.parser.ParseException;
@@ -51,6 +54,16 @@ import com.meidusa.amoeba.util.Tuple;
  */
 public abstract class  AbstractQueryRouter<T extends Connection,V> implements QueryRouter<T,V>, Initialisable ,ContextChangedListener {
 	public static final String _CURRENT_QUERY_OBJECT_ = "_CURRENT_QUERY_OBJECT_";
+	
+	/**
+	 * the first {@link TableRule} matched by the last {@link #doRoute(Connection, Object)} of the current thread, absent if none matched
+	 */
+	public static final String _CURRENT_TABLE_RULE_ = "_CURRENT_TABLE_RULE_";
+	
+	/**
+	 * nanoseconds (Long) spent by the last {@link #doRoute(Connection, Object)} of the current thread
+	 */
+	public static final String _CURRENT_ROUTE_NANOS_ = "_CURRENT_ROUTE_NANOS_";
 	protected static Logger logger = Logger.getLogger(AbstractQueryRouter.class);
 	private Map<String,Pattern> patternMap = new HashMap<String,Pattern>();
 	
@@ -58,6 +71,10 @@ public abstract class  AbstractQueryRouter<T extends Connection,V> implements Qu
     private int                                     LRUMapSize      = 1000;
     protected LRUMap                                  map;
     protected Lock                                    mapLock         = new ReentrantLock(false);
+    
+    /* parsed statement cache hits and misses, registered as statementCache.router.* */
+    protected final Counter                           statementCacheHits   = new Counter();
+    protected final Counter                           statementCacheMisses = new Counter();
 
     private Map<Table, TableRule>                   tableRuleMap    = new HashMap<Table, TableRule>();
     private Map<Table, TableRule>                   regexTableRuleMap    = new HashMap<Table, TableRule>();
@@ -104,14 +121,20 @@ public abstract class  AbstractQueryRouter<T extends Connection,V> implements Qu
     }
 
     public ObjectPool[] doRoute(T connection,V queryObject) throws ParseException {
-        if (queryObject == null) {
-            return defaultPools;
-        }
-        if (needParse) {
-            return selectPool(connection, queryObject);
-        } else {
-            return defaultPools;
-        }
+    	long start = System.nanoTime();
+    	ThreadLocalMap.remove(_CURRENT_TABLE_RULE_);
+    	try{
+	        if (queryObject == null) {
+	            return defaultPools;
+	        }
+	        if (needParse) {
+	            return selectPool(connection, queryObject);
+	        } else {
+	            return defaultPools;
+	        }
+    	}finally{
+    		ThreadLocalMap.put(_CURRENT_ROUTE_NANOS_, System.nanoTime() - start);
+    	}
     }
 
     protected abstract  Map<Table, Map<Column, Comparative>> evaluateTable(T connection,V queryObject);
@@ -146,43 +169,15 @@ public abstract class  AbstractQueryRouter<T extends Connection,V> implements Qu
                 Table table = entry.getKey();
                 
                 if(tableRule == null && table.getName() != null){
-                	
-                	/**
-                	 * foreach regex table rule
-                	 */
-                	for(Map.Entry<Table, TableRule> ruleEntry:this.regexTableRuleMap.entrySet()){
-                		Table ruleTable = ruleEntry.getKey();
-                		boolean tableMatched = false;
-                		boolean schemaMatched = false;
-            			
-                		/**
-                		 * check table name matched or not.
-                		 */
-                		Pattern pattern = this.getPattern(ruleTable.getName());
-            			java.util.regex.Matcher matcher = pattern.matcher(table.getName());
-            			if(matcher.find()){
-            				tableMatched = true;
-            			}
-            			
-            			/**
-                		 * check table schema matched or not.
-                		 */
-            			pattern = this.getPattern(ruleTable.getSchema().getName());
-            			matcher = pattern.matcher(table.getSchema().getName());
-            			if(matcher.find()){
-            				schemaMatched = true;
-            			}
-                		
-                		if(tableMatched && schemaMatched){
-                			tableRule = ruleEntry.getValue();
-                			regexMatched = true;
-                			break;
-                		}
-                	}
+                	tableRule = matchRegexTableRule(table);
+                	regexMatched = (tableRule != null);
                 }
                 
                 // table Rule ҪǷRule
                 if (tableRule != null) {
+                	if(!ThreadLocalMap.containsKey(_CURRENT_TABLE_RULE_)){
+                		ThreadLocalMap.put(_CURRENT_TABLE_RULE_, tableRule);
+                	}
                     // ûеsql䣬ʹĬϵtableRule
                     if (columnMap == null || isPrepared) {
                         String[] pools = (isRead ? tableRule.readPools : tableRule.writePools);
@@ -390,6 +385,51 @@ public abstract class  AbstractQueryRouter<T extends Connection,V> implements Qu
         return poolNames;
     }
     
+    /**
+     * @return the rule of the table by name, else the first regex rule matching its name and schema, else null
+     */
+    public TableRule getTableRule(Table table){
+    	TableRule tableRule = this.tableRuleMap.get(table);
+    	if(tableRule == null && table.getName() != null){
+    		tableRule = matchRegexTableRule(table);
+    	}
+    	return tableRule;
+    }
+    
+    private TableRule matchRegexTableRule(Table table){
+    	/**
+    	 * foreach regex table rule
+    	 */
+    	for(Map.Entry<Table, TableRule> ruleEntry:this.regexTableRuleMap.entrySet()){
+    		Table ruleTable = ruleEntry.getKey();
+    		boolean tableMatched = false;
+    		boolean schemaMatched = false;
+    		
+    		/**
+    		 * check table name matched or not.
+    		 */
+    		Pattern pattern = this.getPattern(ruleTable.getName());
+    		java.util.regex.Matcher matcher = pattern.matcher(table.getName());
+    		if(matcher.find()){
+    			tableMatched = true;
+    		}
+    		
+    		/**
+    		 * check table schema matched or not.
+    		 */
+    		pattern = this.getPattern(ruleTable.getSchema().getName());
+    		matcher = pattern.matcher(table.getSchema().getName());
+    		if(matcher.find()){
+    			schemaMatched = true;
+    		}
+    		
+    		if(tableMatched && schemaMatched){
+    			return ruleEntry.getValue();
+    		}
+    	}
+    	return null;
+    }
+    
     public ObjectPool[] selectPool(T connection, V queryObject){
     	beforeSelectPool(connection,queryObject);
     	
@@ -486,6 +526,14 @@ public abstract class  AbstractQueryRouter<T extends Connection,V> implements Qu
         }
         
         map = new LRUMap(LRUMapSize);
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.register("statementCache.router.hits", statementCacheHits);
+        registry.register("statementCache.router.misses", statementCacheMisses);
+        registry.register("statementCache.router.size", new Gauge(){
+        	public long getValue() {
+        		return map.size();
+        	}
+        });
 
         class ConfigCheckTread extends Thread {
 
@@ -0,0 +1,410 @@
+package com.meidusa.amoeba.route;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.Gauge;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
+import com.meidusa.amoeba.parser.dbobject.Table;
+
+/**
+ * <pre>
+ * results of read only statements kept as their encoded response packets, keyed by schema, client charset, normalised sql and parameters.
+ * the packets are encoded in the charset of the client, set on the server connection before the statement.
+ * a statement is cached only if all its tables have a {@link TableRule#cacheTtl}, for the smallest of them,
+ * and if its result depends neither on the connection nor on the time, see {@link #isCacheable(Table[], String)}.
+ *
+ * each table has a version, incremented by the writes on the table when they start and when they end,
+ * and by the commit of a transaction that wrote it. the statements whose tables are not known (ddl, call, not parsed)
+ * increment the epoch of the whole cache instead.
+ * an entry keeps the versions of its tables and the epoch read before its statement was sent: it is stale as soon as one of them changed,
+ * a result read while a write was running is never stored.
+ * the entries are evicted in lru order over the maximum size in bytes.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class QueryResultCache {
+	private static QueryResultCache instance = new QueryResultCache();
+
+	/**
+	 * functions whose result depends on the connection, the time or that have side effects
+	 */
+	private static final Set<String> VOLATILE_FUNCTIONS = new HashSet<String>(Arrays.asList(new String[]{
+			"uuid", "uuid_short", "rand", "random_bytes", "now", "sysdate", "curdate", "curtime", "unix_timestamp",
+			"utc_date", "utc_time", "utc_timestamp", "connection_id", "last_insert_id", "row_count", "found_rows",
+			"get_lock", "release_lock", "release_all_locks", "is_free_lock", "is_used_lock", "sleep", "benchmark",
+			"database", "schema", "user", "session_user", "system_user", "load_file", "master_pos_wait", "nextval", "setval"}));
+
+	/**
+	 * keywords that are volatile without parentheses, or that lock or write from a select
+	 */
+	private static final Set<String> VOLATILE_KEYWORDS = new HashSet<String>(Arrays.asList(new String[]{
+			"current_date", "current_time", "current_timestamp", "localtime", "localtimestamp", "current_user",
+			"update", "lock", "share", "into"}));
+
+	/**
+	 * first keywords of the statements that change no data
+	 */
+	private static final Set<String> READ_KEYWORDS = new HashSet<String>(Arrays.asList(new String[]{
+			"select", "show", "set", "use", "desc", "describe", "explain", "help", "begin", "start", "commit", "rollback",
+			"savepoint", "release", "kill"}));
+
+	private final AtomicLong epoch = new AtomicLong();
+	private final ConcurrentMap<String, AtomicLong> tableVersions = new ConcurrentHashMap<String, AtomicLong>();
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private long maxSize = 32 * 1024 * 1024;
+	private long size;
+
+	private final Counter hits = MetricsRegistry.getInstance().counter("queryCache.hits");
+	private final Counter misses = MetricsRegistry.getInstance().counter("queryCache.misses");
+	private final Counter puts = MetricsRegistry.getInstance().counter("queryCache.puts");
+	private final Counter evictions = MetricsRegistry.getInstance().counter("queryCache.evictions");
+	private final Counter invalidations = MetricsRegistry.getInstance().counter("queryCache.invalidations");
+
+	public static QueryResultCache getInstance() {
+		return instance;
+	}
+
+	QueryResultCache(){
+		MetricsRegistry.getInstance().register("queryCache.size", new Gauge() {
+			public long getValue() {
+				synchronized (QueryResultCache.this) {
+					return size;
+				}
+			}
+		});
+		MetricsRegistry.getInstance().register("queryCache.entries", new Gauge() {
+			public long getValue() {
+				synchronized (QueryResultCache.this) {
+					return entries.size();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param maxSize bytes of the cached packets, <=0 disables the cache
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	public boolean isEnabled(){
+		return getMaxSize() > 0;
+	}
+
+	/**
+	 * a response over 1/16 of the cache is not cached
+	 */
+	public long getMaxEntrySize(){
+		return getMaxSize() / 16;
+	}
+
+	/**
+	 * @return the ttl in ms of the results of a statement on these tables, 0 if one of them has no rule or no cacheTtl
+	 */
+	public static long getTtl(AbstractQueryRouter<?, ?> router, Table[] tables){
+		if(tables == null || tables.length == 0){
+			return 0;
+		}
+		long ttl = Long.MAX_VALUE;
+		for(Table table : tables){
+			TableRule rule = (table.getSchema() == null ? null : router.getTableRule(table));
+			if(rule == null || rule.cacheTtl <= 0){
+				return 0;
+			}
+			ttl = Math.min(ttl, rule.cacheTtl * 1000L);
+		}
+		return ttl;
+	}
+
+	/**
+	 * @return true if the select reads at least one table, has no user or system variable, no volatile function,
+	 * and neither locks nor writes the rows it reads
+	 */
+	public static boolean isCacheable(Table[] tables, String sql){
+		if(tables == null || tables.length == 0 || sql == null){
+			return false;
+		}
+		int length = sql.length();
+		int i = 0;
+		while(i < length){
+			char c = sql.charAt(i);
+			if(c == '\'' || c == '"' || c == '`'){
+				i = skipQuoted(sql, i);
+			}else if(isCommentStart(sql, i)){
+				i = skipComment(sql, i);
+			}else if(c == '@'){
+				return false;
+			}else if(Character.isLetter(c) || c == '_'){
+				int start = i;
+				i = skipWord(sql, i);
+				String word = sql.substring(start, i).toLowerCase();
+				if(VOLATILE_KEYWORDS.contains(word)){
+					return false;
+				}
+				int next = i;
+				while(next < length && Character.isWhitespace(sql.charAt(next))){
+					next++;
+				}
+				if(next < length && sql.charAt(next) == '(' && VOLATILE_FUNCTIONS.contains(word)
+						&& (start == 0 || sql.charAt(start - 1) != '.')){
+					return false;
+				}
+			}else{
+				i++;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true unless the first keyword of the sql is one of a statement that changes no data
+	 */
+	public static boolean isWrite(String sql){
+		if(sql == null){
+			return false;
+		}
+		int length = sql.length();
+		int i = 0;
+		while(i < length){
+			char c = sql.charAt(i);
+			if(Character.isWhitespace(c) || c == '('){
+				i++;
+			}else if(isCommentStart(sql, i)){
+				i = skipComment(sql, i);
+			}else if(Character.isLetter(c)){
+				return !READ_KEYWORDS.contains(sql.substring(i, skipWord(sql, i)).toLowerCase());
+			}else{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int skipQuoted(String sql, int i){
+		char quote = sql.charAt(i++);
+		while(i < sql.length() && sql.charAt(i) != quote){
+			if(sql.charAt(i) == '\\'){
+				i++;
+			}
+			i++;
+		}
+		return i + 1;
+	}
+
+	private static boolean isCommentStart(String sql, int i){
+		char c = sql.charAt(i);
+		return (c == '/' && i + 1 < sql.length() && sql.charAt(i + 1) == '*') || c == '#'
+				|| (c == '-' && i + 2 < sql.length() && sql.charAt(i + 1) == '-' && Character.isWhitespace(sql.charAt(i + 2)));
+	}
+
+	private static int skipComment(String sql, int i){
+		if(sql.charAt(i) == '/'){
+			int end = sql.indexOf("*/", i + 2);
+			return (end < 0 ? sql.length() : end + 2);
+		}
+		int end = sql.indexOf('\n', i);
+		return (end < 0 ? sql.length() : end + 1);
+	}
+
+	private static int skipWord(String sql, int i){
+		while(i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')){
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * the white spaces out of the quotes are collapsed, the keywords keep their case
+	 * @param charset charset of the client connection, the encoding of the cached packets
+	 */
+	public static String newKey(String schema, String charset, String sql, Object[] parameters){
+		StringBuilder key = new StringBuilder(sql.length() + 48);
+		key.append(schema).append('\n');
+		key.append(charset == null ? null : charset.toLowerCase()).append('\n');
+		char quote = 0;
+		boolean space = false;
+		for(int i=0;i<sql.length();i++){
+			char c = sql.charAt(i);
+			if(quote != 0){
+				key.append(c);
+				if(c == '\\' && i + 1 < sql.length()){
+					key.append(sql.charAt(++i));
+				}else if(c == quote){
+					quote = 0;
+				}
+				continue;
+			}
+			if(Character.isWhitespace(c)){
+				space = true;
+				continue;
+			}
+			if(space && key.charAt(key.length() - 1) != '\n'){
+				key.append(' ');
+			}
+			space = false;
+			if(c == '\'' || c == '"' || c == '`'){
+				quote = c;
+			}
+			key.append(c);
+		}
+		if(parameters != null){
+			for(Object parameter : parameters){
+				key.append('\n').append(parameter);
+			}
+		}
+		return key.toString();
+	}
+
+	private static String getTableName(Table table){
+		return table.getSql().toLowerCase();
+	}
+
+	private AtomicLong getVersion(String table){
+		AtomicLong version = tableVersions.get(table);
+		if(version == null){
+			version = new AtomicLong();
+			AtomicLong old = tableVersions.putIfAbsent(table, version);
+			if(old != null){
+				version = old;
+			}
+		}
+		return version;
+	}
+
+	/**
+	 * read the versions of the tables before the statement is sent, the epoch of the cache is the last one
+	 */
+	public long[] getVersions(Table[] tables){
+		long[] versions = new long[tables.length + 1];
+		versions[tables.length] = epoch.get();
+		for(int i=0;i<tables.length;i++){
+			versions[i] = getVersion(getTableName(tables[i])).get();
+		}
+		return versions;
+	}
+
+	/**
+	 * all the cached results are stale, called by the statements whose tables are not known when they start and when they end
+	 */
+	public void invalidateAll(){
+		epoch.incrementAndGet();
+		invalidations.increment();
+	}
+
+	/**
+	 * the cached results of the tables are stale, called by the writes when they start and when they end,
+	 * and by the commit of the transaction that wrote them
+	 */
+	public void invalidate(Table[] tables){
+		if(tables == null){
+			return;
+		}
+		for(Table table : tables){
+			getVersion(getTableName(table)).incrementAndGet();
+		}
+		invalidations.increment();
+	}
+
+	/**
+	 * @return the response packets, null if not cached, expired or stale
+	 */
+	public byte[][] get(String key){
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+		}
+		if(entry != null){
+			if(entry.expireTime > System.currentTimeMillis() && isCurrent(entry.tables, entry.versions)){
+				hits.increment();
+				return entry.packets;
+			}
+			synchronized (this) {
+				if(entries.get(key) == entry){
+					remove(key);
+				}
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * @param versions the versions of the tables read before the statement was sent, the result is dropped if they changed
+	 */
+	public void put(String key, byte[][] packets, Table[] tables, long[] versions, long ttl){
+		if(!isCurrent(tables, versions)){
+			return;
+		}
+		Entry entry = new Entry();
+		entry.packets = packets;
+		entry.tables = tables;
+		entry.versions = versions;
+		entry.expireTime = System.currentTimeMillis() + ttl;
+		for(byte[] packet : packets){
+			entry.size += packet.length;
+		}
+		synchronized (this) {
+			if(entry.size > maxSize){
+				return;
+			}
+			remove(key);
+			entries.put(key, entry);
+			size += entry.size;
+			puts.increment();
+			evict();
+		}
+	}
+
+	private boolean isCurrent(Table[] tables, long[] versions){
+		if(epoch.get() != versions[tables.length]){
+			return false;
+		}
+		for(int i=0;i<tables.length;i++){
+			if(getVersion(getTableName(tables[i])).get() != versions[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void remove(String key){
+		Entry entry = entries.remove(key);
+		if(entry != null){
+			size -= entry.size;
+		}
+	}
+
+	private void evict(){
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while(size > Math.max(maxSize, 0) && iterator.hasNext()){
+			size -= iterator.next().getValue().size;
+			iterator.remove();
+			evictions.increment();
+		}
+	}
+
+	static class Entry {
+		byte[][] packets;
+		Table[] tables;
+		long[] versions;
+		long expireTime;
+		long size;
+	}
+}
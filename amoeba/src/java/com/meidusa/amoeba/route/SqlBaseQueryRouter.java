@@ -123,8 +123,10 @@ public abstract class SqlBaseQueryRouter extends AbstractQueryRouter<DatabaseCon
             synchronized (sql) {
                 statment = (Statement) map.get(sqlKey);
                 if (statment != null) {
+                    statementCacheHits.increment();
                     return statment;
                 }
+                statementCacheMisses.increment();
 
                 Parser parser = newParser(amoebaRouterSql(sql));
                 parser.setFunctionMap(this.functionMap);
@@ -163,6 +165,8 @@ public abstract class SqlBaseQueryRouter extends AbstractQueryRouter<DatabaseCon
                 }
                
             }
+        } else {
+            statementCacheHits.increment();
         }
         return statment;
     }
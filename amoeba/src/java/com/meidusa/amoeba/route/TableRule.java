@@ -17,4 +17,9 @@ public class TableRule implements Serializable {
     public String[]           defaultPools;
     public String[]           readPools;
     public String[]           writePools;
+    
+    /**
+     * seconds the results of the read statements on this table are cached, see {@link QueryResultCache}. 0 not cached
+     */
+    public int                cacheTtl;
 }
@@ -348,6 +348,16 @@ public class TableRuleFileLoader implements TableRuleLoader,Initialisable {
         if (writePools != null) {
         	arrayWritePools = readTokenizedString(writePools, " ,");
         }
+        
+        String cacheTtl = current.getAttribute("cacheTtl");
+        int intCacheTtl = 0;
+        if (!StringUtil.isEmpty(cacheTtl)) {
+        	try {
+        		intCacheTtl = Integer.parseInt(cacheTtl.trim());
+        	} catch (NumberFormatException e) {
+        		throw new InitialisationException("tableRule name=" + name + " cacheTtl=" + cacheTtl + " is not a number", e);
+        	}
+        }
         for(String tableName : names){
         	TableRule tableRule = new TableRule();
 	        Table table = new Table();
@@ -376,6 +386,7 @@ public class TableRuleFileLoader implements TableRuleLoader,Initialisable {
 	        tableRule.defaultPools = arrayDefaultPools;
             tableRule.readPools = arrayReadPools;
             tableRule.writePools = arrayWritePools;
+            tableRule.cacheTtl = intCacheTtl;
 	        tableRule.table = table;
 	        list.add(tableRule);
         }
@@ -26,7 +26,11 @@ import com.meidusa.amoeba.config.BeanObjectEntityConfig;
 import com.meidusa.amoeba.config.ConfigUtil;
 import com.meidusa.amoeba.context.ProxyRuntimeContext;
 import com.meidusa.amoeba.log4j.DOMConfigurator;
+import com.meidusa.amoeba.metrics.Gauge;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
+import com.meidusa.amoeba.monitor.Command;
 import com.meidusa.amoeba.monitor.MonitorConstant;
+import com.meidusa.amoeba.monitor.MonitorStatus;
 import com.meidusa.amoeba.monitor.ShutdownClient;
 import com.meidusa.amoeba.monitor.packet.MonitorCommandPacket;
 import com.meidusa.amoeba.net.ConnectionManager;
@@ -99,6 +103,29 @@ public class AmoebaProxyServer {
 		return report.toString();
 	}
 
+	/**
+	 * server wide gauges, the MBean of the {@link MetricsRegistry}
+	 */
+	protected static void registerMetrics() {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		registry.register("server.uptime", new Gauge(){
+			public long getValue() {
+				return System.currentTimeMillis() - serverStartTime;
+			}
+		});
+		registry.register("jvm.memory.used", new Gauge(){
+			public long getValue() {
+				return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+			}
+		});
+		registry.register("jvm.memory.max", new Gauge(){
+			public long getValue() {
+				return Runtime.getRuntime().maxMemory();
+			}
+		});
+		registry.registerMBean();
+	}
+
 	protected static void logReport(String report) {
 		repoterLog.info(report);
 	}
@@ -116,12 +143,27 @@ public class AmoebaProxyServer {
 		if(args.length>=1){
 			ShutdownClient client = new ShutdownClient(MonitorConstant.APPLICATION_NAME);
 			MonitorCommandPacket packet = new MonitorCommandPacket();
+			Command command = Command.fromName(args[0]);
 			if("start".equalsIgnoreCase(args[0])){
 				packet.funType = MonitorCommandPacket.FUN_TYPE_PING;
 				if(client.run(packet)){
 					System.out.println("amoeba server is running with port="+client.getPort());
 					System.exit(-1);
 				}
+			}else if(command != null && command.getFunType() >= MonitorConstant.FUN_TYPE_QUERY_LATENCY){
+				packet.funType = command.getFunType();
+				if(args.length >1){
+					packet.objects = new Object[]{Integer.valueOf(args[1])};
+				}
+				MonitorCommandPacket response = client.request(packet);
+				if(response != null){
+					StringBuilder buffer = new StringBuilder();
+					MonitorStatus.appendRows(buffer, response.objects);
+					System.out.print(buffer);
+				}else{
+					System.out.println("amoeba server not running with port="+client.getPort());
+				}
+				System.exit(0);
 			}else{
 				packet.funType = MonitorCommandPacket.FUN_TYPE_AMOEBA_SHUTDOWN;
 				if(client.run(packet)){
@@ -132,7 +174,7 @@ public class AmoebaProxyServer {
 				System.exit(0);
 			}
 		}else{
-			System.out.println("amoeba start|stop");
+			System.out.println("amoeba start|stop|latency|stats|pools|heartbeat|statement_cache|sessions [count]");
 			System.exit(0);
 		}
 		String log4jConf = System.getProperty("log4j.conf","${amoeba.home}/conf/log4j.xml");
@@ -165,6 +207,7 @@ public class AmoebaProxyServer {
 		for(ConnectionManager connMgr :ProxyRuntimeContext.getInstance().getConnectionManagerList().values()){
 			registerReporter(connMgr);
 		}
+		registerMetrics();
 		
 		Map<String,Object> context = new HashMap<String,Object>();
 		context.putAll(ProxyRuntimeContext.getInstance().getConnectionManagerList());
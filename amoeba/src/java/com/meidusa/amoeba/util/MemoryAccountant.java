@@ -0,0 +1,124 @@
+package com.meidusa.amoeba.util;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.Gauge;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
+
+/**
+ * <pre>
+ * accounts the bytes of the server packets buffered by the sessions until they are merged.
+ * a session reserves the bytes of each packet it keeps, the reservation fails when the session is over its limit
+ * or all the sessions together are over the global limit: the packet is then spilled, see {@link SpillBufferList}.
+ * a limit &lt;= 0 is unlimited.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class MemoryAccountant {
+	private static MemoryAccountant instance = new MemoryAccountant();
+
+	private volatile long sessionLimit = 32 * 1024 * 1024;
+	private volatile long globalLimit = Runtime.getRuntime().maxMemory() / 4;
+	private volatile File spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+	private final AtomicLong used = new AtomicLong();
+
+	private final Counter refused = MetricsRegistry.getInstance().counter("memory.refused");
+
+	public static MemoryAccountant getInstance() {
+		return instance;
+	}
+
+	MemoryAccountant(){
+		MetricsRegistry.getInstance().register("memory.buffered", new Gauge() {
+			public long getValue() {
+				return used.get();
+			}
+		});
+	}
+
+	/**
+	 * @param sessionLimit bytes one session may keep, <=0 unlimited
+	 * @param globalLimit bytes all the sessions may keep, <=0 unlimited
+	 * @param spillDirectory directory of the spill files, null for java.io.tmpdir
+	 */
+	public void configure(long sessionLimit, long globalLimit, String spillDirectory){
+		this.sessionLimit = sessionLimit;
+		this.globalLimit = globalLimit;
+		this.spillDirectory = new File(spillDirectory != null ? spillDirectory : System.getProperty("java.io.tmpdir"));
+	}
+
+	public long getSessionLimit() {
+		return sessionLimit;
+	}
+
+	public long getGlobalLimit() {
+		return globalLimit;
+	}
+
+	public File getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	public long getUsed(){
+		return used.get();
+	}
+
+	public Session newSession(){
+		return new Session();
+	}
+
+	private boolean reserveGlobal(long bytes){
+		long limit = globalLimit;
+		if(limit <= 0){
+			used.addAndGet(bytes);
+			return true;
+		}
+		while(true){
+			long current = used.get();
+			if(current + bytes > limit){
+				return false;
+			}
+			if(used.compareAndSet(current, current + bytes)){
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * the bytes kept by one session, the server responses of a session may be accounted from several threads
+	 */
+	public class Session {
+		private long used;
+
+		/**
+		 * @return false if the bytes are over the session or the global limit, nothing is reserved then
+		 */
+		public synchronized boolean reserve(long bytes){
+			long limit = sessionLimit;
+			if((limit > 0 && used + bytes > limit) || !reserveGlobal(bytes)){
+				refused.increment();
+				return false;
+			}
+			used += bytes;
+			return true;
+		}
+
+		public synchronized void release(long bytes){
+			bytes = Math.min(bytes, used);
+			used -= bytes;
+			MemoryAccountant.this.used.addAndGet(-bytes);
+		}
+
+		public synchronized void releaseAll(){
+			release(used);
+		}
+
+		public synchronized long getUsed(){
+			return used;
+		}
+	}
+}
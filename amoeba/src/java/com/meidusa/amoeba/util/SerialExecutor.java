@@ -0,0 +1,124 @@
+package com.meidusa.amoeba.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <pre>
+ * a serial lane over a shared executor: the tasks are queued in a mailbox drained by at most one thread at a time, in order.
+ * the state touched only by the tasks of one lane needs no lock, and the tasks of a busy lane never occupy more than one pool thread.
+ * a drain runs at most {@link #MAX_BATCH} tasks then reschedules itself so that the other lanes get the thread.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class SerialExecutor implements Executor {
+	private static Logger logger = Logger.getLogger(SerialExecutor.class);
+	public static final int MAX_BATCH = 64;
+
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private volatile Executor executor;
+	private volatile Thread runner;
+
+	private final Runnable drainer = new Runnable(){
+		public void run() {
+			drain();
+		}
+	};
+
+	public SerialExecutor(Executor executor){
+		this.executor = executor;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * the lane keeps its order when the executor is changed, the next drain runs on the new one
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public void execute(Runnable task) {
+		tasks.offer(task);
+		schedule();
+	}
+
+	/**
+	 * @return true if the current thread is draining this lane
+	 */
+	public boolean isCurrentThread(){
+		return runner == Thread.currentThread();
+	}
+
+	private void schedule(){
+		if(scheduled.compareAndSet(false, true)){
+			try{
+				executor.execute(drainer);
+			}catch(RejectedExecutionException e){
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+
+	private void drain(){
+		runner = Thread.currentThread();
+		try{
+			Runnable task = null;
+			for(int i=0;i<MAX_BATCH && (task = tasks.poll()) != null;i++){
+				try{
+					task.run();
+				}catch(Throwable e){
+					logger.error("serial task error:"+task, e);
+				}
+			}
+		}finally{
+			runner = null;
+			scheduled.set(false);
+			if(!tasks.isEmpty()){
+				schedule();
+			}
+		}
+	}
+
+	/**
+	 * <pre>
+	 * a task queued on the lane once however many times it is signaled before it starts,
+	 * for the "messages arrived" notifications: the task drains whatever arrived before it runs.
+	 * </pre>
+	 */
+	public static class Signal implements Runnable {
+		private final SerialExecutor lane;
+		private final Runnable task;
+		private final AtomicBoolean pending = new AtomicBoolean();
+
+		public Signal(SerialExecutor lane, Runnable task){
+			this.lane = lane;
+			this.task = task;
+		}
+
+		public void signal(){
+			if(pending.compareAndSet(false, true)){
+				lane.execute(this);
+			}
+		}
+
+		public void run() {
+			pending.set(false);
+			task.run();
+		}
+
+		public String toString(){
+			return task.toString();
+		}
+	}
+}
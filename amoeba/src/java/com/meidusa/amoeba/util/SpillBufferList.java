@@ -0,0 +1,171 @@
+package com.meidusa.amoeba.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.meidusa.amoeba.metrics.Counter;
+import com.meidusa.amoeba.metrics.MetricsRegistry;
+
+/**
+ * <pre>
+ * a list of packets kept on the heap while the {@link MemoryAccountant.Session} accepts them.
+ * once a packet is refused, it and all the next ones are appended to a temp file mapped by segments
+ * and copied back each time they are read: a spilled packet changed after {@link #get(int)} is not changed in the list.
+ * {@link #clear()} releases the reserved bytes, unmaps and deletes the file.
+ * not thread safe, the list belongs to the thread handling the session.
+ * </pre>
+ *
+ * @author struct
+ *
+ */
+public class SpillBufferList extends AbstractList<byte[]> {
+	private static Logger logger = Logger.getLogger(SpillBufferList.class);
+	public static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+
+	private static final Counter spilledBytes = MetricsRegistry.getInstance().counter("memory.spill.bytes");
+	private static final Counter spillFiles = MetricsRegistry.getInstance().counter("memory.spill.files");
+
+	private final MemoryAccountant.Session session;
+	private final List<byte[]> heap = new ArrayList<byte[]>();
+	private long reserved;
+
+	private File file;
+	private RandomAccessFile randomFile;
+	private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+	private long fileLength;
+
+	/**
+	 * segment, position and length of each spilled packet
+	 */
+	private int[] spilledSegment = new int[0];
+	private int[] spilledPosition = new int[0];
+	private int[] spilledLength = new int[0];
+	private int spilled;
+
+	public SpillBufferList(MemoryAccountant.Session session){
+		this.session = session;
+	}
+
+	public boolean add(byte[] buffer) {
+		if(file == null){
+			if(session.reserve(buffer.length)){
+				reserved += buffer.length;
+				heap.add(buffer);
+				modCount++;
+				return true;
+			}
+			try {
+				spill(buffer);
+			} catch (IOException e) {
+				logger.error("spill to " + MemoryAccountant.getInstance().getSpillDirectory() + " error, the packet is kept on the heap", e);
+				closeFile();
+				heap.add(buffer);
+			}
+		}else{
+			try {
+				spill(buffer);
+			} catch (IOException e) {
+				//the order of the spilled packets can not be kept
+				throw new IllegalStateException("spill to " + file + " error", e);
+			}
+		}
+		modCount++;
+		return true;
+	}
+
+	public byte[] get(int index) {
+		if(index < heap.size()){
+			return heap.get(index);
+		}
+		int spilledIndex = index - heap.size();
+		if(spilledIndex >= spilled){
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		ByteBuffer segment = segments.get(spilledSegment[spilledIndex]).duplicate();
+		segment.position(spilledPosition[spilledIndex]);
+		byte[] buffer = new byte[spilledLength[spilledIndex]];
+		segment.get(buffer);
+		return buffer;
+	}
+
+	public int size() {
+		return heap.size() + spilled;
+	}
+
+	public boolean isSpilled(){
+		return spilled > 0;
+	}
+
+	public void clear() {
+		heap.clear();
+		session.release(reserved);
+		reserved = 0;
+		closeFile();
+		modCount++;
+	}
+
+	private void spill(byte[] buffer) throws IOException {
+		if(file == null){
+			file = File.createTempFile("amoeba-spill-", ".tmp", MemoryAccountant.getInstance().getSpillDirectory());
+			randomFile = new RandomAccessFile(file, "rw");
+			spillFiles.increment();
+		}
+		MappedByteBuffer segment = segments.size() == 0 ? null : segments.get(segments.size() - 1);
+		if(segment == null || segment.remaining() < buffer.length){
+			int size = Math.max(SEGMENT_SIZE, buffer.length);
+			segment = randomFile.getChannel().map(FileChannel.MapMode.READ_WRITE, fileLength, size);
+			fileLength += size;
+			segments.add(segment);
+		}
+		if(spilled == spilledLength.length){
+			int capacity = Math.max(1024, spilled * 2);
+			spilledSegment = copyOf(spilledSegment, capacity);
+			spilledPosition = copyOf(spilledPosition, capacity);
+			spilledLength = copyOf(spilledLength, capacity);
+		}
+		spilledSegment[spilled] = segments.size() - 1;
+		spilledPosition[spilled] = segment.position();
+		spilledLength[spilled] = buffer.length;
+		segment.put(buffer);
+		spilled++;
+		spilledBytes.add(buffer.length);
+	}
+
+	private static int[] copyOf(int[] array, int length){
+		int[] result = new int[length];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private void closeFile(){
+		for(MappedByteBuffer segment : segments){
+			MappedByteBufferUtil.unmap(segment);
+		}
+		segments.clear();
+		spilled = 0;
+		fileLength = 0;
+		if(randomFile != null){
+			try {
+				randomFile.close();
+			} catch (IOException e) {
+				logger.warn("close spill file error:" + file, e);
+			}
+			randomFile = null;
+		}
+		if(file != null){
+			if(!file.delete()){
+				logger.warn("delete spill file error:" + file);
+			}
+			file = null;
+		}
+	}
+}
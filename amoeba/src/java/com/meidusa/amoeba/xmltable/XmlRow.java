@@ -28,6 +28,10 @@ public class XmlRow {
 			XmlColumn column = columMap.get(condition.name); 
 			if(column == null) return false;
 			return StringUtil.equalsIgnoreCase(column.getValue(), condition.value);
+		}else if(condition.type == Condition.TYPE.nameMatch){
+			XmlColumn column = columMap.get(condition.name); 
+			if(column == null || column.getValue() == null || condition.value == null) return false;
+			return column.getValue().toLowerCase().startsWith(condition.value.toLowerCase());
 		}else{
 			return false;
 		}
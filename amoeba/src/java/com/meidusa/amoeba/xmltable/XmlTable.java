@@ -1,7 +1,12 @@
 package com.meidusa.amoeba.xmltable;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 public class XmlTable {
 	private String name;
@@ -9,6 +14,23 @@ public class XmlTable {
 	private List<String> columns = new ArrayList<String>();
 	private List<XmlRow> rows = new ArrayList<XmlRow>();
 
+	/**
+	 * built by {@link #buildIndex()}, a query scans all rows while it is null
+	 */
+	private volatile Index index;
+
+	private static class Index{
+		/**
+		 * column name -> rows having the column
+		 */
+		Map<String,List<XmlRow>> exist = new HashMap<String,List<XmlRow>>();
+
+		/**
+		 * column name -> lower case value -> rows
+		 */
+		Map<String,TreeMap<String,List<XmlRow>>> values = new HashMap<String,TreeMap<String,List<XmlRow>>>();
+	}
+
 	public List<String> getColumns() {
 		return columns;
 	}
@@ -20,33 +42,117 @@ public class XmlTable {
 	}
 	public void setRows(List<XmlRow> rows) {
 		this.rows = rows;
+		this.index = null;
 	}
-	
+
 	public String getName() {
 		return name;
 	}
 	public void setName(String name) {
 		this.name = name;
 	}
-	
+
 	public String getSchema() {
 		return schema;
 	}
-	
+
 	public void setSchema(String schema) {
 		this.schema = schema;
 	}
-	
+
+	/**
+	 * index the values of every column, called once the rows are loaded.
+	 * rows added afterwards are not visible to {@link #query(Condition)} until it is called again
+	 */
+	public void buildIndex(){
+		Index index = new Index();
+		for(XmlRow row : rows){
+			for(Map.Entry<String, XmlColumn> entry : row.getColumMap().entrySet()){
+				List<XmlRow> existRows = index.exist.get(entry.getKey());
+				if(existRows == null){
+					existRows = new ArrayList<XmlRow>();
+					index.exist.put(entry.getKey(), existRows);
+				}
+				existRows.add(row);
+
+				String value = entry.getValue().getValue();
+				if(value == null){
+					continue;
+				}
+				TreeMap<String,List<XmlRow>> valueMap = index.values.get(entry.getKey());
+				if(valueMap == null){
+					valueMap = new TreeMap<String,List<XmlRow>>();
+					index.values.put(entry.getKey(), valueMap);
+				}
+				String key = value.toLowerCase();
+				List<XmlRow> valueRows = valueMap.get(key);
+				if(valueRows == null){
+					valueRows = new ArrayList<XmlRow>(1);
+					valueMap.put(key, valueRows);
+				}
+				valueRows.add(row);
+			}
+		}
+		this.index = index;
+	}
+
+	/**
+	 * @return a read only view of this table holding the matched rows
+	 */
 	public XmlTable query(Condition condition){
 		XmlTable table = new XmlTable();
-		for(String column:columns){
-			table.columns.add(column);
+		table.name = name;
+		table.schema = schema;
+		table.columns = Collections.unmodifiableList(columns);
+		table.rows = Collections.unmodifiableList(queryRows(condition));
+		return table;
+	}
+
+	private List<XmlRow> queryRows(Condition condition){
+		Index index = this.index;
+		if(condition == null){
+			return rows;
 		}
-		for(XmlRow row : rows){
-			if(row.isMatch(condition)){
-				table.rows.add(row);
+
+		if(index == null){
+			List<XmlRow> result = new ArrayList<XmlRow>();
+			for(XmlRow row : rows){
+				if(row.isMatch(condition)){
+					result.add(row);
+				}
 			}
+			return result;
 		}
-		return table;
+
+		if(condition.type == Condition.TYPE.exist){
+			return nullToEmpty(index.exist.get(condition.name));
+		}
+
+		TreeMap<String,List<XmlRow>> valueMap = index.values.get(condition.name);
+		if(valueMap == null || condition.value == null){
+			return Collections.emptyList();
+		}
+		String value = condition.value.toLowerCase();
+		if(condition.type == Condition.TYPE.match){
+			return nullToEmpty(valueMap.get(value));
+		}else if(condition.type == Condition.TYPE.nameMatch){
+			SortedMap<String,List<XmlRow>> prefixMap = valueMap.subMap(value, value + Character.MAX_VALUE);
+			if(prefixMap.size() == 1){
+				return prefixMap.values().iterator().next();
+			}
+			List<XmlRow> result = new ArrayList<XmlRow>();
+			for(List<XmlRow> valueRows : prefixMap.values()){
+				result.addAll(valueRows);
+			}
+			return result;
+		}
+		return Collections.emptyList();
+	}
+
+	private static List<XmlRow> nullToEmpty(List<XmlRow> list){
+		if(list == null){
+			return Collections.emptyList();
+		}
+		return list;
 	}
 }
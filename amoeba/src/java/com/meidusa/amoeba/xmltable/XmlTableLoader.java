@@ -166,6 +166,7 @@ public class XmlTableLoader {
 	            }
 	        }
 		}
+		table.buildIndex();
 		return table;
 	}
 	